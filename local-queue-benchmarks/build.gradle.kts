@@ -0,0 +1,53 @@
+/*
+ * JMH benchmarks for the local queue. Not published.
+ *
+ * ./gradlew :local-queue-benchmarks:jmh
+ *
+ * Results are written as JSON to build/results/jmh/results.json, to compare runs.
+ *
+ * The soak harness, which runs the queue under load for as long as you like:
+ *
+ * ./gradlew :local-queue-benchmarks:run --args="durationSeconds=3600 ratePerSecond=500"
+ */
+
+plugins {
+    id("buildlogic.java-common-conventions")
+    alias(libs.plugins.jmh)
+    application
+}
+
+dependencies {
+    implementation(project(":local-queue"))
+    implementation(libs.dropwizard4.core)
+    implementation(libs.hsqldb)
+    implementation(libs.c3p0)
+    implementation(libs.jdbi.core)
+    implementation(libs.jdbi.sqlobject)
+    implementation(libs.codehead.metrics)
+    implementation(libs.codehead.metrics.micrometer)
+    implementation(libs.javax.inject)
+    implementation(libs.dagger)
+    annotationProcessor(libs.dagger.compiler)
+    runtimeOnly(libs.bundles.logback)
+
+    jmhImplementation(project(":local-queue"))
+    jmhImplementation(libs.hsqldb)
+    jmhImplementation(libs.c3p0)
+    jmhImplementation(libs.jdbi.core)
+    jmhImplementation(libs.jdbi.sqlobject)
+    jmhImplementation(libs.codehead.metrics)
+    jmhImplementation(libs.codehead.metrics.micrometer)
+}
+
+application {
+    mainClass = "com.codeheadsystems.queue.soak.SoakRunner"
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    fork = 1
+    warmupIterations = 2
+    iterations = 5
+    profilers = listOf("gc") // allocation per operation, as gc.alloc.rate.norm.
+    resultFormat = "JSON"
+}
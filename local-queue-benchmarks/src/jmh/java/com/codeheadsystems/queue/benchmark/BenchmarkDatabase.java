@@ -0,0 +1,128 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.metrics.MetricFactory;
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.MessageDao;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import com.codeheadsystems.queue.manager.StateCounters;
+import com.codeheadsystems.queue.util.LiquibaseHelper;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.Optional;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+
+/**
+ * An HSQLDB database with the queue schema, wired the same way the integ test does it.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+  private final ComboPooledDataSource dataSource;
+  private final Jdbi jdbi;
+  private final MessageDao messageDao;
+  private final MessageTypeDictionary messageTypeDictionary;
+  private final Metrics metrics;
+  private final Clock clock;
+
+  /**
+   * In memory database.
+   */
+  public BenchmarkDatabase() {
+    this("jdbc:hsqldb:mem:benchmark:" + UUID.randomUUID());
+  }
+
+  /**
+   * Database at the url.
+   *
+   * @param url the jdbc url
+   */
+  public BenchmarkDatabase(final String url) {
+    dataSource = new ComboPooledDataSource();
+    dataSource.setJdbcUrl(url);
+    dataSource.setUser("SA");
+    dataSource.setPassword("");
+    dataSource.setMinPoolSize(0);
+    dataSource.setAcquireIncrement(10);
+    dataSource.setMaxPoolSize(40);
+    dataSource.setMaxIdleTime(300);
+    dataSource.setMaxStatementsPerConnection(32); // the dispatch loop's fixed queries stay prepared.
+    new LiquibaseHelper().runLiquibase(dataSource, "liquibase/queue.xml");
+    jdbi = Jdbi.create(dataSource).installPlugin(new SqlObjectPlugin());
+    messageDao = MessageDao.instance(jdbi);
+    messageTypeDictionary = new MessageTypeDictionary(messageDao);
+    metrics = MetricFactory.builder().build();
+    clock = Clock.systemUTC();
+  }
+
+  /**
+   * Data source.
+   *
+   * @return the data source
+   */
+  public DataSource dataSource() {
+    return dataSource;
+  }
+
+  /**
+   * Jdbi.
+   *
+   * @return the jdbi
+   */
+  public Jdbi jdbi() {
+    return jdbi;
+  }
+
+  /**
+   * Message dao.
+   *
+   * @return the message dao
+   */
+  public MessageDao messageDao() {
+    return messageDao;
+  }
+
+  /**
+   * Message type dictionary.
+   *
+   * @return the message type dictionary
+   */
+  public MessageTypeDictionary messageTypeDictionary() {
+    return messageTypeDictionary;
+  }
+
+  /**
+   * Metrics.
+   *
+   * @return the metrics
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Message manager for the configuration.
+   *
+   * @param configuration the configuration
+   * @return the message manager
+   */
+  public MessageManager messageManager(final QueueConfiguration configuration) {
+    return new MessageManager(messageDao, new MessageFactory(clock, messageTypeDictionary),
+        new StateCounters(configuration.queueName(), new SimpleMeterRegistry()),
+        new MessageTypeTimers(configuration.queueName(), new SimpleMeterRegistry()),
+        new QueueConfigurationFactory(Optional.of(configuration)), metrics, clock);
+  }
+
+  @Override
+  public void close() {
+    jdbi.useHandle(handle -> handle.execute("shutdown"));
+    dataSource.close();
+  }
+}
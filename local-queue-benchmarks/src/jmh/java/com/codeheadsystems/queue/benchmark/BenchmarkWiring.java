@@ -0,0 +1,74 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.metrics.MetricFactory;
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.MessageDao;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.impl.CompletionRegistry;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.impl.QueueRegister;
+import com.codeheadsystems.queue.impl.VisibilityReaper;
+import com.codeheadsystems.queue.manager.LifecycleTimers;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import com.codeheadsystems.queue.manager.StateCounters;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Wires queue pieces by hand for the benchmarks that do not need a database, or need more than
+ * the message manager.
+ */
+public final class BenchmarkWiring {
+
+  private BenchmarkWiring() {
+  }
+
+  /**
+   * Message manager over any message dao.
+   *
+   * @param messageDao    the message dao
+   * @param configuration the configuration
+   * @return the message manager
+   */
+  public static MessageManager messageManager(final MessageDao messageDao, final QueueConfiguration configuration) {
+    final Clock clock = Clock.systemUTC();
+    return new MessageManager(messageDao, new MessageFactory(clock, new MessageTypeDictionary(messageDao)),
+        new StateCounters(configuration.queueName(), new SimpleMeterRegistry()),
+        new MessageTypeTimers(configuration.queueName(), new SimpleMeterRegistry()),
+        new QueueConfigurationFactory(Optional.of(configuration)),
+        MetricFactory.builder().build(), clock);
+  }
+
+  /**
+   * Executor running the consumers, with the completion registry it completes.
+   *
+   * @param messageManager        the message manager
+   * @param messageTypeDictionary the message type dictionary over the message manager's dao
+   * @param configuration         the configuration
+   * @param completionRegistry    the completion registry
+   * @param consumers             the consumers by message type
+   * @return the executor, not yet started
+   */
+  public static MessageConsumerExecutor executor(final MessageManager messageManager,
+                                                 final MessageTypeDictionary messageTypeDictionary,
+                                                 final QueueConfiguration configuration,
+                                                 final CompletionRegistry completionRegistry,
+                                                 final Map<String, MessageConsumer> consumers) {
+    final QueueConfigurationFactory configurationFactory = new QueueConfigurationFactory(Optional.of(configuration));
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final Metrics metrics = MetricFactory.builder().build();
+    final Clock clock = Clock.systemUTC();
+    return new MessageConsumerExecutor(configurationFactory, messageManager,
+        new QueueRegister(consumers, messageTypeDictionary), completionRegistry,
+        new VisibilityReaper(messageManager, configurationFactory, clock, metrics),
+        new LifecycleTimers(configuration.queueName(), meterRegistry, clock),
+        new MessageTypeTimers(configuration.queueName(), meterRegistry));
+  }
+}
@@ -0,0 +1,117 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checking and clearing 10k messages, one statement per message against the bulk calls. The
+ * messages are looked up through a second message manager so none of the states are answered
+ * from the cache of the one that enqueued them. Each iteration starts with a full queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class BulkBenchmark {
+
+  private static final String TYPE = "benchmark";
+  private static final int MESSAGES = 10_000;
+
+  private BenchmarkDatabase database;
+  private MessageManager writer;
+  private MessageManager reader;
+  private List<Message> messages;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    database = new BenchmarkDatabase();
+    final QueueConfiguration configuration = ImmutableQueueConfiguration.builder().build();
+    writer = database.messageManager(configuration);
+    reader = database.messageManager(configuration);
+  }
+
+  /**
+   * Fill the queue.
+   */
+  @Setup(Level.Iteration)
+  public void fill() {
+    writer.clearAll();
+    messages = new ArrayList<>(MESSAGES);
+    for (int i = 0; i < MESSAGES; i++) {
+      writer.saveMessage(TYPE, "payload-" + i).ifPresent(messages::add);
+    }
+  }
+
+  /**
+   * Tear down.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    database.close();
+  }
+
+  /**
+   * Get state, one message at a time.
+   *
+   * @return the number found
+   */
+  @Benchmark
+  public int getStateEach() {
+    int found = 0;
+    for (Message message : messages) {
+      if (reader.getState(message).isPresent()) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Get states in bulk.
+   *
+   * @return the states
+   */
+  @Benchmark
+  public Map<Long, com.codeheadsystems.queue.State> getStates() {
+    return reader.getStates(messages);
+  }
+
+  /**
+   * Clear, one message at a time.
+   */
+  @Benchmark
+  public void clearEach() {
+    messages.forEach(reader::clear);
+  }
+
+  /**
+   * Clear in bulk.
+   *
+   * @return the number cleared
+   */
+  @Benchmark
+  public int clearBulk() {
+    return reader.clear(messages);
+  }
+}
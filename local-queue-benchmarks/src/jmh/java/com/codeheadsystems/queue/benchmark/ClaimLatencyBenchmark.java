@@ -0,0 +1,126 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.QueueConfiguration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Latency of the claim query against a large backlog, before and after schema v2. The v1 table is
+ * recreated here as it was: state stored by name with a (QUEUE_NAME, SHARD, STATE) index, so the
+ * claim has to sort every pending row. The v2 table is the real one from the changelog, claimed
+ * through the message dao so it runs the real claim read and row mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClaimLatencyBenchmark {
+
+  private static final int BATCH = 10_000;
+  private static final int CLAIM = 10;
+  private static final String V1_TABLE = "create table QUEUE_V1 (HASH bigint primary key, "
+      + "QUEUE_NAME varchar(64) not null, SHARD smallint not null, TIMESTAMP bigint not null, "
+      + "MESSAGE_TYPE varchar(256) not null, PAYLOAD varchar(4096) not null, STATE varchar(32) not null, "
+      + "EXPIRES_AT bigint)";
+  private static final String V1_INDEX = "create index QUEUE_V1_STATE_IDX on QUEUE_V1 (QUEUE_NAME, SHARD, STATE)";
+  private static final String V1_CLAIM_QUERY = "select * from QUEUE_V1 where QUEUE_NAME = :queueName "
+      + "and SHARD = 0 and STATE = :state and (EXPIRES_AT is null or EXPIRES_AT > :now) "
+      + "order by TIMESTAMP asc limit :limit";
+
+  @Param({"v1", "v2"})
+  public String schema;
+
+  @Param({"1000000"})
+  public int backlog;
+
+  private BenchmarkDatabase database;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    database = new BenchmarkDatabase();
+    final String table;
+    final String typeColumn;
+    final Object type;
+    if (schema.equals("v1")) {
+      database.jdbi().useHandle(handle -> {
+        handle.execute(V1_TABLE);
+        handle.execute(V1_INDEX);
+      });
+      table = "QUEUE_V1";
+      typeColumn = "MESSAGE_TYPE";
+      type = "benchmark";
+    } else {
+      table = "QUEUE";
+      typeColumn = "MESSAGE_TYPE_ID";
+      type = database.messageTypeDictionary().idOf("benchmark");
+    }
+    load(table, typeColumn, type);
+  }
+
+  /**
+   * Tear down.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    database.close();
+  }
+
+  // Nine in ten are pending, the rest are being worked on, with timestamps in reverse so the
+  // oldest pending row is inserted last.
+  private void load(final String table, final String typeColumn, final Object type) {
+    for (int start = 0; start < backlog; start += BATCH) {
+      final int from = start;
+      database.jdbi().useHandle(handle -> {
+        final PreparedBatch batch = handle.prepareBatch("insert into " + table
+            + " (HASH, QUEUE_NAME, SHARD, TIMESTAMP, " + typeColumn + ", PAYLOAD, STATE) "
+            + "values (:hash, :queueName, 0, :timestamp, :type, :payload, :state)");
+        for (int i = from; i < Math.min(from + BATCH, backlog); i++) {
+          final com.codeheadsystems.queue.State state = i % 10 == 0
+              ? com.codeheadsystems.queue.State.PROCESSING
+              : com.codeheadsystems.queue.State.PENDING;
+          batch.bind("hash", (long) i)
+              .bind("queueName", QueueConfiguration.DEFAULT_QUEUE_NAME)
+              .bind("timestamp", (long) (backlog - i))
+              .bind("type", type)
+              .bind("payload", "payload-" + i)
+              .bind("state", schema.equals("v1") ? state.name() : (Object) (short) state.code())
+              .add();
+        }
+        batch.execute();
+      });
+    }
+  }
+
+  /**
+   * The claim read: the oldest pending messages in the shard.
+   *
+   * @return the messages, or the hashes on v1
+   */
+  @Benchmark
+  public List<?> claim() {
+    if (schema.equals("v2")) {
+      return database.messageDao().forStateUnexpired(QueueConfiguration.DEFAULT_QUEUE_NAME, 0,
+          com.codeheadsystems.queue.State.PENDING, System.currentTimeMillis(), CLAIM);
+    }
+    return database.jdbi().withHandle(handle -> handle.createQuery(V1_CLAIM_QUERY)
+        .bind("queueName", QueueConfiguration.DEFAULT_QUEUE_NAME)
+        .bind("state", com.codeheadsystems.queue.State.PENDING.name())
+        .bind("now", System.currentTimeMillis())
+        .bind("limit", CLAIM)
+        .map((rs, ctx) -> rs.getLong("HASH"))
+        .list());
+  }
+}
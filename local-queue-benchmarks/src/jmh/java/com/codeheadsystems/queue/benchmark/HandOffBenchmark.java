@@ -0,0 +1,92 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.InMemoryMessageDao;
+import com.codeheadsystems.queue.impl.CompletionRegistry;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Handing a claimed message to the executor and waiting for its consumer to finish, with and
+ * without an ordering key. The store is the in-memory one, so saving and claiming the message
+ * cost little next to the hand-off between threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandOffBenchmark {
+
+  private static final String TYPE = "benchmark";
+
+  @Param({"none", "orderingKey"})
+  public String ordering;
+
+  private final AtomicLong payloads = new AtomicLong();
+  private MessageManager messageManager;
+  private CompletionRegistry completionRegistry;
+  private MessageConsumerExecutor executor;
+  private EnqueueOptions options;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    final QueueConfiguration configuration = ImmutableQueueConfiguration.builder().build();
+    final InMemoryMessageDao messageDao = new InMemoryMessageDao();
+    messageManager = BenchmarkWiring.messageManager(messageDao, configuration);
+    completionRegistry = new CompletionRegistry();
+    final MessageConsumer consumer = message -> {
+    };
+    executor = BenchmarkWiring.executor(messageManager, new MessageTypeDictionary(messageDao), configuration,
+        completionRegistry, Map.of(TYPE, consumer));
+    options = ordering.equals("orderingKey")
+        ? ImmutableEnqueueOptions.builder().orderingKey("key").build()
+        : EnqueueOptions.none();
+  }
+
+  /**
+   * Tear down.
+   *
+   * @throws Exception if the executor does not stop
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.stop();
+  }
+
+  /**
+   * Hand one message to the executor and wait for it to finish.
+   *
+   * @return the message
+   */
+  @Benchmark
+  public Message handOff() {
+    final Message message = messageManager.saveMessage(TYPE, "payload-" + payloads.incrementAndGet(), options)
+        .orElseThrow();
+    messageManager.setActivating(message);
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+    executor.enqueue(message);
+    return completion.join();
+  }
+}
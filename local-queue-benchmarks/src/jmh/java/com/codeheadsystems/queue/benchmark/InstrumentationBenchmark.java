@@ -0,0 +1,117 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.metrics.MetricFactory;
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.manager.LifecycleTimers;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import com.codeheadsystems.queue.manager.StateCounters;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of the instrumentation on the hot paths. Run with the gc profiler, as the jmh task
+ * does, and read gc.alloc.rate.norm: the bytes allocated per operation. {@code capturing} is how
+ * the enqueue and execute timers used to work, building tags and a lambda on every call.
+ * {@code precomputed} is the timer resolved once per type. {@code perMessage} is all the
+ * instrumentation one message goes through from enqueue to completion, and should allocate
+ * nothing once warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InstrumentationBenchmark {
+
+  private static final String QUEUE = "benchmark";
+  private static final String TYPE = "benchmark";
+
+  private Metrics metrics;
+  private MessageTypeTimers messageTypeTimers;
+  private LifecycleTimers lifecycleTimers;
+  private StateCounters stateCounters;
+  private Message message;
+  private long work;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    metrics = MetricFactory.builder().build();
+    messageTypeTimers = new MessageTypeTimers(QUEUE, meterRegistry);
+    lifecycleTimers = new LifecycleTimers(QUEUE, meterRegistry, Clock.systemUTC());
+    stateCounters = new StateCounters(QUEUE, meterRegistry);
+    message = ImmutableMessage.builder()
+        .hash(1L)
+        .timestamp(System.currentTimeMillis())
+        .messageType(TYPE)
+        .messageTypeId(1)
+        .payload("payload")
+        .build();
+  }
+
+  private long work() {
+    return ++work;
+  }
+
+  /**
+   * Timed the old way, with tags and a lambda per call.
+   *
+   * @return the work done
+   */
+  @Benchmark
+  public long capturing() {
+    return metrics.time("InstrumentationBenchmark.capturing", Tags.of("messageType", TYPE), this::work);
+  }
+
+  /**
+   * Timed with the timer resolved once per type.
+   *
+   * @return the work done
+   */
+  @Benchmark
+  public long precomputed() {
+    final long start = System.nanoTime();
+    try {
+      return work();
+    } finally {
+      messageTypeTimers.enqueue(TYPE).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Everything one message records from enqueue to completion.
+   *
+   * @return the time it started
+   */
+  @Benchmark
+  public long perMessage() {
+    final long enqueueStart = System.nanoTime();
+    stateCounters.add(message, com.codeheadsystems.queue.State.PENDING, 1);
+    messageTypeTimers.saveMessage(TYPE).record(System.nanoTime() - enqueueStart, TimeUnit.NANOSECONDS);
+    messageTypeTimers.enqueue(TYPE).record(System.nanoTime() - enqueueStart, TimeUnit.NANOSECONDS);
+    final long dispatchStart = System.nanoTime();
+    stateCounters.move(message, com.codeheadsystems.queue.State.PENDING, com.codeheadsystems.queue.State.ACTIVATING);
+    final long activatedAt = lifecycleTimers.activated(message);
+    messageTypeTimers.dispatch(TYPE).record(System.nanoTime() - dispatchStart, TimeUnit.NANOSECONDS);
+    final long startedAt = lifecycleTimers.started(message, activatedAt);
+    stateCounters.move(message, com.codeheadsystems.queue.State.ACTIVATING, com.codeheadsystems.queue.State.PROCESSING);
+    messageTypeTimers.execute(TYPE).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    stateCounters.add(message, com.codeheadsystems.queue.State.PROCESSING, -1);
+    lifecycleTimers.finished(message, startedAt);
+    return startedAt;
+  }
+
+}
@@ -0,0 +1,115 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.dao.MessageDao;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The dao calls a message goes through once stored: the claim, the update to processing and the
+ * delete. Against HSQLDB in memory and in file mode, straight on the dao so neither the message
+ * manager nor its cache get in the way. The store is set up outside the measured calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageDaoBenchmark {
+
+  private static final String QUEUE = "benchmark";
+  private static final String TYPE = "benchmark";
+
+  @Param({"mem", "file"})
+  public String mode;
+
+  private final AtomicLong payloads = new AtomicLong();
+  private Path directory;
+  private BenchmarkDatabase database;
+  private MessageDao messageDao;
+  private MessageFactory messageFactory;
+
+  /**
+   * Setup.
+   *
+   * @throws IOException if the directory cannot be made
+   */
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("dao-benchmark");
+    database = mode.equals("file")
+        ? new BenchmarkDatabase("jdbc:hsqldb:file:" + directory.resolve("queue"))
+        : new BenchmarkDatabase();
+    messageDao = database.messageDao();
+    messageFactory = new MessageFactory(Clock.systemUTC(), database.messageTypeDictionary());
+  }
+
+  /**
+   * Tear down.
+   *
+   * @throws IOException if the files cannot be removed
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    database.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> {
+        try {
+          Files.delete(file);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+
+  /**
+   * A stored message, new for each call.
+   */
+  @State(Scope.Thread)
+  public static class Stored {
+
+    private Message message;
+
+    /**
+     * Stores the next message.
+     *
+     * @param benchmark the benchmark
+     */
+    @Setup(Level.Invocation)
+    public void store(final MessageDaoBenchmark benchmark) {
+      message = benchmark.messageFactory.createMessage(TYPE, "payload-" + benchmark.payloads.incrementAndGet());
+      benchmark.messageDao.store(message, QUEUE, 0, com.codeheadsystems.queue.State.PENDING);
+    }
+  }
+
+  /**
+   * Claim, update and delete the message.
+   *
+   * @param stored the stored message
+   * @return rows deleted
+   */
+  @Benchmark
+  public int claimUpdateDelete(final Stored stored) {
+    messageDao.claim(stored.message, com.codeheadsystems.queue.State.PENDING,
+        com.codeheadsystems.queue.State.ACTIVATING);
+    messageDao.updateState(stored.message, com.codeheadsystems.queue.State.PROCESSING);
+    return messageDao.delete(stored.message, QUEUE);
+  }
+}
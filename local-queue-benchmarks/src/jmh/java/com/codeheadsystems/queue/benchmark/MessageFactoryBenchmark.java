@@ -0,0 +1,55 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.dao.InMemoryMessageDao;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creating a message, which hashes its payload, for small, medium and large payloads. The message
+ * type is registered up front, so this is the hashing and the building of the message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageFactoryBenchmark {
+
+  private static final String TYPE = "benchmark";
+
+  @Param({"16", "1024", "65536"})
+  public int payloadSize;
+
+  private MessageFactory messageFactory;
+  private String payload;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    messageFactory = new MessageFactory(Clock.systemUTC(), new MessageTypeDictionary(new InMemoryMessageDao()));
+    payload = "x".repeat(payloadSize);
+    messageFactory.createMessage(TYPE, payload);
+  }
+
+  /**
+   * Create a message.
+   *
+   * @return the message
+   */
+  @Benchmark
+  public Message createMessage() {
+    return messageFactory.createMessage(TYPE, payload);
+  }
+}
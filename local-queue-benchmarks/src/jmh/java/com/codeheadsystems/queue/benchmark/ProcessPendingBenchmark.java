@@ -0,0 +1,87 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.impl.CompletionRegistry;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.impl.QueueProcessor;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One claim cycle of the queue processor, reading and claiming pending messages and handing them
+ * to the executor, at shallow and deep backlogs on HSQLDB in memory. The consumer enqueues a new
+ * message for each one it runs, so the backlog stays at its depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProcessPendingBenchmark {
+
+  private static final String TYPE = "benchmark";
+
+  @Param({"100", "10000", "100000"})
+  public int backlog;
+
+  private final AtomicLong payloads = new AtomicLong();
+  private BenchmarkDatabase database;
+  private MessageManager messageManager;
+  private MessageConsumerExecutor executor;
+  private QueueProcessor processor;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    final QueueConfiguration configuration = ImmutableQueueConfiguration.builder().build();
+    database = new BenchmarkDatabase();
+    messageManager = database.messageManager(configuration);
+    for (int i = 0; i < backlog; i++) {
+      enqueue();
+    }
+    final MessageConsumer consumer = message -> enqueue();
+    executor = BenchmarkWiring.executor(messageManager, database.messageTypeDictionary(), configuration,
+        new CompletionRegistry(), Map.of(TYPE, consumer));
+    processor = new QueueProcessor(messageManager, new QueueConfigurationFactory(Optional.of(configuration)),
+        executor, database.metrics());
+  }
+
+  /**
+   * Tear down.
+   *
+   * @throws Exception if the executor does not stop
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.stop();
+    database.close();
+  }
+
+  private void enqueue() {
+    messageManager.saveMessage(TYPE, "payload-" + payloads.incrementAndGet());
+  }
+
+  /**
+   * One claim cycle.
+   */
+  @Benchmark
+  public void processPendingQueue() {
+    processor.processPendingQueue(0);
+  }
+}
@@ -0,0 +1,66 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Saving a message to HSQLDB in memory. New messages are inserted. Duplicates hit the primary key,
+ * and the existing message is read back instead, which is the path a retrying producer takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SaveMessageBenchmark {
+
+  private static final String TYPE = "benchmark";
+
+  @Param({"new", "duplicate"})
+  public String payloads;
+
+  private final AtomicLong counter = new AtomicLong();
+  private BenchmarkDatabase database;
+  private MessageManager messageManager;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    database = new BenchmarkDatabase();
+    messageManager = database.messageManager(ImmutableQueueConfiguration.builder().build());
+    messageManager.saveMessage(TYPE, "payload-0");
+  }
+
+  /**
+   * Tear down.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    database.close();
+  }
+
+  /**
+   * Save one message.
+   *
+   * @return the message
+   */
+  @Benchmark
+  public Optional<Message> saveMessage() {
+    final long payload = payloads.equals("new") ? counter.incrementAndGet() : 0;
+    return messageManager.saveMessage(TYPE, "payload-" + payload);
+  }
+}
@@ -0,0 +1,110 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Compares claim throughput for 1, 4 and 16 shards. Every thread stands in for a claim loop:
+ * it enqueues a message, then claims and completes one from its shard. With one shard all the
+ * threads fight over the same rows and index range; with more they spread out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class ShardBenchmark {
+
+  private static final String TYPE = "benchmark";
+  private static final int BACKLOG = 20_000;
+
+  @Param({"1", "4", "16"})
+  public int shards;
+
+  private final AtomicLong payloads = new AtomicLong();
+  private BenchmarkDatabase database;
+  private MessageManager messageManager;
+
+  /**
+   * Setup.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    database = new BenchmarkDatabase();
+    messageManager = database.messageManager(ImmutableQueueConfiguration.builder().shardCount(shards).build());
+    for (int i = 0; i < BACKLOG; i++) {
+      enqueue();
+    }
+  }
+
+  /**
+   * Tear down.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    database.close();
+  }
+
+  private void enqueue() {
+    messageManager.saveMessage(TYPE, "payload-" + payloads.incrementAndGet());
+  }
+
+  /**
+   * Enqueue one message, then claim and complete one from the worker's next shard.
+   *
+   * @param worker the worker
+   * @return the number of messages claimed
+   */
+  @Benchmark
+  public int enqueueClaimComplete(final Worker worker) {
+    enqueue();
+    int claimed = 0;
+    for (Message message : messageManager.getPendingMessages(worker.nextShard(shards), 1)) {
+      if (messageManager.setActivating(message)) {
+        messageManager.clearClaimed(message, com.codeheadsystems.queue.State.ACTIVATING);
+        claimed++;
+      }
+    }
+    return claimed;
+  }
+
+  /**
+   * Each worker walks its own set of shards, like a claim loop per shard would.
+   */
+  @State(Scope.Thread)
+  public static class Worker {
+
+    private int threadIndex;
+    private int threadCount;
+    private int rotation;
+
+    /**
+     * Setup.
+     *
+     * @param threadParams the thread params
+     */
+    @Setup(Level.Trial)
+    public void setup(final ThreadParams threadParams) {
+      threadIndex = threadParams.getThreadIndex();
+      threadCount = threadParams.getThreadCount();
+    }
+
+    int nextShard(final int shards) {
+      return (threadIndex + (rotation++ * threadCount)) % shards;
+    }
+  }
+}
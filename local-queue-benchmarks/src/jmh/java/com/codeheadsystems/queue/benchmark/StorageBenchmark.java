@@ -0,0 +1,111 @@
+package com.codeheadsystems.queue.benchmark;
+
+import com.codeheadsystems.queue.ImmutableLogStoreConfiguration;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.LogStoreConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.LogMessageDao;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * A message's whole life, enqueue, claim, processing and clear, against HSQLDB in file mode and
+ * against the append-only log store. Both write to a temporary directory and leave forcing writes
+ * to disk to the operating system, so they are compared on the same durability.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class StorageBenchmark {
+
+  private static final String TYPE = "benchmark";
+
+  @Param({"hsqldb-file", "log"})
+  public String storage;
+
+  private final AtomicLong payloads = new AtomicLong();
+  private Path directory;
+  private BenchmarkDatabase database;
+  private LogMessageDao logMessageDao;
+  private MessageManager messageManager;
+
+  /**
+   * Setup.
+   *
+   * @throws IOException if the directory cannot be made
+   */
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("storage-benchmark");
+    final QueueConfiguration configuration = ImmutableQueueConfiguration.builder().build();
+    if (storage.equals("log")) {
+      logMessageDao = new LogMessageDao(ImmutableLogStoreConfiguration.builder()
+          .directory(directory.toString())
+          .fsyncPolicy(LogStoreConfiguration.FsyncPolicy.NEVER)
+          .build());
+      logMessageDao.start();
+      messageManager = BenchmarkWiring.messageManager(logMessageDao, configuration);
+    } else {
+      database = new BenchmarkDatabase("jdbc:hsqldb:file:" + directory.resolve("queue"));
+      messageManager = database.messageManager(configuration);
+    }
+  }
+
+  /**
+   * Tear down.
+   *
+   * @throws Exception if the store does not stop
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    if (logMessageDao != null) {
+      logMessageDao.stop();
+    }
+    if (database != null) {
+      database.close();
+    }
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> {
+        try {
+          Files.delete(file);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Enqueue, claim, process and clear one message.
+   *
+   * @return the message
+   */
+  @Benchmark
+  public Message lifecycle() {
+    final Message message = messageManager.saveMessage(TYPE, "payload-" + payloads.incrementAndGet()).orElseThrow();
+    messageManager.setActivating(message);
+    messageManager.setProcessing(message);
+    messageManager.clearClaimed(message, com.codeheadsystems.queue.State.PROCESSING);
+    return message;
+  }
+}
@@ -0,0 +1,71 @@
+package com.codeheadsystems.queue.soak;
+
+import java.util.Random;
+
+/**
+ * One message type in the soak run's mix.
+ *
+ * @param messageType   the message type
+ * @param weight        its share of the messages sent, relative to the other types
+ * @param latencyMillis how long its consumer takes, fixed or on average
+ * @param distribution  how the consumer's time is spread
+ * @param failureRate   the fraction of runs that throw, from 0 to 1
+ */
+public record MessageTypeMix(String messageType,
+                             int weight,
+                             double latencyMillis,
+                             Distribution distribution,
+                             double failureRate) {
+
+  /**
+   * Parses name:weight:latencyMillis:distribution:failureRate, like {@code slow:25:50:exponential:0.01}.
+   *
+   * @param spec the spec
+   * @return the mix
+   */
+  public static MessageTypeMix parse(final String spec) {
+    final String[] parts = spec.split(":");
+    if (parts.length != 5) {
+      throw new IllegalArgumentException("Expected name:weight:latencyMillis:distribution:failureRate: " + spec);
+    }
+    return new MessageTypeMix(parts[0],
+        Integer.parseInt(parts[1]),
+        Double.parseDouble(parts[2]),
+        Distribution.valueOf(parts[3].toUpperCase()),
+        Double.parseDouble(parts[4]));
+  }
+
+  /**
+   * How long a consumer run takes.
+   *
+   * @param random the random
+   * @return the time in nanoseconds
+   */
+  public long sampleNanos(final Random random) {
+    final double millis = switch (distribution) {
+      case FIXED -> latencyMillis;
+      case UNIFORM -> random.nextDouble() * 2 * latencyMillis;
+      case EXPONENTIAL -> -Math.log(1 - random.nextDouble()) * latencyMillis;
+    };
+    return (long) (millis * 1_000_000);
+  }
+
+  /**
+   * How a consumer's time is spread around its latency.
+   */
+  public enum Distribution {
+    /**
+     * Always the latency.
+     */
+    FIXED,
+    /**
+     * Anywhere from zero to twice the latency.
+     */
+    UNIFORM,
+    /**
+     * Exponential with the latency as its mean, so a long tail.
+     */
+    EXPONENTIAL
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.codeheadsystems.queue.soak;
+
+import com.codeheadsystems.queue.Queue;
+import com.codeheadsystems.queue.impl.QueueRegister;
+import com.codeheadsystems.queue.module.QueueModule;
+import dagger.Component;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Set;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+/**
+ * The queue wired the way an application would, as the integ test does it.
+ */
+@Component(modules = {QueueModule.class, SoakModule.class})
+@Singleton
+public interface SoakComponent {
+
+  /**
+   * Data source.
+   *
+   * @return the data source
+   */
+  DataSource dataSource();
+
+  /**
+   * Queue.
+   *
+   * @return the queue
+   */
+  Queue queue();
+
+  /**
+   * Queue register, to add the synthetic consumers.
+   *
+   * @return the queue register
+   */
+  QueueRegister queueRegister();
+
+  /**
+   * Meter registry the queue publishes to.
+   *
+   * @return the meter registry
+   */
+  MeterRegistry meterRegistry();
+
+  /**
+   * Managed set.
+   *
+   * @return the set
+   */
+  Set<Managed> managed();
+
+}
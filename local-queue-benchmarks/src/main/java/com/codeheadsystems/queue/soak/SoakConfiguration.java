@@ -0,0 +1,72 @@
+package com.codeheadsystems.queue.soak;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the soak run does, from key=value arguments. Anything not given keeps its default.
+ *
+ * @param durationSeconds       how long to produce messages for
+ * @param ratePerSecond         messages enqueued per second, across all producers
+ * @param producers             producer threads
+ * @param processorInterval     seconds between claim cycles of each shard
+ * @param shardCount            shards of the queue
+ * @param reportIntervalSeconds seconds between reports
+ * @param directory             where the HSQLDB files go
+ * @param mix                   the message types to send
+ */
+public record SoakConfiguration(long durationSeconds,
+                                int ratePerSecond,
+                                int producers,
+                                int processorInterval,
+                                int shardCount,
+                                int reportIntervalSeconds,
+                                Path directory,
+                                List<MessageTypeMix> mix) {
+
+  private static final String DEFAULT_MIX = "fast:70:1:exponential:0,slow:25:50:exponential:0,flaky:5:10:fixed:0.2";
+
+  /**
+   * Parses the arguments, like {@code ratePerSecond=2000 mix=fast:90:1:fixed:0,slow:10:100:exponential:0.01}.
+   *
+   * @param args the arguments
+   * @return the configuration
+   */
+  public static SoakConfiguration parse(final String[] args) {
+    final Map<String, String> values = new HashMap<>();
+    for (String arg : args) {
+      final int equals = arg.indexOf('=');
+      if (equals < 1) {
+        throw new IllegalArgumentException("Expected key=value: " + arg);
+      }
+      values.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    final SoakConfiguration configuration = new SoakConfiguration(
+        Long.parseLong(values.getOrDefault("durationSeconds", "600")),
+        Integer.parseInt(values.getOrDefault("ratePerSecond", "1000")),
+        Integer.parseInt(values.getOrDefault("producers", "4")),
+        Integer.parseInt(values.getOrDefault("processorInterval", "1")),
+        Integer.parseInt(values.getOrDefault("shardCount", "1")),
+        Integer.parseInt(values.getOrDefault("reportIntervalSeconds", "10")),
+        Path.of(values.getOrDefault("directory", "build/soak")),
+        mix(values.getOrDefault("mix", DEFAULT_MIX)));
+    values.keySet().removeAll(List.of("durationSeconds", "ratePerSecond", "producers", "processorInterval",
+        "shardCount", "reportIntervalSeconds", "directory", "mix"));
+    if (!values.isEmpty()) {
+      throw new IllegalArgumentException("Unknown arguments: " + values.keySet());
+    }
+    return configuration;
+  }
+
+  private static List<MessageTypeMix> mix(final String spec) {
+    final List<MessageTypeMix> mix = new ArrayList<>();
+    for (String type : spec.split(",")) {
+      mix.add(MessageTypeMix.parse(type.trim()));
+    }
+    return mix;
+  }
+
+}
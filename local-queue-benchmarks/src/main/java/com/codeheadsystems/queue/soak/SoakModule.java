@@ -0,0 +1,144 @@
+package com.codeheadsystems.queue.soak;
+
+import com.codeheadsystems.metrics.MetricFactory;
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.util.LiquibaseHelper;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import dagger.Module;
+import dagger.Provides;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.Optional;
+import java.util.function.Supplier;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+
+/**
+ * Everything the queue module needs from the application, with the database in HSQLDB files.
+ */
+@Module
+public class SoakModule {
+
+  private final SoakConfiguration configuration;
+
+  /**
+   * Instantiates a new Soak module.
+   *
+   * @param configuration the configuration
+   */
+  public SoakModule(final SoakConfiguration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Clock.
+   *
+   * @return the clock
+   */
+  @Provides
+  @Singleton
+  public Clock clock() {
+    return Clock.systemUTC();
+  }
+
+  /**
+   * Queue configuration.
+   *
+   * @return the queue configuration
+   */
+  @Provides
+  @Singleton
+  public QueueConfiguration queueConfiguration() {
+    return ImmutableQueueConfiguration.builder()
+        .queueProcessorInitialDelay(1)
+        .queueProcessorInterval(configuration.processorInterval())
+        .shardCount(configuration.shardCount())
+        .build();
+  }
+
+  /**
+   * Meter registry.
+   *
+   * @return the meter registry
+   */
+  @Provides
+  @Singleton
+  public MeterRegistry meterRegistry() {
+    return new SimpleMeterRegistry();
+  }
+
+  /**
+   * Metrics.
+   *
+   * @return the metrics
+   */
+  @Provides
+  @Singleton
+  public Metrics metrics() {
+    return MetricFactory.builder().build();
+  }
+
+  /**
+   * Default tags.
+   *
+   * @return the tags
+   */
+  @Provides
+  @Singleton
+  public Tags defaultTags() {
+    return Tags.of("soak", "true");
+  }
+
+  /**
+   * Supplier for the default tags.
+   *
+   * @param defaultTags the default tags
+   * @return the supplier
+   */
+  @Provides
+  @Singleton
+  public Supplier<Tags> defaultTagSupplier(final Tags defaultTags) {
+    final Optional<Tags> optional = Optional.of(defaultTags);
+    return optional::get;
+  }
+
+  /**
+   * Jdbi, with the schema in place.
+   *
+   * @param dataSource the data source
+   * @return the jdbi
+   */
+  @Provides
+  @Singleton
+  public Jdbi jdbi(final DataSource dataSource) {
+    new LiquibaseHelper().runLiquibase(dataSource, "liquibase/queue.xml");
+    return Jdbi.create(dataSource).installPlugin(new SqlObjectPlugin());
+  }
+
+  /**
+   * Data source on HSQLDB files in the configured directory.
+   *
+   * @return the data source
+   */
+  @Provides
+  @Singleton
+  public DataSource dataSource() {
+    final ComboPooledDataSource dataSource = new ComboPooledDataSource();
+    dataSource.setJdbcUrl("jdbc:hsqldb:file:" + configuration.directory().resolve("queue"));
+    dataSource.setUser("SA");
+    dataSource.setPassword("");
+    dataSource.setMinPoolSize(0);
+    dataSource.setAcquireIncrement(10);
+    dataSource.setMaxPoolSize(40);
+    dataSource.setMaxIdleTime(300);
+    dataSource.setMaxStatementsPerConnection(32);
+    return dataSource;
+  }
+
+}
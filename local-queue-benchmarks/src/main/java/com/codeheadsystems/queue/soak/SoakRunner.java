@@ -0,0 +1,237 @@
+package com.codeheadsystems.queue.soak;
+
+import com.codeheadsystems.queue.CompletionHandle;
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.Queue;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.jdbi.v3.core.Jdbi;
+
+/**
+ * Runs the queue under a steady load for a long time and reports what it sustains. Producers
+ * enqueue at a fixed rate, spread over the message types by weight, and synthetic consumers take
+ * as long and fail as often as their type says. Every interval it prints the throughput, the
+ * backlog and how fast it grows, end to end latency percentiles, heap and GC.
+ *
+ * <p>Latency runs from when a message was due to be sent, not when the producer got to send it,
+ * so a queue that pushes back on its producers still shows the delay.
+ *
+ * <p>./gradlew :local-queue-benchmarks:run --args="durationSeconds=3600 ratePerSecond=500"
+ */
+public class SoakRunner {
+
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+  private final SoakConfiguration configuration;
+  private final SoakComponent component;
+  private final Queue queue;
+  private final Timer interval;
+  private final Timer overall;
+  private final LongAdder sent;
+  private final LongAdder completed;
+  private final LongAdder failed;
+  private final LongAdder late;
+  private final AtomicLong payloads;
+  private final int totalWeight;
+
+  /**
+   * Instantiates a new Soak runner.
+   *
+   * @param configuration the configuration
+   */
+  public SoakRunner(final SoakConfiguration configuration) {
+    this.configuration = configuration;
+    this.component = DaggerSoakComponent.builder().soakModule(new SoakModule(configuration)).build();
+    this.queue = component.queue();
+    this.interval = Timer.builder("Soak.endToEnd")
+        .tag("window", "interval")
+        .publishPercentiles(PERCENTILES)
+        .distributionStatisticExpiry(Duration.ofSeconds(configuration.reportIntervalSeconds()))
+        .distributionStatisticBufferLength(1)
+        .register(component.meterRegistry());
+    this.overall = Timer.builder("Soak.endToEnd")
+        .tag("window", "overall")
+        .publishPercentiles(PERCENTILES)
+        .distributionStatisticExpiry(Duration.ofDays(365))
+        .distributionStatisticBufferLength(1)
+        .register(component.meterRegistry());
+    this.sent = new LongAdder();
+    this.completed = new LongAdder();
+    this.failed = new LongAdder();
+    this.late = new LongAdder();
+    this.payloads = new AtomicLong();
+    this.totalWeight = configuration.mix().stream().mapToInt(MessageTypeMix::weight).sum();
+    configuration.mix().forEach(mix ->
+        component.queueRegister().register(mix.messageType(), new SyntheticConsumer(mix)));
+  }
+
+  /**
+   * The entry point.
+   *
+   * @param args key=value arguments, see {@link SoakConfiguration#parse(String[])}
+   * @throws Exception if the run fails
+   */
+  public static void main(final String[] args) throws Exception {
+    final SoakConfiguration configuration = SoakConfiguration.parse(args);
+    Files.createDirectories(configuration.directory());
+    System.out.println("Soak: " + configuration);
+    new SoakRunner(configuration).run();
+  }
+
+  /**
+   * Run the soak, then drain what is left.
+   *
+   * @throws Exception if the queue does not start or stop
+   */
+  public void run() throws Exception {
+    for (Managed managed : component.managed()) {
+      managed.start();
+    }
+    final long start = System.nanoTime();
+    final long end = start + TimeUnit.SECONDS.toNanos(configuration.durationSeconds());
+    final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    reporter.scheduleAtFixedRate(new Reporter(start), configuration.reportIntervalSeconds(),
+        configuration.reportIntervalSeconds(), TimeUnit.SECONDS);
+    final ExecutorService producers = Executors.newFixedThreadPool(configuration.producers());
+    for (int i = 0; i < configuration.producers(); i++) {
+      producers.execute(() -> produce(end));
+    }
+    producers.shutdown();
+    producers.awaitTermination(configuration.durationSeconds() + 60, TimeUnit.SECONDS);
+    final long drainBy = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+    while (completed.sum() + failed.sum() < sent.sum() && System.nanoTime() < drainBy) {
+      Thread.sleep(100);
+    }
+    reporter.shutdownNow();
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Done: sent %d, completed %d, failed %d, late sends %d, %.1f msgs/sec sustained%n",
+        sent.sum(), completed.sum(), failed.sum(), late.sum(), (completed.sum() + failed.sum()) / seconds);
+    System.out.println("Overall end to end: " + percentiles(overall));
+    for (Managed managed : List.copyOf(component.managed()).reversed()) {
+      managed.stop();
+    }
+    Jdbi.create(component.dataSource()).useHandle(handle -> handle.execute("shutdown"));
+  }
+
+  private void produce(final long end) {
+    final long period = Math.max(1, TimeUnit.SECONDS.toNanos(configuration.producers())
+        / Math.max(1, configuration.ratePerSecond()));
+    long due = System.nanoTime();
+    while (due < end) {
+      final long now = System.nanoTime();
+      if (now < due) {
+        LockSupport.parkNanos(due - now);
+      } else if (now - due > period) {
+        late.increment();
+      }
+      send(due);
+      due += period;
+    }
+  }
+
+  private void send(final long due) {
+    final MessageTypeMix mix = pick();
+    final Optional<CompletionHandle> handle =
+        queue.enqueueForCompletion(mix.messageType(), "payload-" + payloads.incrementAndGet(), EnqueueOptions.none());
+    sent.increment();
+    handle.ifPresent(h -> h.completion().whenComplete((message, throwable) -> {
+      final long latency = System.nanoTime() - due;
+      interval.record(latency, TimeUnit.NANOSECONDS);
+      overall.record(latency, TimeUnit.NANOSECONDS);
+      if (throwable == null) {
+        completed.increment();
+      } else {
+        failed.increment();
+      }
+    }));
+  }
+
+  private MessageTypeMix pick() {
+    int choice = ThreadLocalRandom.current().nextInt(Math.max(1, totalWeight));
+    for (MessageTypeMix mix : configuration.mix()) {
+      choice -= mix.weight();
+      if (choice < 0) {
+        return mix;
+      }
+    }
+    return configuration.mix().getFirst();
+  }
+
+  private static String percentiles(final Timer timer) {
+    final ValueAtPercentile[] values = timer.takeSnapshot().percentileValues();
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < values.length && i < PERCENTILE_NAMES.length; i++) {
+      builder.append(String.format("%s=%.1fms ", PERCENTILE_NAMES[i], values[i].value(TimeUnit.MILLISECONDS)));
+    }
+    return builder.toString().trim();
+  }
+
+  /**
+   * Prints one line each interval.
+   */
+  private class Reporter implements Runnable {
+
+    private final long start;
+    private long lastSent;
+    private long lastDone;
+    private long lastBacklog;
+    private long lastGcCount;
+    private long lastGcMillis;
+
+    private Reporter(final long start) {
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      final long nowSent = sent.sum();
+      final long nowDone = completed.sum() + failed.sum();
+      final Map<com.codeheadsystems.queue.State, Long> counts = queue.getMessageStateCounts();
+      final long backlog = counts.getOrDefault(com.codeheadsystems.queue.State.PENDING, 0L);
+      long gcCount = 0;
+      long gcMillis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount += Math.max(0, gc.getCollectionCount());
+        gcMillis += Math.max(0, gc.getCollectionTime());
+      }
+      final long heapMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+      final int seconds = configuration.reportIntervalSeconds();
+      System.out.printf("%6ds sent %.1f/s done %.1f/s failed %d backlog %d (%+.1f/s) in flight %d | %s | "
+              + "heap %dMB gc %d (%dms)%n",
+          TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+          (nowSent - lastSent) / (double) seconds,
+          (nowDone - lastDone) / (double) seconds,
+          failed.sum(),
+          backlog,
+          (backlog - lastBacklog) / (double) seconds,
+          counts.getOrDefault(com.codeheadsystems.queue.State.ACTIVATING, 0L)
+              + counts.getOrDefault(com.codeheadsystems.queue.State.PROCESSING, 0L),
+          percentiles(interval),
+          heapMb,
+          gcCount - lastGcCount,
+          gcMillis - lastGcMillis);
+      lastSent = nowSent;
+      lastDone = nowDone;
+      lastBacklog = backlog;
+      lastGcCount = gcCount;
+      lastGcMillis = gcMillis;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.codeheadsystems.queue.soak;
+
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.MessageConsumer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A consumer that takes as long as its message type says and fails as often.
+ */
+public class SyntheticConsumer implements MessageConsumer {
+
+  private final MessageTypeMix mix;
+
+  /**
+   * Instantiates a new Synthetic consumer.
+   *
+   * @param mix the message type it consumes
+   */
+  public SyntheticConsumer(final MessageTypeMix mix) {
+    this.mix = mix;
+  }
+
+  @Override
+  public void accept(final Message message) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final long nanos = mix.sampleNanos(random);
+    if (nanos > 0) {
+      LockSupport.parkNanos(nanos);
+    }
+    if (random.nextDouble() < mix.failureRate()) {
+      throw new IllegalStateException("Synthetic failure of " + message.messageType());
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * JMX management for the local queue. Add QueueJmxModule to your component alongside the
+ * QueueModule to view and throttle the queue from any JMX console.
+ */
+
+plugins {
+    id("buildlogic.java-library-conventions")
+}
+
+dependencies {
+    api(project(":local-queue"))
+    implementation(libs.guava)
+    implementation(libs.dropwizard4.core)
+    implementation(libs.bundles.logging)
+
+    implementation(libs.javax.inject)
+    implementation(libs.dagger)
+    annotationProcessor(libs.dagger.compiler)
+
+    testImplementation(libs.bundles.logback)
+    testImplementation(libs.bundles.testing)
+}
+
+publishing {
+    publications {
+        named<MavenPublication>("mavenJava") {
+            pom {
+                name = "local-queue-jmx"
+                description = "LQ: JMX management for the local queue"
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.codeheadsystems.queue.jmx;
+
+import com.codeheadsystems.queue.Queue;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.impl.QueueProcessor;
+import com.codeheadsystems.queue.impl.QueueSettings;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queue control. Reads come from the in-memory counters and the executor, so a console can
+ * poll them as often as it likes. Writes go straight to the running processor and executor, except
+ * the overrides, which go through the database first.
+ */
+@Singleton
+public class QueueControl implements QueueControlMXBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueueControl.class);
+
+  private final Queue queue;
+  private final QueueProcessor queueProcessor;
+  private final MessageConsumerExecutor messageConsumerExecutor;
+  private final QueueSettings queueSettings;
+
+  /**
+   * Instantiates a new Queue control.
+   *
+   * @param queue                   the queue
+   * @param queueProcessor          the queue processor
+   * @param messageConsumerExecutor the message consumer executor
+   * @param queueSettings           the queue settings
+   */
+  @Inject
+  public QueueControl(final Queue queue,
+                      final QueueProcessor queueProcessor,
+                      final MessageConsumerExecutor messageConsumerExecutor,
+                      final QueueSettings queueSettings) {
+    this.queue = queue;
+    this.queueProcessor = queueProcessor;
+    this.messageConsumerExecutor = messageConsumerExecutor;
+    this.queueSettings = queueSettings;
+    LOGGER.info("QueueControl({},{})", queueProcessor, messageConsumerExecutor);
+  }
+
+  @Override
+  public Map<String, Long> getStateDepths() {
+    return byName(queue.getMessageStateCounts());
+  }
+
+  @Override
+  public Map<String, Map<String, Long>> getTypeDepths() {
+    final Map<String, Map<String, Long>> depths = new TreeMap<>();
+    queue.getMessageStateCountsByType().forEach((messageType, counts) -> depths.put(messageType, byName(counts)));
+    return depths;
+  }
+
+  private Map<String, Long> byName(final Map<State, Long> counts) {
+    final Map<String, Long> byName = new TreeMap<>();
+    counts.forEach((state, count) -> byName.put(state.name(), count));
+    return byName;
+  }
+
+  @Override
+  public int getThreads() {
+    return messageConsumerExecutor.threadCount();
+  }
+
+  @Override
+  public void setThreads(final int threads) {
+    messageConsumerExecutor.resize(threads);
+  }
+
+  @Override
+  public int getActiveThreads() {
+    return messageConsumerExecutor.activeCount();
+  }
+
+  @Override
+  public int getQueuedMessages() {
+    return messageConsumerExecutor.queuedCount();
+  }
+
+  @Override
+  public double getUtilization() {
+    return Math.min(1.0, (double) messageConsumerExecutor.activeCount() / messageConsumerExecutor.threadCount());
+  }
+
+  @Override
+  public int getPollIntervalSeconds() {
+    return queueProcessor.interval();
+  }
+
+  @Override
+  public void setPollIntervalSeconds(final int seconds) {
+    queueProcessor.setInterval(seconds);
+  }
+
+  @Override
+  public int getBatchSize() {
+    return queueProcessor.batchSize();
+  }
+
+  @Override
+  public void setBatchSize(final int batchSize) {
+    queueProcessor.setBatchSize(batchSize);
+  }
+
+  @Override
+  public boolean isDispatchPaused() {
+    return queueProcessor.isPaused();
+  }
+
+  @Override
+  public Set<String> getPausedMessageTypes() {
+    return queueProcessor.pausedMessageTypes();
+  }
+
+  @Override
+  public void pauseDispatch() {
+    queueProcessor.pause();
+  }
+
+  @Override
+  public void resumeDispatch() {
+    queueProcessor.resume();
+  }
+
+  @Override
+  public void pauseMessageType(final String messageType) {
+    queueProcessor.pause(messageType);
+  }
+
+  @Override
+  public void resumeMessageType(final String messageType) {
+    queueProcessor.resume(messageType);
+  }
+
+  @Override
+  public boolean drain(final long timeoutSeconds) {
+    return queueProcessor.drain(Duration.ofSeconds(timeoutSeconds));
+  }
+
+  @Override
+  public Map<String, String> getOverrides() {
+    return new TreeMap<>(queueSettings.overrides());
+  }
+
+  @Override
+  public void saveOverride(final String name, final String value) {
+    queueSettings.set(name, value);
+  }
+
+  @Override
+  public void removeOverride(final String name) {
+    queueSettings.remove(name);
+  }
+
+}
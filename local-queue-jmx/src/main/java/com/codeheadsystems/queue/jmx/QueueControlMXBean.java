@@ -0,0 +1,161 @@
+package com.codeheadsystems.queue.jmx;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The queue as seen from a JMX console. Depths and executor use can be watched, and dispatch can be
+ * throttled on a live node: the pool resized, the poll interval or batch size changed, a message
+ * type paused, or the node drained. Those changes last until the process restarts, or until the
+ * override saved in the database for the same setting changes. Saved overrides are applied on every
+ * node sharing the database and survive restarts.
+ */
+public interface QueueControlMXBean {
+
+  /**
+   * Number of messages in each state.
+   *
+   * @return map of state to count.
+   */
+  Map<String, Long> getStateDepths();
+
+  /**
+   * Number of messages in each state, by message type.
+   *
+   * @return map of message type to the counts for each state.
+   */
+  Map<String, Map<String, Long>> getTypeDepths();
+
+  /**
+   * Number of threads messages run on.
+   *
+   * @return the threads
+   */
+  int getThreads();
+
+  /**
+   * Resizes the executor. Messages running keep their threads.
+   *
+   * @param threads the threads, at least one.
+   */
+  void setThreads(int threads);
+
+  /**
+   * Number of threads running a message.
+   *
+   * @return the active threads
+   */
+  int getActiveThreads();
+
+  /**
+   * Number of claimed messages waiting for a thread.
+   *
+   * @return the queued messages
+   */
+  int getQueuedMessages();
+
+  /**
+   * Fraction of the threads running a message, from 0 to 1.
+   *
+   * @return the utilization
+   */
+  double getUtilization();
+
+  /**
+   * Seconds between claims on each shard.
+   *
+   * @return the poll interval
+   */
+  int getPollIntervalSeconds();
+
+  /**
+   * Changes the seconds between claims on each shard.
+   *
+   * @param seconds the poll interval, at least one.
+   */
+  void setPollIntervalSeconds(int seconds);
+
+  /**
+   * The most messages claimed from a shard at once, zero when only the free threads limit it.
+   *
+   * @return the batch size
+   */
+  int getBatchSize();
+
+  /**
+   * Caps the messages claimed from a shard at once.
+   *
+   * @param batchSize the batch size, or zero for no cap.
+   */
+  void setBatchSize(int batchSize);
+
+  /**
+   * Whether claiming messages is paused.
+   *
+   * @return true if paused.
+   */
+  boolean isDispatchPaused();
+
+  /**
+   * The message types whose messages are left pending.
+   *
+   * @return the paused message types
+   */
+  Set<String> getPausedMessageTypes();
+
+  /**
+   * Stops claiming messages. Messages already claimed still run.
+   */
+  void pauseDispatch();
+
+  /**
+   * Starts claiming messages again, after a pause or a drain.
+   */
+  void resumeDispatch();
+
+  /**
+   * Leaves the messages of the type pending.
+   *
+   * @param messageType the message type
+   */
+  void pauseMessageType(String messageType);
+
+  /**
+   * Claims the messages of the type again.
+   *
+   * @param messageType the message type
+   */
+  void resumeMessageType(String messageType);
+
+  /**
+   * Stops claiming messages and waits for the ones in flight to finish. Dispatch stays paused
+   * until resumed.
+   *
+   * @param timeoutSeconds how long to wait.
+   * @return true if nothing is left in flight.
+   */
+  boolean drain(long timeoutSeconds);
+
+  /**
+   * The setting overrides saved in the database for this queue.
+   *
+   * @return map of setting name to value
+   */
+  Map<String, String> getOverrides();
+
+  /**
+   * Saves a setting override in the database and applies it.
+   *
+   * @param name  the setting name
+   * @param value the value
+   */
+  void saveOverride(String name, String value);
+
+  /**
+   * Removes a setting override from the database, putting the setting back to its default.
+   *
+   * @param name the setting name
+   */
+  void removeOverride(String name);
+
+}
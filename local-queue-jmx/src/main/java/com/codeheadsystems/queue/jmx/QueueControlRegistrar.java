@@ -0,0 +1,86 @@
+package com.codeheadsystems.queue.jmx;
+
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import java.lang.management.ManagementFactory;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the queue control with the platform MBean server while the queue runs, as
+ * {@code com.codeheadsystems.queue:type=QueueControl,name=<queue name>}.
+ */
+@Singleton
+public class QueueControlRegistrar implements Managed {
+
+  /**
+   * The JMX domain the queue controls are registered under.
+   */
+  public static final String DOMAIN = "com.codeheadsystems.queue";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueueControlRegistrar.class);
+
+  private final QueueControl queueControl;
+  private final MBeanServer mbeanServer;
+  private final ObjectName objectName;
+
+  /**
+   * Instantiates a new Queue control registrar.
+   *
+   * @param queueControl              the queue control
+   * @param queueConfigurationFactory the queue configuration factory
+   */
+  @Inject
+  public QueueControlRegistrar(final QueueControl queueControl,
+                               final QueueConfigurationFactory queueConfigurationFactory) {
+    this(queueControl, queueConfigurationFactory, ManagementFactory.getPlatformMBeanServer());
+  }
+
+  @VisibleForTesting
+  QueueControlRegistrar(final QueueControl queueControl,
+                        final QueueConfigurationFactory queueConfigurationFactory,
+                        final MBeanServer mbeanServer) {
+    this.queueControl = queueControl;
+    this.mbeanServer = mbeanServer;
+    this.objectName = objectName(queueConfigurationFactory.queueConfiguration().queueName());
+    LOGGER.info("QueueControlRegistrar({})", objectName);
+  }
+
+  /**
+   * The name the control for the queue is registered under.
+   *
+   * @param queueName the queue name
+   * @return the object name
+   */
+  public static ObjectName objectName(final String queueName) {
+    try {
+      return new ObjectName(DOMAIN + ":type=QueueControl,name=" + ObjectName.quote(queueName));
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalArgumentException("Unusable queue name: " + queueName, e);
+    }
+  }
+
+  @Override
+  public synchronized void start() throws JMException {
+    LOGGER.info("start()");
+    if (!mbeanServer.isRegistered(objectName)) {
+      mbeanServer.registerMBean(queueControl, objectName);
+    }
+  }
+
+  @Override
+  public synchronized void stop() throws JMException {
+    LOGGER.info("stop()");
+    if (mbeanServer.isRegistered(objectName)) {
+      mbeanServer.unregisterMBean(objectName);
+    }
+  }
+
+}
@@ -0,0 +1,25 @@
+package com.codeheadsystems.queue.jmx;
+
+import dagger.Binds;
+import dagger.Module;
+import dagger.multibindings.IntoSet;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * The type Queue jmx module. Add it to a component that has the QueueModule, and the queue control
+ * is registered with the platform MBean server when the managed set starts.
+ */
+@Module
+public interface QueueJmxModule {
+
+  /**
+   * Managed instance of the queue control registrar for the runtimes.
+   *
+   * @param queueControlRegistrar the queue control registrar
+   * @return the managed
+   */
+  @IntoSet
+  @Binds
+  Managed managedQueueControlRegistrar(final QueueControlRegistrar queueControlRegistrar);
+
+}
@@ -0,0 +1,83 @@
+package com.codeheadsystems.queue.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Queue;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.impl.QueueProcessor;
+import com.codeheadsystems.queue.impl.QueueSettings;
+import java.util.Optional;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class QueueControlRegistrarTest {
+
+  private static final String QUEUE = "queue";
+
+  @Mock private Queue queue;
+  @Mock private QueueProcessor queueProcessor;
+  @Mock private MessageConsumerExecutor messageConsumerExecutor;
+  @Mock private QueueSettings queueSettings;
+
+  private MBeanServer mbeanServer;
+  private ObjectName objectName;
+  private QueueControlRegistrar registrar;
+
+  @BeforeEach
+  void setup() {
+    mbeanServer = MBeanServerFactory.newMBeanServer();
+    objectName = QueueControlRegistrar.objectName(QUEUE);
+    registrar = new QueueControlRegistrar(
+        new QueueControl(queue, queueProcessor, messageConsumerExecutor, queueSettings),
+        new QueueConfigurationFactory(Optional.of(ImmutableQueueConfiguration.builder().queueName(QUEUE).build())),
+        mbeanServer);
+  }
+
+  @AfterEach
+  void tearDown() {
+    MBeanServerFactory.releaseMBeanServer(mbeanServer);
+  }
+
+  @Test
+  void startAndStop() throws Exception {
+    registrar.start();
+    registrar.start();
+    assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+
+    registrar.stop();
+    registrar.stop();
+    assertThat(mbeanServer.isRegistered(objectName)).isFalse();
+  }
+
+  @Test
+  void attributesAndOperations() throws Exception {
+    when(messageConsumerExecutor.threadCount()).thenReturn(10);
+    registrar.start();
+
+    assertThat(mbeanServer.getAttribute(objectName, "Threads")).isEqualTo(10);
+    mbeanServer.setAttribute(objectName, new Attribute("PollIntervalSeconds", 5));
+    mbeanServer.invoke(objectName, "pauseMessageType", new Object[]{"type"}, new String[]{String.class.getName()});
+
+    verify(queueProcessor).setInterval(5);
+    verify(queueProcessor).pause("type");
+  }
+
+  @Test
+  void objectName_quotesTheQueueName() {
+    assertThat(QueueControlRegistrar.objectName("a,b=c").getKeyProperty("name")).isEqualTo("\"a,b=c\"");
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.codeheadsystems.queue.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.Queue;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.impl.QueueProcessor;
+import com.codeheadsystems.queue.impl.QueueSettings;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class QueueControlTest {
+
+  private static final String TYPE = "type";
+
+  @Mock private Queue queue;
+  @Mock private QueueProcessor queueProcessor;
+  @Mock private MessageConsumerExecutor messageConsumerExecutor;
+  @Mock private QueueSettings queueSettings;
+
+  private QueueControl queueControl;
+
+  @BeforeEach
+  void setup() {
+    queueControl = new QueueControl(queue, queueProcessor, messageConsumerExecutor, queueSettings);
+  }
+
+  @Test
+  void getStateDepths() {
+    when(queue.getMessageStateCounts()).thenReturn(Map.of(State.PENDING, 3L, State.PROCESSING, 1L));
+
+    assertThat(queueControl.getStateDepths()).containsExactly(Map.entry("PENDING", 3L), Map.entry("PROCESSING", 1L));
+  }
+
+  @Test
+  void getTypeDepths() {
+    when(queue.getMessageStateCountsByType()).thenReturn(Map.of(TYPE, Map.of(State.PENDING, 3L)));
+
+    assertThat(queueControl.getTypeDepths()).containsExactly(Map.entry(TYPE, Map.of("PENDING", 3L)));
+  }
+
+  @Test
+  void threads() {
+    when(messageConsumerExecutor.threadCount()).thenReturn(4);
+    when(messageConsumerExecutor.activeCount()).thenReturn(1);
+    when(messageConsumerExecutor.queuedCount()).thenReturn(2);
+
+    queueControl.setThreads(8);
+
+    verify(messageConsumerExecutor).resize(8);
+    assertThat(queueControl.getThreads()).isEqualTo(4);
+    assertThat(queueControl.getActiveThreads()).isEqualTo(1);
+    assertThat(queueControl.getQueuedMessages()).isEqualTo(2);
+    assertThat(queueControl.getUtilization()).isEqualTo(0.25);
+  }
+
+  @Test
+  void getUtilization_afterShrinking() {
+    when(messageConsumerExecutor.threadCount()).thenReturn(2);
+    when(messageConsumerExecutor.activeCount()).thenReturn(5); // still finishing on the old threads.
+
+    assertThat(queueControl.getUtilization()).isEqualTo(1.0);
+  }
+
+  @Test
+  void pollInterval() {
+    when(queueProcessor.interval()).thenReturn(15);
+
+    queueControl.setPollIntervalSeconds(5);
+
+    verify(queueProcessor).setInterval(5);
+    assertThat(queueControl.getPollIntervalSeconds()).isEqualTo(15);
+  }
+
+  @Test
+  void batchSize() {
+    when(queueProcessor.batchSize()).thenReturn(10);
+
+    queueControl.setBatchSize(20);
+
+    verify(queueProcessor).setBatchSize(20);
+    assertThat(queueControl.getBatchSize()).isEqualTo(10);
+  }
+
+  @Test
+  void pauseAndResumeDispatch() {
+    when(queueProcessor.isPaused()).thenReturn(true);
+
+    queueControl.pauseDispatch();
+    queueControl.resumeDispatch();
+
+    verify(queueProcessor).pause();
+    verify(queueProcessor).resume();
+    assertThat(queueControl.isDispatchPaused()).isTrue();
+  }
+
+  @Test
+  void pauseAndResumeMessageType() {
+    when(queueProcessor.pausedMessageTypes()).thenReturn(Set.of(TYPE));
+
+    queueControl.pauseMessageType(TYPE);
+    queueControl.resumeMessageType(TYPE);
+
+    verify(queueProcessor).pause(TYPE);
+    verify(queueProcessor).resume(TYPE);
+    assertThat(queueControl.getPausedMessageTypes()).containsExactly(TYPE);
+  }
+
+  @Test
+  void drain() {
+    when(queueProcessor.drain(Duration.ofSeconds(30))).thenReturn(true);
+
+    assertThat(queueControl.drain(30)).isTrue();
+  }
+
+  @Test
+  void overrides() {
+    when(queueSettings.overrides()).thenReturn(Map.of("threads", "4"));
+
+    queueControl.saveOverride("threads", "4");
+    queueControl.removeOverride("batchSize");
+
+    verify(queueSettings).set("threads", "4");
+    verify(queueSettings).remove("batchSize");
+    assertThat(queueControl.getOverrides()).containsExactly(Map.entry("threads", "4"));
+  }
+
+}
@@ -0,0 +1,27 @@
+package com.codeheadsystems.queue;
+
+import java.util.concurrent.CompletableFuture;
+import org.immutables.value.Value;
+
+/**
+ * A handle on an enqueued message that completes when its consumer finishes.
+ */
+@Value.Immutable
+public interface CompletionHandle {
+
+  /**
+   * The message.
+   *
+   * @return the message
+   */
+  Message message();
+
+  /**
+   * Completes with the message once its consumer returns, or exceptionally with what the consumer
+   * threw. Cancelled if the message is removed without running, like when it expires or is cleared.
+   *
+   * @return the future
+   */
+  CompletableFuture<Message> completion();
+
+}
@@ -0,0 +1,49 @@
+package com.codeheadsystems.queue;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * Optional settings for a single enqueue call. Everything here defaults to 'not set' so
+ * a plain enqueue behaves as it always has.
+ */
+@Value.Immutable
+public interface EnqueueOptions {
+
+  /**
+   * No options set.
+   *
+   * @return the enqueue options
+   */
+  static EnqueueOptions none() {
+    return ImmutableEnqueueOptions.builder().build();
+  }
+
+  /**
+   * Ordering key. Messages sharing the same key are executed one at a time, in the order
+   * they were enqueued. Messages with different keys (or none) still run in parallel.
+   *
+   * @return the ordering key
+   */
+  Optional<String> orderingKey();
+
+  /**
+   * Supersede key. If a pending message of the same type already has this key, it is replaced by
+   * this one (last writer wins). Once a message starts activating it can no longer be superseded,
+   * so at most one pending message exists per type and key.
+   *
+   * @return the supersede key
+   */
+  Optional<String> supersedeKey();
+
+  /**
+   * Time to live. If the message is still pending once this has passed since it was enqueued, it
+   * is never executed and is removed by the expiry sweeper. Overrides the per-type time to live
+   * from the configuration.
+   *
+   * @return the time to live
+   */
+  Optional<Duration> timeToLive();
+
+}
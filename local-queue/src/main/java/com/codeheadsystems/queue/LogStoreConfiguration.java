@@ -0,0 +1,90 @@
+package com.codeheadsystems.queue;
+
+import org.immutables.value.Value;
+
+/**
+ * Configuration of the append-only log store, used instead of the database when the queue module
+ * is created with {@code QueueModule.log()}.
+ */
+@Value.Immutable
+public interface LogStoreConfiguration {
+
+  /**
+   * Directory the log segments are kept in. Created if missing. Only one process may use it at a
+   * time.
+   *
+   * @return the directory
+   */
+  String directory();
+
+  /**
+   * Size in bytes a segment may reach before a new one is started.
+   *
+   * @return the long
+   */
+  @Value.Default
+  default long segmentBytes() {
+    return 64L * 1024 * 1024;
+  }
+
+  /**
+   * When writes are forced to disk.
+   *
+   * @return the fsync policy
+   */
+  @Value.Default
+  default FsyncPolicy fsyncPolicy() {
+    return FsyncPolicy.INTERVAL;
+  }
+
+  /**
+   * Millis between forcing writes to disk, for the interval fsync policy. This is how much a power
+   * failure can lose.
+   *
+   * @return the long
+   */
+  @Value.Default
+  default long fsyncIntervalMillis() {
+    return 100;
+  }
+
+  /**
+   * Seconds between checks whether the log needs compacting.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int compactionIntervalSeconds() {
+    return 60;
+  }
+
+  /**
+   * Bytes written since the last compaction before the log is compacted. Compaction writes the
+   * live messages to a new snapshot and drops the older segments with their tombstones.
+   *
+   * @return the long
+   */
+  @Value.Default
+  default long compactionThresholdBytes() {
+    return 256L * 1024 * 1024;
+  }
+
+  /**
+   * When writes to the log are forced to disk.
+   */
+  enum FsyncPolicy {
+    /**
+     * Every write is forced before the call returns. Nothing is lost, but every call waits on the disk.
+     */
+    ALWAYS,
+    /**
+     * Writes are forced in the background every fsync interval.
+     */
+    INTERVAL,
+    /**
+     * Writes are left to the operating system. Survives the process dying, not the machine.
+     */
+    NEVER
+  }
+
+}
@@ -1,5 +1,6 @@
 package com.codeheadsystems.queue;
 
+import java.util.Optional;
 import org.immutables.value.Value;
 
 /**
@@ -29,6 +30,13 @@ public interface Message {
    */
   String messageType();
 
+  /**
+   * Message type id, from the message type dictionary. This is what is stored in the row.
+   *
+   * @return the id
+   */
+  int messageTypeId();
+
   /**
    * Payload string.
    *
@@ -36,4 +44,26 @@ public interface Message {
    */
   String payload();
 
+  /**
+   * Ordering key, if set. Messages with the same key are executed serially in timestamp order.
+   *
+   * @return the ordering key
+   */
+  Optional<String> orderingKey();
+
+  /**
+   * Supersede key, if set. A newer message with the same type and key replaces this one while it
+   * is still pending.
+   *
+   * @return the supersede key
+   */
+  Optional<String> supersedeKey();
+
+  /**
+   * When the message expires, in epoch millis, if it has a time to live.
+   *
+   * @return the expiration
+   */
+  Optional<Long> expiresAt();
+
 }
@@ -1,5 +1,6 @@
 package com.codeheadsystems.queue;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 
@@ -15,11 +16,49 @@ public interface Queue {
    * @param payload     the payload
    * @return the message if it could be enqueued.
    */
+  default Optional<Message> enqueue(final String messageType,
+                                    final String payload) {
+    return enqueue(messageType, payload, EnqueueOptions.none());
+  }
+
+  /**
+   * Enqueue message with options.
+   *
+   * @param messageType the message type
+   * @param payload     the payload
+   * @param options     the enqueue options
+   * @return the message if it could be enqueued.
+   */
   Optional<Message> enqueue(final String messageType,
-                            final String payload);
+                            final String payload,
+                            final EnqueueOptions options);
 
   /**
-   * Gets state.
+   * Enqueue a message and get a handle that completes when its consumer finishes. Use this
+   * instead of polling the state. Messages with a supersede key are not allowed, as they may be
+   * replaced and never run.
+   *
+   * @param messageType the message type
+   * @param payload     the payload
+   * @param options     the enqueue options
+   * @return the handle, if the message was enqueued.
+   */
+  Optional<CompletionHandle> enqueueForCompletion(final String messageType,
+                                                  final String payload,
+                                                  final EnqueueOptions options);
+
+  /**
+   * A handle for a message that is still in the queue, found by its hash. Useful for waiting on
+   * messages enqueued before a restart.
+   *
+   * @param hash the hash of the message
+   * @return the handle, or empty if the message is no longer in the queue.
+   */
+  Optional<CompletionHandle> completionOf(final long hash);
+
+  /**
+   * Gets state. Messages enqueued or claimed by this process are answered from memory; empty
+   * means the message is done or gone.
    *
    * @param message the message
    * @return the state if it is found.
@@ -27,12 +66,30 @@ public interface Queue {
   Optional<State> getState(final Message message);
 
   /**
-   * Provides the list of messages enqueued within the system for each state.
+   * Gets the states of many messages at once, for jobs that check thousands of messages. Done in
+   * a few statements instead of one per message.
+   *
+   * @param messages the messages
+   * @return map of message hash to state. Messages that are done or gone are left out.
+   */
+  Map<Long, State> getStates(final Collection<Message> messages);
+
+  /**
+   * Provides the list of messages enqueued within the system for each state. Served from
+   * in-memory counters, so it is cheap to poll.
    *
    * @return map list.
    */
   Map<State, Long> getMessageStateCounts();
 
+  /**
+   * Provides the number of messages in each state, by message type. Served from in-memory
+   * counters, so it is cheap to poll.
+   *
+   * @return map of message type to the counts for each state.
+   */
+  Map<String, Map<State, Long>> getMessageStateCountsByType();
+
   /**
    * Clear all.
    */
@@ -45,4 +102,11 @@ public interface Queue {
    */
   void clear(final Message message);
 
+  /**
+   * Clear many messages at once, in a few batched statements instead of one per message.
+   *
+   * @param messages the messages
+   */
+  void clear(final Collection<Message> messages);
+
 }
@@ -1,5 +1,7 @@
 package com.codeheadsystems.queue;
 
+import java.util.Map;
+import java.util.UUID;
 import org.immutables.value.Value;
 
 /**
@@ -8,6 +10,22 @@ import org.immutables.value.Value;
 @Value.Immutable
 public interface QueueConfiguration {
 
+  /**
+   * The default queue name.
+   */
+  String DEFAULT_QUEUE_NAME = "default";
+
+  /**
+   * Queue name. Queues with different names share the same table but never see each others
+   * messages.
+   *
+   * @return the string
+   */
+  @Value.Default
+  default String queueName() {
+    return DEFAULT_QUEUE_NAME;
+  }
+
   /**
    * Wait between polls seconds int.
    *
@@ -48,6 +66,18 @@ public interface QueueConfiguration {
     return 15;
   }
 
+  /**
+   * Number of shards the queue is split into. Each shard has its own claim loop, so claims are
+   * spread over more threads and index ranges. Messages are assigned a shard by hash, or by
+   * ordering key when they have one.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int shardCount() {
+    return 1;
+  }
+
   /**
    * Queue executor min threads int.
    *
@@ -75,4 +105,131 @@ public interface QueueConfiguration {
     return 30;
   }
 
+  /**
+   * Time to live in seconds per message type. Used for messages enqueued without their own
+   * time to live.
+   *
+   * @return the map
+   */
+  Map<String, Long> messageTypeTimeToLiveSeconds();
+
+  /**
+   * Seconds between expiry sweeps, which remove pending messages past their time to live.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int expirySweepIntervalSeconds() {
+    return 60;
+  }
+
+  /**
+   * Max number of messages reset to pending per statement while recovering the messages a previous
+   * run left activating or processing.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int recoveryChunkSize() {
+    return 1000;
+  }
+
+  /**
+   * Max number of expired messages deleted per statement during an expiry sweep.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int expirySweepBatchSize() {
+    return 500;
+  }
+
+  /**
+   * Seconds between reconciling the in-memory state counters with the database.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int stateCountReconcileIntervalSeconds() {
+    return 300;
+  }
+
+  /**
+   * Seconds a claimed message may stay activating or processing before it is returned to pending
+   * for another run, for message types without their own. Zero, the default, never returns them.
+   *
+   * @return the long
+   */
+  @Value.Default
+  default long visibilityTimeoutSeconds() {
+    return 0;
+  }
+
+  /**
+   * Visibility timeout in seconds per message type, overriding the default one. Zero turns it off
+   * for the type.
+   *
+   * @return the map
+   */
+  Map<String, Long> messageTypeVisibilityTimeoutSeconds();
+
+  /**
+   * Seconds between sweeps for messages past their visibility timeout.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int visibilitySweepIntervalSeconds() {
+    return 10;
+  }
+
+  /**
+   * Seconds a claim is leased for. Zero, the default, turns leases off: the queue assumes it is the
+   * only process using the database, and on start up returns every message left activating or
+   * processing to pending. Above zero, each claim records this process as the owner until the
+   * lease runs out. Leases are renewed in the background, and only messages whose lease ran out
+   * are returned to pending, so several processes can share one database.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int leaseSeconds() {
+    return 0;
+  }
+
+  /**
+   * The owner recorded on claims when leases are on. Must differ between processes sharing the
+   * database. Random by default.
+   *
+   * @return the string
+   */
+  @Value.Default
+  default String ownerId() {
+    return UUID.randomUUID().toString();
+  }
+
+  /**
+   * Max number of message states cached in memory for getState. Only messages enqueued or claimed
+   * by this process are cached. Zero disables the cache, as do leases, since other processes change
+   * the same messages.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int stateCacheSize() {
+    return 10_000;
+  }
+
+  /**
+   * Seconds between checks for changes to the overrides in the QUEUE_SETTINGS table. A check is one
+   * small query, and the overrides are only read when it finds a change. Zero only reads them on
+   * start up.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int settingsRefreshSeconds() {
+    return 30;
+  }
+
 }
@@ -1,21 +1,59 @@
 package com.codeheadsystems.queue;
 
 /**
- * The enum Queue state.
+ * The enum Queue state. Stored in the database as its code, so never reuse or change a code.
  */
 public enum State {
 
   /**
    * Pending queue state. Used for adding requests to the queue.
    */
-  PENDING,
+  PENDING(0),
   /**
    * Activate queue state. When the worker is assigned the request, and it is close to running.
    */
-  ACTIVATING,
+  ACTIVATING(1),
   /**
    * PROCESSING queue state. Used when the work is executing the request.
    */
-  PROCESSING
+  PROCESSING(2);
+
+  private static final State[] BY_CODE = byCode();
+
+  private final int code;
+
+  State(final int code) {
+    this.code = code;
+  }
+
+  private static State[] byCode() {
+    final State[] states = new State[values().length];
+    for (State state : values()) {
+      states[state.code] = state;
+    }
+    return states;
+  }
+
+  /**
+   * The state for the code.
+   *
+   * @param code the code
+   * @return the state
+   */
+  public static State fromCode(final int code) {
+    if (code < 0 || code >= BY_CODE.length) {
+      throw new IllegalArgumentException("Unknown state code: " + code);
+    }
+    return BY_CODE[code];
+  }
+
+  /**
+   * The code stored in the database.
+   *
+   * @return the code
+   */
+  public int code() {
+    return code;
+  }
 
 }
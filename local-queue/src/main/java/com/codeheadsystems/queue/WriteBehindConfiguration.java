@@ -0,0 +1,35 @@
+package com.codeheadsystems.queue;
+
+import org.immutables.value.Value;
+
+/**
+ * Configuration of the write-behind store, used when the queue module is created with
+ * {@code QueueModule.writeBehind()}. Messages are kept in memory and copied to the database in the
+ * background.
+ */
+@Value.Immutable
+public interface WriteBehindConfiguration {
+
+  /**
+   * Millis between checkpoints, which copy the changed messages to the database. This is how much
+   * a crash can lose. Messages enqueued and cleared within one checkpoint never reach the database.
+   * Zero copies every change before the call returns.
+   *
+   * @return the long
+   */
+  @Value.Default
+  default long checkpointIntervalMillis() {
+    return 100;
+  }
+
+  /**
+   * Max changed messages written to the database in one transaction.
+   *
+   * @return the int
+   */
+  @Value.Default
+  default int checkpointBatchSize() {
+    return 500;
+  }
+
+}
@@ -0,0 +1,729 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A message dao that keeps everything in memory. Nothing survives a restart, so use it for
+ * ephemeral work and tests. It follows the same contract as the database: the hash and the
+ * supersede key are unique, and breaking either throws the same exception the database would, so
+ * the message manager behaves the same on top of it.
+ *
+ * <p>Messages are held in a concurrent map by hash. Pending messages are also indexed per queue
+ * and shard in a skip list ordered by timestamp, so claiming never scans the backlog. Each row is
+ * locked on its own while it changes state.
+ */
+public class InMemoryMessageDao implements MessageDao {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryMessageDao.class);
+  private static final Comparator<Row> OLDEST_FIRST = Comparator.<Row>comparingLong(row -> row.message.timestamp())
+      .thenComparingLong(row -> row.message.hash());
+
+  private final Map<Long, Row> rows;
+  private final Map<String, Map<Integer, ConcurrentSkipListSet<Row>>> pending;
+  private final Map<SupersedeKey, Long> supersedeKeys;
+  private final Map<String, Integer> messageTypes;
+  private final AtomicInteger messageTypeIds;
+
+  /**
+   * Instantiates a new In memory message dao.
+   */
+  public InMemoryMessageDao() {
+    this.rows = new ConcurrentHashMap<>();
+    this.pending = new ConcurrentHashMap<>();
+    this.supersedeKeys = new ConcurrentHashMap<>();
+    this.messageTypes = new ConcurrentHashMap<>();
+    this.messageTypeIds = new AtomicInteger();
+    LOGGER.info("InMemoryMessageDao()");
+  }
+
+  @Override
+  public void store(final Message message, final String queueName, final int shard, final State state) {
+    final Row row = new Row(message, queueName, shard, state);
+    if (rows.putIfAbsent(message.hash(), row) != null) {
+      throw integrityViolation("Duplicate hash: " + message.hash());
+    }
+    if (row.supersedeKey != null && supersedeKeys.putIfAbsent(row.supersedeKey, message.hash()) != null) {
+      rows.remove(message.hash(), row);
+      throw integrityViolation("Duplicate supersede key: " + row.supersedeKey);
+    }
+    synchronized (row) {
+      if (state == State.PENDING && !row.deleted) {
+        pendingIndex(queueName, shard).add(row);
+      }
+    }
+    changed(message.hash());
+  }
+
+  @Override
+  public void store(final List<Message> messages,
+                    final List<String> queueNames,
+                    final List<Integer> shards,
+                    final List<State> states) {
+    for (int i = 0; i < messages.size(); i++) {
+      store(messages.get(i), queueNames.get(i), shards.get(i), states.get(i));
+    }
+  }
+
+  @Override
+  public List<Long> supersededHashes(final Message message, final String queueName, final State state) {
+    return message.supersedeKey()
+        .map(key -> supersedeKeys.get(new SupersedeKey(queueName, message.messageTypeId(), key)))
+        .map(rows::get)
+        .filter(row -> row.state() == state)
+        .map(row -> List.of(row.message.hash()))
+        .orElse(List.of());
+  }
+
+  @Override
+  public int deleteSuperseded(final Message message, final String queueName, final State state) {
+    return message.supersedeKey()
+        .map(key -> supersedeKeys.get(new SupersedeKey(queueName, message.messageTypeId(), key)))
+        .map(rows::get)
+        .map(row -> remove(row, state) ? 1 : 0)
+        .orElse(0);
+  }
+
+  @Override
+  public Optional<Integer> messageTypeId(final String name) {
+    return Optional.ofNullable(messageTypes.get(name));
+  }
+
+  @Override
+  public synchronized int insertMessageType(final String name) {
+    if (messageTypes.containsKey(name)) {
+      throw integrityViolation("Duplicate message type: " + name);
+    }
+    final int id = messageTypeIds.incrementAndGet();
+    messageTypes.put(name, id);
+    return id;
+  }
+
+  @Override
+  public Optional<Message> readByHash(final long hash, final String queueName) {
+    return row(hash, queueName).map(Row::message);
+  }
+
+  @Override
+  public Optional<State> stateOf(final Message message, final String queueName) {
+    return row(message.hash(), queueName).map(Row::state);
+  }
+
+  @Override
+  public Map<Long, State> statesOf(final List<Long> hashes, final String queueName) {
+    final Map<Long, State> states = new HashMap<>();
+    for (Long hash : hashes) {
+      final Row row = rows.get(hash);
+      if (row != null && row.queueName.equals(queueName)) {
+        states.put(hash, row.state());
+      }
+    }
+    return states;
+  }
+
+  @Override
+  public List<StateCount> counts(final String queueName) {
+    final Map<Integer, long[]> counts = new HashMap<>();
+    final Map<Integer, String> names = new HashMap<>();
+    for (Row row : rows.values()) {
+      if (row.queueName.equals(queueName)) {
+        final int messageTypeId = row.message.messageTypeId();
+        names.putIfAbsent(messageTypeId, row.message.messageType());
+        counts.computeIfAbsent(messageTypeId, id -> new long[State.values().length])[row.state().code()]++;
+      }
+    }
+    final List<StateCount> result = new ArrayList<>();
+    counts.forEach((messageTypeId, stateCounts) -> {
+      for (State state : State.values()) {
+        if (stateCounts[state.code()] > 0) {
+          result.add(ImmutableStateCount.builder()
+              .messageType(names.get(messageTypeId))
+              .messageTypeId(messageTypeId)
+              .state(state)
+              .count(stateCounts[state.code()])
+              .build());
+        }
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public List<Message> forState(final String queueName, final State state) {
+    return forState(queueName, state, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public List<Message> forState(final String queueName, final State state, final int limit) {
+    return rows.values().stream()
+        .filter(row -> row.queueName.equals(queueName) && row.state() == state)
+        .sorted(OLDEST_FIRST)
+        .limit(limit)
+        .map(Row::message)
+        .toList();
+  }
+
+  @Override
+  public List<String> queueNames() {
+    return rows.values().stream().map(row -> row.queueName).distinct().toList();
+  }
+
+  @Override
+  public List<Integer> shards(final String queueName) {
+    return rows.values().stream()
+        .filter(row -> row.queueName.equals(queueName))
+        .map(row -> row.shard)
+        .distinct()
+        .toList();
+  }
+
+  @Override
+  public List<Message> forShard(final String queueName, final int shard, final State state) {
+    return rows.values().stream()
+        .filter(row -> row.queueName.equals(queueName) && row.shard == shard && row.state() == state)
+        .map(Row::message)
+        .toList();
+  }
+
+  @Override
+  public List<Message> forStateUnexpired(final String queueName,
+                                         final int shard,
+                                         final State state,
+                                         final long now,
+                                         final int limit) {
+    if (state != State.PENDING) {
+      return rows.values().stream()
+          .filter(row -> row.queueName.equals(queueName) && row.shard == shard && row.state() == state)
+          .filter(row -> unexpired(row, now))
+          .sorted(OLDEST_FIRST)
+          .limit(limit)
+          .map(Row::message)
+          .toList();
+    }
+    final List<Message> messages = new ArrayList<>(Math.min(limit, 64));
+    for (Row row : pendingIndex(queueName, shard)) {
+      if (messages.size() >= limit) {
+        break;
+      }
+      if (unexpired(row, now)) {
+        messages.add(row.message());
+      }
+    }
+    return messages;
+  }
+
+  @Override
+  public List<Message> forStateUnexpiredExcluding(final String queueName,
+                                                  final int shard,
+                                                  final State state,
+                                                  final long now,
+                                                  final Collection<Integer> messageTypeIds,
+                                                  final int limit) {
+    if (state != State.PENDING) {
+      return forStateUnexpired(queueName, shard, state, now, Integer.MAX_VALUE).stream()
+          .filter(message -> !messageTypeIds.contains(message.messageTypeId()))
+          .limit(limit)
+          .toList();
+    }
+    final List<Message> messages = new ArrayList<>(Math.min(limit, 64));
+    for (Row row : pendingIndex(queueName, shard)) {
+      if (messages.size() >= limit) {
+        break;
+      }
+      if (unexpired(row, now) && !messageTypeIds.contains(row.message.messageTypeId())) {
+        messages.add(row.message());
+      }
+    }
+    return messages;
+  }
+
+  @Override
+  public Map<Long, Integer> expired(final String queueName, final State state, final long now, final int limit) {
+    final Map<Long, Integer> expired = new HashMap<>();
+    rows.values().stream()
+        .filter(row -> row.queueName.equals(queueName) && row.state() == state && !unexpired(row, now))
+        .limit(limit)
+        .forEach(row -> expired.put(row.message.hash(), row.message.messageTypeId()));
+    return expired;
+  }
+
+  @Override
+  public int deleteInState(final List<Long> hashes, final State state) {
+    int deleted = 0;
+    for (Long hash : hashes) {
+      final Row row = rows.get(hash);
+      if (row != null && remove(row, state)) {
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  @Override
+  public int[] deleteEachInState(final List<Long> hashes, final State state) {
+    final int[] deleted = new int[hashes.size()];
+    for (int i = 0; i < deleted.length; i++) {
+      deleted[i] = deleteInState(List.of(hashes.get(i)), state);
+    }
+    return deleted;
+  }
+
+  @Override
+  public void updateState(final Message message, final State state) {
+    final Row row = rows.get(message.hash());
+    if (row != null) {
+      synchronized (row) {
+        if (!row.deleted) {
+          moveTo(row, state);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int updateStateOwned(final Message message, final State state, final String owner) {
+    final Row row = rows.get(message.hash());
+    if (row == null) {
+      return 0;
+    }
+    synchronized (row) {
+      if (row.deleted || !owner.equals(row.owner)) {
+        return 0;
+      }
+      moveTo(row, state);
+      return 1;
+    }
+  }
+
+  @Override
+  public int releaseOwned(final Message message, final State expected, final State state, final String owner) {
+    final Row row = rows.get(message.hash());
+    if (row == null) {
+      return 0;
+    }
+    synchronized (row) {
+      if (row.deleted || row.state != expected || !owner.equals(row.owner)) {
+        return 0;
+      }
+      row.owner = null;
+      row.leaseExpiresAt = null;
+      moveTo(row, state);
+      return 1;
+    }
+  }
+
+  @Override
+  public int claim(final Message message, final State expected, final State state) {
+    final Row row = rows.get(message.hash());
+    if (row == null) {
+      return 0;
+    }
+    synchronized (row) {
+      if (row.deleted || row.state != expected) {
+        return 0;
+      }
+      moveTo(row, state);
+      releaseSupersedeKey(row);
+      return 1;
+    }
+  }
+
+  @Override
+  public int claimLeased(final Message message,
+                         final State expected,
+                         final State state,
+                         final String owner,
+                         final long leaseExpiresAt) {
+    final Row row = rows.get(message.hash());
+    if (row == null) {
+      return 0;
+    }
+    synchronized (row) {
+      if (row.deleted || row.state != expected) {
+        return 0;
+      }
+      row.owner = owner;
+      row.leaseExpiresAt = leaseExpiresAt;
+      moveTo(row, state);
+      releaseSupersedeKey(row);
+      return 1;
+    }
+  }
+
+  @Override
+  public int renewLeases(final String queueName, final String owner, final long leaseExpiresAt) {
+    int renewed = 0;
+    for (Row row : rows.values()) {
+      if (row.queueName.equals(queueName) && owner.equals(row.owner)) {
+        row.leaseExpiresAt = leaseExpiresAt;
+        renewed++;
+      }
+    }
+    return renewed;
+  }
+
+  @Override
+  public List<Long> expiredLeases(final String queueName, final State state, final long now, final int limit) {
+    return rows.values().stream()
+        .filter(row -> row.queueName.equals(queueName) && row.state() == state && leaseExpired(row, now))
+        .limit(limit)
+        .map(row -> row.message.hash())
+        .toList();
+  }
+
+  @Override
+  public int reapExpired(final List<Long> hashes, final State expected, final State state, final long now) {
+    int reaped = 0;
+    for (Long hash : hashes) {
+      if (reap(hash, expected, state, now)) {
+        reaped++;
+      }
+    }
+    return reaped;
+  }
+
+  /**
+   * Moves the message to the new state and drops its owner and lease, if it is still in the
+   * expected state and its lease ran out. The same row lock covers the check and the move, so an
+   * owner renewing at the same time either keeps its message or loses it whole.
+   *
+   * @param hash     the hash
+   * @param expected the state the message must be in
+   * @param state    the new state
+   * @param now      the current time in epoch millis
+   * @return true if the message was reaped.
+   */
+  boolean reap(final long hash, final State expected, final State state, final long now) {
+    final Row row = rows.get(hash);
+    if (row == null) {
+      return false;
+    }
+    synchronized (row) {
+      if (row.deleted || row.state != expected || !leaseExpired(row, now)) {
+        return false;
+      }
+      row.owner = null;
+      row.leaseExpiresAt = null;
+      moveTo(row, state);
+      return true;
+    }
+  }
+
+  @Override
+  public List<Long> hashesInState(final String queueName,
+                                  final int shard,
+                                  final State state,
+                                  final long after,
+                                  final int limit) {
+    return rows.values().stream()
+        .filter(row -> row.queueName.equals(queueName) && row.shard == shard && row.state() == state)
+        .map(row -> row.message.hash())
+        .filter(hash -> hash > after)
+        .sorted()
+        .limit(limit)
+        .toList();
+  }
+
+  @Override
+  public int updateInState(final List<Long> hashes, final State expected, final State state) {
+    int updated = 0;
+    for (Long hash : hashes) {
+      final Row row = rows.get(hash);
+      if (row != null) {
+        synchronized (row) {
+          if (!row.deleted && row.state == expected) {
+            moveTo(row, state);
+            updated++;
+          }
+        }
+      }
+    }
+    return updated;
+  }
+
+  @Override
+  public int rebalanceShards(final String queueName, final int shardCount) {
+    int moved = 0;
+    for (Row row : rows.values()) {
+      if (row.queueName.equals(queueName)) {
+        synchronized (row) {
+          if (!row.deleted && row.shard >= shardCount) {
+            final boolean wasPending = row.state == State.PENDING;
+            if (wasPending) {
+              pendingIndex(queueName, row.shard).remove(row);
+            }
+            row.shard = Math.floorMod(row.shard, shardCount);
+            if (wasPending) {
+              pendingIndex(queueName, row.shard).add(row);
+            }
+            changed(row.message.hash());
+            moved++;
+          }
+        }
+      }
+    }
+    return moved;
+  }
+
+  @Override
+  public void updateAllToState(final String queueName, final State state) {
+    for (Row row : rows.values()) {
+      if (row.queueName.equals(queueName)) {
+        synchronized (row) {
+          if (!row.deleted) {
+            moveTo(row, state);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public int delete(final Message message, final String queueName) {
+    return row(message.hash(), queueName).filter(row -> remove(row, null)).isPresent() ? 1 : 0;
+  }
+
+  @Override
+  public int deleteOwned(final Message message, final String owner) {
+    final Row row = rows.get(message.hash());
+    if (row == null) {
+      return 0;
+    }
+    synchronized (row) { // the lock is reentrant, so the owner cannot change before the remove.
+      return owner.equals(row.owner) && remove(row, null) ? 1 : 0;
+    }
+  }
+
+  @Override
+  public int[] delete(final List<Message> messages, final String queueName) {
+    final int[] deleted = new int[messages.size()];
+    for (int i = 0; i < deleted.length; i++) {
+      deleted[i] = delete(messages.get(i), queueName);
+    }
+    return deleted;
+  }
+
+  @Override
+  public int[] deleteByHash(final List<Message> messages) {
+    final int[] deleted = new int[messages.size()];
+    for (int i = 0; i < deleted.length; i++) {
+      final Row row = rows.get(messages.get(i).hash());
+      deleted[i] = row != null && remove(row, null) ? 1 : 0;
+    }
+    return deleted;
+  }
+
+  @Override
+  public void deleteAll(final String queueName) {
+    for (Row row : rows.values()) {
+      if (row.queueName.equals(queueName)) {
+        remove(row, null);
+      }
+    }
+  }
+
+  /**
+   * Number of messages held, over all queues.
+   *
+   * @return the size
+   */
+  public int size() {
+    return rows.size();
+  }
+
+  /**
+   * Registers the message type with a known id, as when restoring from a copy.
+   *
+   * @param name the message type
+   * @param id   the id
+   */
+  synchronized void restoreMessageType(final String name, final int id) {
+    messageTypes.put(name, id);
+    messageTypeIds.accumulateAndGet(id, Math::max);
+  }
+
+  /**
+   * The registered message types.
+   *
+   * @return map of message type to id
+   */
+  Map<String, Integer> messageTypes() {
+    return Map.copyOf(messageTypes);
+  }
+
+  /**
+   * Visits every stored message. Only consistent if nothing changes while it runs.
+   *
+   * @param visitor the visitor
+   */
+  void forEachMessage(final MessageVisitor visitor) {
+    for (Row row : rows.values()) {
+      synchronized (row) {
+        if (!row.deleted) {
+          visitor.visit(row.message, row.queueName, row.shard, row.state);
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits the stored message with the hash, if there is one.
+   *
+   * @param hash    the hash
+   * @param visitor the visitor
+   * @return true if the message was found
+   */
+  boolean visitMessage(final long hash, final MessageVisitor visitor) {
+    final Row row = rows.get(hash);
+    if (row == null) {
+      return false;
+    }
+    synchronized (row) {
+      if (row.deleted) {
+        return false;
+      }
+      visitor.visit(row.message, row.queueName, row.shard, row.state);
+      return true;
+    }
+  }
+
+  /**
+   * Called after the message with the hash was stored, changed or removed. Subclasses that copy the
+   * messages elsewhere use it to know what to copy. May be called with the message's lock held, so
+   * keep it short.
+   *
+   * @param hash the hash
+   */
+  void changed(final long hash) {
+  }
+
+  private boolean leaseExpired(final Row row, final long now) {
+    final Long leaseExpiresAt = row.leaseExpiresAt;
+    return leaseExpiresAt == null || leaseExpiresAt <= now;
+  }
+
+  private boolean unexpired(final Row row, final long now) {
+    return row.message.expiresAt().map(expiresAt -> expiresAt > now).orElse(true);
+  }
+
+  private ConcurrentSkipListSet<Row> pendingIndex(final String queueName, final int shard) {
+    return pending.computeIfAbsent(queueName, name -> new ConcurrentHashMap<>())
+        .computeIfAbsent(shard, s -> new ConcurrentSkipListSet<>(OLDEST_FIRST));
+  }
+
+  // callers hold the row lock.
+  private void moveTo(final Row row, final State state) {
+    if (row.state == State.PENDING && state != State.PENDING) {
+      pendingIndex(row.queueName, row.shard).remove(row);
+    } else if (row.state != State.PENDING && state == State.PENDING) {
+      pendingIndex(row.queueName, row.shard).add(row);
+    }
+    row.state = state;
+    changed(row.message.hash());
+  }
+
+  // callers hold the row lock.
+  private void releaseSupersedeKey(final Row row) {
+    if (row.supersedeKey != null) {
+      supersedeKeys.remove(row.supersedeKey, row.message.hash());
+      row.supersedeKey = null;
+      row.message = ImmutableMessage.copyOf(row.message).withSupersedeKey(Optional.empty());
+      changed(row.message.hash());
+    }
+  }
+
+  /**
+   * Removes the row, if it is in the state. A null state removes it whatever state it is in.
+   */
+  private Optional<Row> row(final long hash, final String queueName) {
+    return Optional.ofNullable(rows.get(hash)).filter(row -> row.queueName.equals(queueName));
+  }
+
+  private boolean remove(final Row row, final State state) {
+    synchronized (row) {
+      if (row.deleted || (state != null && row.state != state)) {
+        return false;
+      }
+      row.deleted = true;
+      if (row.state == State.PENDING) {
+        pendingIndex(row.queueName, row.shard).remove(row);
+      }
+      releaseSupersedeKey(row);
+    }
+    final boolean removed = rows.remove(row.message.hash(), row);
+    changed(row.message.hash());
+    return removed;
+  }
+
+  private static UnableToExecuteStatementException integrityViolation(final String reason) {
+    return new UnableToExecuteStatementException(reason, new SQLIntegrityConstraintViolationException(reason), null);
+  }
+
+  /**
+   * A message as it is stored. The message only changes when claiming releases its supersede key.
+   */
+  private static class Row {
+
+    private final String queueName;
+    private volatile Message message;
+    private volatile int shard;
+    private volatile State state;
+    private volatile String owner;
+    private volatile Long leaseExpiresAt;
+    private SupersedeKey supersedeKey;
+    private boolean deleted;
+
+    private Row(final Message message, final String queueName, final int shard, final State state) {
+      this.message = message;
+      this.queueName = queueName;
+      this.shard = shard;
+      this.state = state;
+      this.supersedeKey = message.supersedeKey()
+          .map(key -> new SupersedeKey(queueName, message.messageTypeId(), key))
+          .orElse(null);
+    }
+
+    private Message message() {
+      return message;
+    }
+
+    private State state() {
+      return state;
+    }
+  }
+
+  /**
+   * Gets each stored message with where it is stored.
+   */
+  @FunctionalInterface
+  interface MessageVisitor {
+
+    /**
+     * Visit.
+     *
+     * @param message   the message
+     * @param queueName the queue name
+     * @param shard     the shard
+     * @param state     the state
+     */
+    void visit(Message message, String queueName, int shard, State state);
+  }
+
+  private record SupersedeKey(String queueName, int messageTypeId, String key) {
+  }
+
+}
@@ -0,0 +1,573 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.LogStoreConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import io.dropwizard.lifecycle.Managed;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A durable message dao without a database. Messages are held in memory as with the
+ * {@link InMemoryMessageDao}, and every change is appended to a {@link MessageLog} before the call
+ * returns. On start up the log is replayed to rebuild the messages. The log is compacted in the
+ * background by writing the live messages to a snapshot, which drops deleted messages and old
+ * state changes. The snapshot is written from a copy taken under the lock, so changes carry on
+ * while it is written.
+ *
+ * <p>Changes are applied and logged under one lock, so the log replays in the order the changes
+ * happened. Reads never take it.
+ */
+public class LogMessageDao extends InMemoryMessageDao implements Managed {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LogMessageDao.class);
+
+  private static final byte STORE = 1;
+  private static final byte DELETE_SUPERSEDED = 2;
+  private static final byte MESSAGE_TYPE = 3;
+  private static final byte UPDATE_STATE = 4;
+  private static final byte CLAIM = 5;
+  private static final byte UPDATE_IN_STATE = 6;
+  private static final byte REBALANCE_SHARDS = 7;
+  private static final byte UPDATE_ALL_TO_STATE = 8;
+  private static final byte DELETE = 9;
+  private static final byte DELETE_IN_STATE = 10;
+  private static final byte DELETE_ALL = 11;
+
+  private final LogStoreConfiguration configuration;
+  private final MessageLog log;
+  private final Object lock;
+  private final Object compactionLock;
+  private final RecordBuffer buffer;
+  private final DataOutputStream out;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Instantiates a new Log message dao, replaying whatever is already in the log directory.
+   *
+   * @param configuration the configuration
+   */
+  public LogMessageDao(final LogStoreConfiguration configuration) {
+    this.configuration = configuration;
+    this.log = new MessageLog(Path.of(configuration.directory()), configuration.segmentBytes(),
+        configuration.fsyncPolicy());
+    this.lock = new Object();
+    this.compactionLock = new Object();
+    this.buffer = new RecordBuffer();
+    this.out = new DataOutputStream(buffer);
+    synchronized (lock) {
+      log.replay(this::apply);
+    }
+    LOGGER.info("LogMessageDao({}): {} messages", configuration, size());
+  }
+
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    synchronized (lock) {
+      if (scheduler == null) {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        if (configuration.fsyncPolicy() == LogStoreConfiguration.FsyncPolicy.INTERVAL) {
+          scheduler.scheduleAtFixedRate(this::force, configuration.fsyncIntervalMillis(),
+              configuration.fsyncIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleWithFixedDelay(this::compactIfNeeded, configuration.compactionIntervalSeconds(),
+            configuration.compactionIntervalSeconds(), TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    LOGGER.info("stop()");
+    final ScheduledExecutorService running;
+    synchronized (lock) {
+      running = scheduler;
+      scheduler = null;
+    }
+    if (running != null) {
+      running.shutdown();
+      running.awaitTermination(15, TimeUnit.SECONDS);
+    }
+    synchronized (lock) {
+      log.close();
+    }
+  }
+
+  /**
+   * Writes the live messages to a snapshot and drops the older segments.
+   */
+  public void compact() {
+    LOGGER.trace("compact()");
+    synchronized (compactionLock) {
+      final Map<String, Integer> messageTypes;
+      final List<Live> live = new ArrayList<>();
+      final long number;
+      synchronized (lock) {
+        messageTypes = messageTypes();
+        forEachMessage((message, queueName, shard, state) -> live.add(new Live(message, queueName, shard, state)));
+        number = log.startSnapshot(); // changes from here on go to the next segment.
+      }
+      final RecordBuffer snapshotBuffer = new RecordBuffer();
+      final DataOutputStream snapshotOut = new DataOutputStream(snapshotBuffer);
+      log.writeSnapshot(number, sink -> {
+        messageTypes.forEach((name, id) ->
+            sink.accept(encode(snapshotBuffer, snapshotOut, o -> writeMessageType(o, name, id))));
+        live.forEach(row -> sink.accept(encode(snapshotBuffer, snapshotOut,
+            o -> writeStore(o, row.message(), row.queueName(), row.shard(), row.state()))));
+      });
+    }
+  }
+
+  private void compactIfNeeded() {
+    try {
+      if (log.bytesSinceSnapshot() >= configuration.compactionThresholdBytes()) {
+        compact();
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("Compaction failed, will try again later", e);
+    }
+  }
+
+  private void force() {
+    try {
+      log.force();
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to force the log to disk", e);
+    }
+  }
+
+  @Override
+  public void store(final Message message, final String queueName, final int shard, final State state) {
+    synchronized (lock) {
+      super.store(message, queueName, shard, state);
+      append(o -> writeStore(o, message, queueName, shard, state));
+    }
+  }
+
+  @Override
+  public int supersede(final Message message, final String queueName, final int shard) {
+    synchronized (lock) {
+      return super.supersede(message, queueName, shard);
+    }
+  }
+
+  @Override
+  public int deleteSuperseded(final Message message, final String queueName, final State state) {
+    synchronized (lock) {
+      final int deleted = super.deleteSuperseded(message, queueName, state);
+      if (deleted > 0) {
+        append(o -> {
+          o.writeByte(DELETE_SUPERSEDED);
+          writeString(o, queueName);
+          o.writeInt(message.messageTypeId());
+          writeString(o, message.supersedeKey().orElseThrow());
+          o.writeByte(state.code());
+        });
+      }
+      return deleted;
+    }
+  }
+
+  @Override
+  public int insertMessageType(final String name) {
+    synchronized (lock) {
+      final int id = super.insertMessageType(name);
+      append(o -> writeMessageType(o, name, id));
+      return id;
+    }
+  }
+
+  @Override
+  public void updateState(final Message message, final State state) {
+    synchronized (lock) {
+      super.updateState(message, state);
+      append(o -> {
+        o.writeByte(UPDATE_STATE);
+        o.writeLong(message.hash());
+        o.writeByte(state.code());
+      });
+    }
+  }
+
+  @Override
+  public int updateStateOwned(final Message message, final State state, final String owner) {
+    synchronized (lock) {
+      final int updated = super.updateStateOwned(message, state, owner);
+      if (updated > 0) {
+        append(o -> {
+          o.writeByte(UPDATE_STATE);
+          o.writeLong(message.hash());
+          o.writeByte(state.code());
+        });
+      }
+      return updated;
+    }
+  }
+
+  @Override
+  public int releaseOwned(final Message message, final State expected, final State state, final String owner) {
+    synchronized (lock) {
+      final int released = super.releaseOwned(message, expected, state, owner);
+      if (released > 0) {
+        append(o -> {
+          o.writeByte(UPDATE_IN_STATE);
+          writeHashes(o, List.of(message.hash()));
+          o.writeByte(expected.code());
+          o.writeByte(state.code());
+        });
+      }
+      return released;
+    }
+  }
+
+  @Override
+  public int claim(final Message message, final State expected, final State state) {
+    synchronized (lock) {
+      final int claimed = super.claim(message, expected, state);
+      if (claimed > 0) {
+        append(o -> {
+          o.writeByte(CLAIM);
+          o.writeLong(message.hash());
+          o.writeByte(expected.code());
+          o.writeByte(state.code());
+        });
+      }
+      return claimed;
+    }
+  }
+
+  // Leases are not logged: after a restart the process that held them is gone, so they have run out.
+  @Override
+  public int claimLeased(final Message message,
+                         final State expected,
+                         final State state,
+                         final String owner,
+                         final long leaseExpiresAt) {
+    synchronized (lock) {
+      final int claimed = super.claimLeased(message, expected, state, owner, leaseExpiresAt);
+      if (claimed > 0) {
+        append(o -> {
+          o.writeByte(CLAIM);
+          o.writeLong(message.hash());
+          o.writeByte(expected.code());
+          o.writeByte(state.code());
+        });
+      }
+      return claimed;
+    }
+  }
+
+  @Override
+  public int updateInState(final List<Long> hashes, final State expected, final State state) {
+    synchronized (lock) {
+      final int updated = super.updateInState(hashes, expected, state);
+      if (updated > 0) {
+        append(o -> {
+          o.writeByte(UPDATE_IN_STATE);
+          writeHashes(o, hashes);
+          o.writeByte(expected.code());
+          o.writeByte(state.code());
+        });
+      }
+      return updated;
+    }
+  }
+
+  // Only the reaped hashes are logged, as the leases that kept the others are not.
+  @Override
+  public int reapExpired(final List<Long> hashes, final State expected, final State state, final long now) {
+    synchronized (lock) {
+      final List<Long> reaped = new ArrayList<>();
+      for (Long hash : hashes) {
+        if (reap(hash, expected, state, now)) {
+          reaped.add(hash);
+        }
+      }
+      if (!reaped.isEmpty()) {
+        append(o -> {
+          o.writeByte(UPDATE_IN_STATE);
+          writeHashes(o, reaped);
+          o.writeByte(expected.code());
+          o.writeByte(state.code());
+        });
+      }
+      return reaped.size();
+    }
+  }
+
+  @Override
+  public int rebalanceShards(final String queueName, final int shardCount) {
+    synchronized (lock) {
+      final int moved = super.rebalanceShards(queueName, shardCount);
+      if (moved > 0) {
+        append(o -> {
+          o.writeByte(REBALANCE_SHARDS);
+          writeString(o, queueName);
+          o.writeInt(shardCount);
+        });
+      }
+      return moved;
+    }
+  }
+
+  @Override
+  public void updateAllToState(final String queueName, final State state) {
+    synchronized (lock) {
+      super.updateAllToState(queueName, state);
+      append(o -> {
+        o.writeByte(UPDATE_ALL_TO_STATE);
+        writeString(o, queueName);
+        o.writeByte(state.code());
+      });
+    }
+  }
+
+  @Override
+  public int delete(final Message message, final String queueName) {
+    synchronized (lock) {
+      final int deleted = super.delete(message, queueName);
+      if (deleted > 0) {
+        append(o -> {
+          o.writeByte(DELETE);
+          o.writeLong(message.hash());
+        });
+      }
+      return deleted;
+    }
+  }
+
+  @Override
+  public int[] deleteByHash(final List<Message> messages) {
+    synchronized (lock) {
+      final int[] deleted = super.deleteByHash(messages);
+      for (int i = 0; i < deleted.length; i++) {
+        if (deleted[i] > 0) {
+          final long hash = messages.get(i).hash();
+          append(o -> {
+            o.writeByte(DELETE);
+            o.writeLong(hash);
+          });
+        }
+      }
+      return deleted;
+    }
+  }
+
+  @Override
+  public int deleteOwned(final Message message, final String owner) {
+    synchronized (lock) {
+      final int deleted = super.deleteOwned(message, owner);
+      if (deleted > 0) {
+        append(o -> {
+          o.writeByte(DELETE);
+          o.writeLong(message.hash());
+        });
+      }
+      return deleted;
+    }
+  }
+
+  @Override
+  public int deleteInState(final List<Long> hashes, final State state) {
+    synchronized (lock) {
+      final int deleted = super.deleteInState(hashes, state);
+      if (deleted > 0) {
+        append(o -> {
+          o.writeByte(DELETE_IN_STATE);
+          writeHashes(o, hashes);
+          o.writeByte(state.code());
+        });
+      }
+      return deleted;
+    }
+  }
+
+  @Override
+  public void deleteAll(final String queueName) {
+    synchronized (lock) {
+      super.deleteAll(queueName);
+      append(o -> {
+        o.writeByte(DELETE_ALL);
+        writeString(o, queueName);
+      });
+    }
+  }
+
+  // Replay. Goes straight to the in-memory methods so nothing is logged again.
+  private void apply(final ByteBuffer record) {
+    final byte type = record.get();
+    switch (type) {
+      case STORE -> {
+        final Message message = readMessage(record);
+        super.store(message, readString(record), record.getInt(), State.fromCode(record.get()));
+      }
+      case DELETE_SUPERSEDED -> {
+        final String queueName = readString(record);
+        final Message key = stub(0L, record.getInt(), readString(record));
+        super.deleteSuperseded(key, queueName, State.fromCode(record.get()));
+      }
+      case MESSAGE_TYPE -> {
+        final String name = readString(record);
+        restoreMessageType(name, record.getInt());
+      }
+      case UPDATE_STATE -> super.updateState(stub(record.getLong(), 0, null), State.fromCode(record.get()));
+      case CLAIM -> super.claim(stub(record.getLong(), 0, null),
+          State.fromCode(record.get()), State.fromCode(record.get()));
+      case UPDATE_IN_STATE -> super.updateInState(readHashes(record),
+          State.fromCode(record.get()), State.fromCode(record.get()));
+      case REBALANCE_SHARDS -> super.rebalanceShards(readString(record), record.getInt());
+      case UPDATE_ALL_TO_STATE -> super.updateAllToState(readString(record), State.fromCode(record.get()));
+      case DELETE -> super.deleteByHash(List.of(stub(record.getLong(), 0, null)));
+      case DELETE_IN_STATE -> super.deleteInState(readHashes(record), State.fromCode(record.get()));
+      case DELETE_ALL -> super.deleteAll(readString(record));
+      default -> throw new IllegalStateException("Unknown log record type " + type);
+    }
+  }
+
+  private void append(final RecordWriter writer) {
+    log.append(encode(writer));
+  }
+
+  private ByteBuffer encode(final RecordWriter writer) {
+    return encode(buffer, out, writer);
+  }
+
+  private static ByteBuffer encode(final RecordBuffer buffer,
+                                   final DataOutputStream out,
+                                   final RecordWriter writer) {
+    buffer.reset();
+    try {
+      writer.write(out);
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return buffer.wrap();
+  }
+
+  private static void writeStore(final DataOutputStream out,
+                                 final Message message,
+                                 final String queueName,
+                                 final int shard,
+                                 final State state) throws IOException {
+    out.writeByte(STORE);
+    out.writeLong(message.hash());
+    out.writeLong(message.timestamp());
+    writeString(out, message.messageType());
+    out.writeInt(message.messageTypeId());
+    writeString(out, message.payload());
+    writeString(out, message.orderingKey().orElse(null));
+    writeString(out, message.supersedeKey().orElse(null));
+    out.writeBoolean(message.expiresAt().isPresent());
+    out.writeLong(message.expiresAt().orElse(0L));
+    writeString(out, queueName);
+    out.writeInt(shard);
+    out.writeByte(state.code());
+  }
+
+  private static void writeMessageType(final DataOutputStream out, final String name, final int id)
+      throws IOException {
+    out.writeByte(MESSAGE_TYPE);
+    writeString(out, name);
+    out.writeInt(id);
+  }
+
+  private static void writeHashes(final DataOutputStream out, final List<Long> hashes) throws IOException {
+    out.writeInt(hashes.size());
+    for (Long hash : hashes) {
+      out.writeLong(hash);
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static Message readMessage(final ByteBuffer record) {
+    final ImmutableMessage.Builder builder = ImmutableMessage.builder()
+        .hash(record.getLong())
+        .timestamp(record.getLong())
+        .messageType(readString(record))
+        .messageTypeId(record.getInt())
+        .payload(readString(record))
+        .orderingKey(Optional.ofNullable(readString(record)))
+        .supersedeKey(Optional.ofNullable(readString(record)));
+    final boolean expires = record.get() != 0;
+    final long expiresAt = record.getLong();
+    if (expires) {
+      builder.expiresAt(expiresAt);
+    }
+    return builder.build();
+  }
+
+  private static List<Long> readHashes(final ByteBuffer record) {
+    final int size = record.getInt();
+    final List<Long> hashes = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      hashes.add(record.getLong());
+    }
+    return hashes;
+  }
+
+  private static String readString(final ByteBuffer record) {
+    final int length = record.getInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // Only the fields the in-memory dao looks at for the operation are real.
+  private static Message stub(final long hash, final int messageTypeId, final String supersedeKey) {
+    return ImmutableMessage.builder()
+        .hash(hash)
+        .timestamp(0L)
+        .messageType("")
+        .messageTypeId(messageTypeId)
+        .payload("")
+        .supersedeKey(Optional.ofNullable(supersedeKey))
+        .build();
+  }
+
+  private record Live(Message message, String queueName, int shard, State state) {
+  }
+
+  @FunctionalInterface
+  private interface RecordWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * A byte array stream that hands out its buffer without copying.
+   */
+  private static class RecordBuffer extends ByteArrayOutputStream {
+
+    private ByteBuffer wrap() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+}
@@ -2,20 +2,45 @@ package com.codeheadsystems.queue.dao;
 
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.State;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.mapper.immutables.JdbiImmutables;
+import org.jdbi.v3.sqlobject.config.KeyColumn;
+import org.jdbi.v3.sqlobject.config.RegisterArgumentFactory;
+import org.jdbi.v3.sqlobject.config.RegisterColumnMapper;
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
+import org.jdbi.v3.sqlobject.config.ValueColumn;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
 import org.jdbi.v3.sqlobject.customizer.BindPojo;
+import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+import org.jdbi.v3.sqlobject.transaction.Transaction;
 
 /**
- * The interface Message dao.
+ * The interface Message dao. States are stored as their small integer code.
  */
+@RegisterArgumentFactory(StateArgumentFactory.class)
+@RegisterColumnMapper(StateColumnMapper.class)
+@RegisterRowMapper(MessageRowMapper.class)
 public interface MessageDao {
 
+  /**
+   * Selects the message columns. The message type name is resolved from its id by the
+   * {@link MessageRowMapper}, so the reads do not join the MESSAGE_TYPE table.
+   */
+  String SELECT_MESSAGE = "select * from QUEUE ";
+
   /**
    * Instance message dao. In theory you can call this multiple times,
    * but it is recommended you only call it once.
@@ -30,60 +55,343 @@ public interface MessageDao {
     return jdbi.onDemand(MessageDao.class);
   }
 
+  /**
+   * Instance message dao, counting the handles it opens as MessageDao.handles. Each call outside a
+   * unit of work opens its own handle, so the rate shows how many connections the queue takes from
+   * the pool each second. Only calls on the returned dao are counted; the calls inside a unit of
+   * work go to the dao bound to its handle, and the rest of the jdbi is left alone.
+   *
+   * @param jdbi          the jdbi
+   * @param meterRegistry the meter registry
+   * @return the message dao
+   */
+  static MessageDao instance(final Jdbi jdbi, final MeterRegistry meterRegistry) {
+    final MessageDao dao = instance(jdbi);
+    final Counter handles = meterRegistry.counter("MessageDao.handles");
+    return (MessageDao) Proxy.newProxyInstance(MessageDao.class.getClassLoader(), new Class<?>[]{MessageDao.class},
+        (proxy, method, args) -> {
+          if (method.getDeclaringClass() != Object.class) {
+            handles.increment();
+          }
+          try {
+            return method.invoke(dao, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  /**
+   * Runs the work as one unit, on one handle in one transaction, so its calls share a connection
+   * rather than each taking one from the pool. Stores without a database just run the work.
+   *
+   * @param work the work, given the dao to call
+   * @param <R>  the type of the result
+   * @return the result of the work
+   */
+  @Transaction
+  default <R> R unitOfWork(final Function<MessageDao, R> work) {
+    return work.apply(this);
+  }
+
   /**
    * Store.
    *
-   * @param message the message
-   * @param state   the state
+   * @param message   the message
+   * @param queueName the queue name
+   * @param shard     the shard
+   * @param state     the state
+   */
+  @SqlUpdate("insert into QUEUE (HASH, QUEUE_NAME, SHARD, TIMESTAMP, MESSAGE_TYPE_ID, PAYLOAD, STATE, "
+      + "ORDERING_KEY, SUPERSEDE_KEY, EXPIRES_AT) values (:hash, :queueName, :shard, :timestamp, :messageTypeId, "
+      + ":payload, :state, :orderingKey, :supersedeKey, :expiresAt)")
+  void store(@BindPojo final Message message,
+             @Bind("queueName") final String queueName,
+             @Bind("shard") final int shard,
+             @Bind("state") final State state);
+
+  /**
+   * Store the messages in one batch. The lists run in parallel, one entry per message.
+   *
+   * @param messages   the messages
+   * @param queueNames the queue names
+   * @param shards     the shards
+   * @param states     the states
+   */
+  @SqlBatch("insert into QUEUE (HASH, QUEUE_NAME, SHARD, TIMESTAMP, MESSAGE_TYPE_ID, PAYLOAD, STATE, "
+      + "ORDERING_KEY, SUPERSEDE_KEY, EXPIRES_AT) values (:hash, :queueName, :shard, :timestamp, :messageTypeId, "
+      + ":payload, :state, :orderingKey, :supersedeKey, :expiresAt)")
+  void store(@BindPojo final List<Message> messages,
+             @Bind("queueName") final List<String> queueNames,
+             @Bind("shard") final List<Integer> shards,
+             @Bind("state") final List<State> states);
+
+  /**
+   * Deletes the removed messages, then stores the given ones, in one transaction. A message in both
+   * is rewritten. Used to write a batch of changes made elsewhere.
+   *
+   * @param removed    the messages to delete
+   * @param messages   the messages to store
+   * @param queueNames the queue names of the messages to store
+   * @param shards     the shards of the messages to store
+   * @param states     the states of the messages to store
+   */
+  @Transaction
+  default void checkpoint(final List<Message> removed,
+                          final List<Message> messages,
+                          final List<String> queueNames,
+                          final List<Integer> shards,
+                          final List<State> states) {
+    if (!removed.isEmpty()) {
+      deleteByHash(removed);
+    }
+    if (!messages.isEmpty()) {
+      store(messages, queueNames, shards, states);
+    }
+  }
+
+  /**
+   * Stores the message as pending, replacing any pending message in the queue with the same type
+   * and supersede key. Done in one transaction so the replacement is atomic.
+   *
+   * @param message   the message
+   * @param queueName the queue name
+   * @param shard     the shard
+   * @return the number of messages replaced.
+   */
+  @Transaction
+  default int supersede(final Message message, final String queueName, final int shard) {
+    final int replaced = deleteSuperseded(message, queueName, State.PENDING);
+    store(message, queueName, shard, State.PENDING);
+    return replaced;
+  }
+
+  /**
+   * Hashes of the messages in the given state that have the same type and supersede key, which the
+   * message would replace.
+   *
+   * @param message   the message
+   * @param queueName the queue name
+   * @param state     the state
+   * @return the hashes
+   */
+  @SqlQuery("select HASH from QUEUE where QUEUE_NAME = :queueName and MESSAGE_TYPE_ID = :messageTypeId "
+      + "and SUPERSEDE_KEY = :supersedeKey and STATE = :state")
+  List<Long> supersededHashes(@BindPojo final Message message,
+                              @Bind("queueName") final String queueName,
+                              @Bind("state") final State state);
+
+  /**
+   * Delete the messages in the given state that have the same type and supersede key.
+   *
+   * @param message   the message
+   * @param queueName the queue name
+   * @param state     the state
+   * @return the number of messages deleted.
+   */
+  @SqlUpdate("delete from QUEUE where QUEUE_NAME = :queueName and MESSAGE_TYPE_ID = :messageTypeId "
+      + "and SUPERSEDE_KEY = :supersedeKey and STATE = :state")
+  int deleteSuperseded(@BindPojo final Message message,
+                       @Bind("queueName") final String queueName,
+                       @Bind("state") final State state);
+
+  /**
+   * The id of the message type, if it is registered.
+   *
+   * @param name the message type
+   * @return the id
+   */
+  @SqlQuery("select ID from MESSAGE_TYPE where NAME = :name")
+  Optional<Integer> messageTypeId(@Bind("name") final String name);
+
+  /**
+   * Registers the message type.
+   *
+   * @param name the message type
+   * @return the new id
    */
-  @SqlUpdate("insert into QUEUE (HASH, TIMESTAMP, MESSAGE_TYPE, PAYLOAD, STATE) "
-      + "values (:hash, :timestamp, :messageType, :payload, :state)")
-  void store(@BindPojo final Message message, @Bind("state") final State state);
+  @SqlUpdate("insert into MESSAGE_TYPE (NAME) values (:name)")
+  @GetGeneratedKeys("ID")
+  int insertMessageType(@Bind("name") final String name);
 
   /**
    * Read by hash optional.
    *
-   * @param hash the hash
+   * @param hash      the hash
+   * @param queueName the queue name
    * @return the optional
    */
-  @SqlQuery("select * from QUEUE where HASH = :hash")
-  Optional<Message> readByHash(@Bind("hash") final long hash);
+  @SqlQuery(SELECT_MESSAGE + "where HASH = :hash and QUEUE_NAME = :queueName")
+  Optional<Message> readByHash(@Bind("hash") final long hash, @Bind("queueName") final String queueName);
 
   /**
    * State of optional.
    *
-   * @param message the message
+   * @param message   the message
+   * @param queueName the queue name
    * @return the optional
    */
-  @SqlQuery("select STATE from QUEUE where HASH = :hash")
-  Optional<State> stateOf(@BindPojo final Message message);
+  @SqlQuery("select STATE from QUEUE where HASH = :hash and QUEUE_NAME = :queueName")
+  Optional<State> stateOf(@BindPojo final Message message, @Bind("queueName") final String queueName);
 
   /**
-   * Returns back the count of all messages in the queue.
+   * The states of the messages with the given hashes. Messages not in the queue are left out.
+   * Keep the list to a few hundred hashes; callers chunk larger sets.
    *
+   * @param hashes    the hashes
+   * @param queueName the queue name
+   * @return map of hash to state
+   */
+  @SqlQuery("select HASH, STATE from QUEUE where HASH in (<hashes>) and QUEUE_NAME = :queueName")
+  @KeyColumn("HASH")
+  @ValueColumn("STATE")
+  Map<Long, State> statesOf(@BindList("hashes") final List<Long> hashes,
+                            @Bind("queueName") final String queueName);
+
+  /**
+   * Returns back the count of all messages in the queue, by message type and state.
+   *
+   * @param queueName the queue name
    * @return the list
    */
-  @SqlQuery("select STATE, count(*) as COUNT from QUEUE group by STATE")
-  List<StateCount> counts();
+  @SqlQuery("select MESSAGE_TYPE.NAME as MESSAGE_TYPE, MESSAGE_TYPE_ID, STATE, count(*) as COUNT from QUEUE "
+      + "join MESSAGE_TYPE on MESSAGE_TYPE.ID = QUEUE.MESSAGE_TYPE_ID where QUEUE_NAME = :queueName "
+      + "group by MESSAGE_TYPE.NAME, MESSAGE_TYPE_ID, STATE")
+  List<StateCount> counts(@Bind("queueName") final String queueName);
 
   /**
    * For state list.
    *
-   * @param state the state
+   * @param queueName the queue name
+   * @param state     the state
    * @return the list
    */
-  @SqlQuery("select * from QUEUE where STATE = :state order by TIMESTAMP asc")
-  List<Message> forState(@Bind("state") final State state);
+  @SqlQuery(SELECT_MESSAGE + "where QUEUE_NAME = :queueName and STATE = :state order by TIMESTAMP asc")
+  List<Message> forState(@Bind("queueName") final String queueName, @Bind("state") final State state);
 
   /**
    * For state list, but limit to the number requested.
    *
-   * @param state the state
-   * @param limit the max number of results you want.
+   * @param queueName the queue name
+   * @param state     the state
+   * @param limit     the max number of results you want.
+   * @return the list
+   */
+  @SqlQuery(SELECT_MESSAGE + "where QUEUE_NAME = :queueName and STATE = :state "
+      + "order by TIMESTAMP asc limit :limit")
+  List<Message> forState(@Bind("queueName") final String queueName,
+                         @Bind("state") final State state,
+                         @Bind("limit") final int limit);
+
+  /**
+   * Names of the queues with messages.
+   *
+   * @return the list
+   */
+  @SqlQuery("select distinct QUEUE_NAME from QUEUE")
+  List<String> queueNames();
+
+  /**
+   * Shards of the queue with messages.
+   *
+   * @param queueName the queue name
+   * @return the list
+   */
+  @SqlQuery("select distinct SHARD from QUEUE where QUEUE_NAME = :queueName")
+  List<Integer> shards(@Bind("queueName") final String queueName);
+
+  /**
+   * Every message in one shard and state, expired or not, in no particular order.
+   *
+   * @param queueName the queue name
+   * @param shard     the shard
+   * @param state     the state
+   * @return the list
+   */
+  @SqlQuery(SELECT_MESSAGE + "where QUEUE_NAME = :queueName and SHARD = :shard and STATE = :state")
+  List<Message> forShard(@Bind("queueName") final String queueName,
+                         @Bind("shard") final int shard,
+                         @Bind("state") final State state);
+
+  /**
+   * For state list in one shard, skipping expired messages, limited to the number requested.
+   *
+   * @param queueName the queue name
+   * @param shard     the shard
+   * @param state     the state
+   * @param now       the current time in epoch millis
+   * @param limit     the max number of results you want.
+   * @return the list
+   */
+  @SqlQuery(SELECT_MESSAGE + "where QUEUE_NAME = :queueName and SHARD = :shard and STATE = :state "
+      + "and (EXPIRES_AT is null or EXPIRES_AT > :now) order by TIMESTAMP asc limit :limit")
+  List<Message> forStateUnexpired(@Bind("queueName") final String queueName,
+                                  @Bind("shard") final int shard,
+                                  @Bind("state") final State state,
+                                  @Bind("now") final long now,
+                                  @Bind("limit") final int limit);
+
+  /**
+   * For state list in one shard, skipping expired messages and the message types given, limited to
+   * the number requested. Paused types are left where they are without holding up the rest.
+   *
+   * @param queueName      the queue name
+   * @param shard          the shard
+   * @param state          the state
+   * @param now            the current time in epoch millis
+   * @param messageTypeIds the ids of the message types to skip, never empty.
+   * @param limit          the max number of results you want.
    * @return the list
    */
-  @SqlQuery("select * from QUEUE where STATE = :state order by TIMESTAMP asc limit :limit")
-  List<Message> forState(@Bind("state") final State state, @Bind("limit") final int limit);
+  @SqlQuery(SELECT_MESSAGE + "where QUEUE_NAME = :queueName and SHARD = :shard and STATE = :state "
+      + "and (EXPIRES_AT is null or EXPIRES_AT > :now) and MESSAGE_TYPE_ID not in (<messageTypeIds>) "
+      + "order by TIMESTAMP asc limit :limit")
+  List<Message> forStateUnexpiredExcluding(@Bind("queueName") final String queueName,
+                                           @Bind("shard") final int shard,
+                                           @Bind("state") final State state,
+                                           @Bind("now") final long now,
+                                           @BindList("messageTypeIds") final Collection<Integer> messageTypeIds,
+                                           @Bind("limit") final int limit);
+
+  /**
+   * Hashes of the expired messages in the given state, with their message type ids so the counts
+   * can follow the delete.
+   *
+   * @param queueName the queue name
+   * @param state     the state
+   * @param now       the current time in epoch millis
+   * @param limit     the max number of results you want.
+   * @return map of hash to message type id
+   */
+  @SqlQuery("select HASH, MESSAGE_TYPE_ID from QUEUE where QUEUE_NAME = :queueName and STATE = :state "
+      + "and EXPIRES_AT <= :now limit :limit")
+  @KeyColumn("HASH")
+  @ValueColumn("MESSAGE_TYPE_ID")
+  Map<Long, Integer> expired(@Bind("queueName") final String queueName,
+                     @Bind("state") final State state,
+                     @Bind("now") final long now,
+                     @Bind("limit") final int limit);
+
+  /**
+   * Delete the messages, if they are still in the given state.
+   *
+   * @param hashes the hashes
+   * @param state  the state
+   * @return the number of messages deleted.
+   */
+  @SqlUpdate("delete from QUEUE where STATE = :state and HASH in (<hashes>)")
+  int deleteInState(@BindList("hashes") final List<Long> hashes, @Bind("state") final State state);
+
+  /**
+   * Delete the messages that are still in the given state, in one batch, so the caller learns
+   * which ones went.
+   *
+   * @param hashes the hashes
+   * @param state  the state
+   * @return the number of messages deleted for each hash, in order.
+   */
+  @SqlBatch("delete from QUEUE where HASH = :hash and STATE = :state")
+  int[] deleteEachInState(@Bind("hash") final List<Long> hashes, @Bind("state") final State state);
 
   /**
    * Update state.
@@ -95,24 +403,212 @@ public interface MessageDao {
   void updateState(@BindPojo final Message message, @Bind("state") final State state);
 
   /**
-   * Update state.
+   * Update state, if the owner still holds the message's lease. Once a lease is reaped the message
+   * belongs to whoever claims it next.
+   *
+   * @param message the message
+   * @param state   the state
+   * @param owner   the owner
+   * @return the number of rows updated, 0 if the owner lost the message.
+   */
+  @SqlUpdate("update QUEUE set STATE = :state where HASH = :hash and OWNER = :owner")
+  int updateStateOwned(@BindPojo final Message message,
+                       @Bind("state") final State state,
+                       @Bind("owner") final String owner);
+
+  /**
+   * Moves the message to the new state and drops its owner and lease, if the owner still holds it
+   * in the expected state. A message another process reaped and claimed again is left alone.
+   *
+   * @param message  the message
+   * @param expected the state the message must be in
+   * @param state    the new state
+   * @param owner    the owner
+   * @return the number of rows updated, 0 if the owner lost the message.
+   */
+  @SqlUpdate("update QUEUE set STATE = :state, OWNER = null, LEASE_EXPIRES_AT = null where HASH = :hash "
+      + "and STATE = :expected and OWNER = :owner")
+  int releaseOwned(@BindPojo final Message message,
+                   @Bind("expected") final State expected,
+                   @Bind("state") final State state,
+                   @Bind("owner") final String owner);
+
+  /**
+   * Claim the message by moving it to the new state, but only if it is still in the expected state.
+   * This also releases the supersede key, as claimed messages can no longer be superseded.
+   *
+   * @param message  the message
+   * @param expected the state the message must be in
+   * @param state    the new state
+   * @return the number of rows updated, 0 if someone else got to it first.
+   */
+  @SqlUpdate("update QUEUE set STATE = :state, SUPERSEDE_KEY = null where HASH = :hash and STATE = :expected")
+  int claim(@BindPojo final Message message, @Bind("expected") final State expected, @Bind("state") final State state);
+
+  /**
+   * Claim the message as {@link #claim(Message, State, State)} does, recording the owner and when
+   * its lease runs out.
+   *
+   * @param message        the message
+   * @param expected       the state the message must be in
+   * @param state          the new state
+   * @param owner          the owner
+   * @param leaseExpiresAt when the lease runs out, in epoch millis
+   * @return the number of rows updated, 0 if someone else got to it first.
+   */
+  @SqlUpdate("update QUEUE set STATE = :state, SUPERSEDE_KEY = null, OWNER = :owner, "
+      + "LEASE_EXPIRES_AT = :leaseExpiresAt where HASH = :hash and STATE = :expected")
+  int claimLeased(@BindPojo final Message message,
+                  @Bind("expected") final State expected,
+                  @Bind("state") final State state,
+                  @Bind("owner") final String owner,
+                  @Bind("leaseExpiresAt") final long leaseExpiresAt);
+
+  /**
+   * Extends the leases of every message the owner holds in the queue.
+   *
+   * @param queueName      the queue name
+   * @param owner          the owner
+   * @param leaseExpiresAt when the leases now run out, in epoch millis
+   * @return the number of leases renewed.
+   */
+  @SqlUpdate("update QUEUE set LEASE_EXPIRES_AT = :leaseExpiresAt where QUEUE_NAME = :queueName and OWNER = :owner")
+  int renewLeases(@Bind("queueName") final String queueName,
+                  @Bind("owner") final String owner,
+                  @Bind("leaseExpiresAt") final long leaseExpiresAt);
+
+  /**
+   * Hashes of the messages in the given state whose lease ran out. Messages claimed without a lease
+   * count as run out.
+   *
+   * @param queueName the queue name
+   * @param state     the state
+   * @param now       the current time in epoch millis
+   * @param limit     the max number of results you want.
+   * @return the list of hashes
+   */
+  @SqlQuery("select HASH from QUEUE where QUEUE_NAME = :queueName and STATE = :state "
+      + "and (LEASE_EXPIRES_AT is null or LEASE_EXPIRES_AT <= :now) limit :limit")
+  List<Long> expiredLeases(@Bind("queueName") final String queueName,
+                           @Bind("state") final State state,
+                           @Bind("now") final long now,
+                           @Bind("limit") final int limit);
+
+  /**
+   * Moves the messages to the new state and drops their owner, if they are still in the expected
+   * state and their lease still ran out. An owner that renewed in the meantime keeps its message.
+   *
+   * @param hashes   the hashes
+   * @param expected the state the messages must be in
+   * @param state    the new state
+   * @param now      the current time in epoch millis
+   * @return the number of messages updated.
+   */
+  @SqlUpdate("update QUEUE set STATE = :state, OWNER = null, LEASE_EXPIRES_AT = null where STATE = :expected "
+      + "and (LEASE_EXPIRES_AT is null or LEASE_EXPIRES_AT <= :now) and HASH in (<hashes>)")
+  int reapExpired(@BindList("hashes") final List<Long> hashes,
+                  @Bind("expected") final State expected,
+                  @Bind("state") final State state,
+                  @Bind("now") final long now);
+
+  /**
+   * Moves messages from shards that no longer exist, after the shard count was lowered, into the
+   * remaining shards.
+   *
+   * @param queueName  the queue name
+   * @param shardCount the shard count
+   * @return the number of messages moved.
+   */
+  @SqlUpdate("update QUEUE set SHARD = mod(SHARD, :shardCount) where QUEUE_NAME = :queueName "
+      + "and SHARD >= :shardCount")
+  int rebalanceShards(@Bind("queueName") final String queueName, @Bind("shardCount") final int shardCount);
+
+  /**
+   * Hashes of the messages in one shard and state, in hash order, after the given hash. Used to
+   * walk the messages in chunks.
+   *
+   * @param queueName the queue name
+   * @param shard     the shard
+   * @param state     the state
+   * @param after     only hashes greater than this one
+   * @param limit     the max number of results you want.
+   * @return the list of hashes
+   */
+  @SqlQuery("select HASH from QUEUE where QUEUE_NAME = :queueName and SHARD = :shard and STATE = :state "
+      + "and HASH > :after order by HASH asc limit :limit")
+  List<Long> hashesInState(@Bind("queueName") final String queueName,
+                           @Bind("shard") final int shard,
+                           @Bind("state") final State state,
+                           @Bind("after") final long after,
+                           @Bind("limit") final int limit);
+
+  /**
+   * Update the state of the messages, if they are still in the expected state.
+   *
+   * @param hashes   the hashes
+   * @param expected the state the messages must be in
+   * @param state    the new state
+   * @return the number of messages updated.
+   */
+  @SqlUpdate("update QUEUE set STATE = :state where STATE = :expected and HASH in (<hashes>)")
+  int updateInState(@BindList("hashes") final List<Long> hashes,
+                    @Bind("expected") final State expected,
+                    @Bind("state") final State state);
+
+  /**
+   * Update state of every message in the queue.
    *
-   * @param state the state
+   * @param queueName the queue name
+   * @param state     the state
    */
-  @SqlUpdate("update QUEUE set STATE = :state")
-  void updateAllToState(@Bind("state") final State state);
+  @SqlUpdate("update QUEUE set STATE = :state where QUEUE_NAME = :queueName")
+  void updateAllToState(@Bind("queueName") final String queueName, @Bind("state") final State state);
 
   /**
    * Delete.
    *
+   * @param message   the message
+   * @param queueName the queue name
+   * @return the number of messages deleted.
+   */
+  @SqlUpdate("delete from QUEUE where HASH = :hash and QUEUE_NAME = :queueName")
+  int delete(@BindPojo final Message message, @Bind("queueName") final String queueName);
+
+  /**
+   * Delete, if the owner still holds the message's lease.
+   *
    * @param message the message
+   * @param owner   the owner
+   * @return the number of messages deleted, 0 if the owner lost the message.
    */
-  @SqlUpdate("delete from QUEUE where HASH = :hash")
-  void delete(@BindPojo final Message message);
+  @SqlUpdate("delete from QUEUE where HASH = :hash and OWNER = :owner")
+  int deleteOwned(@BindPojo final Message message, @Bind("owner") final String owner);
 
   /**
-   * Delete all.
+   * Delete the messages in one batch.
+   *
+   * @param messages  the messages
+   * @param queueName the queue name
+   * @return the number of messages deleted for each message, in order.
+   */
+  @SqlBatch("delete from QUEUE where HASH = :hash and QUEUE_NAME = :queueName")
+  int[] delete(@BindPojo final List<Message> messages, @Bind("queueName") final String queueName);
+
+  /**
+   * Delete the messages in one batch, whatever queue they are in. Used by the checkpoint, which
+   * mirrors deletes already made elsewhere and may not know the queue of a removed message.
+   *
+   * @param messages the messages
+   * @return the number of messages deleted for each message, in order.
+   */
+  @SqlBatch("delete from QUEUE where HASH = :hash")
+  int[] deleteByHash(@BindPojo final List<Message> messages);
+
+  /**
+   * Delete all messages in the queue.
+   *
+   * @param queueName the queue name
    */
-  @SqlUpdate("delete from QUEUE")
-  void deleteAll();
+  @SqlUpdate("delete from QUEUE where QUEUE_NAME = :queueName")
+  void deleteAll(@Bind("queueName") final String queueName);
 }
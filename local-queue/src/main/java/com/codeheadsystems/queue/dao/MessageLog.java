@@ -0,0 +1,312 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.LogStoreConfiguration.FsyncPolicy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A segmented append-only log of records. Each record is written as its length, a CRC32C of its
+ * bytes and the bytes themselves. Segments are numbered files in one directory; a snapshot is a
+ * segment that holds the whole state as of its number, so replay starts at the newest snapshot
+ * and everything older can be deleted. A torn record at the end of the last segment, from a
+ * crash mid-write, is cut off on replay. A bad record anywhere else fails the replay, as the
+ * records after it cannot be trusted to apply.
+ *
+ * <p>A snapshot is written to its own file while appends carry on in the next segment.
+ */
+public class MessageLog implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageLog.class);
+  private static final String SEGMENT = ".log";
+  private static final String SNAPSHOT = ".snapshot";
+  private static final int HEADER_BYTES = 8;
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final FsyncPolicy fsyncPolicy;
+  private final CRC32C crc;
+  private final ByteBuffer header;
+  private FileChannel channel;
+  private long segmentNumber;
+  private long bytesSinceSnapshot;
+  private boolean dirty;
+
+  /**
+   * Instantiates a new Message log. Call replay before appending.
+   *
+   * @param directory    the directory
+   * @param segmentBytes the size a segment may reach before the next is started
+   * @param fsyncPolicy  the fsync policy
+   */
+  public MessageLog(final Path directory, final long segmentBytes, final FsyncPolicy fsyncPolicy) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.fsyncPolicy = fsyncPolicy;
+    this.crc = new CRC32C();
+    this.header = ByteBuffer.allocate(HEADER_BYTES);
+    LOGGER.info("MessageLog({},{},{})", directory, segmentBytes, fsyncPolicy);
+  }
+
+  /**
+   * Reads every record from the newest snapshot on, then opens a new segment for appending.
+   *
+   * @param records gets each record, in order. The buffer is only valid during the call.
+   */
+  public synchronized void replay(final Consumer<ByteBuffer> records) {
+    try {
+      Files.createDirectories(directory);
+      try (Stream<Path> stream = Files.list(directory)) {
+        for (Path file : stream.filter(file -> file.getFileName().toString().endsWith(".tmp")).toList()) {
+          Files.delete(file); // a snapshot that was never finished.
+        }
+      }
+      final List<Path> files = files();
+      final long snapshot = files.stream()
+          .filter(file -> file.getFileName().toString().endsWith(SNAPSHOT))
+          .mapToLong(MessageLog::numberOf)
+          .max()
+          .orElse(-1);
+      final List<Path> live = new ArrayList<>();
+      for (Path file : files) {
+        if (numberOf(file) < snapshot) {
+          Files.delete(file); // left by a compaction that did not get to clean up.
+        } else {
+          live.add(file);
+        }
+      }
+      for (int i = 0; i < live.size(); i++) {
+        replay(live.get(i), records, i == live.size() - 1);
+      }
+      segmentNumber = live.isEmpty() ? snapshot : numberOf(live.get(live.size() - 1));
+      bytesSinceSnapshot = 0;
+      roll();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void replay(final Path file, final Consumer<ByteBuffer> records, final boolean last) throws IOException {
+    LOGGER.info("Replaying {}", file);
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+      while (buffer.remaining() >= HEADER_BYTES) {
+        final int start = buffer.position();
+        final int length = buffer.getInt();
+        final int checksum = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+          torn(in, file, start, last);
+          return;
+        }
+        final ByteBuffer record = buffer.slice(buffer.position(), length);
+        crc.reset();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != checksum) {
+          torn(in, file, start, last);
+          return;
+        }
+        records.accept(record);
+        buffer.position(buffer.position() + length);
+      }
+      if (buffer.hasRemaining()) {
+        torn(in, file, buffer.position(), last);
+      }
+    }
+  }
+
+  /**
+   * Only the last segment was being written when the process stopped, so only its end may be torn.
+   */
+  private void torn(final FileChannel in, final Path file, final long size, final boolean last) throws IOException {
+    if (!last) {
+      throw new IllegalStateException("Corrupt record in " + file + " at " + size + ", which is not the last segment");
+    }
+    LOGGER.warn("Torn record in {} at {}, dropping the rest of the segment", file, size);
+    in.truncate(size);
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @param record the record, from its position to its limit
+   */
+  public synchronized void append(final ByteBuffer record) {
+    try {
+      if (channel.position() >= segmentBytes) {
+        roll();
+      }
+      bytesSinceSnapshot += write(channel, crc, header, record);
+      dirty = true;
+      if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+        force();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Forces the appended records to disk, if any were written since the last time.
+   */
+  public synchronized void force() {
+    if (dirty && channel != null) {
+      try {
+        channel.force(false);
+        dirty = false;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Bytes appended since the last snapshot, or since replay.
+   *
+   * @return the bytes
+   */
+  public synchronized long bytesSinceSnapshot() {
+    return bytesSinceSnapshot;
+  }
+
+  /**
+   * Writes a snapshot holding the whole state, then drops every segment before it. Callers must not
+   * append until it returns; use {@link #startSnapshot()} and {@link #writeSnapshot(long, Consumer)}
+   * to carry on appending while it is written.
+   *
+   * @param snapshot writes the records of the snapshot to the given consumer.
+   */
+  public void snapshot(final Consumer<Consumer<ByteBuffer>> snapshot) {
+    writeSnapshot(startSnapshot(), snapshot);
+  }
+
+  /**
+   * Starts a snapshot. Appends go to a new segment from here on, so the snapshot only has to hold
+   * the state as of this call.
+   *
+   * @return the number to pass to {@link #writeSnapshot(long, Consumer)}.
+   */
+  public synchronized long startSnapshot() {
+    try {
+      final long number = segmentNumber + 1;
+      segmentNumber = number; // the snapshot sits between the old segments and the next one.
+      roll();
+      bytesSinceSnapshot = 0;
+      return number;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Writes a started snapshot, then drops every segment before it. The snapshot is written to its
+   * own temporary file and moved into place, so appends are not held up, and a crash part way
+   * leaves the old segments to replay.
+   *
+   * @param number   the number from {@link #startSnapshot()}
+   * @param snapshot writes the records of the snapshot to the given consumer.
+   */
+  public void writeSnapshot(final long number, final Consumer<Consumer<ByteBuffer>> snapshot) {
+    final Path temporary = directory.resolve(name(number, SNAPSHOT) + ".tmp");
+    final CRC32C snapshotCrc = new CRC32C();
+    final ByteBuffer snapshotHeader = ByteBuffer.allocate(HEADER_BYTES);
+    try {
+      try (FileChannel out = FileChannel.open(temporary,
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        snapshot.accept(record -> {
+          try {
+            write(out, snapshotCrc, snapshotHeader, record);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        out.force(true);
+      }
+      Files.move(temporary, directory.resolve(name(number, SNAPSHOT)), StandardCopyOption.ATOMIC_MOVE);
+      for (Path file : files()) {
+        if (numberOf(file) < number) {
+          Files.delete(file);
+        }
+      }
+      LOGGER.info("Snapshot {} written", number);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.error("Snapshot {} failed, carrying on with the existing segments", number, e);
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) e;
+    }
+  }
+
+  private static long write(final FileChannel out,
+                            final CRC32C crc,
+                            final ByteBuffer header,
+                            final ByteBuffer record) throws IOException {
+    crc.reset();
+    crc.update(record.duplicate());
+    header.clear();
+    header.putInt(record.remaining()).putInt((int) crc.getValue()).flip();
+    final long written = header.remaining() + record.remaining();
+    while (header.hasRemaining() || record.hasRemaining()) {
+      out.write(new ByteBuffer[]{header, record});
+    }
+    return written;
+  }
+
+  private void roll() throws IOException {
+    if (channel != null && channel.isOpen()) {
+      channel.force(false);
+      channel.close();
+    }
+    segmentNumber++;
+    final Path file = directory.resolve(name(segmentNumber, SEGMENT));
+    LOGGER.trace("roll({})", file);
+    channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    dirty = false;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (channel != null && channel.isOpen()) {
+      try {
+        channel.force(false);
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> stream = Files.list(directory)) {
+      final List<Path> files = new ArrayList<>();
+      stream.filter(file -> {
+        final String name = file.getFileName().toString();
+        return name.endsWith(SEGMENT) || name.endsWith(SNAPSHOT);
+      }).sorted().forEach(files::add);
+      return files;
+    }
+  }
+
+  private static String name(final long number, final String suffix) {
+    return String.format("%020d%s", number, suffix);
+  }
+
+  private static long numberOf(final Path file) {
+    final String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.indexOf('.')));
+  }
+
+}
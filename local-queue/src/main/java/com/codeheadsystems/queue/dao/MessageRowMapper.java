@@ -0,0 +1,33 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.Message;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+/**
+ * Maps a queue row to its message, the message type name coming from {@link MessageTypeNames}
+ * rather than a join.
+ */
+public class MessageRowMapper implements RowMapper<Message> {
+
+  @Override
+  public Message map(final ResultSet r, final StatementContext ctx) throws SQLException {
+    final int messageTypeId = r.getInt("MESSAGE_TYPE_ID");
+    final long expiresAt = r.getLong("EXPIRES_AT");
+    final boolean expires = !r.wasNull();
+    return ImmutableMessage.builder()
+        .hash(r.getLong("HASH"))
+        .timestamp(r.getLong("TIMESTAMP"))
+        .messageType(ctx.getConfig(MessageTypeNames.class).nameOf(messageTypeId, ctx.getConnection()))
+        .messageTypeId(messageTypeId)
+        .payload(r.getString("PAYLOAD"))
+        .orderingKey(Optional.ofNullable(r.getString("ORDERING_KEY")))
+        .supersedeKey(Optional.ofNullable(r.getString("SUPERSEDE_KEY")))
+        .expiresAt(expires ? Optional.of(expiresAt) : Optional.empty())
+        .build();
+  }
+}
@@ -0,0 +1,59 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.util.IdIndexedCache;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.jdbi.v3.core.config.JdbiConfig;
+
+/**
+ * The message type names by id, for turning the id on a queue row back into its name without
+ * joining the MESSAGE_TYPE table on every read. Types are never removed or renamed, so a name is
+ * looked up once, the first time its id is read, and kept. One instance is shared by every handle
+ * of the Jdbi.
+ */
+public class MessageTypeNames implements JdbiConfig<MessageTypeNames> {
+
+  private static final String SELECT_NAME = "select NAME from MESSAGE_TYPE where ID = ?";
+
+  private final IdIndexedCache<String> names;
+
+  /**
+   * Instantiates a new Message type names.
+   */
+  public MessageTypeNames() {
+    this.names = new IdIndexedCache<>();
+  }
+
+  /**
+   * The name of the message type.
+   *
+   * @param id         the message type id
+   * @param connection the connection to look it up on if it is new
+   * @return the name
+   */
+  public String nameOf(final int id, final Connection connection) {
+    final String name = names.getIfPresent(id);
+    return name != null ? name : names.get(id, messageTypeId -> lookup(messageTypeId, connection));
+  }
+
+  private String lookup(final int id, final Connection connection) {
+    try (PreparedStatement statement = connection.prepareStatement(SELECT_NAME)) {
+      statement.setInt(1, id);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        if (resultSet.next()) {
+          return resultSet.getString(1);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Unable to look up message type " + id, e);
+    }
+    throw new IllegalStateException("Unknown message type " + id);
+  }
+
+  @Override
+  public MessageTypeNames createCopy() {
+    return this; // shared, so a name looked up on one handle is known to them all.
+  }
+}
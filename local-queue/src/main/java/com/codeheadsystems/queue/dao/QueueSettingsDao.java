@@ -0,0 +1,132 @@
+package com.codeheadsystems.queue.dao;
+
+import java.util.Map;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.config.KeyColumn;
+import org.jdbi.v3.sqlobject.config.ValueColumn;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+import org.jdbi.v3.sqlobject.transaction.Transaction;
+
+/**
+ * The overrides for the queue configuration kept in the QUEUE_SETTINGS table. Each write raises
+ * the queue's version, so a running queue only has to poll {@link #version(String)} to know when to
+ * read them again. The version has its own row in QUEUE_SETTINGS_VERSION, raised in place, so
+ * writers on different nodes take turns on its lock instead of picking the same version.
+ */
+public interface QueueSettingsDao {
+
+  /**
+   * Instance queue settings dao.
+   *
+   * @param jdbi the jdbi
+   * @return the queue settings dao
+   */
+  static QueueSettingsDao instance(final Jdbi jdbi) {
+    return jdbi.onDemand(QueueSettingsDao.class);
+  }
+
+  /**
+   * The version of the queue's settings, or zero if it has none.
+   *
+   * @param queueName the queue name
+   * @return the version
+   */
+  @SqlQuery("select coalesce(max(VERSION), 0) from QUEUE_SETTINGS_VERSION where QUEUE_NAME = :queueName")
+  long version(@Bind("queueName") final String queueName);
+
+  /**
+   * Raises the queue's version by one, locking its row until the transaction ends.
+   *
+   * @param queueName the queue name
+   * @return the number updated, zero if the queue has no version yet.
+   */
+  @SqlUpdate("update QUEUE_SETTINGS_VERSION set VERSION = VERSION + 1 where QUEUE_NAME = :queueName")
+  int raiseVersion(@Bind("queueName") final String queueName);
+
+  /**
+   * Insert the queue's first version.
+   *
+   * @param queueName the queue name
+   * @return the number inserted
+   */
+  @SqlUpdate("insert into QUEUE_SETTINGS_VERSION (QUEUE_NAME, VERSION) values (:queueName, 1)")
+  int insertVersion(@Bind("queueName") final String queueName);
+
+  /**
+   * The overrides for the queue.
+   *
+   * @param queueName the queue name
+   * @return map of setting name to value
+   */
+  @SqlQuery("select NAME, SETTING_VALUE from QUEUE_SETTINGS "
+      + "where QUEUE_NAME = :queueName and SETTING_VALUE is not null")
+  @KeyColumn("NAME")
+  @ValueColumn("SETTING_VALUE")
+  Map<String, String> overrides(@Bind("queueName") final String queueName);
+
+  /**
+   * Insert a setting.
+   *
+   * @param queueName the queue name
+   * @param name      the name
+   * @param value     the value, null when removed
+   * @param version   the version
+   * @return the number inserted
+   */
+  @SqlUpdate("insert into QUEUE_SETTINGS (QUEUE_NAME, NAME, SETTING_VALUE, VERSION) "
+      + "values (:queueName, :name, :value, :version)")
+  int insert(@Bind("queueName") final String queueName,
+             @Bind("name") final String name,
+             @Bind("value") final String value,
+             @Bind("version") final long version);
+
+  /**
+   * Update a setting.
+   *
+   * @param queueName the queue name
+   * @param name      the name
+   * @param value     the value, null when removed
+   * @param version   the version
+   * @return the number updated
+   */
+  @SqlUpdate("update QUEUE_SETTINGS set SETTING_VALUE = :value, VERSION = :version "
+      + "where QUEUE_NAME = :queueName and NAME = :name")
+  int update(@Bind("queueName") final String queueName,
+             @Bind("name") final String name,
+             @Bind("value") final String value,
+             @Bind("version") final long version);
+
+  /**
+   * Sets the override, raising the queue's version. The version is raised first, so concurrent
+   * writers wait on its row. Two writers of a queue's very first setting collide on its key, and
+   * the loser fails instead of reusing the version.
+   *
+   * @param queueName the queue name
+   * @param name      the name
+   * @param value     the value, null to remove the override.
+   */
+  @Transaction
+  default void set(final String queueName, final String name, final String value) {
+    if (raiseVersion(queueName) == 0) {
+      insertVersion(queueName);
+    }
+    final long version = version(queueName);
+    if (update(queueName, name, value, version) == 0) {
+      insert(queueName, name, value, version);
+    }
+  }
+
+  /**
+   * Removes the override, raising the queue's version. The row is kept without a value, so the
+   * removal is seen by the version check.
+   *
+   * @param queueName the queue name
+   * @param name      the name
+   */
+  default void remove(final String queueName, final String name) {
+    set(queueName, name, null);
+  }
+
+}
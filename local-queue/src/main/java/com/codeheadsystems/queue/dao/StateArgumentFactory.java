@@ -0,0 +1,25 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.State;
+import java.sql.Types;
+import org.jdbi.v3.core.argument.AbstractArgumentFactory;
+import org.jdbi.v3.core.argument.Argument;
+import org.jdbi.v3.core.config.ConfigRegistry;
+
+/**
+ * Binds the state as its small integer code.
+ */
+public class StateArgumentFactory extends AbstractArgumentFactory<State> {
+
+  /**
+   * Instantiates a new State argument factory.
+   */
+  public StateArgumentFactory() {
+    super(Types.SMALLINT);
+  }
+
+  @Override
+  protected Argument build(final State value, final ConfigRegistry config) {
+    return (position, statement, ctx) -> statement.setShort(position, (short) value.code());
+  }
+}
@@ -0,0 +1,18 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.State;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+/**
+ * Maps the small integer code in the state column back to the state.
+ */
+public class StateColumnMapper implements ColumnMapper<State> {
+
+  @Override
+  public State map(final ResultSet r, final int columnNumber, final StatementContext ctx) throws SQLException {
+    return State.fromCode(r.getInt(columnNumber));
+  }
+}
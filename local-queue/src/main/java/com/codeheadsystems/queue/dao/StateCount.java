@@ -4,11 +4,25 @@ import com.codeheadsystems.queue.State;
 import org.immutables.value.Value;
 
 /**
- * The interface State count.
+ * The interface State count, per message type.
  */
 @Value.Immutable
 public interface StateCount {
 
+  /**
+   * Message type.
+   *
+   * @return the message type
+   */
+  String messageType();
+
+  /**
+   * Message type id.
+   *
+   * @return the message type id
+   */
+  int messageTypeId();
+
   /**
    * State state.
    *
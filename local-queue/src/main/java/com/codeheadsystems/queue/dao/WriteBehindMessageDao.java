@@ -0,0 +1,365 @@
+package com.codeheadsystems.queue.dao;
+
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.WriteBehindConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A message dao that works in memory and copies to the database behind the caller. Messages are
+ * held as with the {@link InMemoryMessageDao}, so enqueuing and claiming never wait on the
+ * database. Changed messages are remembered by hash, and a checkpoint every interval writes them
+ * to the database in batches: new messages are inserted, changed ones rewritten and removed ones
+ * deleted. A message enqueued and cleared between two checkpoints is never written at all.
+ *
+ * <p>What the database has is tracked, so a checkpoint only writes messages whose shard, state or
+ * supersede key differ from it. On start up the messages in the database are loaded. The
+ * database must not be shared with another process, as changes it makes are not seen. Message
+ * types are registered in the database straight away, as the messages refer to them.
+ */
+public class WriteBehindMessageDao extends InMemoryMessageDao implements Managed {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindMessageDao.class);
+
+  private final MessageDao database;
+  private final WriteBehindConfiguration configuration;
+  private final Set<Long> changedHashes;
+  private final Map<Long, Persisted> persisted;
+  private final Object checkpointLock;
+  private final boolean writeThrough;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Instantiates a new Write behind message dao, loading the messages already in the database.
+   *
+   * @param database      the database message dao
+   * @param configuration the configuration
+   */
+  public WriteBehindMessageDao(final MessageDao database, final WriteBehindConfiguration configuration) {
+    this.database = database;
+    this.configuration = configuration;
+    this.changedHashes = ConcurrentHashMap.newKeySet();
+    this.persisted = new ConcurrentHashMap<>();
+    this.checkpointLock = new Object();
+    this.writeThrough = configuration.checkpointIntervalMillis() <= 0;
+    load();
+    LOGGER.info("WriteBehindMessageDao({},{}): {} messages", database, configuration, size());
+  }
+
+  private void load() {
+    for (String queueName : database.queueNames()) {
+      for (Integer shard : database.shards(queueName)) {
+        for (State state : State.values()) {
+          for (Message message : database.forShard(queueName, shard, state)) {
+            restoreMessageType(message.messageType(), message.messageTypeId());
+            super.store(message, queueName, shard, state);
+            persisted.put(message.hash(), new Persisted(shard, state, message.supersedeKey().isPresent()));
+          }
+        }
+      }
+    }
+    changedHashes.clear(); // loading is not a change.
+  }
+
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    synchronized (checkpointLock) {
+      if (scheduler == null && !writeThrough) {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, configuration.checkpointIntervalMillis(),
+            configuration.checkpointIntervalMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    LOGGER.info("stop()");
+    final ScheduledExecutorService running;
+    synchronized (checkpointLock) {
+      running = scheduler;
+      scheduler = null;
+    }
+    if (running != null) {
+      running.shutdown();
+      running.awaitTermination(15, TimeUnit.SECONDS);
+    }
+    checkpoint();
+  }
+
+  /**
+   * Writes the changed messages to the database. A batch that fails, say because it inserts a
+   * supersede key a later batch frees, is kept as changed for the next checkpoint while the other
+   * batches carry on. The first failure is then thrown.
+   *
+   * @return the number of messages written or deleted.
+   */
+  public int checkpoint() {
+    synchronized (checkpointLock) {
+      final List<Long> failed = new ArrayList<>();
+      RuntimeException failure = null;
+      int written = 0;
+      while (!changedHashes.isEmpty()) {
+        final List<Long> hashes = drain(Math.max(1, configuration.checkpointBatchSize()));
+        try {
+          written += write(hashes);
+        } catch (RuntimeException e) {
+          failed.addAll(hashes);
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        changedHashes.addAll(failed);
+        throw failure;
+      }
+      return written;
+    }
+  }
+
+  /**
+   * Number of changed messages waiting for the next checkpoint.
+   *
+   * @return the count
+   */
+  public int pending() {
+    return changedHashes.size();
+  }
+
+  private void checkpointQuietly() {
+    try {
+      checkpoint();
+    } catch (RuntimeException e) {
+      LOGGER.error("Checkpoint failed, will try again later", e);
+    }
+  }
+
+  private List<Long> drain(final int max) {
+    final List<Long> hashes = new ArrayList<>(Math.min(max, changedHashes.size()));
+    final Iterator<Long> iterator = changedHashes.iterator();
+    while (hashes.size() < max && iterator.hasNext()) {
+      hashes.add(iterator.next());
+      iterator.remove();
+    }
+    return hashes;
+  }
+
+  private int write(final List<Long> hashes) {
+    final List<Message> removed = new ArrayList<>();
+    final List<Message> messages = new ArrayList<>();
+    final List<String> queueNames = new ArrayList<>();
+    final List<Integer> shards = new ArrayList<>();
+    final List<State> states = new ArrayList<>();
+    final Map<Long, Persisted> written = new HashMap<>();
+    final List<Long> deleted = new ArrayList<>();
+    for (Long hash : hashes) {
+      final Persisted before = persisted.get(hash);
+      final boolean found = visitMessage(hash, (message, queueName, shard, state) -> {
+        final Persisted after = new Persisted(shard, state, message.supersedeKey().isPresent());
+        if (!after.equals(before)) {
+          if (before != null) {
+            removed.add(message);
+          }
+          messages.add(message);
+          queueNames.add(queueName);
+          shards.add(shard);
+          states.add(state);
+          written.put(hash, after);
+        }
+      });
+      if (!found && before != null) {
+        removed.add(stub(hash));
+        deleted.add(hash);
+      }
+    }
+    if (removed.isEmpty() && messages.isEmpty()) {
+      return 0;
+    }
+    LOGGER.trace("write({},{})", removed.size(), messages.size());
+    database.checkpoint(removed, messages, queueNames, shards, states);
+    persisted.putAll(written);
+    deleted.forEach(persisted::remove);
+    return written.size() + deleted.size();
+  }
+
+  private static Message stub(final long hash) {
+    return ImmutableMessage.builder()
+        .hash(hash)
+        .timestamp(0)
+        .messageType("")
+        .messageTypeId(0)
+        .payload("")
+        .build();
+  }
+
+  @Override
+  void changed(final long hash) {
+    changedHashes.add(hash);
+  }
+
+  private void written() {
+    if (writeThrough) {
+      checkpoint();
+    }
+  }
+
+  @Override
+  public Optional<Integer> messageTypeId(final String name) {
+    final Optional<Integer> id = super.messageTypeId(name);
+    if (id.isPresent()) {
+      return id;
+    }
+    final Optional<Integer> stored = database.messageTypeId(name);
+    stored.ifPresent(messageTypeId -> restoreMessageType(name, messageTypeId));
+    return stored;
+  }
+
+  @Override
+  public synchronized int insertMessageType(final String name) {
+    final int id = database.insertMessageType(name);
+    restoreMessageType(name, id);
+    return id;
+  }
+
+  @Override
+  public void store(final Message message, final String queueName, final int shard, final State state) {
+    super.store(message, queueName, shard, state);
+    written();
+  }
+
+  @Override
+  public int deleteSuperseded(final Message message, final String queueName, final State state) {
+    final int deleted = super.deleteSuperseded(message, queueName, state);
+    written();
+    return deleted;
+  }
+
+  @Override
+  public void updateState(final Message message, final State state) {
+    super.updateState(message, state);
+    written();
+  }
+
+  @Override
+  public int updateStateOwned(final Message message, final State state, final String owner) {
+    final int updated = super.updateStateOwned(message, state, owner);
+    written();
+    return updated;
+  }
+
+  @Override
+  public int releaseOwned(final Message message, final State expected, final State state, final String owner) {
+    final int released = super.releaseOwned(message, expected, state, owner);
+    if (released > 0) {
+      written();
+    }
+    return released;
+  }
+
+  @Override
+  public int claim(final Message message, final State expected, final State state) {
+    final int claimed = super.claim(message, expected, state);
+    if (claimed > 0) {
+      written();
+    }
+    return claimed;
+  }
+
+  @Override
+  public int claimLeased(final Message message,
+                         final State expected,
+                         final State state,
+                         final String owner,
+                         final long leaseExpiresAt) {
+    final int claimed = super.claimLeased(message, expected, state, owner, leaseExpiresAt);
+    if (claimed > 0) {
+      written();
+    }
+    return claimed;
+  }
+
+  @Override
+  public int updateInState(final List<Long> hashes, final State expected, final State state) {
+    final int updated = super.updateInState(hashes, expected, state);
+    written();
+    return updated;
+  }
+
+  @Override
+  public int reapExpired(final List<Long> hashes, final State expected, final State state, final long now) {
+    final int reaped = super.reapExpired(hashes, expected, state, now);
+    if (reaped > 0) {
+      written();
+    }
+    return reaped;
+  }
+
+  @Override
+  public int rebalanceShards(final String queueName, final int shardCount) {
+    final int moved = super.rebalanceShards(queueName, shardCount);
+    written();
+    return moved;
+  }
+
+  @Override
+  public void updateAllToState(final String queueName, final State state) {
+    super.updateAllToState(queueName, state);
+    written();
+  }
+
+  @Override
+  public int delete(final Message message, final String queueName) {
+    final int deleted = super.delete(message, queueName);
+    written();
+    return deleted;
+  }
+
+  @Override
+  public int[] deleteByHash(final List<Message> messages) {
+    final int[] deleted = super.deleteByHash(messages);
+    written();
+    return deleted;
+  }
+
+  @Override
+  public int deleteOwned(final Message message, final String owner) {
+    final int deleted = super.deleteOwned(message, owner);
+    written();
+    return deleted;
+  }
+
+  @Override
+  public int deleteInState(final List<Long> hashes, final State state) {
+    final int deleted = super.deleteInState(hashes, state);
+    written();
+    return deleted;
+  }
+
+  @Override
+  public void deleteAll(final String queueName) {
+    super.deleteAll(queueName);
+    written();
+  }
+
+  /**
+   * What the database has for a message.
+   */
+  private record Persisted(int shard, State state, boolean superseding) {
+  }
+
+}
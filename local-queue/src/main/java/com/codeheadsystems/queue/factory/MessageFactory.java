@@ -2,12 +2,13 @@ package com.codeheadsystems.queue.factory;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.codeheadsystems.queue.EnqueueOptions;
 import com.codeheadsystems.queue.ImmutableMessage;
 import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.util.IdIndexedCache;
 import com.google.common.base.Charsets;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import java.time.Clock;
@@ -24,24 +25,58 @@ public class MessageFactory {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MessageFactory.class);
   private final Clock clock;
-  private final LoadingCache<String, HashFunction> hashFunctionCache;
+  private final MessageTypeDictionary messageTypeDictionary;
+  private final IdIndexedCache<HashFunction> hashFunctionCache;
+  private final String queueName;
 
   /**
-   * Instantiates a new Message factory.
+   * Instantiates a new Message factory for the configured queue.
    *
-   * @param clock the clock
+   * @param clock                     the clock
+   * @param messageTypeDictionary     the message type dictionary
+   * @param queueConfigurationFactory the queue configuration factory
    */
   @Inject
-  public MessageFactory(final Clock clock) {
+  public MessageFactory(final Clock clock,
+                        final MessageTypeDictionary messageTypeDictionary,
+                        final QueueConfigurationFactory queueConfigurationFactory) {
+    this(clock, messageTypeDictionary, queueConfigurationFactory.queueConfiguration().queueName());
+  }
+
+  /**
+   * Instantiates a new Message factory for the default queue.
+   *
+   * @param clock                 the clock
+   * @param messageTypeDictionary the message type dictionary
+   */
+  public MessageFactory(final Clock clock, final MessageTypeDictionary messageTypeDictionary) {
+    this(clock, messageTypeDictionary, QueueConfiguration.DEFAULT_QUEUE_NAME);
+  }
+
+  /**
+   * Instantiates a new Message factory whose hashes are namespaced by the queue name, so the same
+   * payload enqueued to different queues does not collide on the hash.
+   *
+   * @param clock                 the clock
+   * @param messageTypeDictionary the message type dictionary
+   * @param queueName             the queue name
+   */
+  public MessageFactory(final Clock clock,
+                        final MessageTypeDictionary messageTypeDictionary,
+                        final String queueName) {
     this.clock = clock;
-    this.hashFunctionCache = CacheBuilder.newBuilder()
-        .maximumSize(10) // TODO: Set this ina configuration
-        .build(CacheLoader.from(this::generateHashFunction));
-    LOGGER.info("MessageFactory({})", clock);
+    this.messageTypeDictionary = messageTypeDictionary;
+    this.queueName = queueName;
+    this.hashFunctionCache = new IdIndexedCache<>();
+    LOGGER.info("MessageFactory({},{})", clock, queueName);
   }
 
+  /**
+   * The key is the queue name's length, the queue name, then the message type, so no queue name
+   * and message type pair can spell out the key of another.
+   */
   private HashFunction generateHashFunction(final String messageType) {
-    return Hashing.hmacSha512(messageType.getBytes(UTF_8));
+    return Hashing.hmacSha512((queueName.length() + ":" + queueName + messageType).getBytes(UTF_8));
   }
 
   /**
@@ -53,14 +88,49 @@ public class MessageFactory {
    */
   public Message createMessage(final String messageType,
                                final String payload) {
-    LOGGER.trace("createMessage({},{})", messageType, payload);
-    final HashFunction hashFunction = hashFunctionCache.getUnchecked(messageType);
+    return createMessage(messageType, payload, EnqueueOptions.none());
+  }
+
+  /**
+   * Create message message. The options do not take part in the hash, so the same payload
+   * is still deduped regardless of the options used.
+   *
+   * @param messageType the message type
+   * @param payload     the payload
+   * @param options     the enqueue options
+   * @return the message
+   */
+  public Message createMessage(final String messageType,
+                               final String payload,
+                               final EnqueueOptions options) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("createMessage({},{},{})", messageType, payload, options);
+    }
+    final int messageTypeId = messageTypeDictionary.idOf(messageType);
+    final HashFunction cached = hashFunctionCache.getIfPresent(messageTypeId);
+    final HashFunction hashFunction = cached != null ? cached
+        : hashFunctionCache.get(messageTypeId, id -> generateHashFunction(messageType));
+    final long timestamp = clock.instant().toEpochMilli();
     return ImmutableMessage.builder()
-        .timestamp(clock.instant().toEpochMilli())
+        .timestamp(timestamp)
         .messageType(messageType)
+        .messageTypeId(messageTypeId)
         .payload(payload)
         .hash(hashFunction.hashString(payload, Charsets.UTF_8).asLong())
+        .orderingKey(options.orderingKey())
+        .supersedeKey(options.supersedeKey())
+        .expiresAt(options.timeToLive().map(ttl -> timestamp + ttl.toMillis()))
         .build();
   }
 
+  /**
+   * The id the message type is stored under, registering it if it is new.
+   *
+   * @param messageType the message type
+   * @return the id
+   */
+  public int messageTypeId(final String messageType) {
+    return messageTypeDictionary.idOf(messageType);
+  }
+
 }
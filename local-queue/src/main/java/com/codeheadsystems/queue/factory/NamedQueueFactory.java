@@ -0,0 +1,161 @@
+package com.codeheadsystems.queue.factory;
+
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.MessageDao;
+import com.codeheadsystems.queue.impl.CompletionRegistry;
+import com.codeheadsystems.queue.impl.ExpirySweeper;
+import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
+import com.codeheadsystems.queue.impl.NamedQueue;
+import com.codeheadsystems.queue.impl.QueueImpl;
+import com.codeheadsystems.queue.impl.QueueProcessor;
+import com.codeheadsystems.queue.impl.QueueRegister;
+import com.codeheadsystems.queue.impl.StateCountReconciler;
+import com.codeheadsystems.queue.impl.VisibilityReaper;
+import com.codeheadsystems.queue.manager.LifecycleTimers;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import com.codeheadsystems.queue.manager.StateCounters;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates additional named queues next to the default one, all sharing the same datasource. Each
+ * queue gets its own configuration, consumers, executor and processor, so a flood of bulk work
+ * cannot starve a critical queue. Queues created after start are started right away.
+ */
+@Singleton
+public class NamedQueueFactory implements Managed {
+  private static final Logger LOGGER = LoggerFactory.getLogger(NamedQueueFactory.class);
+
+  private final MessageDao messageDao;
+  private final MessageTypeDictionary messageTypeDictionary;
+  private final Clock clock;
+  private final Metrics metrics;
+  private final MeterRegistry meterRegistry;
+  private final String defaultQueueName;
+  private final Map<String, NamedQueue> namedQueues;
+  private boolean started;
+
+  /**
+   * Instantiates a new Named queue factory.
+   *
+   * @param messageDao                the message dao
+   * @param messageTypeDictionary     the message type dictionary
+   * @param queueConfigurationFactory the configuration of the default queue
+   * @param clock                     the clock
+   * @param metrics                   the metrics
+   * @param meterRegistry             the meter registry, if you have one. Else the global one is used.
+   */
+  @Inject
+  public NamedQueueFactory(final MessageDao messageDao,
+                           final MessageTypeDictionary messageTypeDictionary,
+                           final QueueConfigurationFactory queueConfigurationFactory,
+                           final Clock clock,
+                           final Metrics metrics,
+                           final Optional<MeterRegistry> meterRegistry) {
+    this.messageDao = messageDao;
+    this.messageTypeDictionary = messageTypeDictionary;
+    this.clock = clock;
+    this.metrics = metrics;
+    this.meterRegistry = meterRegistry.orElse(io.micrometer.core.instrument.Metrics.globalRegistry);
+    this.defaultQueueName = queueConfigurationFactory.queueConfiguration().queueName();
+    this.namedQueues = new LinkedHashMap<>();
+    LOGGER.info("NamedQueueFactory({})", defaultQueueName);
+  }
+
+  /**
+   * Create a named queue. The name comes from the configuration and must be unique.
+   *
+   * @param configuration the configuration
+   * @param consumers     the message consumers for this queue
+   * @return the named queue
+   */
+  public synchronized NamedQueue create(final QueueConfiguration configuration,
+                                        final Map<String, MessageConsumer> consumers) {
+    final String name = configuration.queueName();
+    LOGGER.info("create({})", name);
+    if (name.equals(defaultQueueName) || namedQueues.containsKey(name)) {
+      throw new IllegalArgumentException("Queue already exists: " + name);
+    }
+    final QueueConfigurationFactory configurationFactory = new QueueConfigurationFactory(Optional.of(configuration));
+    final MessageFactory messageFactory = new MessageFactory(clock, messageTypeDictionary, name);
+    final MessageTypeTimers messageTypeTimers = new MessageTypeTimers(name, meterRegistry);
+    final MessageManager messageManager = new MessageManager(messageDao, messageFactory,
+        new StateCounters(name, meterRegistry), messageTypeTimers, configurationFactory, metrics, clock);
+    final QueueRegister queueRegister = new QueueRegister(consumers, messageTypeDictionary);
+    final CompletionRegistry completionRegistry = new CompletionRegistry();
+    final VisibilityReaper visibilityReaper = new VisibilityReaper(messageManager, configurationFactory, clock,
+        metrics);
+    final MessageConsumerExecutor executor = new MessageConsumerExecutor(configurationFactory, messageManager,
+        queueRegister, completionRegistry, visibilityReaper, new LifecycleTimers(name, meterRegistry, clock),
+        messageTypeTimers);
+    final QueueProcessor processor = new QueueProcessor(messageManager, configurationFactory, executor, metrics);
+    final ExpirySweeper expirySweeper = new ExpirySweeper(messageManager, configurationFactory, completionRegistry,
+        metrics);
+    final StateCountReconciler reconciler = new StateCountReconciler(messageManager, configurationFactory);
+    final NamedQueue namedQueue = new NamedQueue(name,
+        new QueueImpl(messageManager, configurationFactory, completionRegistry, messageTypeTimers, metrics),
+        queueRegister,
+        List.of(executor, processor, expirySweeper, visibilityReaper, reconciler));
+    namedQueues.put(name, namedQueue);
+    if (started) {
+      start(namedQueue);
+    }
+    return namedQueue;
+  }
+
+  /**
+   * Gets a named queue.
+   *
+   * @param name the name
+   * @return the named queue if it exists.
+   */
+  public synchronized Optional<NamedQueue> get(final String name) {
+    return Optional.ofNullable(namedQueues.get(name));
+  }
+
+  /**
+   * Names of the queues created so far.
+   *
+   * @return the list
+   */
+  public synchronized List<String> names() {
+    return List.copyOf(namedQueues.keySet());
+  }
+
+  @Override
+  public synchronized void start() {
+    LOGGER.info("start()");
+    started = true;
+    namedQueues.values().forEach(this::start);
+  }
+
+  private void start(final NamedQueue namedQueue) {
+    try {
+      namedQueue.start();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to start " + namedQueue, e);
+    }
+  }
+
+  @Override
+  public synchronized void stop() throws Exception {
+    LOGGER.info("stop()");
+    started = false;
+    for (NamedQueue namedQueue : namedQueues.values()) {
+      namedQueue.stop();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package com.codeheadsystems.queue.impl;
+
+import com.codeheadsystems.queue.Message;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Futures for the messages someone is waiting on, by hash. Only messages that have a waiter are
+ * tracked, so this costs nothing for fire and forget work.
+ */
+@Singleton
+public class CompletionRegistry {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CompletionRegistry.class);
+
+  private final Map<Long, Waiter> waiters;
+
+  /**
+   * Instantiates a new Completion registry.
+   */
+  @Inject
+  public CompletionRegistry() {
+    this.waiters = new ConcurrentHashMap<>();
+    LOGGER.info("CompletionRegistry()");
+  }
+
+  /**
+   * The future for the message. Everyone waiting on the same message shares the future.
+   *
+   * @param message the message
+   * @return the future
+   */
+  public CompletableFuture<Message> register(final Message message) {
+    LOGGER.trace("register({})", message);
+    return waiters.computeIfAbsent(message.hash(), hash -> new Waiter(message)).future;
+  }
+
+  /**
+   * Completes the future for the message, if anyone is waiting.
+   *
+   * @param message the message
+   */
+  public void complete(final Message message) {
+    final Waiter waiter = waiters.remove(message.hash());
+    if (waiter != null) {
+      waiter.future.complete(message);
+    }
+  }
+
+  /**
+   * Completes the future for the message exceptionally, if anyone is waiting.
+   *
+   * @param message   the message
+   * @param throwable why it failed
+   */
+  public void completeExceptionally(final Message message, final Throwable throwable) {
+    final Waiter waiter = waiters.remove(message.hash());
+    if (waiter != null) {
+      waiter.future.completeExceptionally(throwable);
+    }
+  }
+
+  /**
+   * Cancels the future for the message, if anyone is waiting.
+   *
+   * @param message the message
+   */
+  public void cancel(final Message message) {
+    final Waiter waiter = waiters.remove(message.hash());
+    if (waiter != null) {
+      waiter.future.cancel(false);
+    }
+  }
+
+  /**
+   * Cancels the futures for the messages with the hashes, if anyone is waiting.
+   *
+   * @param hashes the hashes of the messages
+   */
+  public void cancel(final Collection<Long> hashes) {
+    for (Long hash : hashes) {
+      final Waiter waiter = waiters.remove(hash);
+      if (waiter != null) {
+        waiter.future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Cancels the futures of the messages that are gone.
+   *
+   * @param gone tests if the message is gone.
+   * @return the number cancelled.
+   */
+  public int cancelIf(final Predicate<Message> gone) {
+    int cancelled = 0;
+    for (Waiter waiter : waiters.values()) {
+      if (gone.test(waiter.message) && waiters.remove(waiter.message.hash(), waiter)) {
+        waiter.future.cancel(false);
+        cancelled++;
+      }
+    }
+    return cancelled;
+  }
+
+  /**
+   * Cancels every future.
+   */
+  public void cancelAll() {
+    cancelIf(message -> true);
+  }
+
+  /**
+   * Number of messages being waited on.
+   *
+   * @return the size
+   */
+  public int size() {
+    return waiters.size();
+  }
+
+  private static final class Waiter {
+    private final Message message;
+    private final CompletableFuture<Message> future;
+
+    private Waiter(final Message message) {
+      this.message = message;
+      this.future = new CompletableFuture<>();
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.codeheadsystems.queue.impl;
+
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Expiry Sweeper. Removes pending messages that are past their time to live, in bounded
+ * chunks so a large backlog of stale work never turns into one giant delete.
+ */
+@Singleton
+public class ExpirySweeper implements Managed {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExpirySweeper.class);
+
+  private final MessageManager messageManager;
+  private final QueueConfiguration queueConfiguration;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private final CompletionRegistry completionRegistry;
+  private final Metrics metrics;
+  private final Tags tags;
+  private ScheduledFuture<?> scheduler;
+
+  /**
+   * Instantiates a new Expiry sweeper.
+   *
+   * @param messageManager            the message manager
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param completionRegistry        the completion registry
+   * @param metrics                   the metrics
+   */
+  @Inject
+  public ExpirySweeper(final MessageManager messageManager,
+                       final QueueConfigurationFactory queueConfigurationFactory,
+                       final CompletionRegistry completionRegistry,
+                       final Metrics metrics) {
+    this(messageManager,
+        queueConfigurationFactory,
+        Executors.newScheduledThreadPool(1),
+        completionRegistry,
+        metrics);
+  }
+
+  @VisibleForTesting
+  ExpirySweeper(final MessageManager messageManager,
+                final QueueConfigurationFactory queueConfigurationFactory,
+                final ScheduledExecutorService scheduledExecutorService,
+                final CompletionRegistry completionRegistry,
+                final Metrics metrics) {
+    this.messageManager = messageManager;
+    this.queueConfiguration = queueConfigurationFactory.queueConfiguration();
+    this.scheduledExecutorService = scheduledExecutorService;
+    this.completionRegistry = completionRegistry;
+    this.metrics = metrics;
+    this.tags = Tags.of("queue", queueConfiguration.queueName());
+    LOGGER.info("ExpirySweeper({},{})", messageManager, queueConfiguration);
+  }
+
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler == null) {
+        scheduler = scheduledExecutorService.scheduleWithFixedDelay(this::sweep,
+            queueConfiguration.expirySweepIntervalSeconds(),
+            queueConfiguration.expirySweepIntervalSeconds(),
+            TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /**
+   * Sweep expired messages, one chunk at a time, until a chunk comes back short.
+   *
+   * @return the total number of messages expired.
+   */
+  public int sweep() {
+    LOGGER.trace("sweep()");
+    final int batchSize = queueConfiguration.expirySweepBatchSize();
+    return metrics.time("ExpirySweeper.sweep", tags, () -> {
+      int total = 0;
+      List<Long> expired;
+      try {
+        do {
+          expired = messageManager.expire(batchSize);
+          total += expired.size();
+          metrics.increment("ExpirySweeper.expired", tags, expired.size());
+          completionRegistry.cancel(expired); // only the ones deleted here, a finished run completes its own.
+        } while (expired.size() >= batchSize);
+      } catch (RuntimeException e) {
+        LOGGER.error("Unable to expire messages", e); // do not kill the scheduler
+      }
+      if (total > 0) {
+        LOGGER.info("Expired {} messages", total);
+      }
+      return total;
+    });
+  }
+
+  @Override
+  public void stop() throws Exception {
+    LOGGER.info("stop()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler != null) {
+        scheduler.cancel(true);
+        scheduler = null;
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(15, TimeUnit.SECONDS)) {
+          LOGGER.info("Shutting down nicely failed. No longer being nice.");
+          scheduledExecutorService.shutdownNow();
+        }
+      }
+    }
+  }
+}
@@ -1,16 +1,22 @@
 package com.codeheadsystems.queue.impl;
 
-import com.codeheadsystems.metrics.Metrics;
-import com.codeheadsystems.metrics.Tags;
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.MessageConsumer;
 import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.LifecycleTimers;
 import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
 import io.dropwizard.lifecycle.Managed;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -22,11 +28,19 @@ import org.slf4j.LoggerFactory;
 @Singleton
 public class MessageConsumerExecutor implements Managed {
   private static final Logger LOGGER = LoggerFactory.getLogger(MessageConsumerExecutor.class);
+  private static final int LANE_STRIPES = 64; // power of two
+
 
   private final ThreadPoolExecutor executorService;
   private final MessageManager messageManager;
   private final QueueRegister queueRegister;
-  private final Metrics metrics;
+  private final CompletionRegistry completionRegistry;
+  private final VisibilityReaper visibilityReaper;
+  private final LifecycleTimers lifecycleTimers;
+  private final MessageTypeTimers messageTypeTimers;
+  private final Map<String, ArrayDeque<Runnable>> orderedLanes;
+  private final Object[] laneLocks;
+  private final AtomicInteger laneDepth;
 
   /**
    * Instantiates a new Message consumer executor.
@@ -34,13 +48,19 @@ public class MessageConsumerExecutor implements Managed {
    * @param queueConfigurationFactory the configuration.
    * @param messageManager            the message manager
    * @param queueRegister             the queue register
-   * @param metrics                   the metrics
+   * @param completionRegistry        the completion registry
+   * @param visibilityReaper          the visibility reaper
+   * @param lifecycleTimers           the lifecycle timers
+   * @param messageTypeTimers         the message type timers
    */
   @Inject
   public MessageConsumerExecutor(final QueueConfigurationFactory queueConfigurationFactory,
                                  final MessageManager messageManager,
                                  final QueueRegister queueRegister,
-                                 final Metrics metrics) {
+                                 final CompletionRegistry completionRegistry,
+                                 final VisibilityReaper visibilityReaper,
+                                 final LifecycleTimers lifecycleTimers,
+                                 final MessageTypeTimers messageTypeTimers) {
     final QueueConfiguration configuration = queueConfigurationFactory.queueConfiguration();
     this.executorService = new ThreadPoolExecutor(
         configuration.queueExecutorMinThreads(),
@@ -49,17 +69,97 @@ public class MessageConsumerExecutor implements Managed {
         new LinkedBlockingQueue<>());
     this.messageManager = messageManager;
     this.queueRegister = queueRegister;
-    this.metrics = metrics;
+    this.completionRegistry = completionRegistry;
+    this.visibilityReaper = visibilityReaper;
+    this.lifecycleTimers = lifecycleTimers;
+    this.messageTypeTimers = messageTypeTimers;
+    this.orderedLanes = new ConcurrentHashMap<>();
+    this.laneLocks = new Object[LANE_STRIPES];
+    for (int i = 0; i < LANE_STRIPES; i++) {
+      laneLocks[i] = new Object();
+    }
+    this.laneDepth = new AtomicInteger();
     LOGGER.info("MessageConsumerExecutor({},{},{})", messageManager, executorService, queueRegister);
   }
 
   /**
-   * Number of free threads in the executor service.
+   * Number of free threads in the executor service. Messages waiting behind others with the same
+   * ordering key each take one, as they need a thread once their turn comes. Otherwise a busy key
+   * would keep the claims coming while its lane grows without bound.
    *
    * @return the number of free threads.
    */
   public int availableThreadCount() {
-    return executorService.getMaximumPoolSize() - executorService.getActiveCount();
+    return Math.max(0, executorService.getMaximumPoolSize() - executorService.getActiveCount() - laneDepth.get());
+  }
+
+  /**
+   * Number of messages waiting behind others with the same ordering key.
+   *
+   * @return the number of messages in the lanes.
+   */
+  public int laneDepth() {
+    return laneDepth.get();
+  }
+
+  /**
+   * Number of threads the executor service runs messages on.
+   *
+   * @return the number of threads.
+   */
+  public int threadCount() {
+    return executorService.getMaximumPoolSize();
+  }
+
+  /**
+   * Resizes the executor service while it runs. Messages already running finish on the threads
+   * they have; a smaller pool lets its extra threads go as they come free. The hand-off queue is
+   * unbounded, so the pool never grows past its core size on its own, and both sizes are set.
+   *
+   * @param threads the number of threads, at least one.
+   */
+  public void resize(final int threads) {
+    LOGGER.info("resize({})", threads);
+    if (threads < 1) {
+      throw new IllegalArgumentException("Need at least one thread: " + threads);
+    }
+    synchronized (executorService) {
+      if (threads > executorService.getMaximumPoolSize()) {
+        executorService.setMaximumPoolSize(threads); // the core size may never be more than the max.
+        executorService.setCorePoolSize(threads);
+      } else {
+        executorService.setCorePoolSize(threads);
+        executorService.setMaximumPoolSize(threads);
+      }
+    }
+  }
+
+  /**
+   * Number of threads running a message right now.
+   *
+   * @return the number of busy threads.
+   */
+  public int activeCount() {
+    return executorService.getActiveCount();
+  }
+
+  /**
+   * Number of messages handed over and waiting for a thread. Messages waiting behind others with
+   * the same ordering key are not counted until their turn comes.
+   *
+   * @return the number of waiting messages.
+   */
+  public int queuedCount() {
+    return executorService.getQueue().size();
+  }
+
+  /**
+   * Whether no message is running or waiting for a thread.
+   *
+   * @return true if idle.
+   */
+  public boolean isIdle() {
+    return executorService.getActiveCount() == 0 && executorService.getQueue().isEmpty();
   }
 
   /**
@@ -69,32 +169,122 @@ public class MessageConsumerExecutor implements Managed {
    */
   public void enqueue(final Message message) {
     LOGGER.trace("enqueue({})", message);
-    final String messageType = message.messageType();
-    metrics.time("MessageConsumerExecutor.enqueue", Tags.of("messageType", messageType), () -> {
-      queueRegister.getConsumer(messageType)
-          .ifPresentOrElse(
-              messageConsumer -> executorService.execute(() -> execute(message, messageConsumer)),
-              () -> {
-                LOGGER.error("No message for type {}", message.messageType());
-                messageManager.clear(message);
-              });
-      return null;
-    });
-  }
-
-  private void execute(final Message message, final MessageConsumer consumer) {
+    final long start = System.nanoTime();
+    try {
+      final VisibilityReaper.Claim claim = visibilityReaper.claimed(message);
+      final long activatedAt = lifecycleTimers.activated(message);
+      final Optional<MessageConsumer> consumer = queueRegister.getConsumer(message);
+      if (consumer.isPresent()) {
+        dispatch(claim, consumer.get(), activatedAt);
+      } else {
+        LOGGER.error("No message for type {}", message.messageType());
+        visibilityReaper.finished(claim);
+        messageManager.clearClaimed(message, State.ACTIVATING);
+        completionRegistry.completeExceptionally(message,
+            new IllegalStateException("No consumer for message type " + message.messageType()));
+      }
+    } finally {
+      messageTypeTimers.dispatch(message.messageType()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void dispatch(final VisibilityReaper.Claim claim, final MessageConsumer consumer, final long activatedAt) {
+    final Runnable runnable = () -> execute(claim, consumer, activatedAt);
+    claim.message().orderingKey().ifPresentOrElse(
+        orderingKey -> dispatchInLane(orderingKey, runnable),
+        () -> executorService.execute(runnable));
+  }
+
+  /**
+   * Each ordering key gets its own lane. Only the head of a lane is ever handed to the executor;
+   * the rest wait in the lane until the one in flight is finished. Lanes are created on demand and
+   * removed once drained, so idle keys cost nothing. Locks are striped so unrelated keys rarely
+   * contend with each other.
+   */
+  private void dispatchInLane(final String orderingKey, final Runnable runnable) {
+    synchronized (laneLock(orderingKey)) {
+      final ArrayDeque<Runnable> lane = orderedLanes.get(orderingKey);
+      if (lane != null) {
+        LOGGER.trace("Ordering key {} in flight, queued behind {} others", orderingKey, lane.size());
+        lane.add(runnable);
+        laneDepth.incrementAndGet();
+        return;
+      }
+      orderedLanes.put(orderingKey, new ArrayDeque<>());
+    }
+    executorService.execute(() -> runLane(orderingKey, runnable));
+  }
+
+  private void runLane(final String orderingKey, final Runnable runnable) {
+    try {
+      runnable.run();
+    } finally {
+      final Runnable next;
+      synchronized (laneLock(orderingKey)) {
+        final ArrayDeque<Runnable> lane = orderedLanes.get(orderingKey);
+        next = lane.poll();
+        if (next == null) {
+          orderedLanes.remove(orderingKey);
+        } else {
+          laneDepth.decrementAndGet();
+        }
+      }
+      if (next != null) {
+        executorService.execute(() -> runLane(orderingKey, next));
+      }
+    }
+  }
+
+  private Object laneLock(final String orderingKey) {
+    return laneLocks[orderingKey.hashCode() & (LANE_STRIPES - 1)];
+  }
+
+  private void execute(final VisibilityReaper.Claim claim, final MessageConsumer consumer, final long activatedAt) {
+    final Message message = claim.message();
     LOGGER.trace("execute({},{})", message, consumer);
+    if (!visibilityReaper.isClaimed(claim)) {
+      LOGGER.warn("Message waited past its visibility timeout, leaving it to its next run: {}", message);
+      return;
+    }
+    if (messageManager.isExpired(message)) {
+      // expired while it waited for a thread or its lane, so it is dropped like the sweeper would.
+      LOGGER.info("Message expired before it ran, dropping it: {}", message);
+      if (visibilityReaper.finished(claim)) {
+        messageManager.clearClaimed(message, State.ACTIVATING);
+        completionRegistry.cancel(message);
+      }
+      return;
+    }
+    final long startedAt = lifecycleTimers.started(message, activatedAt);
+    State state = State.ACTIVATING;
+    Throwable failure = null;
     try {
-      metrics.time("MessageConsumerExecutor.execute", Tags.of("messageType", message.messageType()), () -> {
-        messageManager.setProcessing(message);
+      messageManager.setProcessing(message);
+      state = State.PROCESSING;
+      final long accepted = System.nanoTime();
+      try {
         consumer.accept(message);
-        return null;
-      });
+      } finally {
+        messageTypeTimers.execute(message.messageType())
+            .record(System.nanoTime() - accepted, TimeUnit.NANOSECONDS);
+      }
     } catch (final Throwable t) {
       // There is no dead letter queue... an no poison pill impact. We delete either way.
       LOGGER.error("Error processing message: {}", message, t); // do not die
+      failure = t;
     } finally {
-      messageManager.clear(message);
+      if (visibilityReaper.finished(claim)) {
+        messageManager.clearClaimed(message, state);
+        lifecycleTimers.finished(message, startedAt);
+        if (failure == null) {
+          completionRegistry.complete(message);
+        } else {
+          completionRegistry.completeExceptionally(message, failure);
+        }
+      } else {
+        // its next run clears it and completes the handle.
+        LOGGER.warn("Message ran past its visibility timeout, leaving it to its next run: {}", message);
+      }
     }
   }
 
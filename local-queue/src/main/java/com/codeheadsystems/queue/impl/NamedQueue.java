@@ -0,0 +1,81 @@
+package com.codeheadsystems.queue.impl;
+
+import com.codeheadsystems.queue.Queue;
+import io.dropwizard.lifecycle.Managed;
+import java.util.List;
+
+/**
+ * A named queue. It has its own configuration, consumers, executor and processor, and shares
+ * the datasource with every other queue.
+ */
+public class NamedQueue implements Managed {
+
+  private final String name;
+  private final Queue queue;
+  private final QueueRegister queueRegister;
+  private final List<Managed> managed;
+
+  /**
+   * Instantiates a new Named queue.
+   *
+   * @param name          the name
+   * @param queue         the queue
+   * @param queueRegister the queue register
+   * @param managed       the managed parts, in the order they should start.
+   */
+  public NamedQueue(final String name,
+                    final Queue queue,
+                    final QueueRegister queueRegister,
+                    final List<Managed> managed) {
+    this.name = name;
+    this.queue = queue;
+    this.queueRegister = queueRegister;
+    this.managed = List.copyOf(managed);
+  }
+
+  /**
+   * Name string.
+   *
+   * @return the string
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Queue queue.
+   *
+   * @return the queue
+   */
+  public Queue queue() {
+    return queue;
+  }
+
+  /**
+   * The consumers for this queue only.
+   *
+   * @return the queue register
+   */
+  public QueueRegister queueRegister() {
+    return queueRegister;
+  }
+
+  @Override
+  public void start() throws Exception {
+    for (Managed m : managed) {
+      m.start();
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    for (int i = managed.size() - 1; i >= 0; i--) {
+      managed.get(i).stop();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "NamedQueue{" + name + '}';
+  }
+}
@@ -2,14 +2,23 @@ package com.codeheadsystems.queue.impl;
 
 import com.codeheadsystems.metrics.Metrics;
 import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.CompletionHandle;
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableCompletionHandle;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.Queue;
 import com.codeheadsystems.queue.QueueConfiguration;
 import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
 import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -24,39 +33,93 @@ public class QueueImpl implements Queue {
 
   private final MessageManager messageManager;
   private final QueueConfiguration queueConfiguration;
+  private final CompletionRegistry completionRegistry;
+  private final MessageTypeTimers messageTypeTimers;
   private final Metrics metrics;
+  private final Tags tags;
 
   /**
    * Instantiates a new Queue.
    *
    * @param messageManager            the message manager
    * @param queueConfigurationFactory the queue configuration factory
+   * @param completionRegistry        the completion registry
+   * @param messageTypeTimers         the message type timers
    * @param metrics                   the metrics
    */
   @Inject
   public QueueImpl(final MessageManager messageManager,
                    final QueueConfigurationFactory queueConfigurationFactory,
+                   final CompletionRegistry completionRegistry,
+                   final MessageTypeTimers messageTypeTimers,
                    final Metrics metrics) {
     this.messageManager = messageManager;
     this.queueConfiguration = queueConfigurationFactory.queueConfiguration();
+    this.completionRegistry = completionRegistry;
+    this.messageTypeTimers = messageTypeTimers;
     this.metrics = metrics;
+    this.tags = Tags.of("queue", queueConfiguration.queueName());
     LOGGER.info("QueueImpl({}, {})", queueConfiguration, messageManager);
   }
 
   @Override
-  public Optional<Message> enqueue(final String messageType, final String payload) {
-    LOGGER.trace("enqueue({},{})", messageType, payload);
-    return metrics.time("QueueImpl.enqueue", Tags.of("messageType", messageType), () -> {
-      try {
-        return messageManager.saveMessage(messageType, payload);
-      } catch (RuntimeException e) {
-        if (queueConfiguration.exceptionOnEnqueueFail()) {
-          throw e;
-        } else {
-          return Optional.empty();
-        }
+  public Optional<Message> enqueue(final String messageType,
+                                   final String payload,
+                                   final EnqueueOptions options) {
+    if (LOGGER.isTraceEnabled()) { // skips the varargs array.
+      LOGGER.trace("enqueue({},{},{})", messageType, payload, options);
+    }
+    final long start = System.nanoTime();
+    try {
+      return messageManager.saveMessage(messageType, payload, withTypeTimeToLive(messageType, options));
+    } catch (RuntimeException e) {
+      if (queueConfiguration.exceptionOnEnqueueFail()) {
+        throw e;
+      } else {
+        return Optional.empty();
       }
-    });
+    } finally {
+      messageTypeTimers.enqueue(messageType).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private EnqueueOptions withTypeTimeToLive(final String messageType, final EnqueueOptions options) {
+    if (options.timeToLive().isPresent()) {
+      return options;
+    }
+    final Long seconds = queueConfiguration.messageTypeTimeToLiveSeconds().get(messageType);
+    if (seconds == null) {
+      return options;
+    }
+    return ImmutableEnqueueOptions.copyOf(options).withTimeToLive(Duration.ofSeconds(seconds));
+  }
+
+  @Override
+  public Optional<CompletionHandle> enqueueForCompletion(final String messageType,
+                                                         final String payload,
+                                                         final EnqueueOptions options) {
+    LOGGER.trace("enqueueForCompletion({},{},{})", messageType, payload, options);
+    if (options.supersedeKey().isPresent()) {
+      throw new IllegalArgumentException("Superseded messages may never run, so cannot be waited on");
+    }
+    return enqueue(messageType, payload, options).map(this::track);
+  }
+
+  @Override
+  public Optional<CompletionHandle> completionOf(final long hash) {
+    LOGGER.trace("completionOf({})", hash);
+    return messageManager.getMessage(hash).map(this::track);
+  }
+
+  private CompletionHandle track(final Message message) {
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+    if (messageManager.getState(message).isEmpty()) {
+      completionRegistry.complete(message); // finished before we started watching.
+    }
+    return ImmutableCompletionHandle.builder()
+        .message(message)
+        .completion(completion)
+        .build();
   }
 
   @Override
@@ -65,20 +128,40 @@ public class QueueImpl implements Queue {
     return messageManager.getState(message);
   }
 
+  @Override
+  public Map<Long, State> getStates(final Collection<Message> messages) {
+    LOGGER.trace("getStates({})", messages.size());
+    return metrics.time("QueueImpl.getStates", tags, () -> messageManager.getStates(messages));
+  }
+
   @Override
   public Map<State, Long> getMessageStateCounts() {
     return messageManager.counts();
   }
 
+  @Override
+  public Map<String, Map<State, Long>> getMessageStateCountsByType() {
+    return messageManager.countsByType();
+  }
+
   @Override
   public void clearAll() {
     LOGGER.trace("clearAll()");
     messageManager.clearAll();
+    completionRegistry.cancelAll();
   }
 
   @Override
   public void clear(final Message message) {
     LOGGER.trace("clear({})", message);
     messageManager.clear(message);
+    completionRegistry.cancel(message);
+  }
+
+  @Override
+  public void clear(final Collection<Message> messages) {
+    LOGGER.trace("clear({})", messages.size());
+    metrics.time("QueueImpl.clearMessages", tags, () -> messageManager.clear(messages));
+    messages.forEach(completionRegistry::cancel);
   }
 }
@@ -1,33 +1,52 @@
 package com.codeheadsystems.queue.impl;
 
 import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.QueueConfiguration;
 import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
 import com.codeheadsystems.queue.manager.MessageManager;
 import com.google.common.annotations.VisibleForTesting;
 import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The Queue Processor. Reads the queues and creates workers for the messages.
+ * The Queue Processor. Reads the queues and creates workers for the messages. Dispatch can be
+ * throttled while it runs: paused as a whole or by message type, drained, or polled at a different
+ * interval or batch size, all without a restart.
  */
 @Singleton
 public class QueueProcessor implements Managed {
   private static final Logger LOGGER = LoggerFactory.getLogger(QueueProcessor.class);
+  private static final long DRAIN_POLL_MILLIS = 50;
 
   private final MessageManager messageManager;
   private final QueueConfiguration queueConfiguration;
   private final MessageConsumerExecutor messageConsumerExecutor;
   private final ScheduledExecutorService scheduledExecutorService;
   private final Metrics metrics;
-  private ScheduledFuture<?> scheduler;
+  private final Tags tags;
+  private final int shardCount;
+  private final Set<String> pausedMessageTypes;
+  private final AtomicInteger claimCycles;
+  private List<ScheduledFuture<?>> schedulers;
+  private List<ScheduledFuture<?>> claimLoops;
+  private volatile boolean paused;
+  private volatile int intervalSeconds;
+  private volatile int batchSize;
 
   /**
    * Instantiates a new Queue processor.
@@ -45,7 +64,8 @@ public class QueueProcessor implements Managed {
     this(messageManager,
         queueConfigurationFactory,
         messageConsumerExecutor,
-        Executors.newScheduledThreadPool(1),
+        // a thread per shard, plus one for recovery.
+        Executors.newScheduledThreadPool(Math.max(1, queueConfigurationFactory.queueConfiguration().shardCount()) + 1),
         metrics);
   }
 
@@ -60,6 +80,10 @@ public class QueueProcessor implements Managed {
     this.messageConsumerExecutor = messageConsumerExecutor;
     this.scheduledExecutorService = scheduledExecutorService;
     this.metrics = metrics;
+    this.tags = Tags.of("queue", queueConfiguration.queueName());
+    this.shardCount = Math.max(1, queueConfiguration.shardCount());
+    this.pausedMessageTypes = ConcurrentHashMap.newKeySet();
+    this.claimCycles = new AtomicInteger();
     LOGGER.info("QueueProcessor({},{},{})", messageManager, queueConfiguration, messageConsumerExecutor);
   }
 
@@ -67,48 +91,268 @@ public class QueueProcessor implements Managed {
   public void start() {
     LOGGER.info("start()");
     synchronized (scheduledExecutorService) {
-      if (scheduler == null) {
-        LOGGER.info("Resetting existing messages to pending state");
-        messageManager.setAllToPending();
-        LOGGER.info("Starting the scheduler");
-        scheduler = scheduledExecutorService.scheduleAtFixedRate(this::processPendingQueue,
-            queueConfiguration.queueProcessorInitialDelay(),
-            queueConfiguration.queueProcessorInterval(),
-            TimeUnit.SECONDS);
+      if (schedulers == null) {
+        messageManager.rebalanceShards();
+        messageManager.beginRecovery();
+        LOGGER.info("Starting the scheduler with {} shards", shardCount);
+        schedulers = new ArrayList<>();
+        claimLoops = scheduleClaimLoops(queueConfiguration.queueProcessorInitialDelay(), interval());
+        if (queueConfiguration.leaseSeconds() > 0) {
+          final long period = Math.max(1000L, queueConfiguration.leaseSeconds() * 1000L / 3);
+          LOGGER.info("Renewing leases every {}ms", period);
+          schedulers.add(scheduledExecutorService.scheduleAtFixedRate(this::maintainLeases,
+              period, period, TimeUnit.MILLISECONDS));
+        }
+        LOGGER.info("Resetting existing messages to pending state in the background");
+        scheduledExecutorService.execute(this::recover);
       }
     }
     LOGGER.info("Queue accepting messages");
   }
 
+  private List<ScheduledFuture<?>> scheduleClaimLoops(final long initialDelay, final long interval) {
+    final List<ScheduledFuture<?>> loops = new ArrayList<>();
+    for (int shard = 0; shard < shardCount; shard++) {
+      final int claimShard = shard;
+      loops.add(scheduledExecutorService.scheduleAtFixedRate(() -> processPendingQueue(claimShard),
+          initialDelay, interval, TimeUnit.SECONDS));
+    }
+    return loops;
+  }
+
+  /**
+   * Recovers the messages a previous run left activating or processing. Runs alongside the claim
+   * loops, so start up does not wait on the size of the backlog.
+   */
+  @VisibleForTesting
+  void recover() {
+    LOGGER.trace("recover()");
+    try {
+      final int recovered = metrics.time("QueueProcessor.recover", tags,
+          () -> messageManager.recover(queueConfiguration.recoveryChunkSize()));
+      LOGGER.info("Recovery finished, {} messages reset to pending", recovered);
+    } catch (RuntimeException e) {
+      LOGGER.error("Recovery failed, messages left behind will be retried on the next start", e);
+    }
+  }
+
   /**
-   * Process pending queue.
+   * Renews the leases on the messages this process holds, then returns the ones other processes
+   * let run out to pending. Runs a few times per lease so a slow renewal does not lose one.
+   */
+  @VisibleForTesting
+  void maintainLeases() {
+    LOGGER.trace("maintainLeases()");
+    try {
+      metrics.time("QueueProcessor.maintainLeases", tags, () -> {
+        messageManager.renewLeases();
+        messageManager.reapExpiredLeases(queueConfiguration.recoveryChunkSize());
+        return null;
+      });
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to maintain leases, will try again", e);
+    }
+  }
+
+  /**
+   * Process pending queue, every shard in turn.
    */
   public void processPendingQueue() {
     LOGGER.trace("processPendingQueue()");
-    final int messageCount = messageConsumerExecutor.availableThreadCount();
-    metrics.increment("QueueProcessor.processPendingQueue.availableThreads", messageCount);
-    if (messageCount < 1) {
-      LOGGER.trace("No threads available to process messages: {}", messageCount);
+    for (int shard = 0; shard < shardCount; shard++) {
+      processPendingQueue(shard);
+    }
+  }
+
+  /**
+   * Process pending queue for one shard. Each shard runs its own claim loop, so the free threads
+   * are split across the shards. A shard may overshoot by a message when threads are scarce, which
+   * just waits in the executor's queue. The read and the claims run on one database handle, and
+   * the claimed messages go to the executor once they are committed.
+   *
+   * @param shard the shard
+   */
+  public void processPendingQueue(final int shard) {
+    LOGGER.trace("processPendingQueue({})", shard);
+    // Counted before the pause is checked, so a drain sees the cycle until its claims are handed off.
+    claimCycles.incrementAndGet();
+    try {
+      claim(shard);
+    } finally {
+      claimCycles.decrementAndGet();
+    }
+  }
+
+  private void claim(final int shard) {
+    if (paused) {
+      LOGGER.trace("Dispatch paused");
       return;
     }
-    metrics.time("QueueProcessor.processPendingQueue", () -> {
-      messageManager.getPendingMessages(messageCount).forEach(message -> {
+    final int availableThreads = messageConsumerExecutor.availableThreadCount();
+    metrics.increment("QueueProcessor.processPendingQueue.availableThreads", tags, availableThreads);
+    if (availableThreads < 1) {
+      LOGGER.trace("No threads available to process messages: {}", availableThreads);
+      return;
+    }
+    final int cap = batchSize;
+    final int messageCount = Math.min(Math.max(1, availableThreads / shardCount), cap > 0 ? cap : Integer.MAX_VALUE);
+    metrics.time("QueueProcessor.processPendingQueue", tags, () -> {
+      final List<Message> claimed = pausedMessageTypes.isEmpty()
+          ? messageManager.claimPending(shard, messageCount)
+          : messageManager.claimPending(shard, messageCount, Set.copyOf(pausedMessageTypes));
+      claimed.forEach(message -> {
         LOGGER.trace("Processing message {}", message);
-        messageManager.setActivating(message);
         messageConsumerExecutor.enqueue(message);
       });
       return null;
     });
   }
 
+  /**
+   * Stops claiming messages. Messages already claimed still run.
+   */
+  public void pause() {
+    LOGGER.info("pause()");
+    paused = true;
+  }
+
+  /**
+   * Starts claiming messages again, after a pause or a drain.
+   */
+  public void resume() {
+    LOGGER.info("resume()");
+    paused = false;
+  }
+
+  /**
+   * Whether claiming messages is paused.
+   *
+   * @return true if paused.
+   */
+  public boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Stops claiming messages of the type. They stay pending, and the other types are claimed as
+   * before. Messages of the type already claimed still run.
+   *
+   * @param messageType the message type
+   */
+  public void pause(final String messageType) {
+    LOGGER.info("pause({})", messageType);
+    pausedMessageTypes.add(messageType);
+  }
+
+  /**
+   * Starts claiming messages of the type again.
+   *
+   * @param messageType the message type
+   */
+  public void resume(final String messageType) {
+    LOGGER.info("resume({})", messageType);
+    pausedMessageTypes.remove(messageType);
+  }
+
+  /**
+   * The message types whose messages are not being claimed.
+   *
+   * @return the paused message types.
+   */
+  public Set<String> pausedMessageTypes() {
+    return Set.copyOf(pausedMessageTypes);
+  }
+
+  /**
+   * Pauses claiming and waits for the messages already claimed to finish, including claims still
+   * on their way to the executor. Claiming stays paused until {@link #resume()}, so the node can be
+   * taken out of service or throttled with nothing in flight.
+   *
+   * @param timeout how long to wait.
+   * @return true if nothing is left in flight, false if the wait timed out.
+   */
+  public boolean drain(final Duration timeout) {
+    LOGGER.info("drain({})", timeout);
+    pause();
+    final long deadline = System.nanoTime() + timeout.toNanos();
+    while (claimCycles.get() > 0 || !messageConsumerExecutor.isIdle()) {
+      if (System.nanoTime() - deadline >= 0) {
+        LOGGER.warn("Drain timed out with messages still in flight");
+        return false;
+      }
+      try {
+        Thread.sleep(DRAIN_POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    LOGGER.info("Drained");
+    return true;
+  }
+
+  /**
+   * Seconds between claims on each shard.
+   *
+   * @return the interval
+   */
+  public int interval() {
+    final int seconds = intervalSeconds;
+    return seconds > 0 ? seconds : queueConfiguration.queueProcessorInterval();
+  }
+
+  /**
+   * Changes the seconds between claims on each shard. Once started, the claim loops are
+   * rescheduled, the first claim coming one new interval from now.
+   *
+   * @param seconds the interval, at least one.
+   */
+  public void setInterval(final int seconds) {
+    LOGGER.info("setInterval({})", seconds);
+    if (seconds < 1) {
+      throw new IllegalArgumentException("Interval must be at least one second: " + seconds);
+    }
+    synchronized (scheduledExecutorService) {
+      intervalSeconds = seconds;
+      if (claimLoops != null) {
+        claimLoops.forEach(loop -> loop.cancel(false)); // a claim in progress finishes.
+        claimLoops = scheduleClaimLoops(seconds, seconds);
+      }
+    }
+  }
+
+  /**
+   * The most messages claimed from a shard at once, or zero when only the free threads limit it.
+   *
+   * @return the batch size
+   */
+  public int batchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Caps the messages claimed from a shard at once. The free threads still limit it too.
+   *
+   * @param batchSize the batch size, or zero for no cap.
+   */
+  public void setBatchSize(final int batchSize) {
+    LOGGER.info("setBatchSize({})", batchSize);
+    if (batchSize < 0) {
+      throw new IllegalArgumentException("Batch size may not be negative: " + batchSize);
+    }
+    this.batchSize = batchSize;
+  }
+
   @Override
   public void stop() throws Exception {
     LOGGER.info("stop()");
     synchronized (scheduledExecutorService) {
-      if (scheduler != null) {
+      if (schedulers != null) {
         LOGGER.info("Shutting down the scheduler");
-        scheduler.cancel(true);
-        scheduler = null;
+        schedulers.forEach(scheduler -> scheduler.cancel(true));
+        claimLoops.forEach(loop -> loop.cancel(true));
+        schedulers = null;
+        claimLoops = null;
         LOGGER.info("Shutting down the scheduler service");
         scheduledExecutorService.shutdown();
         if (!scheduledExecutorService.awaitTermination(15, TimeUnit.SECONDS)) {
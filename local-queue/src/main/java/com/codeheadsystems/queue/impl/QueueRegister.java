@@ -1,6 +1,9 @@
 package com.codeheadsystems.queue.impl;
 
+import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.util.IdIndexedCache;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,27 +14,42 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The type Queue register.
+ * The type Queue register. Consumers are also kept by message type id, rebuilt whenever one is
+ * registered or removed, so dispatch finds them without the type name.
  */
 @Singleton
 public class QueueRegister {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(QueueRegister.class);
   private final Map<String, MessageConsumer> consumerMap;
+  private final MessageTypeDictionary messageTypeDictionary;
+  private volatile IdIndexedCache<MessageConsumer> consumersByTypeId;
 
   /**
    * Instantiates a new Queue register.
    *
-   * @param map the map
+   * @param map                   the map
+   * @param messageTypeDictionary the message type dictionary
    */
   @Inject
-  public QueueRegister(final Map<String, MessageConsumer> map) {
+  public QueueRegister(final Map<String, MessageConsumer> map,
+                       final MessageTypeDictionary messageTypeDictionary) {
     LOGGER.info("QueueRegister()");
     if (map == null) {
       consumerMap = new HashMap<>();
     } else {
       consumerMap = new HashMap<>(map);
     }
+    this.messageTypeDictionary = messageTypeDictionary;
+    index();
+  }
+
+  // Built aside and swapped in, so dispatch never sees a half built index.
+  private void index() {
+    final IdIndexedCache<MessageConsumer> byTypeId = new IdIndexedCache<>();
+    consumerMap.forEach((messageType, consumer) ->
+        byTypeId.get(messageTypeDictionary.idOf(messageType), id -> consumer));
+    consumersByTypeId = byTypeId;
   }
 
   /**
@@ -44,6 +62,7 @@ public class QueueRegister {
                        final MessageConsumer consumer) {
     LOGGER.trace("register({},{})", messageType, consumer);
     consumerMap.put(messageType, consumer);
+    index();
   }
 
   /**
@@ -54,6 +73,7 @@ public class QueueRegister {
   public void deregister(final String messageType) {
     LOGGER.trace("deregister({})", messageType);
     consumerMap.remove(messageType);
+    index();
   }
 
   /**
@@ -67,12 +87,24 @@ public class QueueRegister {
     return Optional.ofNullable(consumerMap.get(messageType));
   }
 
+  /**
+   * Gets consumer for the message. Looked up by the message type id, so the dispatch path does
+   * not hash the type name.
+   *
+   * @param message the message
+   * @return the consumer
+   */
+  public Optional<MessageConsumer> getConsumer(final Message message) {
+    return Optional.ofNullable(consumersByTypeId.getIfPresent(message.messageTypeId()));
+  }
+
   /**
    * Deregister all.
    */
   public void deregisterAll() {
     LOGGER.trace("deregisterAll()");
     consumerMap.clear();
+    index();
   }
 
   /**
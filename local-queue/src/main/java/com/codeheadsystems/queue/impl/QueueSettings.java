@@ -0,0 +1,260 @@
+package com.codeheadsystems.queue.impl;
+
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.QueueSettingsDao;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queue settings. The configuration files hold the defaults, and overrides kept in the
+ * QUEUE_SETTINGS table are applied over them to the running processor and executor, so a node
+ * throttled during an incident stays throttled through a restart. The table's version is polled
+ * every few seconds and the overrides are only read when it changes. Only the settings whose
+ * override changed since the last refresh are applied, so changes made over JMX to the others
+ * stand. A setting whose override is removed goes back to its default. Without a database, as with
+ * the in memory and log stores, there are no overrides.
+ */
+@Singleton
+public class QueueSettings implements Managed {
+
+  /**
+   * Threads messages run on. Defaults to the configured max executor threads.
+   */
+  public static final String THREADS = "threads";
+  /**
+   * Seconds between claims on each shard. Defaults to the configured processor interval.
+   */
+  public static final String POLL_INTERVAL_SECONDS = "pollIntervalSeconds";
+  /**
+   * Most messages claimed from a shard at once. Defaults to zero, no cap.
+   */
+  public static final String BATCH_SIZE = "batchSize";
+  /**
+   * Whether claiming messages is paused. Defaults to false.
+   */
+  public static final String DISPATCH_PAUSED = "dispatchPaused";
+  /**
+   * Comma separated message types left pending. Defaults to none.
+   */
+  public static final String PAUSED_MESSAGE_TYPES = "pausedMessageTypes";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueueSettings.class);
+
+  private final Optional<QueueSettingsDao> dao;
+  private final QueueConfiguration queueConfiguration;
+  private final QueueProcessor queueProcessor;
+  private final MessageConsumerExecutor messageConsumerExecutor;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private ScheduledFuture<?> scheduler;
+  private long version = -1;
+  private Map<String, String> applied = Map.of();
+
+  /**
+   * Instantiates a new Queue settings.
+   *
+   * @param dao                       the queue settings dao, if the queue has a database.
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param queueProcessor            the queue processor
+   * @param messageConsumerExecutor   the message consumer executor
+   */
+  @Inject
+  public QueueSettings(final Optional<QueueSettingsDao> dao,
+                       final QueueConfigurationFactory queueConfigurationFactory,
+                       final QueueProcessor queueProcessor,
+                       final MessageConsumerExecutor messageConsumerExecutor) {
+    this(dao, queueConfigurationFactory, queueProcessor, messageConsumerExecutor,
+        Executors.newScheduledThreadPool(1));
+  }
+
+  @VisibleForTesting
+  QueueSettings(final Optional<QueueSettingsDao> dao,
+                final QueueConfigurationFactory queueConfigurationFactory,
+                final QueueProcessor queueProcessor,
+                final MessageConsumerExecutor messageConsumerExecutor,
+                final ScheduledExecutorService scheduledExecutorService) {
+    this.dao = dao;
+    this.queueConfiguration = queueConfigurationFactory.queueConfiguration();
+    this.queueProcessor = queueProcessor;
+    this.messageConsumerExecutor = messageConsumerExecutor;
+    this.scheduledExecutorService = scheduledExecutorService;
+    LOGGER.info("QueueSettings({},{})", dao.isPresent(), queueConfiguration);
+  }
+
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    if (dao.isEmpty()) {
+      LOGGER.info("No database, so no setting overrides");
+      return;
+    }
+    synchronized (scheduledExecutorService) {
+      if (scheduler == null) {
+        refresh();
+        if (queueConfiguration.settingsRefreshSeconds() > 0) {
+          scheduler = scheduledExecutorService.scheduleWithFixedDelay(this::refresh,
+              queueConfiguration.settingsRefreshSeconds(),
+              queueConfiguration.settingsRefreshSeconds(),
+              TimeUnit.SECONDS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the overrides if they changed since they were last applied.
+   *
+   * @return true if they were applied.
+   */
+  public synchronized boolean refresh() {
+    LOGGER.trace("refresh()");
+    if (dao.isEmpty()) {
+      return false;
+    }
+    try {
+      final long current = dao.get().version(queueConfiguration.queueName());
+      if (current == version) {
+        return false;
+      }
+      final Map<String, String> overrides = Map.copyOf(dao.get().overrides(queueConfiguration.queueName()));
+      apply(overrides);
+      applied = overrides;
+      version = current;
+      return true;
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to refresh the settings, will try again", e); // do not kill the scheduler
+      return false;
+    }
+  }
+
+  /**
+   * The overrides for this queue.
+   *
+   * @return map of setting name to value.
+   */
+  public Map<String, String> overrides() {
+    return dao.map(d -> d.overrides(queueConfiguration.queueName())).orElse(Map.of());
+  }
+
+  /**
+   * Saves the override and applies it.
+   *
+   * @param name  the setting name
+   * @param value the value
+   */
+  public void set(final String name, final String value) {
+    LOGGER.info("set({},{})", name, value);
+    store().set(queueConfiguration.queueName(), name, value);
+    refresh();
+  }
+
+  /**
+   * Removes the override, putting the setting back to its default.
+   *
+   * @param name the setting name
+   */
+  public void remove(final String name) {
+    LOGGER.info("remove({})", name);
+    store().remove(queueConfiguration.queueName(), name);
+    refresh();
+  }
+
+  private QueueSettingsDao store() {
+    return dao.orElseThrow(() -> new IllegalStateException("Setting overrides need the queue in a database"));
+  }
+
+  /**
+   * Applies the settings whose override differs from the one last applied, or the default when
+   * the override was removed. Only what differs from the running value is changed, so the claim
+   * loops are not rescheduled for nothing.
+   */
+  private void apply(final Map<String, String> overrides) {
+    final Set<String> names = new HashSet<>(applied.keySet());
+    names.addAll(overrides.keySet());
+    names.removeIf(name -> Objects.equals(applied.get(name), overrides.get(name)));
+    LOGGER.info("Applying setting overrides {} of {}", names, overrides);
+    for (String name : names) {
+      final String value = overrides.get(name);
+      switch (name) {
+        case THREADS -> applyInt(name, value, queueConfiguration.queueExecutorMaxThreads(), threads -> {
+          if (threads != messageConsumerExecutor.threadCount()) {
+            messageConsumerExecutor.resize(threads);
+          }
+        });
+        case POLL_INTERVAL_SECONDS -> applyInt(name, value, queueConfiguration.queueProcessorInterval(), seconds -> {
+          if (seconds != queueProcessor.interval()) {
+            queueProcessor.setInterval(seconds);
+          }
+        });
+        case BATCH_SIZE -> applyInt(name, value, 0, queueProcessor::setBatchSize);
+        case DISPATCH_PAUSED -> {
+          if (Boolean.parseBoolean(value)) {
+            queueProcessor.pause();
+          } else {
+            queueProcessor.resume();
+          }
+        }
+        case PAUSED_MESSAGE_TYPES -> {
+          final Set<String> paused = messageTypes(value);
+          final Set<String> resumed = messageTypes(applied.get(name));
+          resumed.removeAll(paused);
+          resumed.forEach(queueProcessor::resume);
+          paused.forEach(queueProcessor::pause);
+        }
+        default -> LOGGER.warn("Ignoring the unknown override {}={}", name, value);
+      }
+    }
+  }
+
+  private Set<String> messageTypes(final String value) {
+    return Optional.ofNullable(value)
+        .map(types -> Arrays.stream(types.split(","))
+            .map(String::trim)
+            .filter(type -> !type.isEmpty())
+            .collect(Collectors.toCollection(HashSet::new)))
+        .orElseGet(HashSet::new);
+  }
+
+  private void applyInt(final String name,
+                        final String value,
+                        final int defaultValue,
+                        final IntConsumer setter) {
+    try {
+      setter.accept(value == null ? defaultValue : Integer.parseInt(value.trim()));
+    } catch (IllegalArgumentException e) { // includes NumberFormatException
+      LOGGER.warn("Ignoring the override {}={}: {}", name, value, e.getMessage());
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    LOGGER.info("stop()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler != null) {
+        scheduler.cancel(true);
+        scheduler = null;
+      }
+      scheduledExecutorService.shutdown();
+      if (!scheduledExecutorService.awaitTermination(15, TimeUnit.SECONDS)) {
+        LOGGER.info("Shutting down nicely failed. No longer being nice.");
+        scheduledExecutorService.shutdownNow();
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.codeheadsystems.queue.impl;
+
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Seeds the in-memory state counters on start, and periodically resets them from the database
+ * to correct any drift.
+ */
+@Singleton
+public class StateCountReconciler implements Managed {
+  private static final Logger LOGGER = LoggerFactory.getLogger(StateCountReconciler.class);
+
+  private final MessageManager messageManager;
+  private final QueueConfiguration queueConfiguration;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private ScheduledFuture<?> scheduler;
+
+  /**
+   * Instantiates a new State count reconciler.
+   *
+   * @param messageManager            the message manager
+   * @param queueConfigurationFactory the queue configuration factory
+   */
+  @Inject
+  public StateCountReconciler(final MessageManager messageManager,
+                              final QueueConfigurationFactory queueConfigurationFactory) {
+    this(messageManager, queueConfigurationFactory, Executors.newScheduledThreadPool(1));
+  }
+
+  @VisibleForTesting
+  StateCountReconciler(final MessageManager messageManager,
+                       final QueueConfigurationFactory queueConfigurationFactory,
+                       final ScheduledExecutorService scheduledExecutorService) {
+    this.messageManager = messageManager;
+    this.queueConfiguration = queueConfigurationFactory.queueConfiguration();
+    this.scheduledExecutorService = scheduledExecutorService;
+    LOGGER.info("StateCountReconciler({},{})", messageManager, queueConfiguration);
+  }
+
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler == null) {
+        reconcile();
+        scheduler = scheduledExecutorService.scheduleWithFixedDelay(this::reconcile,
+            queueConfiguration.stateCountReconcileIntervalSeconds(),
+            queueConfiguration.stateCountReconcileIntervalSeconds(),
+            TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /**
+   * Reconcile the counters with the database.
+   */
+  public void reconcile() {
+    LOGGER.trace("reconcile()");
+    try {
+      messageManager.reconcileCounts();
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to reconcile state counts", e); // do not kill the scheduler
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    LOGGER.info("stop()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler != null) {
+        scheduler.cancel(true);
+        scheduler = null;
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(15, TimeUnit.SECONDS)) {
+          LOGGER.info("Shutting down nicely failed. No longer being nice.");
+          scheduledExecutorService.shutdownNow();
+        }
+      }
+    }
+  }
+}
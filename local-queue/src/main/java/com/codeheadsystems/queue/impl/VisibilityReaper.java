@@ -0,0 +1,216 @@
+package com.codeheadsystems.queue.impl;
+
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Visibility Reaper. Messages this process claimed are given a visibility timeout by type. A
+ * message still activating or processing past its timeout, because its consumer hung or its
+ * runnable never ran, is returned to pending so another worker can pick it up. When the late run
+ * does finish, it leaves the message alone.
+ *
+ * <p>Each claim gets its own {@link Claim}, checked by identity, so a late run can never be
+ * mistaken for the run that claimed the message after it.
+ *
+ * <p>The claims are tracked in memory, so a sweep never scans the table. Messages left behind by
+ * a process that died are recovered on start up, or by the lease reaper when leases are on.
+ */
+@Singleton
+public class VisibilityReaper implements Managed {
+  private static final Logger LOGGER = LoggerFactory.getLogger(VisibilityReaper.class);
+  private static final long UNTIMED = Long.MAX_VALUE;
+
+  private final MessageManager messageManager;
+  private final QueueConfiguration queueConfiguration;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private final Clock clock;
+  private final Metrics metrics;
+  private final Tags tags;
+  private final Map<Long, Claim> inFlight;
+  private ScheduledFuture<?> scheduler;
+
+  /**
+   * Instantiates a new Visibility reaper.
+   *
+   * @param messageManager            the message manager
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param clock                     the clock
+   * @param metrics                   the metrics
+   */
+  @Inject
+  public VisibilityReaper(final MessageManager messageManager,
+                          final QueueConfigurationFactory queueConfigurationFactory,
+                          final Clock clock,
+                          final Metrics metrics) {
+    this(messageManager, queueConfigurationFactory, Executors.newScheduledThreadPool(1), clock, metrics);
+  }
+
+  @VisibleForTesting
+  VisibilityReaper(final MessageManager messageManager,
+                   final QueueConfigurationFactory queueConfigurationFactory,
+                   final ScheduledExecutorService scheduledExecutorService,
+                   final Clock clock,
+                   final Metrics metrics) {
+    this.messageManager = messageManager;
+    this.queueConfiguration = queueConfigurationFactory.queueConfiguration();
+    this.scheduledExecutorService = scheduledExecutorService;
+    this.clock = clock;
+    this.metrics = metrics;
+    this.tags = Tags.of("queue", queueConfiguration.queueName());
+    this.inFlight = new ConcurrentHashMap<>();
+    LOGGER.info("VisibilityReaper({},{})", messageManager, queueConfiguration);
+  }
+
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler == null) {
+        scheduler = scheduledExecutorService.scheduleWithFixedDelay(this::reap,
+            queueConfiguration.visibilitySweepIntervalSeconds(),
+            queueConfiguration.visibilitySweepIntervalSeconds(),
+            TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /**
+   * Starts the clock on a message this process just claimed. Messages whose type has no visibility
+   * timeout are not tracked.
+   *
+   * @param message the message
+   * @return the claim, to pass to {@link #isClaimed(Claim)} and {@link #finished(Claim)}.
+   */
+  public Claim claimed(final Message message) {
+    final long timeoutMillis = timeoutMillis(message);
+    if (timeoutMillis <= 0) {
+      return new Claim(message, UNTIMED);
+    }
+    final Claim claim = new Claim(message, clock.millis() + timeoutMillis);
+    inFlight.put(message.hash(), claim);
+    return claim;
+  }
+
+  /**
+   * Whether the claim is still current, or the message was returned to pending for running too
+   * long and may have been claimed again since.
+   *
+   * @param claim the claim
+   * @return true if it is still ours.
+   */
+  public boolean isClaimed(final Claim claim) {
+    return claim.deadline() == UNTIMED || inFlight.get(claim.message().hash()) == claim;
+  }
+
+  /**
+   * Stops the clock on a claim whose run is over.
+   *
+   * @param claim the claim
+   * @return true if it was still ours, false if it was returned to pending and belongs to its next run.
+   */
+  public boolean finished(final Claim claim) {
+    return claim.deadline() == UNTIMED || inFlight.remove(claim.message().hash(), claim);
+  }
+
+  /**
+   * Returns the messages past their visibility timeout to pending.
+   *
+   * @return the number of messages returned.
+   */
+  public int reap() {
+    LOGGER.trace("reap()");
+    return metrics.time("VisibilityReaper.reap", tags, () -> {
+      final long now = clock.millis();
+      int reaped = 0;
+      for (Claim claim : inFlight.values()) {
+        if (claim.deadline() <= now && inFlight.remove(claim.message().hash(), claim)) {
+          try {
+            if (messageManager.release(claim.message())) {
+              LOGGER.warn("Message past its visibility timeout, returned to pending: {}", claim.message());
+              reaped++;
+            }
+          } catch (RuntimeException e) {
+            LOGGER.error("Unable to return message to pending: {}", claim.message(), e); // next sweep
+            inFlight.putIfAbsent(claim.message().hash(), claim);
+          }
+        }
+      }
+      metrics.increment("VisibilityReaper.reaped", tags, reaped);
+      return reaped;
+    });
+  }
+
+  /**
+   * Number of claimed messages being timed.
+   *
+   * @return the count
+   */
+  public int size() {
+    return inFlight.size();
+  }
+
+  private long timeoutMillis(final Message message) {
+    final Long seconds = queueConfiguration.messageTypeVisibilityTimeoutSeconds().get(message.messageType());
+    return (seconds == null ? queueConfiguration.visibilityTimeoutSeconds() : seconds) * 1000L;
+  }
+
+  @Override
+  public void stop() throws Exception {
+    LOGGER.info("stop()");
+    synchronized (scheduledExecutorService) {
+      if (scheduler != null) {
+        scheduler.cancel(true);
+        scheduler = null;
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(15, TimeUnit.SECONDS)) {
+          LOGGER.info("Shutting down nicely failed. No longer being nice.");
+          scheduledExecutorService.shutdownNow();
+        }
+      }
+    }
+  }
+
+  /**
+   * One claim on a message. Not a value: two claims on the same message are never equal.
+   */
+  public static final class Claim {
+    private final Message message;
+    private final long deadline;
+
+    @VisibleForTesting
+    Claim(final Message message, final long deadline) {
+      this.message = message;
+      this.deadline = deadline;
+    }
+
+    /**
+     * The message claimed.
+     *
+     * @return the message
+     */
+    public Message message() {
+      return message;
+    }
+
+    long deadline() {
+      return deadline;
+    }
+  }
+}
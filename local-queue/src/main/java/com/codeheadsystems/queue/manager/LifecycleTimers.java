@@ -0,0 +1,111 @@
+package com.codeheadsystems.queue.manager;
+
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.util.IdIndexedCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency of each stage of a message's life, by message type, published as percentile histograms.
+ * Queue wait runs from enqueue until the message is activated, hand-off wait from then until a
+ * thread starts it, execution while the consumer runs, and end to end from enqueue to completion.
+ *
+ * <p>The waits are measured from the message's timestamp, when the work was asked for, rather than
+ * from when the queue got around to it. A stalled queue then shows up as latency on every message
+ * stuck behind it instead of being left out, which is the coordinated omission a per-method timer
+ * has. The timestamp is wall clock time, so the waits may be off by any clock skew between the
+ * process that enqueued and the one that ran the message. Recording is lock free, and the timers
+ * for a type are resolved once.
+ */
+public class LifecycleTimers {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LifecycleTimers.class);
+
+  private final String queueName;
+  private final MeterRegistry meterRegistry;
+  private final Clock clock;
+  private final IdIndexedCache<Timers> byTypeId;
+
+  /**
+   * Instantiates a new Lifecycle timers.
+   *
+   * @param queueName     the queue name
+   * @param meterRegistry the meter registry for the timers
+   * @param clock         the clock the message timestamps come from
+   */
+  public LifecycleTimers(final String queueName, final MeterRegistry meterRegistry, final Clock clock) {
+    this.queueName = queueName;
+    this.meterRegistry = meterRegistry;
+    this.clock = clock;
+    this.byTypeId = new IdIndexedCache<>();
+    LOGGER.info("LifecycleTimers({})", queueName);
+  }
+
+  /**
+   * The message was activated and handed to the executor. Records its queue wait.
+   *
+   * @param message the message
+   * @return the time it was activated, to pass to {@link #started(Message, long)}.
+   */
+  public long activated(final Message message) {
+    timers(message).queueWait().record(sinceEnqueued(message), TimeUnit.MILLISECONDS);
+    return System.nanoTime();
+  }
+
+  /**
+   * A thread started the message. Records its hand-off wait.
+   *
+   * @param message     the message
+   * @param activatedAt the time from {@link #activated(Message)}
+   * @return the time it started, to pass to {@link #finished(Message, long)}.
+   */
+  public long started(final Message message, final long activatedAt) {
+    final long now = System.nanoTime();
+    timers(message).handOffWait().record(now - activatedAt, TimeUnit.NANOSECONDS);
+    return now;
+  }
+
+  /**
+   * The message's run is over, whether the consumer succeeded or not. Records its execution and
+   * end to end times.
+   *
+   * @param message   the message
+   * @param startedAt the time from {@link #started(Message, long)}
+   */
+  public void finished(final Message message, final long startedAt) {
+    final Timers timers = timers(message);
+    timers.execution().record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    timers.endToEnd().record(sinceEnqueued(message), TimeUnit.MILLISECONDS);
+  }
+
+  private long sinceEnqueued(final Message message) {
+    return Math.max(0, clock.millis() - message.timestamp()); // skew never makes it negative.
+  }
+
+  private Timers timers(final Message message) {
+    final Timers timers = byTypeId.getIfPresent(message.messageTypeId());
+    return timers != null ? timers : byTypeId.get(message.messageTypeId(), id -> new Timers(
+        timer("LifecycleTimers.queueWait", message.messageType()),
+        timer("LifecycleTimers.handOffWait", message.messageType()),
+        timer("LifecycleTimers.execution", message.messageType()),
+        timer("LifecycleTimers.endToEnd", message.messageType())));
+  }
+
+  private Timer timer(final String name, final String messageType) {
+    return Timer.builder(name)
+        .tags("queue", queueName, "messageType", messageType)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  /**
+   * The timers for one message type.
+   */
+  private record Timers(Timer queueWait, Timer handOffWait, Timer execution, Timer endToEnd) {
+  }
+
+}
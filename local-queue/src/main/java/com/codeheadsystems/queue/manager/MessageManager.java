@@ -2,16 +2,26 @@ package com.codeheadsystems.queue.manager;
 
 import com.codeheadsystems.metrics.Metrics;
 import com.codeheadsystems.metrics.Tags;
+import com.codeheadsystems.queue.EnqueueOptions;
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.dao.MessageDao;
-import com.codeheadsystems.queue.dao.StateCount;
 import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
@@ -26,25 +36,61 @@ import org.slf4j.LoggerFactory;
 @Singleton
 public class MessageManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(MessageManager.class);
+  /**
+   * The most hashes sent in one statement by the bulk calls.
+   */
+  public static final int BULK_CHUNK_SIZE = 500;
 
   private final MessageDao dao;
   private final MessageFactory messageFactory;
+  private final StateCounters stateCounters;
+  private final MessageTypeTimers messageTypeTimers;
   private final Metrics metrics;
+  private final Tags tags;
+  private final Clock clock;
+  private final String queueName;
+  private final int shardCount;
+  private final String owner;
+  private final long leaseMillis;
+  private final Cache<Long, Optional<State>> stateCache;
+  private final Set<Long> claimedDuringRecovery;
+  private volatile boolean recovering;
 
   /**
    * Instantiates a new Message manager.
    *
-   * @param dao            the dao
-   * @param messageFactory the message factory
-   * @param metrics        the metrics
+   * @param dao                       the dao
+   * @param messageFactory            the message factory
+   * @param stateCounters             the state counters
+   * @param messageTypeTimers         the message type timers
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param metrics                   the metrics
+   * @param clock                     the clock
    */
   @Inject
   public MessageManager(final MessageDao dao,
                         final MessageFactory messageFactory,
-                        final Metrics metrics) {
+                        final StateCounters stateCounters,
+                        final MessageTypeTimers messageTypeTimers,
+                        final QueueConfigurationFactory queueConfigurationFactory,
+                        final Metrics metrics,
+                        final Clock clock) {
     this.dao = dao;
     this.messageFactory = messageFactory;
+    this.stateCounters = stateCounters;
+    this.messageTypeTimers = messageTypeTimers;
     this.metrics = metrics;
+    this.clock = clock;
+    this.queueName = queueConfigurationFactory.queueConfiguration().queueName();
+    this.tags = Tags.of("queue", queueName);
+    this.shardCount = Math.max(1, queueConfigurationFactory.queueConfiguration().shardCount());
+    this.owner = queueConfigurationFactory.queueConfiguration().ownerId();
+    this.leaseMillis = Math.max(0, queueConfigurationFactory.queueConfiguration().leaseSeconds()) * 1000L;
+    // With leases on, other processes change the messages too, so nothing cached here can be trusted.
+    this.stateCache = CacheBuilder.newBuilder()
+        .maximumSize(leaseMillis > 0 ? 0 : Math.max(0, queueConfigurationFactory.queueConfiguration().stateCacheSize()))
+        .build();
+    this.claimedDuringRecovery = ConcurrentHashMap.newKeySet();
   }
 
   /**
@@ -55,84 +101,464 @@ public class MessageManager {
    * @return the optional
    */
   public Optional<Message> saveMessage(final String messageType, final String payload) {
-    LOGGER.trace("saveMessage({},{})", messageType, payload);
-    return metrics.time("MessageManager.saveMessage", Tags.of("messageType", messageType), () -> {
-      final Message message = messageFactory.createMessage(messageType, payload);
-      try {
-        dao.store(message, State.PENDING);
-        return Optional.of(message);
-      } catch (final UnableToExecuteStatementException e) {
-        if (e.getCause() instanceof SQLIntegrityConstraintViolationException) {
-          LOGGER.warn("Message already exists: {}", message);
-          final Message existingMessage = dao.readByHash(message.hash()) // lookup since the UUID could be different
-              .orElseThrow(() -> new IllegalStateException("Message should exist: " + message));
-          return Optional.of(existingMessage);
-        } else {
-          LOGGER.error("Unable to store message: {}", message, e);
-          throw e;
+    return saveMessage(messageType, payload, EnqueueOptions.none());
+  }
+
+  /**
+   * Save message optional.
+   *
+   * @param messageType the message type
+   * @param payload     the payload
+   * @param options     the enqueue options
+   * @return the optional
+   */
+  public Optional<Message> saveMessage(final String messageType,
+                                       final String payload,
+                                       final EnqueueOptions options) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("saveMessage({},{},{})", messageType, payload, options);
+    }
+    final long start = System.nanoTime();
+    try {
+      return save(messageFactory.createMessage(messageType, payload, options));
+    } finally {
+      messageTypeTimers.saveMessage(messageType).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private Optional<Message> save(final Message message) {
+    try {
+      store(message);
+      return Optional.of(message);
+    } catch (final UnableToExecuteStatementException e) {
+      if (e.getCause() instanceof SQLIntegrityConstraintViolationException) {
+        LOGGER.warn("Message already exists: {}", message);
+        final Optional<Message> existingMessage = dao.readByHash(message.hash(), queueName); // UUID could be different
+        if (existingMessage.isPresent()) {
+          return existingMessage;
+        }
+        if (message.supersedeKey().isPresent()) {
+          // Lost a race with another message using the same supersede key. Ours is newer.
+          store(message);
+          return Optional.of(message);
         }
+        throw new IllegalStateException("Message should exist: " + message);
+      } else {
+        LOGGER.error("Unable to store message: {}", message, e);
+        throw e;
       }
-    });
+    }
+  }
+
+  private void store(final Message message) {
+    if (message.supersedeKey().isPresent()) {
+      final List<Long> superseded = dao.supersededHashes(message, queueName, State.PENDING);
+      final int replaced = dao.supersede(message, queueName, shardOf(message));
+      stateCache.invalidateAll(superseded); // no longer pending, but they may have been claimed instead.
+      if (replaced > 0) {
+        LOGGER.trace("Message {} superseded {} pending messages", message, replaced);
+        metrics.increment("MessageManager.superseded", tags, replaced);
+      }
+      stateCounters.add(message, State.PENDING, 1 - replaced);
+      // Not cached: the next message with the key may replace this one from another thread.
+    } else {
+      // Cached first, so a claim right after the store is not overwritten with pending.
+      stateCache.put(message.hash(), Optional.of(State.PENDING));
+      try {
+        dao.store(message, queueName, shardOf(message), State.PENDING);
+      } catch (RuntimeException e) {
+        stateCache.invalidate(message.hash());
+        throw e;
+      }
+      stateCounters.add(message, State.PENDING, 1);
+    }
   }
 
   /**
-   * Sets processing.
+   * Messages with an ordering key all go to the key's shard, so one claim loop sees them oldest
+   * first. The rest are spread by hash.
+   */
+  private int shardOf(final Message message) {
+    if (message.orderingKey().isPresent()) {
+      return Math.floorMod(message.orderingKey().get().hashCode(), shardCount);
+    }
+    return (int) Math.floorMod(message.hash(), (long) shardCount);
+  }
+
+  /**
+   * Sets processing. With leases on, only while this process still holds the lease.
    *
    * @param message the message
    */
   public void setProcessing(final Message message) {
     LOGGER.trace("setProcessing({})", message);
-    dao.updateState(message, State.PROCESSING);
+    if (leaseMillis > 0) {
+      if (dao.updateStateOwned(message, State.PROCESSING, owner) == 0) {
+        throw new IllegalStateException("Lease lost, the message belongs to another run: " + message);
+      }
+    } else {
+      dao.updateState(message, State.PROCESSING);
+    }
+    stateCounters.move(message, State.ACTIVATING, State.PROCESSING);
+    stateCache.put(message.hash(), Optional.of(State.PROCESSING));
   }
 
   /**
-   * Sets activating.
+   * Sets activating, if the message is still pending. It may have been superseded or
+   * cleared since it was read. With leases on, the claim is leased to this process.
    *
    * @param message the message
+   * @return true if the message was claimed.
    */
-  public void setActivating(final Message message) {
+  public boolean setActivating(final Message message) {
     LOGGER.trace("setActivation({})", message);
-    dao.updateState(message, State.ACTIVATING);
+    if (claim(dao, message)) {
+      activated(message);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Reads the pending messages from the shard and claims them as activating, as one unit of work
+   * on one database handle. Messages superseded or claimed by someone else since they were read
+   * are skipped. Oldest first, and expired messages are skipped.
+   *
+   * @param shard the shard
+   * @param limit count of messages to read.
+   * @return the messages claimed.
+   */
+  public List<Message> claimPending(final int shard, final int limit) {
+    return claimPending(shard, limit, Set.of());
+  }
+
+  /**
+   * Reads the pending messages from the shard and claims them as activating, leaving the message
+   * types given pending. The skipped types are left out of the read, so they never hold up the
+   * types behind them.
+   *
+   * @param shard        the shard
+   * @param limit        count of messages to read.
+   * @param skippedTypes the message types to leave pending.
+   * @return the messages claimed.
+   */
+  public List<Message> claimPending(final int shard, final int limit, final Collection<String> skippedTypes) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("claimPending({},{},{})", shard, limit, skippedTypes);
+    }
+    final List<Integer> skippedTypeIds = skippedTypes.stream().map(messageFactory::messageTypeId).toList();
+    final List<Message> claimed = dao.unitOfWork(work -> {
+      final List<Message> messages = new ArrayList<>();
+      final long now = clock.millis();
+      final List<Message> pending = skippedTypeIds.isEmpty()
+          ? work.forStateUnexpired(queueName, shard, State.PENDING, now, limit)
+          : work.forStateUnexpiredExcluding(queueName, shard, State.PENDING, now, skippedTypeIds, limit);
+      for (Message message : pending) {
+        if (claim(work, message)) {
+          messages.add(message);
+        }
+      }
+      return messages;
+    });
+    claimed.forEach(this::activated); // once committed.
+    return claimed;
+  }
+
+  private boolean claim(final MessageDao work, final Message message) {
+    if (recovering) {
+      claimedDuringRecovery.add(message.hash()); // before the claim, so recovery never sees it unmarked.
+    }
+    final int claimed = leaseMillis > 0
+        ? work.claimLeased(message, State.PENDING, State.ACTIVATING, owner, clock.millis() + leaseMillis)
+        : work.claim(message, State.PENDING, State.ACTIVATING);
+    return claimed > 0;
+  }
+
+  private void activated(final Message message) {
+    stateCounters.move(message, State.PENDING, State.ACTIVATING);
+    stateCache.put(message.hash(), Optional.of(State.ACTIVATING));
   }
 
   /**
-   * Sets all to pending.
+   * Returns a claimed message to pending, whether it is activating or processing, so it runs again.
+   * With leases on, only while this process still holds the lease, so another process's claim on a
+   * message it reaped is left alone.
+   *
+   * @param message the message
+   * @return true if it was returned, false if it is no longer claimed.
+   */
+  public boolean release(final Message message) {
+    LOGGER.trace("release({})", message);
+    for (State state : List.of(State.ACTIVATING, State.PROCESSING)) { // in the order a run moves through them.
+      final int released = leaseMillis > 0
+          ? dao.releaseOwned(message, state, State.PENDING, owner)
+          : dao.updateInState(List.of(message.hash()), state, State.PENDING);
+      if (released > 0) {
+        stateCounters.move(message, state, State.PENDING);
+        stateCache.put(message.hash(), Optional.of(State.PENDING));
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sets all messages in this queue to pending.
    */
   public void setAllToPending() {
     LOGGER.trace("setAllToPending()");
-    dao.updateAllToState(State.PENDING);
+    dao.updateAllToState(queueName, State.PENDING);
+    stateCache.invalidateAll();
+    reconcileCounts();
+  }
+
+  /**
+   * Marks the start of recovery. Messages claimed from now until recovery finishes are remembered,
+   * so recovery can tell them apart from the ones a previous run left behind. Call before
+   * dispatching starts.
+   */
+  public void beginRecovery() {
+    LOGGER.trace("beginRecovery()");
+    claimedDuringRecovery.clear();
+    recovering = true;
+  }
+
+  /**
+   * Resets the messages a previous run left activating or processing back to pending. Walks each
+   * shard and state in chunks of hashes so no statement touches more than the chunk size, and
+   * messages already pending are never touched. Messages claimed since recovery began are left
+   * alone. With leases on, only messages whose lease ran out are reset, as the others belong to
+   * processes still running.
+   *
+   * @param chunkSize the most messages reset per statement.
+   * @return the number of messages reset.
+   */
+  public int recover(final int chunkSize) {
+    LOGGER.trace("recover({})", chunkSize);
+    int recovered = 0;
+    try {
+      if (leaseMillis > 0) {
+        return reapExpiredLeases(chunkSize);
+      }
+      for (int shard = 0; shard < shardCount; shard++) {
+        for (State state : List.of(State.ACTIVATING, State.PROCESSING)) {
+          recovered += recover(shard, state, chunkSize);
+        }
+      }
+    } finally {
+      recovering = false;
+      claimedDuringRecovery.clear();
+    }
+    if (recovered > 0) {
+      reconcileCounts();
+    }
+    return recovered;
+  }
+
+  private int recover(final int shard, final State state, final int chunkSize) {
+    int recovered = 0;
+    long after = Long.MIN_VALUE;
+    List<Long> hashes;
+    do {
+      hashes = dao.hashesInState(queueName, shard, state, after, chunkSize);
+      if (!hashes.isEmpty()) {
+        after = hashes.get(hashes.size() - 1);
+        final List<Long> stale = hashes.stream().filter(hash -> !claimedDuringRecovery.contains(hash)).toList();
+        if (!stale.isEmpty()) {
+          final int reset = dao.updateInState(stale, state, State.PENDING);
+          stateCache.invalidateAll(stale);
+          metrics.increment("MessageManager.recovered", tags, reset);
+          recovered += reset;
+          LOGGER.info("Recovered {} {} messages in shard {}", recovered, state, shard);
+        }
+      }
+    } while (hashes.size() == chunkSize);
+    return recovered;
+  }
+
+  /**
+   * Extends the leases on the messages this process has claimed. Call well within the lease time.
+   *
+   * @return the number of leases renewed.
+   */
+  public int renewLeases() {
+    LOGGER.trace("renewLeases()");
+    return dao.renewLeases(queueName, owner, clock.millis() + leaseMillis);
   }
 
   /**
-   * Gets pending messages, up to the limit. Oldest first.
+   * Returns messages whose lease ran out to pending, in chunks. Their owner stopped renewing, so it
+   * is gone or stuck.
    *
+   * @param chunkSize the most messages reset per statement.
+   * @return the number of messages reset.
+   */
+  public int reapExpiredLeases(final int chunkSize) {
+    LOGGER.trace("reapExpiredLeases({})", chunkSize);
+    int reaped = 0;
+    for (State state : List.of(State.ACTIVATING, State.PROCESSING)) {
+      List<Long> hashes;
+      do {
+        final long now = clock.millis();
+        hashes = dao.expiredLeases(queueName, state, now, chunkSize);
+        if (!hashes.isEmpty()) {
+          final int reset = dao.reapExpired(hashes, state, State.PENDING, now);
+          stateCache.invalidateAll(hashes);
+          metrics.increment("MessageManager.leasesExpired", tags, reset);
+          reaped += reset;
+        }
+      } while (hashes.size() == chunkSize);
+    }
+    if (reaped > 0) {
+      LOGGER.info("Returned {} messages with expired leases to pending", reaped);
+      reconcileCounts();
+    }
+    return reaped;
+  }
+
+  /**
+   * Moves messages out of shards that no longer exist, in case the shard count was lowered.
+   */
+  public void rebalanceShards() {
+    LOGGER.trace("rebalanceShards()");
+    final int moved = dao.rebalanceShards(queueName, shardCount);
+    if (moved > 0) {
+      LOGGER.info("Moved {} messages into the current {} shards", moved, shardCount);
+    }
+  }
+
+  /**
+   * Gets pending messages from the shard, up to the limit. Oldest first. Expired messages are skipped.
+   *
+   * @param shard the shard
    * @param limit count of messages to get.
    * @return the list.
    */
-  public List<Message> getPendingMessages(final int limit) {
-    LOGGER.trace("getPendingMessages({})", limit);
-    return dao.forState(State.PENDING, limit);
+  public List<Message> getPendingMessages(final int shard, final int limit) {
+    LOGGER.trace("getPendingMessages({},{})", shard, limit);
+    return dao.forStateUnexpired(queueName, shard, State.PENDING, clock.millis(), limit);
+  }
+
+  /**
+   * Whether the message is past its time to live.
+   *
+   * @param message the message
+   * @return true if expired.
+   */
+  public boolean isExpired(final Message message) {
+    return message.expiresAt().map(expiresAt -> expiresAt <= clock.millis()).orElse(false);
   }
 
   /**
-   * Returns counts of all states.
+   * Deletes up to the limit of pending messages that are past their time to live.
+   *
+   * @param limit max number of messages to delete.
+   * @return the hashes of the messages deleted.
+   */
+  public List<Long> expire(final int limit) {
+    LOGGER.trace("expire({})", limit);
+    final Map<Long, Integer> expired = dao.expired(queueName, State.PENDING, clock.millis(), limit);
+    if (expired.isEmpty()) {
+      return List.of();
+    }
+    // Deleted one by one in a batch, as some may have been claimed in between and are kept.
+    final List<Long> hashes = List.copyOf(expired.keySet());
+    final int[] deleted = dao.deleteEachInState(hashes, State.PENDING);
+    final List<Long> gone = new ArrayList<>();
+    for (int i = 0; i < deleted.length; i++) {
+      if (deleted[i] > 0) {
+        final Long hash = hashes.get(i);
+        stateCounters.add(expired.get(hash), State.PENDING, -1);
+        stateCache.put(hash, Optional.empty());
+        gone.add(hash);
+      } else {
+        stateCache.invalidate(hashes.get(i));
+      }
+    }
+    return gone;
+  }
+
+  /**
+   * Returns counts of all states, from the in-memory counters.
    *
    * @return the map
    */
   public Map<State, Long> counts() {
     LOGGER.trace("counts()");
-    return dao.counts().stream().collect(Collectors.toMap(StateCount::state, StateCount::count));
+    return stateCounters.counts();
+  }
+
+  /**
+   * Returns counts of all states by message type, from the in-memory counters.
+   *
+   * @return the map
+   */
+  public Map<String, Map<State, Long>> countsByType() {
+    LOGGER.trace("countsByType()");
+    return stateCounters.countsByType();
+  }
+
+  /**
+   * Resets the in-memory counters from the database.
+   */
+  public void reconcileCounts() {
+    LOGGER.trace("reconcileCounts()");
+    metrics.time("MessageManager.reconcileCounts", tags, () -> {
+      stateCounters.reconcile(dao.counts(queueName));
+      return null;
+    });
   }
 
   /**
-   * Gets state.
+   * Gets the message by its hash.
+   *
+   * @param hash the hash
+   * @return the message, if it is in the queue.
+   */
+  public Optional<Message> getMessage(final long hash) {
+    LOGGER.trace("getMessage({})", hash);
+    return dao.readByHash(hash, queueName);
+  }
+
+  /**
+   * Gets state. Messages this process enqueued or claimed are answered from memory, including ones
+   * it finished, which report empty, unless leases are on. Others are read from the database.
    *
    * @param message the message
    * @return the state
    */
   public Optional<State> getState(final Message message) {
     LOGGER.trace("getState({})", message);
-    return dao.stateOf(message);
+    final Optional<State> cached = stateCache.getIfPresent(message.hash());
+    if (cached != null) {
+      return cached;
+    }
+    return dao.stateOf(message, queueName);
+  }
+
+  /**
+   * Gets the states of the messages. Ones this process knows about are answered from memory, the
+   * rest are read from the database in chunks.
+   *
+   * @param messages the messages
+   * @return map of hash to state, for the messages still in the queue.
+   */
+  public Map<Long, State> getStates(final Collection<Message> messages) {
+    LOGGER.trace("getStates({})", messages.size());
+    final Map<Long, State> states = new HashMap<>();
+    final List<Long> unknown = new ArrayList<>();
+    for (Message message : messages) {
+      final Optional<State> cached = stateCache.getIfPresent(message.hash());
+      if (cached == null) {
+        unknown.add(message.hash());
+      } else {
+        cached.ifPresent(state -> states.put(message.hash(), state));
+      }
+    }
+    for (List<Long> chunk : Lists.partition(unknown, BULK_CHUNK_SIZE)) {
+      states.putAll(dao.statesOf(chunk, queueName));
+    }
+    return states;
   }
 
   /**
@@ -140,17 +566,78 @@ public class MessageManager {
    */
   public void clearAll() {
     LOGGER.trace("clearAll()");
-    dao.deleteAll();
+    dao.deleteAll(queueName);
+    stateCache.invalidateAll();
+    reconcileCounts();
   }
 
   /**
-   * Clear.
+   * Clear, looking up the state the message is in first.
    *
    * @param message the message
    */
   public void clear(final Message message) {
     LOGGER.trace("clear({})", message);
-    dao.delete(message);
+    dao.stateOf(message, queueName).ifPresent(state -> clear(message, state));
+  }
+
+  /**
+   * Clear the messages, in chunks. Each chunk looks up the states of its messages and deletes the
+   * ones found in one batch.
+   *
+   * @param messages the messages
+   * @return the number of messages cleared.
+   */
+  public int clear(final Collection<Message> messages) {
+    LOGGER.trace("clear({})", messages.size());
+    int cleared = 0;
+    for (List<Message> chunk : Lists.partition(new ArrayList<>(messages), BULK_CHUNK_SIZE)) {
+      final Map<Long, State> states = dao.statesOf(chunk.stream().map(Message::hash).toList(), queueName);
+      final List<Message> found = chunk.stream().filter(message -> states.containsKey(message.hash())).toList();
+      if (!found.isEmpty()) {
+        final int[] deleted = dao.delete(found, queueName);
+        for (int i = 0; i < deleted.length; i++) {
+          if (deleted[i] > 0) {
+            final Message message = found.get(i);
+            stateCounters.add(message, states.get(message.hash()), -1);
+            cleared++;
+          }
+        }
+      }
+      chunk.forEach(message -> stateCache.put(message.hash(), Optional.empty()));
+    }
+    return cleared;
+  }
+
+  /**
+   * Clear the message, which the caller knows is in the given state.
+   *
+   * @param message the message
+   * @param state   the state it is in
+   */
+  public void clear(final Message message, final State state) {
+    LOGGER.trace("clear({},{})", message, state);
+    cleared(message, state, dao.delete(message, queueName));
+  }
+
+  /**
+   * Clear the message this process claimed, once its run is over. With leases on, only while this
+   * process still holds the lease, so a message another process reaped and claimed again is left
+   * to that run.
+   *
+   * @param message the message
+   * @param state   the state it is in
+   */
+  public void clearClaimed(final Message message, final State state) {
+    LOGGER.trace("clearClaimed({},{})", message, state);
+    cleared(message, state, leaseMillis > 0 ? dao.deleteOwned(message, owner) : dao.delete(message, queueName));
+  }
+
+  private void cleared(final Message message, final State state, final int deleted) {
+    if (deleted > 0) {
+      stateCounters.add(message, state, -1);
+    }
+    stateCache.put(message.hash(), Optional.empty());
   }
 
 }
@@ -0,0 +1,65 @@
+package com.codeheadsystems.queue.manager;
+
+import com.codeheadsystems.queue.dao.MessageDao;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps message types to the integer ids stored in the queue rows. Types are registered in the
+ * MESSAGE_TYPE table the first time they are seen and never removed, so the ids are stable and
+ * can be cached forever. Shared by all named queues.
+ */
+@Singleton
+public class MessageTypeDictionary {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageTypeDictionary.class);
+
+  private final MessageDao dao;
+  private final Map<String, Integer> ids;
+
+  /**
+   * Instantiates a new Message type dictionary.
+   *
+   * @param dao the dao
+   */
+  @Inject
+  public MessageTypeDictionary(final MessageDao dao) {
+    this.dao = dao;
+    this.ids = new ConcurrentHashMap<>();
+    LOGGER.info("MessageTypeDictionary({})", dao);
+  }
+
+  /**
+   * The id of the message type, registering it if it is new.
+   *
+   * @param messageType the message type
+   * @return the id
+   */
+  public int idOf(final String messageType) {
+    final Integer id = ids.get(messageType);
+    if (id != null) {
+      return id;
+    }
+    return ids.computeIfAbsent(messageType, this::lookupOrRegister);
+  }
+
+  private Integer lookupOrRegister(final String messageType) {
+    LOGGER.trace("lookupOrRegister({})", messageType);
+    return dao.messageTypeId(messageType).orElseGet(() -> register(messageType));
+  }
+
+  private int register(final String messageType) {
+    try {
+      return dao.insertMessageType(messageType);
+    } catch (UnableToExecuteStatementException e) {
+      // Someone else registered it first.
+      return dao.messageTypeId(messageType).orElseThrow(() -> e);
+    }
+  }
+
+}
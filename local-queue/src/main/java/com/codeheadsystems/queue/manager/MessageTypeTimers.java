@@ -0,0 +1,102 @@
+package com.codeheadsystems.queue.manager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The timers on the enqueue and dispatch paths, by message type. They are resolved the first time
+ * a type is seen and then found by name, so timing a message allocates nothing: callers take
+ * {@link System#nanoTime()} before the work and record the difference after it, rather than
+ * passing a lambda and building tags on every call.
+ */
+public class MessageTypeTimers {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageTypeTimers.class);
+
+  private final String queueName;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Timers> byType;
+
+  /**
+   * Instantiates a new Message type timers.
+   *
+   * @param queueName     the queue name
+   * @param meterRegistry the meter registry for the timers
+   */
+  public MessageTypeTimers(final String queueName, final MeterRegistry meterRegistry) {
+    this.queueName = queueName;
+    this.meterRegistry = meterRegistry;
+    this.byType = new ConcurrentHashMap<>();
+    LOGGER.info("MessageTypeTimers({})", queueName);
+  }
+
+  /**
+   * Timer for enqueuing a message of the type.
+   *
+   * @param messageType the message type
+   * @return the timer
+   */
+  public Timer enqueue(final String messageType) {
+    return timers(messageType).enqueue();
+  }
+
+  /**
+   * Timer for storing a message of the type.
+   *
+   * @param messageType the message type
+   * @return the timer
+   */
+  public Timer saveMessage(final String messageType) {
+    return timers(messageType).saveMessage();
+  }
+
+  /**
+   * Timer for handing a message of the type to the executor.
+   *
+   * @param messageType the message type
+   * @return the timer
+   */
+  public Timer dispatch(final String messageType) {
+    return timers(messageType).dispatch();
+  }
+
+  /**
+   * Timer for running the consumer of a message of the type.
+   *
+   * @param messageType the message type
+   * @return the timer
+   */
+  public Timer execute(final String messageType) {
+    return timers(messageType).execute();
+  }
+
+  private Timers timers(final String messageType) {
+    final Timers timers = byType.get(messageType); // no lambda unless the type is new.
+    return timers != null ? timers : byType.computeIfAbsent(messageType, this::newTimers);
+  }
+
+  private Timers newTimers(final String messageType) {
+    return new Timers(
+        timer("QueueImpl.enqueue", messageType),
+        timer("MessageManager.saveMessage", messageType),
+        timer("MessageConsumerExecutor.enqueue", messageType),
+        timer("MessageConsumerExecutor.execute", messageType));
+  }
+
+  private Timer timer(final String name, final String messageType) {
+    return Timer.builder(name)
+        .tags("queue", queueName, "messageType", messageType)
+        .register(meterRegistry);
+  }
+
+  /**
+   * The timers for one message type.
+   */
+  private record Timers(Timer enqueue, Timer saveMessage, Timer dispatch, Timer execute) {
+  }
+
+}
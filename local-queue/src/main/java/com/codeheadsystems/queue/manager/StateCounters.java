@@ -0,0 +1,186 @@
+package com.codeheadsystems.queue.manager;
+
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.dao.StateCount;
+import com.codeheadsystems.queue.util.IdIndexedCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory message counts for one queue, by message type and state. Updated by the message
+ * manager on every transition so reading the depth of the queue never touches the database.
+ * Transitions done behind our back, like another process sharing the table, are corrected when
+ * the counts are reconciled against the database. Also published as gauges.
+ */
+public class StateCounters {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StateCounters.class);
+  private static final State[] STATES = State.values();
+
+  private final String queueName;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, LongAdder[]> byType;
+  private final IdIndexedCache<LongAdder[]> byTypeId;
+
+  /**
+   * Instantiates a new State counters.
+   *
+   * @param queueName     the queue name
+   * @param meterRegistry the meter registry for the gauges
+   */
+  public StateCounters(final String queueName, final MeterRegistry meterRegistry) {
+    this.queueName = queueName;
+    this.meterRegistry = meterRegistry;
+    this.byType = new ConcurrentHashMap<>();
+    this.byTypeId = new IdIndexedCache<>();
+    for (State state : STATES) {
+      Gauge.builder("StateCounters.messages", this, counters -> counters.count(state))
+          .tags("queue", queueName, "state", state.name())
+          .register(meterRegistry);
+    }
+    LOGGER.info("StateCounters({})", queueName);
+  }
+
+  /**
+   * Adds to the count of the message's type in the state.
+   *
+   * @param message the message
+   * @param state   the state
+   * @param delta   the delta
+   */
+  public void add(final Message message, final State state, final long delta) {
+    if (delta != 0) {
+      adders(message.messageTypeId(), message.messageType())[state.code()].add(delta);
+    }
+  }
+
+  /**
+   * Adds to the count of the message type in the state. A type that was never counted here is left
+   * alone; its counts come from the next reconcile.
+   *
+   * @param messageTypeId the message type id
+   * @param state         the state
+   * @param delta         the delta
+   */
+  public void add(final int messageTypeId, final State state, final long delta) {
+    final LongAdder[] adders = byTypeId.getIfPresent(messageTypeId);
+    if (adders != null && delta != 0) {
+      adders[state.code()].add(delta);
+    }
+  }
+
+  /**
+   * Moves the message from one state to another.
+   *
+   * @param message the message
+   * @param from    the state it was in
+   * @param to      the state it is in now
+   */
+  public void move(final Message message, final State from, final State to) {
+    final LongAdder[] adders = adders(message.messageTypeId(), message.messageType());
+    adders[from.code()].decrement();
+    adders[to.code()].increment();
+  }
+
+  /**
+   * The number of messages in the state.
+   *
+   * @param state the state
+   * @return the count
+   */
+  public long count(final State state) {
+    long total = 0;
+    for (LongAdder[] adders : byType.values()) {
+      total += adders[state.code()].sum();
+    }
+    return total;
+  }
+
+  /**
+   * The number of messages in each state. States without messages are left out.
+   *
+   * @return the counts
+   */
+  public Map<State, Long> counts() {
+    final Map<State, Long> counts = new EnumMap<>(State.class);
+    for (State state : STATES) {
+      final long count = count(state);
+      if (count > 0) {
+        counts.put(state, count);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * The number of messages in each state, by message type. States without messages are left out.
+   *
+   * @return the counts
+   */
+  public Map<String, Map<State, Long>> countsByType() {
+    final Map<String, Map<State, Long>> counts = new HashMap<>();
+    byType.forEach((messageType, adders) -> {
+      final Map<State, Long> typeCounts = new EnumMap<>(State.class);
+      for (State state : STATES) {
+        final long count = adders[state.code()].sum();
+        if (count > 0) {
+          typeCounts.put(state, count);
+        }
+      }
+      if (!typeCounts.isEmpty()) {
+        counts.put(messageType, typeCounts);
+      }
+    });
+    return counts;
+  }
+
+  /**
+   * Replaces the counts with the ones from the database. Transitions that happen while the counts
+   * are being read may be off until the next reconcile.
+   *
+   * @param stateCounts the counts from the database
+   */
+  public void reconcile(final List<StateCount> stateCounts) {
+    LOGGER.trace("reconcile({})", stateCounts.size());
+    final Map<String, long[]> actual = new HashMap<>();
+    for (StateCount stateCount : stateCounts) {
+      adders(stateCount.messageTypeId(), stateCount.messageType()); // make sure the type is known
+      actual.computeIfAbsent(stateCount.messageType(), type -> new long[STATES.length])
+          [stateCount.state().code()] = stateCount.count();
+    }
+    byType.forEach((messageType, adders) -> {
+      final long[] counts = actual.getOrDefault(messageType, new long[STATES.length]);
+      for (State state : STATES) {
+        adders[state.code()].add(counts[state.code()] - adders[state.code()].sum());
+      }
+    });
+  }
+
+  private LongAdder[] adders(final int messageTypeId, final String messageType) {
+    final LongAdder[] adders = byTypeId.getIfPresent(messageTypeId);
+    return adders != null ? adders
+        : byTypeId.get(messageTypeId, id -> byType.computeIfAbsent(messageType, this::newAdders));
+  }
+
+  private LongAdder[] newAdders(final String messageType) {
+    final LongAdder[] adders = new LongAdder[STATES.length];
+    for (State state : STATES) {
+      final LongAdder adder = new LongAdder();
+      adders[state.code()] = adder;
+      Gauge.builder("StateCounters.messagesByType", adder, LongAdder::sum)
+          .tags("queue", queueName, "messageType", messageType, "state", state.name())
+          .register(meterRegistry);
+    }
+    return adders;
+  }
+
+}
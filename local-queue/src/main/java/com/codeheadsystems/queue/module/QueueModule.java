@@ -1,12 +1,27 @@
 package com.codeheadsystems.queue.module;
 
+import com.codeheadsystems.queue.LogStoreConfiguration;
 import com.codeheadsystems.queue.MessageConsumer;
 import com.codeheadsystems.queue.Queue;
 import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.WriteBehindConfiguration;
+import com.codeheadsystems.queue.dao.InMemoryMessageDao;
+import com.codeheadsystems.queue.dao.LogMessageDao;
 import com.codeheadsystems.queue.dao.MessageDao;
+import com.codeheadsystems.queue.dao.QueueSettingsDao;
+import com.codeheadsystems.queue.dao.WriteBehindMessageDao;
+import com.codeheadsystems.queue.factory.NamedQueueFactory;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.impl.ExpirySweeper;
 import com.codeheadsystems.queue.impl.MessageConsumerExecutor;
 import com.codeheadsystems.queue.impl.QueueImpl;
 import com.codeheadsystems.queue.impl.QueueProcessor;
+import com.codeheadsystems.queue.impl.QueueSettings;
+import com.codeheadsystems.queue.impl.StateCountReconciler;
+import com.codeheadsystems.queue.impl.VisibilityReaper;
+import com.codeheadsystems.queue.manager.LifecycleTimers;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import com.codeheadsystems.queue.manager.StateCounters;
 import dagger.Binds;
 import dagger.BindsOptionalOf;
 import dagger.Module;
@@ -14,20 +29,82 @@ import dagger.Provides;
 import dagger.multibindings.IntoSet;
 import dagger.multibindings.Multibinds;
 import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Clock;
 import java.util.Map;
+import java.util.Optional;
 import javax.inject.Singleton;
 import org.jdbi.v3.core.Jdbi;
 
 /**
- * The type Queue module.
+ * The type Queue module. By default messages are stored in the database through your Jdbi. Use
+ * {@link #inMemory()} for a queue that keeps them in memory instead, which needs no Jdbi and does
+ * not survive a restart, {@link #log(LogStoreConfiguration)} for an append-only log on disk, or
+ * {@link #writeBehind(WriteBehindConfiguration)} to keep them in memory and copy them to the
+ * database in the background.
  */
 @Module(includes = QueueModule.Binder.class)
 public class QueueModule {
 
+  private static final Managed NOT_MANAGED = new Managed() {
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+  };
+
+  private final boolean inMemory;
+  private final LogStoreConfiguration logStoreConfiguration;
+  private final WriteBehindConfiguration writeBehindConfiguration;
+
   /**
-   * Instantiates a new Queue module.
+   * Instantiates a new Queue module, stored in the database.
    */
   public QueueModule() {
+    this(false, null, null);
+  }
+
+  private QueueModule(final boolean inMemory,
+                      final LogStoreConfiguration logStoreConfiguration,
+                      final WriteBehindConfiguration writeBehindConfiguration) {
+    this.inMemory = inMemory;
+    this.logStoreConfiguration = logStoreConfiguration;
+    this.writeBehindConfiguration = writeBehindConfiguration;
+  }
+
+  /**
+   * A queue module that keeps the messages in memory. Pass it to your component builder.
+   *
+   * @return the queue module
+   */
+  public static QueueModule inMemory() {
+    return new QueueModule(true, null, null);
+  }
+
+  /**
+   * A queue module that keeps the messages in an append-only log on disk. Pass it to your component
+   * builder.
+   *
+   * @param logStoreConfiguration the log store configuration
+   * @return the queue module
+   */
+  public static QueueModule log(final LogStoreConfiguration logStoreConfiguration) {
+    return new QueueModule(false, logStoreConfiguration, null);
+  }
+
+  /**
+   * A queue module that keeps the messages in memory and copies them to the database in the
+   * background. Needs your Jdbi. Pass it to your component builder.
+   *
+   * @param writeBehindConfiguration the write behind configuration
+   * @return the queue module
+   */
+  public static QueueModule writeBehind(final WriteBehindConfiguration writeBehindConfiguration) {
+    return new QueueModule(false, null, writeBehindConfiguration);
   }
 
   /**
@@ -45,13 +122,102 @@ public class QueueModule {
   /**
    * Message dao message dao.
    *
-   * @param jdbi the jdbi, which we require already has the SQLObjects and immutable plugin installed.
+   * @param jdbi          the jdbi, which we require already has the SQLObjects and immutable plugin installed.
+   *                      Not needed when in memory.
+   * @param meterRegistry the meter registry, if you have one. Else the global one is used.
    * @return the message dao
    */
   @Singleton
   @Provides
-  public MessageDao messageDao(final Jdbi jdbi) {
-    return MessageDao.instance(jdbi);
+  public MessageDao messageDao(final Optional<Jdbi> jdbi, final Optional<MeterRegistry> meterRegistry) {
+    if (inMemory) {
+      return new InMemoryMessageDao();
+    }
+    if (logStoreConfiguration != null) {
+      return new LogMessageDao(logStoreConfiguration);
+    }
+    final MessageDao database = MessageDao.instance(jdbi.orElseThrow(
+        () -> new IllegalStateException("A Jdbi is required unless the queue module is in memory")),
+        meterRegistry.orElse(Metrics.globalRegistry));
+    if (writeBehindConfiguration != null) {
+      return new WriteBehindMessageDao(database, writeBehindConfiguration);
+    }
+    return database;
+  }
+
+  /**
+   * Queue settings dao for the setting overrides, when the messages are kept in the database. The
+   * in memory and log stores have no database to keep them in.
+   *
+   * @param jdbi the jdbi, with the SQLObjects plugin installed.
+   * @return the queue settings dao, if there is a database.
+   */
+  @Singleton
+  @Provides
+  public Optional<QueueSettingsDao> queueSettingsDao(final Optional<Jdbi> jdbi) {
+    if (inMemory || logStoreConfiguration != null) {
+      return Optional.empty();
+    }
+    return jdbi.map(QueueSettingsDao::instance);
+  }
+
+  /**
+   * Managed message dao, for stores that run in the background like the log and write-behind stores.
+   *
+   * @param messageDao the message dao
+   * @return the managed
+   */
+  @Provides
+  @IntoSet
+  public Managed managedMessageDao(final MessageDao messageDao) {
+    return messageDao instanceof Managed managed ? managed : NOT_MANAGED;
+  }
+
+  /**
+   * State counters for the default queue.
+   *
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param meterRegistry             the meter registry, if you have one. Else the global one is used.
+   * @return the state counters
+   */
+  @Singleton
+  @Provides
+  public StateCounters stateCounters(final QueueConfigurationFactory queueConfigurationFactory,
+                                     final Optional<MeterRegistry> meterRegistry) {
+    return new StateCounters(queueConfigurationFactory.queueConfiguration().queueName(),
+        meterRegistry.orElse(Metrics.globalRegistry));
+  }
+
+  /**
+   * Lifecycle timers for the default queue.
+   *
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param meterRegistry             the meter registry, if you have one. Else the global one is used.
+   * @param clock                     the clock
+   * @return the lifecycle timers
+   */
+  @Singleton
+  @Provides
+  public LifecycleTimers lifecycleTimers(final QueueConfigurationFactory queueConfigurationFactory,
+                                         final Optional<MeterRegistry> meterRegistry,
+                                         final Clock clock) {
+    return new LifecycleTimers(queueConfigurationFactory.queueConfiguration().queueName(),
+        meterRegistry.orElse(Metrics.globalRegistry), clock);
+  }
+
+  /**
+   * Message type timers for the default queue.
+   *
+   * @param queueConfigurationFactory the queue configuration factory
+   * @param meterRegistry             the meter registry, if you have one. Else the global one is used.
+   * @return the message type timers
+   */
+  @Singleton
+  @Provides
+  public MessageTypeTimers messageTypeTimers(final QueueConfigurationFactory queueConfigurationFactory,
+                                             final Optional<MeterRegistry> meterRegistry) {
+    return new MessageTypeTimers(queueConfigurationFactory.queueConfiguration().queueName(),
+        meterRegistry.orElse(Metrics.globalRegistry));
   }
 
   /**
@@ -69,6 +235,22 @@ public class QueueModule {
     @BindsOptionalOf
     QueueConfiguration queueConfiguration();
 
+    /**
+     * Meter registry for the queue gauges. If you don't define one, the global registry is used.
+     *
+     * @return the meter registry
+     */
+    @BindsOptionalOf
+    MeterRegistry meterRegistry();
+
+    /**
+     * Jdbi for the database. Only optional so in memory queues can do without.
+     *
+     * @return the jdbi
+     */
+    @BindsOptionalOf
+    Jdbi jdbi();
+
     /**
      * Managed instance of the queue processor for the runtimes.
      *
@@ -89,6 +271,56 @@ public class QueueModule {
     @Binds
     Managed managedMessageConsumerExecutor(final MessageConsumerExecutor messageConsumerExecutor);
 
+    /**
+     * Managed expiry sweeper.
+     *
+     * @param expirySweeper the expiry sweeper
+     * @return the managed
+     */
+    @IntoSet
+    @Binds
+    Managed managedExpirySweeper(final ExpirySweeper expirySweeper);
+
+    /**
+     * Managed visibility reaper.
+     *
+     * @param visibilityReaper the visibility reaper
+     * @return the managed
+     */
+    @IntoSet
+    @Binds
+    Managed managedVisibilityReaper(final VisibilityReaper visibilityReaper);
+
+    /**
+     * Managed state count reconciler.
+     *
+     * @param stateCountReconciler the state count reconciler
+     * @return the managed
+     */
+    @IntoSet
+    @Binds
+    Managed managedStateCountReconciler(final StateCountReconciler stateCountReconciler);
+
+    /**
+     * Managed queue settings, which applies the setting overrides.
+     *
+     * @param queueSettings the queue settings
+     * @return the managed
+     */
+    @IntoSet
+    @Binds
+    Managed managedQueueSettings(final QueueSettings queueSettings);
+
+    /**
+     * Managed named queue factory, which starts and stops any named queues.
+     *
+     * @param namedQueueFactory the named queue factory
+     * @return the managed
+     */
+    @IntoSet
+    @Binds
+    Managed managedNamedQueueFactory(final NamedQueueFactory namedQueueFactory);
+
     /**
      * Message consumers map.
      *
@@ -0,0 +1,66 @@
+package com.codeheadsystems.queue.util;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A cache keyed by small dense integer ids, like message type ids. Reads are a plain array index
+ * with no hashing or locking; misses load under a lock and publish a copy of the array.
+ *
+ * @param <T> the type of the value.
+ */
+public class IdIndexedCache<T> {
+
+  private volatile Object[] values = new Object[0];
+
+  /**
+   * Gets the value for the id, loading it if needed. Null values from the loader are not cached.
+   *
+   * @param id     the id
+   * @param loader the loader
+   * @return the value, or null if the loader had none.
+   */
+  public T get(final int id, final IntFunction<T> loader) {
+    final T value = getIfPresent(id);
+    return value != null ? value : load(id, loader);
+  }
+
+  /**
+   * Gets the value for the id if it is loaded. Lets hot paths skip building a loader that captures
+   * its arguments when the value is already there.
+   *
+   * @param id the id
+   * @return the value, or null if it is not loaded.
+   */
+  @SuppressWarnings("unchecked")
+  public T getIfPresent(final int id) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Negative id: " + id);
+    }
+    final Object[] current = values;
+    return id < current.length ? (T) current[id] : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized T load(final int id, final IntFunction<T> loader) {
+    final Object[] current = values;
+    if (id < current.length && current[id] != null) {
+      return (T) current[id];
+    }
+    final T value = loader.apply(id);
+    if (value != null) {
+      final Object[] next = Arrays.copyOf(current, Math.max(current.length, id + 1));
+      next[id] = value;
+      values = next;
+    }
+    return value;
+  }
+
+  /**
+   * Clears the cache.
+   */
+  public synchronized void clear() {
+    values = new Object[0];
+  }
+
+}
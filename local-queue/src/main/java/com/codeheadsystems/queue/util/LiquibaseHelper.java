@@ -1,9 +1,16 @@
 package com.codeheadsystems.queue.util;
 
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sql.DataSource;
 import liquibase.Scope;
 import liquibase.changelog.ChangeLogParameters;
@@ -15,11 +22,17 @@ import liquibase.database.Database;
 import liquibase.database.DatabaseFactory;
 import liquibase.database.jvm.JdbcConnection;
 import liquibase.resource.ClassLoaderResourceAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * The type Liquibase helper.
+ * The type Liquibase helper. After a successful update the checksum of the change log is written to
+ * the SCHEMA_MARKER table. When the marker already matches, the Liquibase engine is skipped
+ * entirely, which keeps the start up of short-lived processes fast.
  */
 public class LiquibaseHelper {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LiquibaseHelper.class);
+  private static final Map<String, Optional<String>> CHECKSUMS = new ConcurrentHashMap<>();
 
   /**
    * Instantiates a new Liquibase helper.
@@ -28,27 +41,38 @@ public class LiquibaseHelper {
   }
 
   /**
-   * Run liquibase.
+   * Run liquibase. The connection is closed when done.
    *
    * @param dataSource    the data source
    * @param changeLogFile the change log file
    */
   public void runLiquibase(final DataSource dataSource, final String changeLogFile) {
-    try {
-      runLiquibase(dataSource.getConnection(), changeLogFile);
+    try (Connection connection = dataSource.getConnection()) {
+      runLiquibase(connection, changeLogFile);
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
   }
 
   /**
-   * Run liquibase.
+   * Run liquibase, unless the schema marker shows this change log was already applied. The
+   * connection is left open for the caller to close.
    *
    * @param connection    the connection
    * @param changeLogFile the change log file
    */
   public void runLiquibase(final Connection connection,
                            final String changeLogFile) {
+    final Optional<String> checksum = checksum(changeLogFile);
+    if (checksum.isPresent() && checksum.equals(appliedChecksum(connection, changeLogFile))) {
+      LOGGER.info("Schema is current for {}, skipping liquibase", changeLogFile);
+      return;
+    }
+    update(connection, changeLogFile);
+    checksum.ifPresent(value -> markApplied(connection, changeLogFile, value));
+  }
+
+  private void update(final Connection connection, final String changeLogFile) {
     try {
       final Database database = DatabaseFactory.getInstance()
           .findCorrectDatabaseImplementation(new JdbcConnection(connection));
@@ -76,4 +100,54 @@ public class LiquibaseHelper {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * The checksum of the change log file, computed once per process.
+   *
+   * @param changeLogFile the change log file
+   * @return the checksum, or empty if the file cannot be read.
+   */
+  Optional<String> checksum(final String changeLogFile) {
+    return CHECKSUMS.computeIfAbsent(changeLogFile, file -> {
+      try (InputStream stream = LiquibaseHelper.class.getClassLoader().getResourceAsStream(file)) {
+        if (stream == null) {
+          return Optional.empty();
+        }
+        return Optional.of(Hashing.sha256().hashBytes(stream.readAllBytes()).toString());
+      } catch (IOException e) {
+        LOGGER.warn("Unable to read {}, liquibase will always run", file, e);
+        return Optional.empty();
+      }
+    });
+  }
+
+  private Optional<String> appliedChecksum(final Connection connection, final String changeLogFile) {
+    try (PreparedStatement statement =
+             connection.prepareStatement("select CHECKSUM from SCHEMA_MARKER where CHANGELOG = ?")) {
+      statement.setString(1, changeLogFile);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        return resultSet.next() ? Optional.ofNullable(resultSet.getString(1)) : Optional.empty();
+      }
+    } catch (SQLException e) {
+      LOGGER.trace("No schema marker: {}", e.getMessage()); // new database, or from before the marker.
+      return Optional.empty();
+    }
+  }
+
+  private void markApplied(final Connection connection, final String changeLogFile, final String checksum) {
+    try (PreparedStatement delete = connection.prepareStatement("delete from SCHEMA_MARKER where CHANGELOG = ?");
+         PreparedStatement insert = connection.prepareStatement(
+             "insert into SCHEMA_MARKER (CHANGELOG, CHECKSUM) values (?, ?)")) {
+      delete.setString(1, changeLogFile);
+      delete.executeUpdate();
+      insert.setString(1, changeLogFile);
+      insert.setString(2, checksum);
+      insert.executeUpdate();
+      if (!connection.getAutoCommit()) {
+        connection.commit();
+      }
+    } catch (SQLException e) {
+      LOGGER.warn("Unable to write the schema marker for {}, liquibase will run next time", changeLogFile, e);
+    }
+  }
 }
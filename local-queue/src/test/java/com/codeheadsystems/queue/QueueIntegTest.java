@@ -18,6 +18,7 @@ import java.time.Clock;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
@@ -64,18 +65,12 @@ public class QueueIntegTest {
   }
 
   @Test
-  public void working() {
+  public void working() throws Exception {
     WORKING = false;
-    queueComponent.queue().enqueue(KEY_WORKING, "payload");
-    int count = 0;
-    while (!WORKING && count < 20) { // wait up to 10 seconds
-      try {
-        Thread.sleep(500);
-        count++;
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
+    final CompletionHandle handle = queueComponent.queue()
+        .enqueueForCompletion(KEY_WORKING, "payload", EnqueueOptions.none())
+        .orElseThrow();
+    handle.completion().get(10, TimeUnit.SECONDS);
     if (!WORKING) {
       throw new RuntimeException("Not working");
     }
@@ -0,0 +1,25 @@
+package com.codeheadsystems.queue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class StateTest {
+
+  @ParameterizedTest
+  @EnumSource(State.class)
+  void testFromCode_roundTrip(final State state) {
+    assertThat(State.fromCode(state.code())).isEqualTo(state);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 3})
+  void testFromCode_unknown(final int code) {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> State.fromCode(code));
+  }
+
+}
@@ -0,0 +1,307 @@
+package com.codeheadsystems.queue.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import com.codeheadsystems.queue.manager.StateCounters;
+import com.codeheadsystems.queue.module.QueueModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class InMemoryMessageDaoTest extends BaseMetricTest {
+
+  private static final String QUEUE = "queue";
+  private static final String OTHER_QUEUE = "otherQueue";
+  private static final String TYPE = "type";
+  private static final String PAYLOAD1 = "payload:1";
+  private static final String PAYLOAD2 = "payload:2";
+  private static final String PAYLOAD3 = "payload:3";
+  @Mock private Clock clock;
+
+  private InMemoryMessageDao messageDao;
+  private MessageFactory messageFactory;
+
+  @BeforeEach
+  void setup() {
+    messageDao = (InMemoryMessageDao) QueueModule.inMemory().messageDao(Optional.empty(), Optional.empty());
+    messageFactory = new MessageFactory(clock, new MessageTypeDictionary(messageDao));
+  }
+
+  @Test
+  void testRoundTrip() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD1);
+    messageDao.store(message, QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.readByHash(message.hash(), QUEUE)).contains(message);
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.delete(message, QUEUE)).isEqualTo(1);
+    assertThat(messageDao.delete(message, QUEUE)).isEqualTo(0);
+    assertThat(messageDao.readByHash(message.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.size()).isZero();
+  }
+
+  @Test
+  void testSaveDupsProcess() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD1);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> messageDao.store(message, QUEUE, 0, State.PENDING))
+        .withCauseInstanceOf(SQLIntegrityConstraintViolationException.class);
+  }
+
+  @Test
+  void testMessageTypes() {
+    assertThat(messageDao.messageTypeId(TYPE)).isEmpty();
+    final int id = messageDao.insertMessageType(TYPE);
+    assertThat(messageDao.messageTypeId(TYPE)).contains(id);
+    assertThat(messageDao.insertMessageType("otherType")).isNotEqualTo(id);
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> messageDao.insertMessageType(TYPE));
+  }
+
+  @Test
+  void testSupersede() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    assertThat(messageDao.supersede(message1, QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.supersededHashes(message2, OTHER_QUEUE, State.PENDING)).isEmpty();
+    assertThat(messageDao.supersede(message2, OTHER_QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.supersededHashes(message2, QUEUE, State.PENDING)).containsExactly(message1.hash());
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> messageDao.store(message2, QUEUE, 0, State.PENDING));
+    assertThat(messageDao.supersede(messageFactory.createMessage(TYPE, PAYLOAD3, options), QUEUE, 0)).isEqualTo(1);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+  }
+
+  @Test
+  void testSupersede_claimedMessagesAreKept() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    messageDao.supersede(message1, QUEUE, 0);
+    assertThat(messageDao.claim(message1, State.PENDING, State.ACTIVATING)).isEqualTo(1);
+    assertThat(messageDao.claim(message1, State.PENDING, State.ACTIVATING)).isEqualTo(0);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE))
+        .hasValueSatisfying(m -> assertThat(m.supersedeKey()).isEmpty());
+    assertThat(messageDao.supersede(message2, QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.stateOf(message1, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.stateOf(message2, QUEUE)).contains(State.PENDING);
+  }
+
+  @Test
+  void testForStateUnexpired() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(110));
+    final Message forever = messageFactory.createMessage(TYPE, PAYLOAD2);
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message expiring = messageFactory.createMessage(TYPE, PAYLOAD1,
+        ImmutableEnqueueOptions.builder().timeToLive(Duration.ofMillis(50)).build());
+    messageDao.store(forever, QUEUE, 0, State.PENDING);
+    messageDao.store(expiring, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 149, 10)).containsExactly(expiring, forever);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 149, 1)).containsExactly(expiring);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 150, 10)).containsExactly(forever);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 1, State.PENDING, 150, 10)).isEmpty();
+    messageDao.claim(expiring, State.PENDING, State.ACTIVATING);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).containsExactly(forever);
+    messageDao.updateState(expiring, State.PENDING);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).containsExactly(expiring, forever);
+  }
+
+  @Test
+  void testForStateUnexpiredExcluding() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message paused = messageFactory.createMessage("paused", PAYLOAD1);
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(110));
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(paused, QUEUE, 0, State.PENDING);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.forStateUnexpiredExcluding(QUEUE, 0, State.PENDING, 0, List.of(paused.messageTypeId()), 1))
+        .containsExactly(message);
+    assertThat(messageDao.forStateUnexpiredExcluding(QUEUE, 0, State.PENDING, 0, List.of(-1), 10))
+        .containsExactly(paused, message);
+  }
+
+  @Test
+  void testExpiredAndDeleteInState() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().timeToLive(Duration.ofMillis(50)).build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.expired(QUEUE, State.PENDING, 149, 10)).isEmpty();
+    final Map<Long, Integer> expired = messageDao.expired(QUEUE, State.PENDING, 150, 10);
+    assertThat(expired).containsOnly(Map.entry(message1.hash(), message1.messageTypeId()),
+        Map.entry(message2.hash(), message2.messageTypeId()));
+    messageDao.updateState(message2, State.ACTIVATING);
+    assertThat(messageDao.deleteInState(List.copyOf(expired.keySet()), State.PENDING)).isEqualTo(1);
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isPresent();
+  }
+
+  @Test
+  void testDeleteEachInState() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.deleteEachInState(List.of(message1.hash(), message2.hash()), State.PENDING))
+        .containsExactly(1, 0);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isPresent();
+  }
+
+  @Test
+  void testCountsAndQueuesAreIsolated() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, OTHER_QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.counts(OTHER_QUEUE)).containsExactly(ImmutableStateCount.builder()
+        .messageType(TYPE)
+        .messageTypeId(message2.messageTypeId())
+        .state(State.ACTIVATING)
+        .count(1)
+        .build());
+    messageDao.updateAllToState(OTHER_QUEUE, State.PENDING);
+    assertThat(messageDao.forState(OTHER_QUEUE, State.PENDING)).containsExactly(message2);
+    assertThat(messageDao.forStateUnexpired(OTHER_QUEUE, 0, State.PENDING, 0, 10)).containsExactly(message2);
+    messageDao.deleteAll(QUEUE);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).isEmpty();
+    assertThat(messageDao.readByHash(message2.hash(), OTHER_QUEUE)).isPresent();
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.stateOf(message2, QUEUE)).isEmpty();
+    assertThat(messageDao.statesOf(List.of(message2.hash()), QUEUE)).isEmpty();
+    assertThat(messageDao.delete(message2, QUEUE)).isEqualTo(0);
+    assertThat(messageDao.delete(List.of(message2), QUEUE)).containsExactly(0);
+    assertThat(messageDao.stateOf(message2, OTHER_QUEUE)).contains(State.PENDING);
+  }
+
+  @Test
+  void testRebalanceShards() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 1, State.PENDING);
+    messageDao.store(message2, QUEUE, 6, State.PENDING);
+    assertThat(messageDao.rebalanceShards(QUEUE, 4)).isEqualTo(1);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 2, State.PENDING, 0, 10)).containsExactly(message2);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 6, State.PENDING, 0, 10)).isEmpty();
+  }
+
+  @Test
+  void testBulk() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message missing = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.PROCESSING);
+    assertThat(messageDao.statesOf(List.of(message1.hash(), message2.hash(), missing.hash()), QUEUE))
+        .containsOnly(Map.entry(message1.hash(), State.ACTIVATING), Map.entry(message2.hash(), State.PROCESSING));
+    assertThat(messageDao.hashesInState(QUEUE, 0, State.ACTIVATING, Long.MIN_VALUE, 10))
+        .containsExactly(message1.hash());
+    assertThat(messageDao.updateInState(List.of(message1.hash(), message2.hash()), State.ACTIVATING, State.PENDING))
+        .isEqualTo(1);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).containsExactly(message1);
+    assertThat(messageDao.delete(List.of(message1, missing, message2), QUEUE)).containsExactly(1, 0, 1);
+  }
+
+  @Test
+  void testLeases() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final Message mine = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message theirs = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message unleased = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(mine, QUEUE, 0, State.PENDING);
+    messageDao.store(theirs, QUEUE, 0, State.PENDING);
+    messageDao.store(unleased, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.claimLeased(mine, State.PENDING, State.ACTIVATING, "me", 100)).isEqualTo(1);
+    assertThat(messageDao.claimLeased(mine, State.PENDING, State.ACTIVATING, "them", 100)).isZero();
+    assertThat(messageDao.claimLeased(theirs, State.PENDING, State.ACTIVATING, "them", 100)).isEqualTo(1);
+    assertThat(messageDao.claim(unleased, State.PENDING, State.ACTIVATING)).isEqualTo(1);
+
+    assertThat(messageDao.renewLeases(QUEUE, "me", 200)).isEqualTo(1);
+    assertThat(messageDao.expiredLeases(QUEUE, State.ACTIVATING, 150, 10))
+        .containsExactlyInAnyOrder(theirs.hash(), unleased.hash());
+
+    assertThat(messageDao.reapExpired(List.of(mine.hash(), theirs.hash()), State.ACTIVATING, State.PENDING, 150))
+        .isEqualTo(1);
+    assertThat(messageDao.stateOf(mine, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).containsExactly(theirs);
+    assertThat(messageDao.renewLeases(QUEUE, "them", 300)).isZero(); // the reap dropped their lease.
+    assertThat(messageDao.updateStateOwned(theirs, State.PROCESSING, "them")).isZero();
+    assertThat(messageDao.deleteOwned(theirs, "them")).isZero();
+
+    assertThat(messageDao.updateStateOwned(mine, State.PROCESSING, "them")).isZero();
+    assertThat(messageDao.updateStateOwned(mine, State.PROCESSING, "me")).isEqualTo(1);
+    assertThat(messageDao.stateOf(mine, QUEUE)).contains(State.PROCESSING);
+    assertThat(messageDao.deleteOwned(mine, "them")).isZero();
+    assertThat(messageDao.deleteOwned(mine, "me")).isEqualTo(1);
+    assertThat(messageDao.stateOf(mine, QUEUE)).isEmpty();
+  }
+
+  @Test
+  void testReleaseOwned() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD1);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.claimLeased(message, State.PENDING, State.ACTIVATING, "me", 100)).isEqualTo(1);
+    assertThat(messageDao.reapExpired(List.of(message.hash()), State.ACTIVATING, State.PENDING, 150)).isEqualTo(1);
+    assertThat(messageDao.claimLeased(message, State.PENDING, State.ACTIVATING, "them", 300)).isEqualTo(1);
+
+    assertThat(messageDao.releaseOwned(message, State.ACTIVATING, State.PENDING, "me")).isZero();
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.releaseOwned(message, State.ACTIVATING, State.PENDING, "them")).isEqualTo(1);
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.PENDING);
+    assertThat(messageDao.renewLeases(QUEUE, "them", 400)).isZero();
+  }
+
+  @Test
+  void testMessageManager() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final MessageManager messageManager = new MessageManager(messageDao, messageFactory,
+        new StateCounters(QUEUE, new SimpleMeterRegistry()), new MessageTypeTimers(QUEUE, new SimpleMeterRegistry()),
+        new QueueConfigurationFactory(Optional.empty()), metricsFactory, clock);
+
+    final Message message = messageManager.saveMessage(TYPE, PAYLOAD1).orElseThrow();
+    assertThat(messageManager.saveMessage(TYPE, PAYLOAD1)).contains(message);
+    assertThat(messageManager.counts()).containsExactly(Map.entry(State.PENDING, 1L));
+    assertThat(messageManager.getPendingMessages(0, 10)).containsExactly(message);
+    assertThat(messageManager.setActivating(message)).isTrue();
+    assertThat(messageManager.getPendingMessages(0, 10)).isEmpty();
+    messageManager.setProcessing(message);
+    messageManager.clearClaimed(message, State.PROCESSING);
+    assertThat(messageManager.counts()).isEmpty();
+    assertThat(messageManager.getState(message)).isEmpty();
+  }
+}
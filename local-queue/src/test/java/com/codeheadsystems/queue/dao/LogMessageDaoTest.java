@@ -0,0 +1,143 @@
+package com.codeheadsystems.queue.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
+import com.codeheadsystems.queue.ImmutableLogStoreConfiguration;
+import com.codeheadsystems.queue.LogStoreConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.module.QueueModule;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LogMessageDaoTest {
+
+  private static final String QUEUE = "queue";
+  private static final String TYPE = "type";
+  private static final String PAYLOAD1 = "payload:1";
+  private static final String PAYLOAD2 = "payload:2";
+  private static final String PAYLOAD3 = "payload:3";
+
+  @TempDir private Path directory;
+  @Mock private Clock clock;
+
+  private LogStoreConfiguration configuration;
+  private LogMessageDao messageDao;
+  private MessageFactory messageFactory;
+
+  @BeforeEach
+  void setup() {
+    configuration = ImmutableLogStoreConfiguration.builder()
+        .directory(directory.toString())
+        .fsyncPolicy(LogStoreConfiguration.FsyncPolicy.NEVER)
+        .build();
+    messageDao = (LogMessageDao) QueueModule.log(configuration).messageDao(Optional.empty(), Optional.empty());
+    messageFactory = new MessageFactory(clock, new MessageTypeDictionary(messageDao));
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    messageDao.stop();
+  }
+
+  @Test
+  void restart_restoresMessages() throws Exception {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message pending = messageFactory.createMessage(TYPE, PAYLOAD1,
+        ImmutableEnqueueOptions.builder().orderingKey("order").timeToLive(Duration.ofSeconds(5)).build());
+    final Message claimed = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message deleted = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(pending, QUEUE, 0, State.PENDING);
+    messageDao.store(claimed, QUEUE, 1, State.PENDING);
+    messageDao.store(deleted, QUEUE, 0, State.PENDING);
+    messageDao.claim(claimed, State.PENDING, State.ACTIVATING);
+    messageDao.updateState(claimed, State.PROCESSING);
+    messageDao.delete(deleted, QUEUE);
+
+    restart();
+
+    assertThat(messageDao.size()).isEqualTo(2);
+    assertThat(messageDao.readByHash(pending.hash(), QUEUE)).contains(pending);
+    assertThat(messageDao.stateOf(claimed, QUEUE)).contains(State.PROCESSING);
+    assertThat(messageDao.readByHash(deleted.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).containsExactly(pending);
+    assertThat(messageDao.messageTypeId(TYPE)).contains(pending.messageTypeId());
+  }
+
+  @Test
+  void restart_restoresSupersedeKeys() throws Exception {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    messageDao.supersede(message1, QUEUE, 0);
+    messageDao.supersede(message2, QUEUE, 0);
+
+    restart();
+
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.supersede(messageFactory.createMessage(TYPE, PAYLOAD3, options), QUEUE, 0))
+        .isEqualTo(1);
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isEmpty();
+  }
+
+  @Test
+  void restart_restoresBulkChanges() throws Exception {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(message1, QUEUE, 5, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+    messageDao.store(message3, "other", 0, State.PENDING);
+    messageDao.rebalanceShards(QUEUE, 4);
+    messageDao.updateInState(List.of(message1.hash()), State.ACTIVATING, State.PENDING);
+    messageDao.deleteInState(List.of(message2.hash()), State.PENDING);
+    messageDao.deleteAll("other");
+
+    restart();
+
+    assertThat(messageDao.size()).isEqualTo(1);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 1, State.PENDING, 0, 10)).containsExactly(message1);
+  }
+
+  @Test
+  void compact_keepsOnlyLiveMessages() throws Exception {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message kept = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message gone = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(kept, QUEUE, 0, State.PENDING);
+    messageDao.store(gone, QUEUE, 0, State.PENDING);
+    messageDao.claim(kept, State.PENDING, State.ACTIVATING);
+    messageDao.delete(gone, QUEUE);
+
+    messageDao.compact();
+    restart();
+
+    assertThat(messageDao.size()).isEqualTo(1);
+    assertThat(messageDao.stateOf(kept, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.insertMessageType("otherType")).isNotEqualTo(kept.messageTypeId());
+  }
+
+  private void restart() throws Exception {
+    messageDao.stop();
+    messageDao = new LogMessageDao(configuration);
+  }
+}
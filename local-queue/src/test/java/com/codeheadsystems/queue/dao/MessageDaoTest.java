@@ -5,17 +5,23 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.Mockito.when;
 
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
 import com.codeheadsystems.queue.module.QueueModule;
 import com.codeheadsystems.queue.util.LiquibaseHelper;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import javax.sql.DataSource;
@@ -32,6 +38,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class MessageDaoTest {
 
+  private static final String QUEUE = "queue";
+  private static final String OTHER_QUEUE = "otherQueue";
   private static final String TYPE = "type";
   private static final String PAYLOAD = "payload:0";
   private static final String PAYLOAD1 = "payload:1";
@@ -45,28 +53,289 @@ class MessageDaoTest {
   private Jdbi jdbi;
   private DataSource dataSource;
   private MessageDao messageDao;
+  private SimpleMeterRegistry meterRegistry;
 
   @Test
   void testRoundTrip() {
     when(clock.instant()).thenReturn(EPOCH);
     final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
-    messageDao.store(message, State.ACTIVATING);
-    final Optional<Message> result = messageDao.readByHash(message.hash());
+    messageDao.store(message, QUEUE, 0, State.ACTIVATING);
+    final Optional<Message> result = messageDao.readByHash(message.hash(), QUEUE);
     assertThat(result)
         .isNotEmpty()
         .contains(message);
-    messageDao.delete(message);
-    assertThat(messageDao.readByHash(message.hash()))
+    assertThat(messageDao.delete(message, QUEUE)).isEqualTo(1);
+    assertThat(messageDao.readByHash(message.hash(), QUEUE))
         .isEmpty();
   }
 
+  @Test
+  void unitOfWork_usesOneHandle() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    final double before = meterRegistry.counter("MessageDao.handles").count();
+
+    final List<Message> claimed = messageDao.unitOfWork(work -> work.forState(QUEUE, State.PENDING).stream()
+        .filter(m -> work.claim(m, State.PENDING, State.ACTIVATING) > 0)
+        .toList());
+
+    assertThat(claimed).containsExactly(message);
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.ACTIVATING);
+    assertThat(meterRegistry.counter("MessageDao.handles").count()).isEqualTo(before + 2); // the unit, then stateOf.
+  }
+
+  @Test
+  void handles_onlyCountsTheDao() {
+    final double before = meterRegistry.counter("MessageDao.handles").count();
+
+    jdbi.useHandle(handle -> handle.createQuery("select count(*) from QUEUE").mapTo(Integer.class).one());
+    assertThat(meterRegistry.counter("MessageDao.handles").count()).isEqualTo(before);
+
+    messageDao.queueNames();
+    assertThat(meterRegistry.counter("MessageDao.handles").count()).isEqualTo(before + 1);
+  }
+
+  @Test
+  void testRoundTrip_orderingKey() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD,
+        ImmutableEnqueueOptions.builder().orderingKey("key").build());
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.readByHash(message.hash(), QUEUE))
+        .isNotEmpty()
+        .contains(message)
+        .hasValueSatisfying(m -> assertThat(m.orderingKey()).contains("key"));
+  }
+
+  @Test
+  void testSupersede() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(110));
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(120));
+    final Message other = messageFactory.createMessage(TYPE, PAYLOAD3,
+        ImmutableEnqueueOptions.builder().supersedeKey("otherKey").build());
+    assertThat(messageDao.supersede(message1, QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.supersede(other, QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.supersededHashes(message2, QUEUE, State.PENDING)).containsExactly(message1.hash());
+    assertThat(messageDao.supersede(message2, QUEUE, 0)).isEqualTo(1);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.forState(QUEUE, State.PENDING)).containsExactly(message2, other);
+  }
+
+  @Test
+  void testSupersede_claimedMessagesAreKept() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    messageDao.supersede(message1, QUEUE, 0);
+    assertThat(messageDao.claim(message1, State.PENDING, State.ACTIVATING)).isEqualTo(1);
+    assertThat(messageDao.supersede(message2, QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.stateOf(message1, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.stateOf(message2, QUEUE)).contains(State.PENDING);
+  }
+
+  @Test
+  void testSupersede_duplicateKeyViolatesIndex() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(EPOCH);
+    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD1, options), QUEUE, 0, State.PENDING);
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD2, options), QUEUE, 0, State.PENDING))
+        .withCauseInstanceOf(SQLIntegrityConstraintViolationException.class);
+  }
+
+  @Test
+  void testMessageTypes() {
+    assertThat(messageDao.messageTypeId(TYPE)).isEmpty();
+    final int id = messageDao.insertMessageType(TYPE);
+    assertThat(messageDao.messageTypeId(TYPE)).contains(id);
+    assertThat(messageDao.insertMessageType("otherType")).isNotEqualTo(id);
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> messageDao.insertMessageType(TYPE));
+  }
+
+  @Test
+  void testStateStoredAsCode() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
+    messageDao.store(message, QUEUE, 0, State.PROCESSING);
+    assertThat(jdbi.withHandle(handle -> handle.createQuery("select STATE from QUEUE where HASH = :hash")
+        .bind("hash", message.hash())
+        .mapTo(Integer.class)
+        .one()))
+        .isEqualTo(State.PROCESSING.code());
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.PROCESSING);
+  }
+
+  @Test
+  void testStatesOf() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message missing = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.PROCESSING);
+    assertThat(messageDao.statesOf(List.of(message1.hash(), message2.hash(), missing.hash()), QUEUE))
+        .hasSize(2)
+        .containsEntry(message1.hash(), State.PENDING)
+        .containsEntry(message2.hash(), State.PROCESSING);
+  }
+
+  @Test
+  void testDelete_batch() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message missing = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.PROCESSING);
+    assertThat(messageDao.delete(List.of(message1, missing, message2), QUEUE)).containsExactly(1, 0, 1);
+    assertThat(messageDao.counts(QUEUE)).isEmpty();
+  }
+
+  @Test
+  void testClaim_onlyFromExpectedState() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.claim(message, State.PENDING, State.ACTIVATING)).isEqualTo(1);
+    assertThat(messageDao.claim(message, State.PENDING, State.ACTIVATING)).isEqualTo(0);
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.ACTIVATING);
+  }
+
+  @Test
+  void testForStateUnexpired() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message expiring = messageFactory.createMessage(TYPE, PAYLOAD1,
+        ImmutableEnqueueOptions.builder().timeToLive(Duration.ofMillis(50)).build());
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(110));
+    final Message forever = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(expiring, QUEUE, 0, State.PENDING);
+    messageDao.store(forever, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.readByHash(expiring.hash(), QUEUE)).contains(expiring);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 149, 10)).containsExactly(expiring, forever);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 150, 10)).containsExactly(forever);
+  }
+
+  @Test
+  void testExpiredAndDeleteInState() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().timeToLive(Duration.ofMillis(50)).build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD3, options);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+    messageDao.store(message3, QUEUE, 0, State.PROCESSING);
+    assertThat(messageDao.expired(QUEUE, State.PENDING, 149, 10)).isEmpty();
+    final Map<Long, Integer> expired = messageDao.expired(QUEUE, State.PENDING, 150, 10);
+    assertThat(expired).containsOnly(Map.entry(message1.hash(), message1.messageTypeId()),
+        Map.entry(message2.hash(), message2.messageTypeId()));
+    assertThat(messageDao.expired(QUEUE, State.PENDING, 150, 1)).hasSize(1);
+    messageDao.updateState(message2, State.ACTIVATING); // claimed in between, so it is kept.
+    assertThat(messageDao.deleteInState(List.copyOf(expired.keySet()), State.PENDING)).isEqualTo(1);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isPresent();
+    assertThat(messageDao.readByHash(message3.hash(), QUEUE)).isPresent();
+  }
+
+  @Test
+  void testDeleteEachInState() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.deleteEachInState(List.of(message1.hash(), message2.hash()), State.PENDING))
+        .containsExactly(1, 0);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isPresent();
+  }
+
+  @Test
+  void testQueuesAreIsolated() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, OTHER_QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.forState(QUEUE, State.PENDING)).containsExactly(message1);
+    assertThat(messageDao.forState(OTHER_QUEUE, State.PENDING)).isEmpty();
+    assertThat(messageDao.counts(OTHER_QUEUE))
+        .containsExactly(stateCount(State.ACTIVATING, 1));
+    messageDao.updateAllToState(OTHER_QUEUE, State.PENDING);
+    assertThat(messageDao.forState(OTHER_QUEUE, State.PENDING)).containsExactly(message2);
+    messageDao.deleteAll(QUEUE);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.readByHash(message2.hash(), OTHER_QUEUE)).isPresent();
+    assertThat(messageDao.readByHash(message2.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.stateOf(message2, QUEUE)).isEmpty();
+    assertThat(messageDao.statesOf(List.of(message2.hash()), QUEUE)).isEmpty();
+    assertThat(messageDao.delete(message2, QUEUE)).isEqualTo(0);
+    assertThat(messageDao.delete(List.of(message2), QUEUE)).containsExactly(0);
+    assertThat(messageDao.stateOf(message2, OTHER_QUEUE)).contains(State.PENDING);
+  }
+
+  @Test
+  void testSupersede_scopedToQueue() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    assertThat(messageDao.supersede(message1, QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.supersede(message2, OTHER_QUEUE, 0)).isEqualTo(0);
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isPresent();
+  }
+
+  @Test
+  void testForStateUnexpired_byShard() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 1, State.PENDING);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, 0, 10)).containsExactly(message1);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 1, State.PENDING, 0, 10)).containsExactly(message2);
+  }
+
+  @Test
+  void testForStateUnexpiredExcluding() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message paused = messageFactory.createMessage("paused", PAYLOAD1);
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(110));
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(paused, QUEUE, 0, State.PENDING);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.forStateUnexpiredExcluding(QUEUE, 0, State.PENDING, 0, List.of(paused.messageTypeId()), 1))
+        .containsExactly(message);
+    assertThat(messageDao.forStateUnexpiredExcluding(QUEUE, 0, State.PENDING, 0, List.of(-1), 10))
+        .containsExactly(paused, message);
+  }
+
+  @Test
+  void testRebalanceShards() {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(message1, QUEUE, 1, State.PENDING);
+    messageDao.store(message2, QUEUE, 6, State.PENDING);
+    assertThat(messageDao.rebalanceShards(QUEUE, 4)).isEqualTo(1);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 1, State.PENDING, 0, 10)).containsExactly(message1);
+    assertThat(messageDao.forStateUnexpired(QUEUE, 2, State.PENDING, 0, 10)).containsExactly(message2);
+  }
+
   @Test
   void testSaveDupsProcess() {
     when(clock.instant()).thenReturn(EPOCH);
     final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
-    messageDao.store(message, State.PENDING);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
     assertThatExceptionOfType(UnableToExecuteStatementException.class)
-        .isThrownBy(() -> messageDao.store(message, State.PENDING))
+        .isThrownBy(() -> messageDao.store(message, QUEUE, 0, State.PENDING))
         .withCauseInstanceOf(SQLIntegrityConstraintViolationException.class);
   }
 
@@ -74,8 +343,8 @@ class MessageDaoTest {
   void testHashLookup() {
     when(clock.instant()).thenReturn(EPOCH);
     final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
-    messageDao.store(message, State.ACTIVATING);
-    assertThat(messageDao.readByHash(message.hash()))
+    messageDao.store(message, QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.readByHash(message.hash(), QUEUE))
         .isNotEmpty()
         .contains(message);
   }
@@ -84,13 +353,13 @@ class MessageDaoTest {
   void testUpdateState() {
     when(clock.instant()).thenReturn(EPOCH);
     final Message message = messageFactory.createMessage(TYPE, PAYLOAD);
-    messageDao.store(message, State.ACTIVATING);
-    assertThat(messageDao.forState(State.ACTIVATING)).containsExactly(message);
-    assertThat(messageDao.stateOf(message)).contains(State.ACTIVATING);
+    messageDao.store(message, QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.forState(QUEUE, State.ACTIVATING)).containsExactly(message);
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.ACTIVATING);
     messageDao.updateState(message, State.PENDING);
-    assertThat(messageDao.stateOf(message)).contains(State.PENDING);
-    assertThat(messageDao.forState(State.PENDING)).containsExactly(message);
-    assertThat(messageDao.forState(State.ACTIVATING)).isEmpty();
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.PENDING);
+    assertThat(messageDao.forState(QUEUE, State.PENDING)).containsExactly(message);
+    assertThat(messageDao.forState(QUEUE, State.ACTIVATING)).isEmpty();
   }
 
   @Test
@@ -99,9 +368,9 @@ class MessageDaoTest {
     final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD);
     when(clock.instant()).thenReturn(Instant.ofEpochMilli(101));
     final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD);
-    messageDao.store(message1, State.ACTIVATING);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
     assertThatExceptionOfType(UnableToExecuteStatementException.class)
-        .isThrownBy(() -> messageDao.store(message2, State.ACTIVATING))
+        .isThrownBy(() -> messageDao.store(message2, QUEUE, 0, State.ACTIVATING))
         .withCauseInstanceOf(SQLIntegrityConstraintViolationException.class);
   }
 
@@ -111,12 +380,12 @@ class MessageDaoTest {
     final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
     when(clock.instant()).thenReturn(Instant.ofEpochMilli(101));
     final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
-    messageDao.store(message1, State.ACTIVATING);
-    messageDao.store(message2, State.ACTIVATING);
-    assertThat(messageDao.forState(State.ACTIVATING)).hasSize(2).containsExactly(message1, message2);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.ACTIVATING);
+    assertThat(messageDao.forState(QUEUE, State.ACTIVATING)).hasSize(2).containsExactly(message1, message2);
 
-    messageDao.deleteAll();
-    assertThat(messageDao.forState(State.ACTIVATING)).isEmpty();
+    messageDao.deleteAll(QUEUE);
+    assertThat(messageDao.forState(QUEUE, State.ACTIVATING)).isEmpty();
   }
 
   @Test
@@ -127,10 +396,10 @@ class MessageDaoTest {
     final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD4);
     when(clock.instant()).thenReturn(Instant.ofEpochMilli(120));
     final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD5);
-    messageDao.store(message1, State.ACTIVATING);
-    messageDao.store(message2, State.PENDING);
-    messageDao.store(message3, State.ACTIVATING);
-    final List<Message> list = messageDao.forState(State.ACTIVATING);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+    messageDao.store(message3, QUEUE, 0, State.ACTIVATING);
+    final List<Message> list = messageDao.forState(QUEUE, State.ACTIVATING);
     assertThat(list)
         .hasSize(2)
         .containsExactly(message1, message3);
@@ -138,7 +407,7 @@ class MessageDaoTest {
 
   @Test
   void testCounts_empty() {
-    final List<StateCount> counts = messageDao.counts();
+    final List<StateCount> counts = messageDao.counts(QUEUE);
     assertThat(counts)
         .hasSize(0);
   }
@@ -146,15 +415,15 @@ class MessageDaoTest {
   @Test
   void testCounts() {
     when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
-    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD3), State.ACTIVATING);
-    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD4), State.PENDING);
-    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD5), State.ACTIVATING);
-    final List<StateCount> counts = messageDao.counts();
+    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD3), QUEUE, 0, State.ACTIVATING);
+    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD4), QUEUE, 0, State.PENDING);
+    messageDao.store(messageFactory.createMessage(TYPE, PAYLOAD5), QUEUE, 0, State.ACTIVATING);
+    final List<StateCount> counts = messageDao.counts(QUEUE);
     assertThat(counts)
         .hasSize(2)
         .containsExactlyInAnyOrder(
-            ImmutableStateCount.builder().state(State.ACTIVATING).count(2).build(),
-            ImmutableStateCount.builder().state(State.PENDING).count(1).build()
+            stateCount(State.ACTIVATING, 2),
+            stateCount(State.PENDING, 1)
         );
   }
 
@@ -166,14 +435,14 @@ class MessageDaoTest {
     final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD4);
     when(clock.instant()).thenReturn(Instant.ofEpochMilli(120));
     final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD5);
-    messageDao.store(message1, State.ACTIVATING);
-    messageDao.store(message2, State.PENDING);
-    messageDao.store(message3, State.ACTIVATING);
-    final List<Message> list = messageDao.forState(State.ACTIVATING, 1);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+    messageDao.store(message3, QUEUE, 0, State.ACTIVATING);
+    final List<Message> list = messageDao.forState(QUEUE, State.ACTIVATING, 1);
     assertThat(list)
         .hasSize(1)
         .containsExactly(message1);
-    final List<Message> list2 = messageDao.forState(State.ACTIVATING, 3);
+    final List<Message> list2 = messageDao.forState(QUEUE, State.ACTIVATING, 3);
     assertThat(list2)
         .hasSize(2)
         .containsExactly(message1, message3);
@@ -187,27 +456,133 @@ class MessageDaoTest {
     final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD4);
     when(clock.instant()).thenReturn(Instant.ofEpochMilli(120));
     final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD5);
-    messageDao.store(message1, State.ACTIVATING);
-    messageDao.store(message2, State.PENDING);
-    messageDao.store(message3, State.ACTIVATING);
-    final List<Message> list = messageDao.forState(State.PENDING, 1);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+    messageDao.store(message3, QUEUE, 0, State.ACTIVATING);
+    final List<Message> list = messageDao.forState(QUEUE, State.PENDING, 1);
     assertThat(list)
         .hasSize(1)
         .containsExactly(message2);
-    messageDao.updateAllToState(State.PENDING);
-    final List<Message> list2 = messageDao.forState(State.PENDING, 3);
+    messageDao.updateAllToState(QUEUE, State.PENDING);
+    final List<Message> list2 = messageDao.forState(QUEUE, State.PENDING, 3);
     assertThat(list2)
         .hasSize(3);
   }
 
+  @Test
+  void testRecoveryChunks() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD3);
+    final Message pending = messageFactory.createMessage(TYPE, PAYLOAD4);
+    messageDao.store(message1, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message2, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(message3, QUEUE, 0, State.ACTIVATING);
+    messageDao.store(pending, QUEUE, 0, State.PENDING);
+    final List<Long> sorted = List.of(message1.hash(), message2.hash(), message3.hash()).stream().sorted().toList();
+
+    final List<Long> first = messageDao.hashesInState(QUEUE, 0, State.ACTIVATING, Long.MIN_VALUE, 2);
+    assertThat(first).containsExactly(sorted.get(0), sorted.get(1));
+    assertThat(messageDao.hashesInState(QUEUE, 0, State.ACTIVATING, first.get(1), 2)).containsExactly(sorted.get(2));
+    assertThat(messageDao.hashesInState(QUEUE, 1, State.ACTIVATING, Long.MIN_VALUE, 2)).isEmpty();
+
+    assertThat(messageDao.updateInState(List.of(message1.hash(), pending.hash()), State.ACTIVATING, State.PENDING))
+        .isEqualTo(1);
+    assertThat(messageDao.stateOf(message1, QUEUE)).contains(State.PENDING);
+    assertThat(messageDao.stateOf(message2, QUEUE)).contains(State.ACTIVATING);
+  }
+
+  @Test
+  void testLeases() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message mine = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message theirs = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message unleased = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(mine, QUEUE, 0, State.PENDING);
+    messageDao.store(theirs, QUEUE, 0, State.PENDING);
+    messageDao.store(unleased, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.claimLeased(mine, State.PENDING, State.ACTIVATING, "me", 100)).isEqualTo(1);
+    assertThat(messageDao.claimLeased(mine, State.PENDING, State.ACTIVATING, "them", 100)).isZero();
+    assertThat(messageDao.claimLeased(theirs, State.PENDING, State.ACTIVATING, "them", 100)).isEqualTo(1);
+    assertThat(messageDao.claim(unleased, State.PENDING, State.ACTIVATING)).isEqualTo(1);
+
+    assertThat(messageDao.renewLeases(QUEUE, "me", 200)).isEqualTo(1);
+    final List<Long> expired = messageDao.expiredLeases(QUEUE, State.ACTIVATING, 150, 10);
+    assertThat(expired).containsExactlyInAnyOrder(theirs.hash(), unleased.hash());
+    assertThat(messageDao.expiredLeases(QUEUE, State.PROCESSING, 150, 10)).isEmpty();
+
+    assertThat(messageDao.reapExpired(List.of(mine.hash(), theirs.hash()), State.ACTIVATING, State.PENDING, 150))
+        .isEqualTo(1);
+    assertThat(messageDao.stateOf(mine, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.stateOf(theirs, QUEUE)).contains(State.PENDING);
+    assertThat(messageDao.stateOf(unleased, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.renewLeases(QUEUE, "them", 300)).isZero(); // the reap dropped their lease.
+    assertThat(messageDao.updateStateOwned(theirs, State.PROCESSING, "them")).isZero();
+    assertThat(messageDao.deleteOwned(theirs, "them")).isZero();
+
+    assertThat(messageDao.updateStateOwned(mine, State.PROCESSING, "them")).isZero();
+    assertThat(messageDao.updateStateOwned(mine, State.PROCESSING, "me")).isEqualTo(1);
+    assertThat(messageDao.stateOf(mine, QUEUE)).contains(State.PROCESSING);
+    assertThat(messageDao.deleteOwned(mine, "them")).isZero();
+    assertThat(messageDao.deleteOwned(mine, "me")).isEqualTo(1);
+    assertThat(messageDao.stateOf(mine, QUEUE)).isEmpty();
+  }
+
+  @Test
+  void testReleaseOwned() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD1);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageDao.claimLeased(message, State.PENDING, State.ACTIVATING, "me", 100)).isEqualTo(1);
+    assertThat(messageDao.reapExpired(List.of(message.hash()), State.ACTIVATING, State.PENDING, 150)).isEqualTo(1);
+    assertThat(messageDao.claimLeased(message, State.PENDING, State.ACTIVATING, "them", 300)).isEqualTo(1);
+
+    assertThat(messageDao.releaseOwned(message, State.ACTIVATING, State.PENDING, "me")).isZero();
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.ACTIVATING);
+    assertThat(messageDao.releaseOwned(message, State.ACTIVATING, State.PENDING, "them")).isEqualTo(1);
+    assertThat(messageDao.stateOf(message, QUEUE)).contains(State.PENDING);
+    assertThat(messageDao.renewLeases(QUEUE, "them", 400)).isZero();
+  }
+
+  @Test
+  void testCheckpointAndLoad() {
+    when(clock.instant()).thenReturn(EPOCH);
+    final Message message1 = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message message2 = messageFactory.createMessage(TYPE, PAYLOAD2);
+    final Message message3 = messageFactory.createMessage(TYPE, PAYLOAD3);
+    messageDao.store(message1, QUEUE, 0, State.PENDING);
+    messageDao.store(message2, QUEUE, 0, State.PENDING);
+
+    messageDao.checkpoint(List.of(message1, message2), List.of(message2, message3),
+        List.of(QUEUE, OTHER_QUEUE), List.of(0, 3), List.of(State.PROCESSING, State.PENDING));
+
+    assertThat(messageDao.readByHash(message1.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.queueNames()).containsExactlyInAnyOrder(QUEUE, OTHER_QUEUE);
+    assertThat(messageDao.shards(OTHER_QUEUE)).containsExactly(3);
+    assertThat(messageDao.forShard(QUEUE, 0, State.PROCESSING)).containsExactly(message2);
+    assertThat(messageDao.forShard(OTHER_QUEUE, 3, State.PENDING)).containsExactly(message3);
+    assertThat(messageDao.forShard(OTHER_QUEUE, 0, State.PENDING)).isEmpty();
+  }
+
+  private StateCount stateCount(final State state, final long count) {
+    return ImmutableStateCount.builder()
+        .messageType(TYPE)
+        .messageTypeId(messageDao.messageTypeId(TYPE).orElseThrow())
+        .state(state)
+        .count(count)
+        .build();
+  }
+
   @BeforeEach
   void setup() throws SQLException {
-    messageFactory = new MessageFactory(clock);
     dataSource = dataSource();
     new LiquibaseHelper().runLiquibase(dataSource, "liquibase/queue.xml");
     jdbi = Jdbi.create(dataSource);
     jdbi.installPlugin(new SqlObjectPlugin());
-    messageDao = new QueueModule().messageDao(jdbi);
+    meterRegistry = new SimpleMeterRegistry();
+    messageDao = new QueueModule().messageDao(Optional.of(jdbi), Optional.of(meterRegistry));
+    messageFactory = new MessageFactory(clock, new MessageTypeDictionary(messageDao));
   }
 
   @AfterEach
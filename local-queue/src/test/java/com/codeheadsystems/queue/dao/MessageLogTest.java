@@ -0,0 +1,172 @@
+package com.codeheadsystems.queue.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codeheadsystems.queue.LogStoreConfiguration.FsyncPolicy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageLogTest {
+
+  @TempDir private Path directory;
+
+  @Test
+  void replay_roundTrip() {
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).isEmpty();
+      log.append(record("one"));
+      log.append(record("two"));
+      assertThat(log.bytesSinceSnapshot()).isEqualTo(2 * (8 + 3));
+    }
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).containsExactly("one", "two");
+    }
+  }
+
+  @Test
+  void append_rollsSegments() throws IOException {
+    try (MessageLog log = open(16)) {
+      replay(log);
+      log.append(record("one"));
+      log.append(record("two"));
+      log.append(record("three"));
+    }
+    assertThat(files()).hasSize(2);
+    try (MessageLog log = open(16)) {
+      assertThat(replay(log)).containsExactly("one", "two", "three");
+    }
+  }
+
+  @Test
+  void replay_dropsTornRecord() throws IOException {
+    try (MessageLog log = open(1024)) {
+      replay(log);
+      log.append(record("one"));
+      log.append(record("two"));
+    }
+    final Path segment = files().get(0);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).containsExactly("one");
+      log.append(record("three"));
+    }
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).containsExactly("one", "three");
+    }
+  }
+
+  @Test
+  void replay_failsOnCorruptRecordBeforeTheLastSegment() throws IOException {
+    try (MessageLog log = open(16)) {
+      replay(log);
+      log.append(record("one"));
+      log.append(record("two"));
+      log.append(record("three"));
+    }
+    final Path segment = files().get(0);
+    final long size = Files.size(segment);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(record("x"), 8);
+    }
+    try (MessageLog log = open(16)) {
+      assertThatThrownBy(() -> replay(log))
+          .isInstanceOf(IllegalStateException.class)
+          .hasMessageContaining(segment.getFileName().toString());
+    }
+    assertThat(Files.size(segment)).isEqualTo(size);
+  }
+
+  @Test
+  void snapshot_appendsCarryOnWhileWriting() throws IOException {
+    try (MessageLog log = open(1024)) {
+      replay(log);
+      log.append(record("one"));
+      final long number = log.startSnapshot();
+      log.append(record("after"));
+      log.writeSnapshot(number, sink -> sink.accept(record("state")));
+      assertThat(log.bytesSinceSnapshot()).isEqualTo(8 + 5);
+    }
+    assertThat(files()).extracting(file -> file.getFileName().toString())
+        .noneMatch(name -> name.startsWith("00000000000000000000."));
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).containsExactly("state", "after");
+    }
+  }
+
+  @Test
+  void snapshot_replacesOlderSegments() throws IOException {
+    try (MessageLog log = open(16)) {
+      replay(log);
+      log.append(record("one"));
+      log.append(record("two"));
+      log.snapshot(sink -> sink.accept(record("state")));
+      assertThat(log.bytesSinceSnapshot()).isZero();
+      log.append(record("after"));
+    }
+    assertThat(files()).extracting(file -> file.getFileName().toString())
+        .anyMatch(name -> name.endsWith(".snapshot"))
+        .noneMatch(name -> name.endsWith(".tmp"));
+    try (MessageLog log = open(16)) {
+      assertThat(replay(log)).containsExactly("state", "after");
+    }
+  }
+
+  @Test
+  void replay_ignoresUnfinishedSnapshot() throws IOException {
+    try (MessageLog log = open(1024)) {
+      replay(log);
+      log.append(record("one"));
+    }
+    Files.writeString(directory.resolve("00000000000000000009.snapshot.tmp"), "partial");
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).containsExactly("one");
+    }
+    assertThat(files()).extracting(file -> file.getFileName().toString())
+        .noneMatch(name -> name.endsWith(".tmp"));
+  }
+
+  @Test
+  void force_always() {
+    try (MessageLog log = new MessageLog(directory, 1024, FsyncPolicy.ALWAYS)) {
+      replay(log);
+      log.append(record("one"));
+      log.force();
+    }
+    try (MessageLog log = open(1024)) {
+      assertThat(replay(log)).containsExactly("one");
+    }
+  }
+
+  private MessageLog open(final long segmentBytes) {
+    return new MessageLog(directory, segmentBytes, FsyncPolicy.NEVER);
+  }
+
+  private List<String> replay(final MessageLog log) {
+    final List<String> records = new ArrayList<>();
+    log.replay(record -> records.add(StandardCharsets.UTF_8.decode(record).toString()));
+    return records;
+  }
+
+  private ByteBuffer record(final String value) {
+    return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> stream = Files.list(directory)) {
+      return stream.sorted().toList();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.codeheadsystems.queue.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.queue.module.QueueModule;
+import com.codeheadsystems.queue.util.LiquibaseHelper;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QueueSettingsDaoTest {
+
+  private static final String QUEUE = "queue";
+  private static final String OTHER_QUEUE = "otherQueue";
+
+  private DataSource dataSource;
+  private QueueSettingsDao dao;
+
+  @Test
+  void testSetAndRemove() {
+    assertThat(dao.version(QUEUE)).isZero();
+    assertThat(dao.overrides(QUEUE)).isEmpty();
+
+    dao.set(QUEUE, "threads", "4");
+    dao.set(QUEUE, "batchSize", "10");
+    assertThat(dao.version(QUEUE)).isEqualTo(2);
+    assertThat(dao.overrides(QUEUE)).containsOnly(Map.entry("threads", "4"), Map.entry("batchSize", "10"));
+
+    dao.set(QUEUE, "threads", "8");
+    assertThat(dao.version(QUEUE)).isEqualTo(3);
+    assertThat(dao.overrides(QUEUE)).containsEntry("threads", "8");
+
+    dao.remove(QUEUE, "threads");
+    assertThat(dao.version(QUEUE)).isEqualTo(4);
+    assertThat(dao.overrides(QUEUE)).containsOnly(Map.entry("batchSize", "10"));
+  }
+
+  @Test
+  void testQueuesAreIsolated() {
+    dao.set(QUEUE, "threads", "4");
+    assertThat(dao.version(OTHER_QUEUE)).isZero();
+    assertThat(dao.overrides(OTHER_QUEUE)).isEmpty();
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    dataSource = dataSource();
+    new LiquibaseHelper().runLiquibase(dataSource, "liquibase/queue.xml");
+    final Jdbi jdbi = Jdbi.create(dataSource);
+    jdbi.installPlugin(new SqlObjectPlugin());
+    dao = new QueueModule().queueSettingsDao(Optional.of(jdbi)).orElseThrow();
+  }
+
+  @AfterEach
+  void shutdownSQLEngine() {
+    Jdbi.create(dataSource).withHandle(handle -> handle.execute("shutdown;"));
+  }
+
+  private DataSource dataSource() {
+    final String url = "jdbc:hsqldb:mem:" + getClass().getSimpleName() + ":" + UUID.randomUUID();
+    final ComboPooledDataSource cpds = new ComboPooledDataSource();
+    cpds.setJdbcUrl(url);
+    cpds.setUser("SA");
+    cpds.setPassword("");
+    cpds.setMinPoolSize(0);
+    cpds.setAcquireIncrement(10);
+    cpds.setMaxPoolSize(40);
+    cpds.setMaxIdleTime(300);
+    return cpds;
+  }
+
+}
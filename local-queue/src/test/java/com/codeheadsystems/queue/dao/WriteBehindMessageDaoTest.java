@@ -0,0 +1,176 @@
+package com.codeheadsystems.queue.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
+import com.codeheadsystems.queue.ImmutableWriteBehindConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.WriteBehindConfiguration;
+import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import com.codeheadsystems.queue.module.QueueModule;
+import com.codeheadsystems.queue.util.LiquibaseHelper;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindMessageDaoTest {
+
+  private static final String QUEUE = "queue";
+  private static final String TYPE = "type";
+  private static final String PAYLOAD1 = "payload:1";
+  private static final String PAYLOAD2 = "payload:2";
+  private static final String PAYLOAD3 = "payload:3";
+
+  @Mock private Clock clock;
+
+  private DataSource dataSource;
+  private MessageDao database;
+  private WriteBehindMessageDao messageDao;
+  private MessageFactory messageFactory;
+
+  @BeforeEach
+  void setup() {
+    dataSource = dataSource();
+    new LiquibaseHelper().runLiquibase(dataSource, "liquibase/queue.xml");
+    final Jdbi jdbi = Jdbi.create(dataSource);
+    jdbi.installPlugin(new SqlObjectPlugin());
+    database = MessageDao.instance(jdbi);
+    messageDao = (WriteBehindMessageDao) QueueModule.writeBehind(configuration(1000, 500))
+        .messageDao(Optional.of(jdbi), Optional.empty());
+    messageFactory = new MessageFactory(clock, new MessageTypeDictionary(messageDao));
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(100));
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    messageDao.stop();
+    Jdbi.create(dataSource).withHandle(handle -> handle.execute("shutdown;"));
+  }
+
+  @Test
+  void checkpoint_skipsMessagesClearedBeforeIt() {
+    final Message kept = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message cleared = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(kept, QUEUE, 0, State.PENDING);
+    messageDao.store(cleared, QUEUE, 0, State.PENDING);
+    messageDao.claim(cleared, State.PENDING, State.ACTIVATING);
+    messageDao.delete(cleared, QUEUE);
+
+    assertThat(database.readByHash(kept.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.pending()).isEqualTo(2);
+    assertThat(messageDao.checkpoint()).isEqualTo(1);
+    assertThat(messageDao.pending()).isZero();
+    assertThat(database.readByHash(kept.hash(), QUEUE)).contains(kept);
+    assertThat(database.readByHash(cleared.hash(), QUEUE)).isEmpty();
+    assertThat(messageDao.checkpoint()).isZero();
+  }
+
+  @Test
+  void checkpoint_writesChanges() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    messageDao.checkpoint();
+
+    messageDao.claim(message, State.PENDING, State.ACTIVATING);
+    assertThat(messageDao.checkpoint()).isEqualTo(1);
+    assertThat(database.stateOf(message, QUEUE)).contains(State.ACTIVATING);
+    assertThat(database.readByHash(message.hash(), QUEUE))
+        .hasValueSatisfying(m -> assertThat(m.supersedeKey()).isEmpty());
+
+    messageDao.delete(message, QUEUE);
+    assertThat(messageDao.checkpoint()).isEqualTo(1);
+    assertThat(database.readByHash(message.hash(), QUEUE)).isEmpty();
+  }
+
+  @Test
+  void checkpoint_retriesBatchesThatWaitOnOthers() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    messageDao = new WriteBehindMessageDao(database, configuration(1000, 1));
+    final Message claimed = messageFactory.createMessage(TYPE, PAYLOAD1, options);
+    final Message replacement = messageFactory.createMessage(TYPE, PAYLOAD2, options);
+    messageDao.store(claimed, QUEUE, 0, State.PENDING);
+    messageDao.checkpoint();
+    messageDao.claim(claimed, State.PENDING, State.ACTIVATING);
+    messageDao.store(replacement, QUEUE, 0, State.PENDING);
+
+    try {
+      messageDao.checkpoint(); // fails if the replacement is written before the claim frees the key.
+    } catch (RuntimeException e) {
+      assertThat(messageDao.pending()).isEqualTo(1);
+      messageDao.checkpoint();
+    }
+
+    assertThat(database.stateOf(claimed, QUEUE)).contains(State.ACTIVATING);
+    assertThat(database.stateOf(replacement, QUEUE)).contains(State.PENDING);
+  }
+
+  @Test
+  void restart_loadsFromTheDatabase() throws Exception {
+    final Message pending = messageFactory.createMessage(TYPE, PAYLOAD1);
+    final Message processing = messageFactory.createMessage(TYPE, PAYLOAD2);
+    messageDao.store(pending, QUEUE, 2, State.PENDING);
+    messageDao.store(processing, QUEUE, 0, State.PENDING);
+    messageDao.claim(processing, State.PENDING, State.PROCESSING);
+    messageDao.stop();
+
+    messageDao = new WriteBehindMessageDao(database, configuration(1000, 500));
+
+    assertThat(messageDao.size()).isEqualTo(2);
+    assertThat(messageDao.pending()).isZero();
+    assertThat(messageDao.messageTypeId(TYPE)).isEqualTo(database.messageTypeId(TYPE));
+    assertThat(messageDao.forStateUnexpired(QUEUE, 2, State.PENDING, 0, 10)).containsExactly(pending);
+    assertThat(messageDao.stateOf(processing, QUEUE)).contains(State.PROCESSING);
+  }
+
+  @Test
+  void writeThrough() {
+    messageDao = new WriteBehindMessageDao(database, configuration(0, 500));
+    final Message message = messageFactory.createMessage(TYPE, PAYLOAD3);
+
+    messageDao.store(message, QUEUE, 0, State.PENDING);
+    assertThat(database.stateOf(message, QUEUE)).contains(State.PENDING);
+    messageDao.updateState(message, State.PROCESSING);
+    assertThat(database.stateOf(message, QUEUE)).contains(State.PROCESSING);
+    messageDao.deleteAll(QUEUE);
+    assertThat(database.stateOf(message, QUEUE)).isEmpty();
+    assertThat(messageDao.pending()).isZero();
+  }
+
+  private WriteBehindConfiguration configuration(final long interval, final int batchSize) {
+    return ImmutableWriteBehindConfiguration.builder()
+        .checkpointIntervalMillis(interval)
+        .checkpointBatchSize(batchSize)
+        .build();
+  }
+
+  private DataSource dataSource() {
+    final String url = "jdbc:hsqldb:mem:" + getClass().getSimpleName() + ":" + UUID.randomUUID();
+    final ComboPooledDataSource cpds = new ComboPooledDataSource();
+    cpds.setJdbcUrl(url);
+    cpds.setUser("SA");
+    cpds.setPassword("");
+    cpds.setMinPoolSize(0);
+    cpds.setAcquireIncrement(10);
+    cpds.setMaxPoolSize(40);
+    cpds.setMaxIdleTime(300);
+    return cpds;
+  }
+
+}
@@ -3,7 +3,9 @@ package com.codeheadsystems.queue.factory;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
 
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
 import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
 import java.time.Clock;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,27 +16,54 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class MessageFactoryTest {
 
+  private static final int TYPE_ID = 7;
+
   @Mock private Clock clock;
+  @Mock private MessageTypeDictionary messageTypeDictionary;
   private MessageFactory messageFactory;
 
   @BeforeEach
   void setup() {
-    messageFactory = new MessageFactory(clock);
+    messageFactory = new MessageFactory(clock, messageTypeDictionary);
   }
 
   @Test
   void testCreateMessage() {
     when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("type")).thenReturn(TYPE_ID);
     Message message = messageFactory.createMessage("type", "payload");
     assertThat(message).isNotNull();
     assertThat(message.timestamp()).isEqualTo(java.time.Instant.EPOCH.toEpochMilli());
     assertThat(message.messageType()).isEqualTo("type");
+    assertThat(message.messageTypeId()).isEqualTo(TYPE_ID);
     assertThat(message.payload()).isEqualTo("payload");
+    assertThat(message.orderingKey()).isEmpty();
+    assertThat(message.expiresAt()).isEmpty();
+  }
+
+  @Test
+  void testCreateMessage_timeToLive() {
+    when(clock.instant()).thenReturn(java.time.Instant.ofEpochMilli(1000));
+    when(messageTypeDictionary.idOf("type")).thenReturn(TYPE_ID);
+    Message message = messageFactory.createMessage("type", "payload",
+        ImmutableEnqueueOptions.builder().timeToLive(java.time.Duration.ofSeconds(2)).build());
+    assertThat(message.expiresAt()).contains(3000L);
+  }
+
+  @Test
+  void testCreateMessage_orderingKey() {
+    when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("type")).thenReturn(TYPE_ID);
+    Message message = messageFactory.createMessage("type", "payload",
+        ImmutableEnqueueOptions.builder().orderingKey("key").build());
+    assertThat(message.orderingKey()).contains("key");
+    assertThat(message.hash()).isEqualTo(messageFactory.createMessage("type", "payload").hash());
   }
 
   @Test
   void testHashChanges() {
     when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("type")).thenReturn(TYPE_ID);
     Message message1 = messageFactory.createMessage("type", "payload1");
     Message message2 = messageFactory.createMessage("type", "payload2");
     assertThat(message1.hash()).isNotEqualTo(message2.hash());
@@ -43,6 +72,7 @@ class MessageFactoryTest {
   @Test
   void testHashSameForTwoMessages() {
     when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("type")).thenReturn(TYPE_ID);
     Message message1 = messageFactory.createMessage("type", "payload");
     Message message2 = messageFactory.createMessage("type", "payload");
     assertThat(message1.hash()).isEqualTo(message2.hash());
@@ -51,9 +81,30 @@ class MessageFactoryTest {
   @Test
   void testHashDifferentForTwoMessageTypes() {
     when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("type1")).thenReturn(1);
+    when(messageTypeDictionary.idOf("type2")).thenReturn(2);
     Message message1 = messageFactory.createMessage("type1", "payload");
     Message message2 = messageFactory.createMessage("type2", "payload");
     assertThat(message1.hash()).isNotEqualTo(message2.hash());
   }
 
-}
\ No newline at end of file
+  @Test
+  void testHashDifferentForQueueAndTypeThatSpellTheSameKey() {
+    when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("a:b")).thenReturn(1);
+    when(messageTypeDictionary.idOf("b")).thenReturn(2);
+    Message message1 = new MessageFactory(clock, messageTypeDictionary, "").createMessage("a:b", "payload");
+    Message message2 = new MessageFactory(clock, messageTypeDictionary, "a:").createMessage("b", "payload");
+    assertThat(message1.hash()).isNotEqualTo(message2.hash());
+  }
+
+  @Test
+  void testHashDifferentForTwoQueues() {
+    when(clock.instant()).thenReturn(java.time.Instant.EPOCH);
+    when(messageTypeDictionary.idOf("type")).thenReturn(TYPE_ID);
+    Message message1 = messageFactory.createMessage("type", "payload");
+    Message message2 = new MessageFactory(clock, messageTypeDictionary, "other").createMessage("type", "payload");
+    assertThat(message1.hash()).isNotEqualTo(message2.hash());
+  }
+
+}
@@ -0,0 +1,155 @@
+package com.codeheadsystems.queue.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.CompletionHandle;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.dao.InMemoryMessageDao;
+import com.codeheadsystems.queue.dao.MessageDao;
+import com.codeheadsystems.queue.impl.NamedQueue;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class NamedQueueFactoryTest extends BaseMetricTest {
+
+  private static final String NAME = "bulk";
+  private static final String TYPE = "type";
+
+  @Mock private MessageDao messageDao;
+  @Mock private MessageTypeDictionary messageTypeDictionary;
+  @Mock private Clock clock;
+  @Mock private MessageConsumer consumer;
+
+  private NamedQueueFactory factory;
+
+  @BeforeEach
+  void setup() {
+    factory = new NamedQueueFactory(messageDao, messageTypeDictionary, new QueueConfigurationFactory(Optional.empty()), clock,
+        metricsFactory, Optional.of(new SimpleMeterRegistry()));
+  }
+
+  @Test
+  void create() {
+    final NamedQueue namedQueue = factory.create(configuration(NAME), Map.of(TYPE, consumer));
+
+    assertThat(namedQueue.name()).isEqualTo(NAME);
+    assertThat(namedQueue.queueRegister().getConsumer(TYPE)).contains(consumer);
+    assertThat(factory.get(NAME)).contains(namedQueue);
+    assertThat(factory.names()).containsExactly(NAME);
+  }
+
+  @Test
+  void create_duplicateName() {
+    factory.create(configuration(NAME), Map.of());
+
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> factory.create(configuration(NAME), Map.of()));
+  }
+
+  @Test
+  void create_defaultName() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> factory.create(configuration(QueueConfiguration.DEFAULT_QUEUE_NAME), Map.of()));
+  }
+
+  @Test
+  void enqueue_scopedToQueue() {
+    when(clock.instant()).thenReturn(Instant.EPOCH);
+    final NamedQueue namedQueue = factory.create(configuration(NAME), Map.of());
+
+    assertThat(namedQueue.queue().enqueue(TYPE, "payload")).isPresent();
+
+    verify(messageDao).store(any(), eq(NAME), anyInt(), eq(State.PENDING));
+  }
+
+  @Test
+  void startAndStop() throws Exception {
+    factory.create(configuration(NAME), Map.of());
+
+    factory.start();
+    verify(messageDao, timeout(5000)).hashesInState(NAME, 0, State.PROCESSING, Long.MIN_VALUE, 1000);
+    factory.stop();
+  }
+
+  @Test
+  void orderingKey_runsInOrderAcrossShards() throws Exception {
+    final InMemoryMessageDao dao = new InMemoryMessageDao();
+    final NamedQueueFactory realFactory = new NamedQueueFactory(dao, new MessageTypeDictionary(dao),
+        new QueueConfigurationFactory(Optional.empty()), tickingClock(), metricsFactory,
+        Optional.of(new SimpleMeterRegistry()));
+    final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+    final NamedQueue namedQueue = realFactory.create(
+        ImmutableQueueConfiguration.builder().from(configuration(NAME))
+            .shardCount(4).queueProcessorInitialDelay(0).queueProcessorInterval(1).build(),
+        Map.of(TYPE, message -> ran.add(message.payload())));
+    final List<String> payloads = IntStream.range(0, 12).mapToObj(i -> "payload-" + i).toList();
+    CompletionHandle last = null;
+    for (String payload : payloads) {
+      last = namedQueue.queue()
+          .enqueueForCompletion(TYPE, payload, ImmutableEnqueueOptions.builder().orderingKey("key").build())
+          .orElseThrow();
+    }
+
+    realFactory.start();
+    try {
+      last.completion().get(10, TimeUnit.SECONDS);
+      assertThat(ran).containsExactlyElementsOf(payloads);
+    } finally {
+      realFactory.stop();
+    }
+  }
+
+  private Clock tickingClock() {
+    final AtomicLong millis = new AtomicLong();
+    return new Clock() {
+      @Override
+      public ZoneId getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(final ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return Instant.ofEpochMilli(millis.incrementAndGet());
+      }
+    };
+  }
+
+  private QueueConfiguration configuration(final String name) {
+    return ImmutableQueueConfiguration.builder().queueName(name).build();
+  }
+}
@@ -0,0 +1,87 @@
+package com.codeheadsystems.queue.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.Message;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CompletionRegistryTest {
+
+  @Mock private Message message;
+  @Mock private Message otherMessage;
+
+  private CompletionRegistry registry;
+
+  @BeforeEach
+  void setup() {
+    registry = new CompletionRegistry();
+  }
+
+  @Test
+  void register_sharedPerMessage() {
+    when(message.hash()).thenReturn(1L);
+    assertThat(registry.register(message)).isSameAs(registry.register(message));
+    assertThat(registry.size()).isEqualTo(1);
+  }
+
+  @Test
+  void complete() {
+    when(message.hash()).thenReturn(1L);
+    final CompletableFuture<Message> completion = registry.register(message);
+    registry.complete(message);
+    assertThat(completion).isCompletedWithValue(message);
+    assertThat(registry.size()).isZero();
+  }
+
+  @Test
+  void complete_nobodyWaiting() {
+    when(message.hash()).thenReturn(1L);
+    registry.complete(message);
+    assertThat(registry.size()).isZero();
+  }
+
+  @Test
+  void completeExceptionally() {
+    when(message.hash()).thenReturn(1L);
+    final CompletableFuture<Message> completion = registry.register(message);
+    registry.completeExceptionally(message, new IllegalStateException());
+    assertThat(completion).isCompletedExceptionally();
+  }
+
+  @Test
+  void cancel_byHash() {
+    when(message.hash()).thenReturn(1L);
+    when(otherMessage.hash()).thenReturn(2L);
+    final CompletableFuture<Message> completion = registry.register(message);
+    final CompletableFuture<Message> otherCompletion = registry.register(otherMessage);
+
+    registry.cancel(List.of(1L, 3L));
+
+    assertThat(completion).isCancelled();
+    assertThat(otherCompletion).isNotDone();
+    assertThat(registry.size()).isEqualTo(1);
+  }
+
+  @Test
+  void cancelIf() {
+    when(message.hash()).thenReturn(1L);
+    when(otherMessage.hash()).thenReturn(2L);
+    final CompletableFuture<Message> completion = registry.register(message);
+    final CompletableFuture<Message> otherCompletion = registry.register(otherMessage);
+
+    assertThat(registry.cancelIf(m -> m == message)).isEqualTo(1);
+
+    assertThat(completion).isCancelled();
+    assertThat(otherCompletion).isNotDone();
+    registry.cancelAll();
+    assertThat(otherCompletion).isCancelled();
+  }
+}
@@ -0,0 +1,111 @@
+package com.codeheadsystems.queue.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ExpirySweeperTest extends BaseMetricTest {
+
+  private static final String QUEUE = "queue";
+
+  @Mock private MessageManager messageManager;
+  @Mock private QueueConfiguration queueConfiguration;
+  @Mock private ScheduledExecutorService scheduledExecutorService;
+  @Mock private ScheduledFuture scheduler;
+
+  @Mock private Message message;
+  @Mock private Message otherMessage;
+
+  private CompletionRegistry completionRegistry;
+  private ExpirySweeper sweeper;
+
+  @BeforeEach
+  void setup() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    completionRegistry = new CompletionRegistry();
+    sweeper = new ExpirySweeper(messageManager, new QueueConfigurationFactory(Optional.of(queueConfiguration)),
+        scheduledExecutorService, completionRegistry, metricsFactory);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testStart() {
+    when(queueConfiguration.expirySweepIntervalSeconds()).thenReturn(60);
+    when(scheduledExecutorService.scheduleWithFixedDelay(any(), eq(60L), eq(60L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+
+    sweeper.start();
+    sweeper.start();
+
+    verify(scheduledExecutorService, times(1))
+        .scheduleWithFixedDelay(any(), eq(60L), eq(60L), eq(TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testSweep_chunksUntilShort() {
+    when(queueConfiguration.expirySweepBatchSize()).thenReturn(10);
+    when(messageManager.expire(10)).thenReturn(hashes(0, 10), hashes(10, 10), hashes(20, 3));
+
+    assertThat(sweeper.sweep()).isEqualTo(23);
+
+    verify(messageManager, times(3)).expire(10);
+  }
+
+  @Test
+  void testSweep_nothingToExpire() {
+    when(queueConfiguration.expirySweepBatchSize()).thenReturn(10);
+    when(messageManager.expire(10)).thenReturn(List.of());
+
+    assertThat(sweeper.sweep()).isEqualTo(0);
+  }
+
+  @Test
+  void testSweep_cancelsWaitersOfExpiredMessages() {
+    when(message.hash()).thenReturn(1L);
+    when(otherMessage.hash()).thenReturn(2L);
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+    final CompletableFuture<Message> finished = completionRegistry.register(otherMessage); // gone, but not expired
+    when(queueConfiguration.expirySweepBatchSize()).thenReturn(10);
+    when(messageManager.expire(10)).thenReturn(List.of(1L));
+
+    assertThat(sweeper.sweep()).isEqualTo(1);
+    assertThat(completion).isCancelled();
+    assertThat(finished).isNotDone();
+    verify(messageManager, never()).getState(otherMessage);
+  }
+
+  @Test
+  void testSweep_failureDoesNotThrow() {
+    when(queueConfiguration.expirySweepBatchSize()).thenReturn(10);
+    when(messageManager.expire(10)).thenReturn(hashes(0, 10)).thenThrow(new IllegalStateException("db down"));
+
+    assertThat(sweeper.sweep()).isEqualTo(10);
+  }
+
+  private List<Long> hashes(final long from, final int count) {
+    return LongStream.range(from, from + count).boxed().toList();
+  }
+}
@@ -0,0 +1,338 @@
+package com.codeheadsystems.queue.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.LifecycleTimers;
+import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MessageConsumerExecutorTest extends BaseMetricTest {
+
+  private static final String QUEUE = "queue";
+  private static final String TYPE = "type";
+  private static final int TYPE_ID = 1;
+  private static final String KEY = "key";
+
+  @Mock private MessageManager messageManager;
+  @Mock private QueueRegister queueRegister;
+  @Mock private VisibilityReaper visibilityReaper;
+
+  private SimpleMeterRegistry meterRegistry;
+  private CompletionRegistry completionRegistry;
+  private MessageConsumerExecutor executor;
+
+  @BeforeEach
+  void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    completionRegistry = new CompletionRegistry();
+    final QueueConfigurationFactory queueConfigurationFactory =
+        new QueueConfigurationFactory(Optional.of(ImmutableQueueConfiguration.builder().build()));
+    executor = new MessageConsumerExecutor(queueConfigurationFactory, messageManager, queueRegister,
+        completionRegistry, new VisibilityReaper(messageManager, queueConfigurationFactory, Clock.systemUTC(),
+        metricsFactory), lifecycleTimers(), new MessageTypeTimers(QUEUE, meterRegistry));
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    executor.stop();
+  }
+
+  @Test
+  void enqueue_noConsumer() {
+    final Message message = message("payload", null);
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.empty());
+
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+
+    executor.enqueue(message);
+
+    verify(messageManager).clearClaimed(message, State.ACTIVATING);
+    assertThat(completion).isCompletedExceptionally();
+  }
+
+  @Test
+  void enqueue_clearsAfterConsumerFails() {
+    final Message message = message("payload", null);
+    final MessageConsumer consumer = m -> {
+      throw new IllegalStateException("boom");
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+
+    executor.enqueue(message);
+
+    verify(messageManager, timeout(5000)).clearClaimed(message, State.PROCESSING);
+    assertThatExceptionOfType(ExecutionException.class)
+        .isThrownBy(() -> completion.get(5, TimeUnit.SECONDS))
+        .withCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void enqueue_completesWhenConsumerFinishes() throws Exception {
+    final Message message = message("payload", null);
+    final MessageConsumer consumer = m -> {
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+
+    executor.enqueue(message);
+
+    assertThat(completion.get(5, TimeUnit.SECONDS)).isEqualTo(message);
+    verify(messageManager).clearClaimed(message, State.PROCESSING);
+    assertThat(meterRegistry.get("LifecycleTimers.queueWait").tag("messageType", TYPE).timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("LifecycleTimers.handOffWait").tag("messageType", TYPE).timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("LifecycleTimers.execution").tag("messageType", TYPE).timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("LifecycleTimers.endToEnd").tag("messageType", TYPE).timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("MessageConsumerExecutor.enqueue").tag("messageType", TYPE).timer().count())
+        .isEqualTo(1);
+    assertThat(meterRegistry.get("MessageConsumerExecutor.execute").tag("messageType", TYPE).timer().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void enqueue_ranPastVisibilityTimeout() throws Exception {
+    final Message message = message("payload", null);
+    final MessageConsumer consumer = m -> {
+    };
+    final VisibilityReaper.Claim claim = new VisibilityReaper.Claim(message, 0L);
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    when(visibilityReaper.claimed(message)).thenReturn(claim);
+    when(visibilityReaper.isClaimed(claim)).thenReturn(true);
+    when(visibilityReaper.finished(claim)).thenReturn(false);
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+    executor.stop();
+    executor = reapingExecutor();
+
+    executor.enqueue(message);
+
+    verify(visibilityReaper, timeout(5000)).finished(claim);
+    verify(messageManager).setProcessing(message);
+    verify(messageManager, never()).clearClaimed(message, State.PROCESSING);
+    assertThat(completion).isNotDone();
+  }
+
+  @Test
+  void enqueue_waitedPastVisibilityTimeout() throws Exception {
+    final Message message = message("payload", null);
+    final MessageConsumer consumer = m -> {
+    };
+    final VisibilityReaper.Claim claim = new VisibilityReaper.Claim(message, 0L);
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    when(visibilityReaper.claimed(message)).thenReturn(claim);
+    when(visibilityReaper.isClaimed(claim)).thenReturn(false);
+    executor.stop();
+    executor = reapingExecutor();
+
+    executor.enqueue(message);
+
+    verify(visibilityReaper, timeout(5000)).isClaimed(claim);
+    executor.stop();
+    verify(messageManager, never()).setProcessing(message);
+    verify(visibilityReaper, never()).finished(claim);
+  }
+
+  @Test
+  void enqueue_expiredBeforeItRan() {
+    final Message message = message("payload", null);
+    final MessageConsumer consumer = m -> {
+      throw new IllegalStateException("should not run");
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    when(messageManager.isExpired(message)).thenReturn(true);
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+
+    executor.enqueue(message);
+
+    verify(messageManager, timeout(5000)).clearClaimed(message, State.ACTIVATING);
+    verify(messageManager, never()).setProcessing(message);
+    assertThat(completion).isCancelled();
+  }
+
+  @Test
+  void enqueue_clearsAfterSetProcessingFails() {
+    final Message message = message("payload", null);
+    final MessageConsumer consumer = m -> {
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    doThrow(new IllegalStateException("boom")).when(messageManager).setProcessing(message);
+
+    executor.enqueue(message);
+
+    verify(messageManager, timeout(5000)).clearClaimed(message, State.ACTIVATING);
+  }
+
+  @Test
+  void enqueue_sameOrderingKey_runsOneAtATimeInOrder() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    final List<String> seen = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final MessageConsumer consumer = m -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      seen.add(m.payload());
+      inFlight.decrementAndGet();
+      done.countDown();
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+
+    executor.enqueue(message("first", KEY));
+    executor.enqueue(message("second", KEY));
+    executor.enqueue(message("third", KEY));
+    release.countDown();
+
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(seen).containsExactly("first", "second", "third");
+    assertThat(maxInFlight).hasValue(1);
+  }
+
+  @Test
+  void availableThreadCount_countsMessagesWaitingInLanes() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    final MessageConsumer consumer = m -> {
+      running.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      done.countDown();
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+
+    executor.enqueue(message("first", KEY));
+    executor.enqueue(message("second", KEY));
+    executor.enqueue(message("third", KEY));
+    assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(executor.laneDepth()).isEqualTo(2);
+    assertThat(executor.availableThreadCount()).isEqualTo(executor.threadCount() - 3);
+    release.countDown();
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(executor.laneDepth()).isZero();
+  }
+
+  @Test
+  void enqueue_differentOrderingKeys_runInParallel() throws InterruptedException {
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    final CountDownLatch done = new CountDownLatch(2);
+    final MessageConsumer consumer = m -> {
+      try {
+        barrier.await(5, TimeUnit.SECONDS); // only passes if both are running at once
+        done.countDown();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+
+    executor.enqueue(message("first", KEY));
+    executor.enqueue(message("second", "otherKey"));
+
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void resize() {
+    executor.resize(4);
+    assertThat(executor.threadCount()).isEqualTo(4);
+    assertThat(executor.availableThreadCount()).isEqualTo(4);
+
+    executor.resize(40);
+    assertThat(executor.threadCount()).isEqualTo(40);
+  }
+
+  @Test
+  void resize_noThreads() {
+    assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> executor.resize(0));
+  }
+
+  @Test
+  void isIdle_whileConsumerRuns() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final MessageConsumer consumer = m -> {
+      running.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    when(queueRegister.getConsumer(any(Message.class))).thenReturn(Optional.of(consumer));
+    final Message message = message("payload", null);
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+    assertThat(executor.isIdle()).isTrue();
+
+    executor.enqueue(message);
+    assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(executor.isIdle()).isFalse();
+    assertThat(executor.activeCount()).isEqualTo(1);
+    assertThat(executor.queuedCount()).isZero();
+    release.countDown();
+    completion.get(5, TimeUnit.SECONDS);
+  }
+
+  private MessageConsumerExecutor reapingExecutor() {
+    return new MessageConsumerExecutor(
+        new QueueConfigurationFactory(Optional.of(ImmutableQueueConfiguration.builder().build())),
+        messageManager, queueRegister, completionRegistry, visibilityReaper, lifecycleTimers(),
+        new MessageTypeTimers(QUEUE, meterRegistry));
+  }
+
+  private LifecycleTimers lifecycleTimers() {
+    return new LifecycleTimers(QUEUE, meterRegistry, Clock.systemUTC());
+  }
+
+  private Message message(final String payload, final String orderingKey) {
+    return ImmutableMessage.builder()
+        .hash(payload.hashCode())
+        .timestamp(System.currentTimeMillis())
+        .messageType(TYPE)
+        .messageTypeId(TYPE_ID)
+        .payload(payload)
+        .orderingKey(Optional.ofNullable(orderingKey))
+        .build();
+  }
+}
@@ -6,13 +6,22 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.CompletionHandle;
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.QueueConfiguration;
 import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
 import com.codeheadsystems.queue.manager.MessageManager;
+import com.codeheadsystems.queue.manager.MessageTypeTimers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -23,6 +32,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class QueueImplTest extends BaseMetricTest {
 
+  private static final String QUEUE = "queue";
   private static final String TYPE = "messageType";
   private static final String PAYLOAD = "payload";
   private static final String UUID = "uuid";
@@ -35,26 +45,48 @@ class QueueImplTest extends BaseMetricTest {
   @Mock private UnableToExecuteStatementException unableToExecuteStatementException;
   @Mock private SQLIntegrityConstraintViolationException sqlIntegrityConstraintViolationException;
 
+  private CompletionRegistry completionRegistry;
   private QueueImpl queue;
 
   @BeforeEach
   public void setup() {
-    queue = new QueueImpl(messageManager, new QueueConfigurationFactory(Optional.of(queueConfiguration)), metricsFactory);
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    completionRegistry = new CompletionRegistry();
+    queue = new QueueImpl(messageManager, new QueueConfigurationFactory(Optional.of(queueConfiguration)),
+        completionRegistry, new MessageTypeTimers(QueueConfiguration.DEFAULT_QUEUE_NAME, new SimpleMeterRegistry()),
+        metricsFactory);
   }
 
   @Test
   void enqueue() {
-    when(messageManager.saveMessage(TYPE, PAYLOAD)).thenReturn(Optional.of(message));
+    when(messageManager.saveMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(Optional.of(message));
 
     assertThat(queue.enqueue(TYPE, PAYLOAD))
         .isNotEmpty()
         .contains(message);
   }
 
+  @Test
+  void enqueue_typeTimeToLive() {
+    when(queueConfiguration.messageTypeTimeToLiveSeconds()).thenReturn(Map.of(TYPE, 30L));
+    final EnqueueOptions expected = ImmutableEnqueueOptions.builder().timeToLive(Duration.ofSeconds(30)).build();
+    when(messageManager.saveMessage(TYPE, PAYLOAD, expected)).thenReturn(Optional.of(message));
+
+    assertThat(queue.enqueue(TYPE, PAYLOAD)).contains(message);
+  }
+
+  @Test
+  void enqueue_messageTimeToLiveWins() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().timeToLive(Duration.ofSeconds(5)).build();
+    when(messageManager.saveMessage(TYPE, PAYLOAD, options)).thenReturn(Optional.of(message));
+
+    assertThat(queue.enqueue(TYPE, PAYLOAD, options)).contains(message);
+  }
+
   @Test
   void enqueue_failureToSaveMessage_configDisablesException() {
     when(queueConfiguration.exceptionOnEnqueueFail()).thenReturn(false);
-    when(messageManager.saveMessage(TYPE, PAYLOAD)).thenThrow(unableToExecuteStatementException); // not dup
+    when(messageManager.saveMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenThrow(unableToExecuteStatementException); // not dup
 
     assertThat(queue.enqueue(TYPE, PAYLOAD))
         .isEmpty();
@@ -63,12 +95,75 @@ class QueueImplTest extends BaseMetricTest {
   @Test
   void enqueue_failureToSaveMessage_configEnablesException() {
     when(queueConfiguration.exceptionOnEnqueueFail()).thenReturn(true);
-    when(messageManager.saveMessage(TYPE, PAYLOAD)).thenThrow(unableToExecuteStatementException); // not dup
+    when(messageManager.saveMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenThrow(unableToExecuteStatementException); // not dup
 
     assertThatExceptionOfType(UnableToExecuteStatementException.class)
         .isThrownBy(() -> queue.enqueue(TYPE, PAYLOAD));
   }
 
+  @Test
+  void enqueueForCompletion() {
+    when(messageManager.saveMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(Optional.of(message));
+    when(messageManager.getState(message)).thenReturn(Optional.of(State.PENDING));
+
+    final Optional<CompletionHandle> handle = queue.enqueueForCompletion(TYPE, PAYLOAD, EnqueueOptions.none());
+
+    assertThat(handle).hasValueSatisfying(h -> {
+      assertThat(h.message()).isEqualTo(message);
+      assertThat(h.completion()).isNotDone();
+    });
+    completionRegistry.complete(message);
+    assertThat(handle.get().completion()).isCompletedWithValue(message);
+  }
+
+  @Test
+  void enqueueForCompletion_alreadyDone() {
+    when(messageManager.saveMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(Optional.of(message));
+    when(messageManager.getState(message)).thenReturn(Optional.empty());
+
+    assertThat(queue.enqueueForCompletion(TYPE, PAYLOAD, EnqueueOptions.none()))
+        .hasValueSatisfying(h -> assertThat(h.completion()).isCompletedWithValue(message));
+    assertThat(completionRegistry.size()).isZero();
+  }
+
+  @Test
+  void enqueueForCompletion_supersedeKey() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> queue.enqueueForCompletion(TYPE, PAYLOAD,
+            ImmutableEnqueueOptions.builder().supersedeKey("key").build()));
+  }
+
+  @Test
+  void completionOf() {
+    when(messageManager.getMessage(5L)).thenReturn(Optional.of(message));
+    when(messageManager.getState(message)).thenReturn(Optional.of(State.ACTIVATING));
+
+    assertThat(queue.completionOf(5L))
+        .hasValueSatisfying(h -> assertThat(h.completion()).isNotDone());
+    assertThat(completionRegistry.size()).isEqualTo(1);
+  }
+
+  @Test
+  void completionOf_gone() {
+    when(messageManager.getMessage(5L)).thenReturn(Optional.empty());
+
+    assertThat(queue.completionOf(5L)).isEmpty();
+  }
+
+  @Test
+  void getStates() {
+    when(messageManager.getStates(List.of(message))).thenReturn(Map.of(5L, State.PENDING));
+    assertThat(queue.getStates(List.of(message))).containsExactly(Map.entry(5L, State.PENDING));
+  }
+
+  @Test
+  void clear_bulk() {
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
+    queue.clear(List.of(message));
+    verify(messageManager).clear(List.of(message));
+    assertThat(completion).isCancelled();
+  }
+
   @Test
   void getState() {
     when(messageManager.getState(message)).thenReturn(Optional.of(State.ACTIVATING));
@@ -77,8 +172,22 @@ class QueueImplTest extends BaseMetricTest {
 
   @Test
   void delete() {
+    final CompletableFuture<Message> completion = completionRegistry.register(message);
     queue.clear(message);
     verify(messageManager).clear(message);
+    assertThat(completion).isCancelled();
+  }
+
+  @Test
+  void getMessageStateCounts() {
+    when(messageManager.counts()).thenReturn(Map.of(State.PENDING, 3L));
+    assertThat(queue.getMessageStateCounts()).containsEntry(State.PENDING, 3L);
+  }
+
+  @Test
+  void getMessageStateCountsByType() {
+    when(messageManager.countsByType()).thenReturn(Map.of(TYPE, Map.of(State.PENDING, 3L)));
+    assertThat(queue.getMessageStateCountsByType()).containsOnlyKeys(TYPE);
   }
 
   @Test
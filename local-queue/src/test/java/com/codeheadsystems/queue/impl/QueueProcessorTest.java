@@ -1,7 +1,11 @@
 package com.codeheadsystems.queue.impl;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -14,8 +18,11 @@ import com.codeheadsystems.queue.QueueConfiguration;
 import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
 import com.codeheadsystems.queue.manager.MessageManager;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +35,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class QueueProcessorTest extends BaseMetricTest {
 
+  private static final String QUEUE = "queue";
+
   @Mock private MessageManager messageManager;
   @Mock private QueueConfiguration queueConfiguration;
   @Mock private MessageConsumerExecutor messageConsumerExecutor;
@@ -40,6 +49,7 @@ class QueueProcessorTest extends BaseMetricTest {
 
   @BeforeEach
   void setup() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
     processor = new QueueProcessor(messageManager, new QueueConfigurationFactory(Optional.of(queueConfiguration)), messageConsumerExecutor, scheduledExecutorService, metricsFactory);
   }
 
@@ -54,20 +64,116 @@ class QueueProcessorTest extends BaseMetricTest {
     processor.start();
     processor.start();
 
-    verify(messageManager, times(1)).setAllToPending();
+    verify(messageManager, times(1)).rebalanceShards();
+    verify(messageManager, times(1)).beginRecovery();
+    verify(scheduledExecutorService, times(1)).execute(any());
+    verify(messageManager, never()).setAllToPending();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testStart_leases() {
+    when(queueConfiguration.leaseSeconds()).thenReturn(30);
+    when(queueConfiguration.queueProcessorInitialDelay()).thenReturn(1);
+    when(queueConfiguration.queueProcessorInterval()).thenReturn(0);
+    when(scheduledExecutorService.scheduleAtFixedRate(any(), eq(1L), eq(0L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+    when(scheduledExecutorService.scheduleAtFixedRate(any(), eq(10_000L), eq(10_000L), eq(TimeUnit.MILLISECONDS)))
+        .thenReturn(scheduler);
+
+    processor.start();
+
+    verify(scheduledExecutorService).scheduleAtFixedRate(any(), eq(10_000L), eq(10_000L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void testMaintainLeases() {
+    when(queueConfiguration.recoveryChunkSize()).thenReturn(100);
+
+    processor.maintainLeases();
+
+    verify(messageManager).renewLeases();
+    verify(messageManager).reapExpiredLeases(100);
+  }
+
+  @Test
+  void testMaintainLeases_failureDoesNotThrow() {
+    when(messageManager.renewLeases()).thenThrow(new IllegalStateException("boom"));
+
+    processor.maintainLeases();
+
+    verify(messageManager, never()).reapExpiredLeases(anyInt());
+  }
+
+  @Test
+  void testRecover() {
+    when(queueConfiguration.recoveryChunkSize()).thenReturn(100);
+    when(messageManager.recover(100)).thenReturn(5);
+
+    processor.recover();
+
+    verify(messageManager).recover(100);
+  }
+
+  @Test
+  void testRecover_failureDoesNotThrow() {
+    when(queueConfiguration.recoveryChunkSize()).thenReturn(100);
+    when(messageManager.recover(100)).thenThrow(new IllegalStateException("boom"));
+
+    processor.recover();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testStart_loopPerShard() {
+    when(queueConfiguration.shardCount()).thenReturn(4);
+    when(queueConfiguration.queueProcessorInitialDelay()).thenReturn(1);
+    when(queueConfiguration.queueProcessorInterval()).thenReturn(0);
+    when(scheduledExecutorService.scheduleAtFixedRate(any(), eq(1L), eq(0L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+    processor = new QueueProcessor(messageManager, new QueueConfigurationFactory(Optional.of(queueConfiguration)),
+        messageConsumerExecutor, scheduledExecutorService, metricsFactory);
+
+    processor.start();
+
+    verify(scheduledExecutorService, times(4)).scheduleAtFixedRate(any(), eq(1L), eq(0L), eq(TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testProcessingPendingQueue_splitsThreadsAcrossShards() {
+    when(queueConfiguration.shardCount()).thenReturn(2);
+    processor = new QueueProcessor(messageManager, new QueueConfigurationFactory(Optional.of(queueConfiguration)),
+        messageConsumerExecutor, scheduledExecutorService, metricsFactory);
+    when(messageConsumerExecutor.availableThreadCount()).thenReturn(10);
+    when(messageManager.claimPending(0, 5)).thenReturn(List.of());
+    when(messageManager.claimPending(1, 5)).thenReturn(List.of(message));
+
+    processor.processPendingQueue();
+
+    verify(messageConsumerExecutor, times(1)).enqueue(message);
   }
 
   @Test
   void testProcessingPendingQueue() {
     when(messageConsumerExecutor.availableThreadCount()).thenReturn(1);
-    when(messageManager.getPendingMessages(1)).thenReturn(List.of(message));
+    when(messageManager.claimPending(0, 1)).thenReturn(List.of(message));
 
     processor.processPendingQueue();
 
-    verify(messageManager, times(1)).setActivating(message);
+    verify(messageManager, times(1)).claimPending(0, 1);
     verify(messageConsumerExecutor, times(1)).enqueue(message);
   }
 
+  @Test
+  void testProcessingPendingQueue_noLongerPending() {
+    when(messageConsumerExecutor.availableThreadCount()).thenReturn(1);
+    when(messageManager.claimPending(0, 1)).thenReturn(List.of());
+
+    processor.processPendingQueue();
+
+    verify(messageConsumerExecutor, never()).enqueue(message);
+  }
+
   @Test
   void testProcessingPendingQueue_noActiveThreads() {
     when(messageConsumerExecutor.availableThreadCount()).thenReturn(0);
@@ -78,4 +184,140 @@ class QueueProcessorTest extends BaseMetricTest {
     verifyNoMoreInteractions(messageConsumerExecutor);
   }
 
-}
\ No newline at end of file
+  @Test
+  void testProcessingPendingQueue_paused() {
+    processor.pause();
+
+    processor.processPendingQueue();
+
+    assertThat(processor.isPaused()).isTrue();
+    verifyNoInteractions(messageManager, messageConsumerExecutor);
+  }
+
+  @Test
+  void testProcessingPendingQueue_resumed() {
+    when(messageConsumerExecutor.availableThreadCount()).thenReturn(1);
+    when(messageManager.claimPending(0, 1)).thenReturn(List.of(message));
+    processor.pause();
+    processor.resume();
+
+    processor.processPendingQueue();
+
+    verify(messageConsumerExecutor).enqueue(message);
+  }
+
+  @Test
+  void testProcessingPendingQueue_pausedType() {
+    when(messageConsumerExecutor.availableThreadCount()).thenReturn(1);
+    when(messageManager.claimPending(0, 1, Set.of("paused"))).thenReturn(List.of(message));
+    processor.pause("paused");
+
+    processor.processPendingQueue();
+
+    assertThat(processor.pausedMessageTypes()).containsExactly("paused");
+    verify(messageConsumerExecutor).enqueue(message);
+    verify(messageManager, never()).claimPending(0, 1);
+  }
+
+  @Test
+  void testProcessingPendingQueue_resumedType() {
+    processor.pause("paused");
+    processor.resume("paused");
+
+    assertThat(processor.pausedMessageTypes()).isEmpty();
+  }
+
+  @Test
+  void testProcessingPendingQueue_batchSize() {
+    when(messageConsumerExecutor.availableThreadCount()).thenReturn(10);
+    when(messageManager.claimPending(0, 3)).thenReturn(List.of(message));
+    processor.setBatchSize(3);
+
+    processor.processPendingQueue();
+
+    assertThat(processor.batchSize()).isEqualTo(3);
+    verify(messageConsumerExecutor).enqueue(message);
+  }
+
+  @Test
+  void testSetBatchSize_negative() {
+    assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> processor.setBatchSize(-1));
+  }
+
+  @Test
+  void testInterval_fromConfiguration() {
+    when(queueConfiguration.queueProcessorInterval()).thenReturn(15);
+
+    assertThat(processor.interval()).isEqualTo(15);
+  }
+
+  @Test
+  void testSetInterval_notStarted() {
+    processor.setInterval(5);
+
+    assertThat(processor.interval()).isEqualTo(5);
+    verifyNoInteractions(scheduledExecutorService);
+  }
+
+  @Test
+  void testSetInterval_outOfRange() {
+    assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> processor.setInterval(0));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testSetInterval_reschedulesClaimLoops() {
+    when(queueConfiguration.queueProcessorInitialDelay()).thenReturn(1);
+    when(queueConfiguration.queueProcessorInterval()).thenReturn(15);
+    when(scheduledExecutorService.scheduleAtFixedRate(any(), eq(1L), eq(15L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+    when(scheduledExecutorService.scheduleAtFixedRate(any(), eq(5L), eq(5L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+    processor.start();
+
+    processor.setInterval(5);
+
+    verify(scheduler).cancel(false);
+    verify(scheduledExecutorService).scheduleAtFixedRate(any(), eq(5L), eq(5L), eq(TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testDrain() {
+    when(messageConsumerExecutor.isIdle()).thenReturn(false, true);
+
+    assertThat(processor.drain(Duration.ofSeconds(5))).isTrue();
+    assertThat(processor.isPaused()).isTrue();
+  }
+
+  @Test
+  void testDrain_timesOut() {
+    when(messageConsumerExecutor.isIdle()).thenReturn(false);
+
+    assertThat(processor.drain(Duration.ZERO)).isFalse();
+    assertThat(processor.isPaused()).isTrue();
+  }
+
+  @Test
+  void testDrain_waitsForClaimCycleInProgress() throws InterruptedException {
+    final CountDownLatch claiming = new CountDownLatch(1);
+    final CountDownLatch handOff = new CountDownLatch(1);
+    when(messageConsumerExecutor.availableThreadCount()).thenReturn(1);
+    when(messageManager.claimPending(0, 1)).thenAnswer(invocation -> {
+      claiming.countDown();
+      handOff.await();
+      return List.of(message);
+    });
+    final Thread claimLoop = new Thread(() -> processor.processPendingQueue(0));
+    claimLoop.start();
+    claiming.await();
+
+    assertThat(processor.drain(Duration.ZERO)).isFalse(); // claimed, but not handed to the executor yet.
+
+    handOff.countDown();
+    claimLoop.join();
+    verify(messageConsumerExecutor).enqueue(message);
+    when(messageConsumerExecutor.isIdle()).thenReturn(true);
+    assertThat(processor.drain(Duration.ofSeconds(5))).isTrue();
+  }
+
+}
@@ -1,9 +1,13 @@
 package com.codeheadsystems.queue.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
 
 import com.codeheadsystems.queue.Message;
 import com.codeheadsystems.queue.MessageConsumer;
+import com.codeheadsystems.queue.manager.MessageTypeDictionary;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -14,10 +18,17 @@ import org.mockito.junit.jupiter.MockitoExtension;
 class QueueRegisterTest {
 
   private static final String TYPE = "type";
+  private static final int TYPE_ID = 3;
   @Mock private MessageConsumer consumer;
   @Mock private Message message;
+  @Mock private MessageTypeDictionary messageTypeDictionary;
   @InjectMocks private QueueRegister queueRegister;
 
+  @BeforeEach
+  void setup() {
+    when(messageTypeDictionary.idOf(TYPE)).thenReturn(TYPE_ID);
+  }
+
   @Test
   void testRegister() {
     queueRegister.register(TYPE, consumer);
@@ -40,6 +51,23 @@ class QueueRegisterTest {
     assertThat(queueRegister.getConsumer(TYPE)).isEmpty();
   }
 
+  @Test
+  void testGetConsumer_byMessage() {
+    when(message.messageTypeId()).thenReturn(TYPE_ID);
+    queueRegister.register(TYPE, consumer);
+    assertThat(queueRegister.getConsumer(message)).contains(consumer);
+    assertThat(queueRegister.getConsumer(message)).contains(consumer);
+    queueRegister.deregister(TYPE);
+    assertThat(queueRegister.getConsumer(message)).isEmpty();
+  }
+
+  @Test
+  void testGetConsumer_byMessage_registeredAtConstruction() {
+    when(message.messageTypeId()).thenReturn(TYPE_ID);
+    queueRegister = new QueueRegister(Map.of(TYPE, consumer), messageTypeDictionary);
+    assertThat(queueRegister.getConsumer(message)).contains(consumer);
+  }
+
   @Test
   void testDeregisterAll() {
     queueRegister.register(TYPE, consumer);
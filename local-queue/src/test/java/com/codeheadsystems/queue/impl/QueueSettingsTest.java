@@ -0,0 +1,209 @@
+package com.codeheadsystems.queue.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.dao.QueueSettingsDao;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class QueueSettingsTest {
+
+  private static final String QUEUE = "queue";
+
+  @Mock private QueueSettingsDao dao;
+  @Mock private QueueConfiguration queueConfiguration;
+  @Mock private QueueProcessor queueProcessor;
+  @Mock private MessageConsumerExecutor messageConsumerExecutor;
+  @Mock private ScheduledExecutorService scheduledExecutorService;
+  @Mock private ScheduledFuture<?> scheduler;
+
+  private QueueSettings queueSettings;
+
+  @BeforeEach
+  void setup() {
+    queueSettings = settings(Optional.of(dao));
+  }
+
+  private QueueSettings settings(final Optional<QueueSettingsDao> settingsDao) {
+    return new QueueSettings(settingsDao, new QueueConfigurationFactory(Optional.of(queueConfiguration)),
+        queueProcessor, messageConsumerExecutor, scheduledExecutorService);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  @Test
+  void start() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(queueConfiguration.settingsRefreshSeconds()).thenReturn(30);
+    when(dao.version(QUEUE)).thenReturn(0L);
+    when(dao.overrides(QUEUE)).thenReturn(Map.of());
+    when(scheduledExecutorService.scheduleWithFixedDelay(any(), eq(30L), eq(30L), eq(TimeUnit.SECONDS)))
+        .thenReturn((ScheduledFuture) scheduler);
+
+    queueSettings.start();
+    queueSettings.start();
+
+    verify(dao).overrides(QUEUE);
+    verifyNoInteractions(queueProcessor, messageConsumerExecutor);
+  }
+
+  @Test
+  void start_noDatabase() throws Exception {
+    queueSettings = settings(Optional.empty());
+
+    queueSettings.start();
+
+    assertThat(queueSettings.refresh()).isFalse();
+    assertThat(queueSettings.overrides()).isEmpty();
+    verifyNoInteractions(queueProcessor, messageConsumerExecutor, scheduledExecutorService);
+  }
+
+  @Test
+  void refresh_appliesOverrides() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(messageConsumerExecutor.threadCount()).thenReturn(20);
+    when(queueProcessor.interval()).thenReturn(15);
+    when(dao.version(QUEUE)).thenReturn(3L);
+    when(dao.overrides(QUEUE)).thenReturn(Map.of(
+        QueueSettings.THREADS, "4",
+        QueueSettings.POLL_INTERVAL_SECONDS, "5",
+        QueueSettings.BATCH_SIZE, "10",
+        QueueSettings.DISPATCH_PAUSED, "true",
+        QueueSettings.PAUSED_MESSAGE_TYPES, "slow, bulk"));
+
+    assertThat(queueSettings.refresh()).isTrue();
+
+    verify(messageConsumerExecutor).resize(4);
+    verify(queueProcessor).setInterval(5);
+    verify(queueProcessor).setBatchSize(10);
+    verify(queueProcessor).pause();
+    verify(queueProcessor).pause("slow");
+    verify(queueProcessor).pause("bulk");
+    verify(queueProcessor, never()).resume(any());
+  }
+
+  @Test
+  void refresh_onlyAppliesChangedOverrides() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(dao.version(QUEUE)).thenReturn(1L, 2L);
+    when(dao.overrides(QUEUE)).thenReturn(
+        Map.of(QueueSettings.BATCH_SIZE, "10", QueueSettings.PAUSED_MESSAGE_TYPES, "slow"),
+        Map.of(QueueSettings.BATCH_SIZE, "20", QueueSettings.PAUSED_MESSAGE_TYPES, "slow"));
+
+    assertThat(queueSettings.refresh()).isTrue();
+    assertThat(queueSettings.refresh()).isTrue();
+
+    verify(queueProcessor).setBatchSize(10);
+    verify(queueProcessor).setBatchSize(20);
+    verify(queueProcessor).pause("slow");
+    verifyNoMoreInteractions(queueProcessor, messageConsumerExecutor); // a JMX pause or resize is left alone
+  }
+
+  @Test
+  void refresh_removedOverridesGoBackToDefaults() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(queueConfiguration.queueExecutorMaxThreads()).thenReturn(20);
+    when(messageConsumerExecutor.threadCount()).thenReturn(20, 4);
+    when(dao.version(QUEUE)).thenReturn(1L, 2L);
+    when(dao.overrides(QUEUE)).thenReturn(
+        Map.of(QueueSettings.THREADS, "4", QueueSettings.PAUSED_MESSAGE_TYPES, "slow,bulk",
+            QueueSettings.DISPATCH_PAUSED, "true"),
+        Map.of(QueueSettings.PAUSED_MESSAGE_TYPES, "slow"));
+
+    assertThat(queueSettings.refresh()).isTrue();
+    assertThat(queueSettings.refresh()).isTrue();
+
+    verify(messageConsumerExecutor).resize(4);
+    verify(messageConsumerExecutor).resize(20);
+    verify(queueProcessor).pause();
+    verify(queueProcessor).resume();
+    verify(queueProcessor).resume("bulk");
+    verify(queueProcessor, never()).resume("slow");
+  }
+
+  @Test
+  void refresh_unchangedVersion() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(dao.version(QUEUE)).thenReturn(3L);
+    when(dao.overrides(QUEUE)).thenReturn(Map.of());
+
+    assertThat(queueSettings.refresh()).isTrue();
+    assertThat(queueSettings.refresh()).isFalse();
+
+    verify(dao).overrides(QUEUE);
+  }
+
+  @Test
+  void refresh_badOverrideIgnored() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(dao.version(QUEUE)).thenReturn(1L);
+    when(dao.overrides(QUEUE)).thenReturn(Map.of(QueueSettings.THREADS, "lots", QueueSettings.BATCH_SIZE, "5"));
+
+    assertThat(queueSettings.refresh()).isTrue();
+
+    verify(messageConsumerExecutor, never()).resize(anyInt());
+    verify(queueProcessor).setBatchSize(5);
+  }
+
+  @Test
+  void refresh_failureDoesNotThrow() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(dao.version(QUEUE)).thenThrow(new IllegalStateException("boom"));
+
+    assertThat(queueSettings.refresh()).isFalse();
+  }
+
+  @Test
+  void set() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(dao.version(QUEUE)).thenReturn(1L);
+    when(dao.overrides(QUEUE)).thenReturn(Map.of(QueueSettings.BATCH_SIZE, "5"));
+
+    queueSettings.set(QueueSettings.BATCH_SIZE, "5");
+
+    verify(dao).set(QUEUE, QueueSettings.BATCH_SIZE, "5");
+    verify(queueProcessor).setBatchSize(5);
+  }
+
+  @Test
+  void remove() {
+    when(queueConfiguration.queueName()).thenReturn(QUEUE);
+    when(dao.version(QUEUE)).thenReturn(1L, 2L);
+    when(dao.overrides(QUEUE)).thenReturn(Map.of(QueueSettings.BATCH_SIZE, "5"), Map.of());
+    queueSettings.refresh();
+
+    queueSettings.remove(QueueSettings.BATCH_SIZE);
+
+    verify(dao).remove(QUEUE, QueueSettings.BATCH_SIZE);
+    verify(queueProcessor).setBatchSize(0);
+  }
+
+  @Test
+  void set_noDatabase() {
+    queueSettings = settings(Optional.empty());
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> queueSettings.set(QueueSettings.BATCH_SIZE, "5"));
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.codeheadsystems.queue.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.QueueConfiguration;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class StateCountReconcilerTest {
+
+  @Mock private MessageManager messageManager;
+  @Mock private QueueConfiguration queueConfiguration;
+  @Mock private ScheduledExecutorService scheduledExecutorService;
+  @Mock private ScheduledFuture scheduler;
+
+  private StateCountReconciler reconciler;
+
+  @BeforeEach
+  void setup() {
+    reconciler = new StateCountReconciler(messageManager,
+        new QueueConfigurationFactory(Optional.of(queueConfiguration)), scheduledExecutorService);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testStart_seedsAndSchedules() {
+    when(queueConfiguration.stateCountReconcileIntervalSeconds()).thenReturn(300);
+    when(scheduledExecutorService.scheduleWithFixedDelay(any(), eq(300L), eq(300L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+
+    reconciler.start();
+    reconciler.start();
+
+    verify(messageManager, times(1)).reconcileCounts();
+    verify(scheduledExecutorService, times(1))
+        .scheduleWithFixedDelay(any(), eq(300L), eq(300L), eq(TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testReconcile_failureDoesNotThrow() {
+    doThrow(new IllegalStateException("db down")).when(messageManager).reconcileCounts();
+
+    reconciler.reconcile();
+
+    verify(messageManager).reconcileCounts();
+  }
+}
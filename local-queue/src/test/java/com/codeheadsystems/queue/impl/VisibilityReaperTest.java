@@ -0,0 +1,134 @@
+package com.codeheadsystems.queue.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.ImmutableMessage;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import com.codeheadsystems.queue.manager.MessageManager;
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class VisibilityReaperTest extends BaseMetricTest {
+
+  private static final String TYPE = "type";
+  private static final String SLOW_TYPE = "slowType";
+  private static final String UNTIMED_TYPE = "untimedType";
+
+  @Mock private MessageManager messageManager;
+  @Mock private ScheduledExecutorService scheduledExecutorService;
+  @Mock private ScheduledFuture scheduler;
+  @Mock private Clock clock;
+
+  private VisibilityReaper reaper;
+
+  @BeforeEach
+  void setup() {
+    reaper = new VisibilityReaper(messageManager, new QueueConfigurationFactory(Optional.of(
+        ImmutableQueueConfiguration.builder()
+            .visibilityTimeoutSeconds(10)
+            .putMessageTypeVisibilityTimeoutSeconds(SLOW_TYPE, 60L)
+            .putMessageTypeVisibilityTimeoutSeconds(UNTIMED_TYPE, 0L)
+            .visibilitySweepIntervalSeconds(5)
+            .build())),
+        scheduledExecutorService, clock, metricsFactory);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void start() {
+    when(scheduledExecutorService.scheduleWithFixedDelay(any(), eq(5L), eq(5L), eq(TimeUnit.SECONDS)))
+        .thenReturn(scheduler);
+
+    reaper.start();
+    reaper.start();
+
+    verify(scheduledExecutorService, times(1)).scheduleWithFixedDelay(any(), eq(5L), eq(5L), eq(TimeUnit.SECONDS));
+  }
+
+  @Test
+  void reap_returnsOverdueMessagesToPending() {
+    final Message message = message(1, TYPE);
+    final Message slow = message(2, SLOW_TYPE);
+    when(clock.millis()).thenReturn(0L, 0L, 10_000L);
+    when(messageManager.release(message)).thenReturn(true);
+    final VisibilityReaper.Claim claim = reaper.claimed(message);
+    final VisibilityReaper.Claim slowClaim = reaper.claimed(slow);
+
+    assertThat(reaper.reap()).isEqualTo(1);
+
+    verify(messageManager, never()).release(slow);
+    assertThat(reaper.isClaimed(claim)).isFalse();
+    assertThat(reaper.finished(claim)).isFalse();
+    assertThat(reaper.isClaimed(slowClaim)).isTrue();
+    assertThat(reaper.finished(slowClaim)).isTrue();
+    assertThat(reaper.size()).isZero();
+  }
+
+  @Test
+  void reap_reclaimedThenLateFinish() {
+    final Message message = message(1, TYPE);
+    when(clock.millis()).thenReturn(0L, 10_000L, 10_000L);
+    when(messageManager.release(message)).thenReturn(true);
+    final VisibilityReaper.Claim first = reaper.claimed(message);
+    assertThat(reaper.reap()).isEqualTo(1);
+    final VisibilityReaper.Claim second = reaper.claimed(message);
+
+    assertThat(reaper.isClaimed(first)).isFalse();
+    assertThat(reaper.finished(first)).isFalse();
+    assertThat(reaper.isClaimed(second)).isTrue();
+    assertThat(reaper.size()).isEqualTo(1);
+    assertThat(reaper.finished(second)).isTrue();
+    assertThat(reaper.size()).isZero();
+  }
+
+  @Test
+  void reap_failureKeepsTheMessage() {
+    final Message message = message(1, TYPE);
+    when(clock.millis()).thenReturn(0L, 10_000L);
+    when(messageManager.release(message)).thenThrow(new IllegalStateException("boom"));
+    final VisibilityReaper.Claim claim = reaper.claimed(message);
+
+    assertThat(reaper.reap()).isZero();
+
+    assertThat(reaper.isClaimed(claim)).isTrue();
+  }
+
+  @Test
+  void untimedTypesAreNotTracked() {
+    final Message message = message(1, UNTIMED_TYPE);
+
+    final VisibilityReaper.Claim claim = reaper.claimed(message);
+
+    assertThat(reaper.size()).isZero();
+    assertThat(reaper.isClaimed(claim)).isTrue();
+    assertThat(reaper.finished(claim)).isTrue();
+  }
+
+  private Message message(final long hash, final String type) {
+    return ImmutableMessage.builder()
+        .hash(hash)
+        .timestamp(0)
+        .messageType(type)
+        .messageTypeId(1)
+        .payload("payload")
+        .build();
+  }
+}
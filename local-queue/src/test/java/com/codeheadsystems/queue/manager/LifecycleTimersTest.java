@@ -0,0 +1,71 @@
+package com.codeheadsystems.queue.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.Message;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LifecycleTimersTest {
+
+  private static final String QUEUE = "queue";
+  private static final String TYPE = "type";
+  private static final long ENQUEUED = 1000L;
+
+  @Mock private Message message;
+  @Mock private Clock clock;
+
+  private SimpleMeterRegistry meterRegistry;
+  private LifecycleTimers lifecycleTimers;
+
+  @BeforeEach
+  void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    lifecycleTimers = new LifecycleTimers(QUEUE, meterRegistry, clock);
+  }
+
+  @Test
+  void lifecycle() {
+    when(message.messageTypeId()).thenReturn(1);
+    when(message.messageType()).thenReturn(TYPE);
+    when(message.timestamp()).thenReturn(ENQUEUED);
+    when(clock.millis()).thenReturn(ENQUEUED + 40, ENQUEUED + 100);
+
+    final long activatedAt = lifecycleTimers.activated(message);
+    final long startedAt = lifecycleTimers.started(message, activatedAt);
+    lifecycleTimers.finished(message, startedAt);
+
+    assertThat(timer("LifecycleTimers.queueWait").totalTime(TimeUnit.MILLISECONDS)).isEqualTo(40);
+    assertThat(timer("LifecycleTimers.handOffWait").count()).isEqualTo(1);
+    assertThat(timer("LifecycleTimers.execution").count()).isEqualTo(1);
+    assertThat(timer("LifecycleTimers.endToEnd").totalTime(TimeUnit.MILLISECONDS)).isEqualTo(100);
+    assertThat(startedAt).isGreaterThanOrEqualTo(activatedAt);
+  }
+
+  @Test
+  void activated_clockSkew() {
+    when(message.messageTypeId()).thenReturn(1);
+    when(message.messageType()).thenReturn(TYPE);
+    when(message.timestamp()).thenReturn(ENQUEUED);
+    when(clock.millis()).thenReturn(ENQUEUED - 50); // enqueued by a process whose clock runs ahead.
+
+    lifecycleTimers.activated(message);
+
+    assertThat(timer("LifecycleTimers.queueWait").count()).isEqualTo(1);
+    assertThat(timer("LifecycleTimers.queueWait").totalTime(TimeUnit.MILLISECONDS)).isZero();
+  }
+
+  private Timer timer(final String name) {
+    return meterRegistry.get(name).tags("queue", QUEUE, "messageType", TYPE).timer();
+  }
+
+}
@@ -2,18 +2,37 @@ package com.codeheadsystems.queue.manager;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.queue.EnqueueOptions;
+import com.codeheadsystems.queue.ImmutableEnqueueOptions;
+import com.codeheadsystems.queue.ImmutableQueueConfiguration;
 import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.QueueConfiguration;
 import com.codeheadsystems.queue.State;
 import com.codeheadsystems.queue.dao.ImmutableStateCount;
 import com.codeheadsystems.queue.dao.MessageDao;
 import com.codeheadsystems.queue.factory.MessageFactory;
+import com.codeheadsystems.queue.factory.QueueConfigurationFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import org.jdbi.v3.core.statement.StatementContext;
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
 import org.junit.jupiter.api.BeforeEach;
@@ -25,56 +44,82 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class MessageManagerTest extends BaseMetricTest {
 
+  private static final String QUEUE = QueueConfiguration.DEFAULT_QUEUE_NAME;
   private static final String PAYLOAD = "payload";
   private static final String TYPE = "type";
   private static final long HASH = 1234L;
+  private static final long NOW = 5000L;
+  private static final int TYPE_ID = 2;
   @Mock private MessageDao messageDao;
   @Mock private MessageFactory messageFactory;
   @Mock private Message message;
+  @Mock private Message otherMessage;
   @Mock private StatementContext statementContext;
   @Mock private UnableToExecuteStatementException unableToExecuteStatementException;
+  @Mock private Clock clock;
 
   private MessageManager messageManager;
 
   @BeforeEach
   void setup() {
-    messageManager = new MessageManager(messageDao, messageFactory, metricsFactory);
+    lenient().when(message.messageType()).thenReturn(TYPE);
+    lenient().when(message.messageTypeId()).thenReturn(TYPE_ID);
+    messageManager = new MessageManager(messageDao, messageFactory, new StateCounters(QUEUE, new SimpleMeterRegistry()),
+        new MessageTypeTimers(QUEUE, new SimpleMeterRegistry()),
+        new QueueConfigurationFactory(Optional.empty()), metricsFactory, clock);
   }
 
   @Test
   void counts_empty() {
-    when(messageDao.counts()).thenReturn(List.of());
     assertThat(messageManager.counts()).isEmpty();
   }
 
   @Test
   void counts() {
-    when(messageDao.counts()).thenReturn(List.of(
-        ImmutableStateCount.builder().state(State.ACTIVATING).count(1).build(),
-        ImmutableStateCount.builder().state(State.PENDING).count(5).build()
+    when(messageDao.counts(QUEUE)).thenReturn(List.of(
+        stateCount(State.ACTIVATING, 1),
+        stateCount(State.PENDING, 5)
     ));
+    messageManager.reconcileCounts();
     assertThat(messageManager.counts())
         .hasSize(2)
         .containsEntry(State.ACTIVATING, 1L)
         .containsEntry(State.PENDING, 5L);
+    assertThat(messageManager.countsByType())
+        .containsOnlyKeys(TYPE);
+  }
+
+  @Test
+  void counts_followTransitions() {
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(1);
+    when(messageDao.delete(message, QUEUE)).thenReturn(1);
+
+    messageManager.saveMessage(TYPE, PAYLOAD);
+    assertThat(messageManager.counts()).containsExactly(Map.entry(State.PENDING, 1L));
+    messageManager.setActivating(message);
+    assertThat(messageManager.counts()).containsExactly(Map.entry(State.ACTIVATING, 1L));
+    messageManager.setProcessing(message);
+    assertThat(messageManager.counts()).containsExactly(Map.entry(State.PROCESSING, 1L));
+    messageManager.clear(message, State.PROCESSING);
+    assertThat(messageManager.counts()).isEmpty();
   }
 
   @Test
   void saveMessage() {
-    when(messageFactory.createMessage(TYPE, PAYLOAD)).thenReturn(message);
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
     assertThat(messageManager.saveMessage(TYPE, PAYLOAD))
         .isPresent()
         .contains(message);
-    verify(messageDao).store(message, State.PENDING);
+    verify(messageDao).store(message, QUEUE, 0, State.PENDING);
   }
 
   @Test
   void saveMessage_duplicate() {
-    when(messageFactory.createMessage(TYPE, PAYLOAD)).thenReturn(message);
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
     when(message.hash()).thenReturn(HASH);
-    when(messageDao.readByHash(HASH)).thenReturn(Optional.of(message));
-    when(messageManager.saveMessage(TYPE, PAYLOAD))
-        .thenThrow(unableToExecuteStatementException);
+    when(messageDao.readByHash(HASH, QUEUE)).thenReturn(Optional.of(message));
+    doThrow(unableToExecuteStatementException).when(messageDao).store(message, QUEUE, 0, State.PENDING);
     when(unableToExecuteStatementException.getCause())
         .thenReturn(new SQLIntegrityConstraintViolationException());
     assertThat(messageManager.saveMessage(TYPE, PAYLOAD))
@@ -84,9 +129,8 @@ class MessageManagerTest extends BaseMetricTest {
 
   @Test
   void saveMessage_saveFailure() {
-    when(messageFactory.createMessage(TYPE, PAYLOAD)).thenReturn(message);
-    when(messageManager.saveMessage(TYPE, PAYLOAD))
-        .thenThrow(unableToExecuteStatementException);
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
+    doThrow(unableToExecuteStatementException).when(messageDao).store(message, QUEUE, 0, State.PENDING);
     when(unableToExecuteStatementException.getCause())
         .thenReturn(new RuntimeException());
     assertThatExceptionOfType(UnableToExecuteStatementException.class)
@@ -99,53 +143,461 @@ class MessageManagerTest extends BaseMetricTest {
     verify(messageDao).updateState(message, State.PROCESSING);
   }
 
+  @Test
+  void setProcessing_leased() {
+    leased();
+    when(messageDao.updateStateOwned(message, State.PROCESSING, "owner")).thenReturn(1);
+    messageManager.setProcessing(message);
+    verify(messageDao, never()).updateState(message, State.PROCESSING);
+  }
+
+  @Test
+  void setProcessing_leaseLost() {
+    leased();
+    when(messageDao.updateStateOwned(message, State.PROCESSING, "owner")).thenReturn(0);
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> messageManager.setProcessing(message));
+    assertThat(messageManager.counts()).isEmpty();
+  }
+
+  @Test
+  void clear_leaseLost() {
+    leased();
+    when(messageDao.deleteOwned(message, "owner")).thenReturn(0);
+    messageManager.clearClaimed(message, State.PROCESSING);
+    verify(messageDao, never()).delete(message, QUEUE);
+    assertThat(messageManager.counts()).isEmpty();
+  }
+
+  @Test
+  void clear_pendingWhileLeased() {
+    leased();
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.of(State.PENDING));
+    when(messageDao.delete(message, QUEUE)).thenReturn(1);
+    messageManager.clear(message);
+    verify(messageDao, never()).deleteOwned(message, "owner");
+  }
+
+  @Test
+  void saveMessage_supersede() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(messageFactory.createMessage(TYPE, PAYLOAD, options)).thenReturn(message);
+    when(message.supersedeKey()).thenReturn(Optional.of("key"));
+    when(messageDao.supersede(message, QUEUE, 0)).thenReturn(1);
+    assertThat(messageManager.saveMessage(TYPE, PAYLOAD, options))
+        .isPresent()
+        .contains(message);
+    verify(messageDao, never()).store(message, QUEUE, 0, State.PENDING);
+    assertThat(messageManager.counts()).isEmpty(); // replaced one pending with another.
+  }
+
   @Test
   void setActivating() {
-    messageManager.setActivating(message);
-    verify(messageDao).updateState(message, State.ACTIVATING);
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(1);
+    assertThat(messageManager.setActivating(message)).isTrue();
+  }
+
+  @Test
+  void setActivating_noLongerPending() {
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(0);
+    assertThat(messageManager.setActivating(message)).isFalse();
+  }
+
+  @Test
+  void setActivating_leased() {
+    leased();
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.claimLeased(message, State.PENDING, State.ACTIVATING, "owner", NOW + 30_000)).thenReturn(1);
+    assertThat(messageManager.setActivating(message)).isTrue();
+    verify(messageDao, never()).claim(message, State.PENDING, State.ACTIVATING);
+  }
+
+  @Test
+  void renewLeases() {
+    leased();
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.renewLeases(QUEUE, "owner", NOW + 30_000)).thenReturn(3);
+    assertThat(messageManager.renewLeases()).isEqualTo(3);
+  }
+
+  @Test
+  void isExpired() {
+    when(clock.millis()).thenReturn(NOW);
+    when(message.expiresAt()).thenReturn(Optional.of(NOW), Optional.of(NOW + 1), Optional.empty());
+
+    assertThat(messageManager.isExpired(message)).isTrue();
+    assertThat(messageManager.isExpired(message)).isFalse();
+    assertThat(messageManager.isExpired(message)).isFalse();
+  }
+
+  @Test
+  void reapExpiredLeases() {
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.expiredLeases(QUEUE, State.ACTIVATING, NOW, 2)).thenReturn(List.of(1L, 2L), List.of(3L));
+    when(messageDao.expiredLeases(QUEUE, State.PROCESSING, NOW, 2)).thenReturn(List.of());
+    when(messageDao.reapExpired(List.of(1L, 2L), State.ACTIVATING, State.PENDING, NOW)).thenReturn(2);
+    when(messageDao.reapExpired(List.of(3L), State.ACTIVATING, State.PENDING, NOW)).thenReturn(0);
+
+    assertThat(messageManager.reapExpiredLeases(2)).isEqualTo(2);
+
+    verify(messageDao).counts(QUEUE);
+  }
+
+  @Test
+  void recover_leased() {
+    leased();
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.expiredLeases(eq(QUEUE), any(State.class), eq(NOW), eq(10))).thenReturn(List.of());
+
+    assertThat(messageManager.recover(10)).isZero();
+
+    verify(messageDao, never()).hashesInState(eq(QUEUE), eq(0), any(State.class), eq(Long.MIN_VALUE), eq(10));
+  }
+
+  @Test
+  void release() {
+    when(message.hash()).thenReturn(HASH);
+    when(messageDao.updateInState(List.of(HASH), State.ACTIVATING, State.PENDING)).thenReturn(0);
+    when(messageDao.updateInState(List.of(HASH), State.PROCESSING, State.PENDING)).thenReturn(1);
+
+    assertThat(messageManager.release(message)).isTrue();
+    assertThat(messageManager.getState(message)).contains(State.PENDING);
+  }
+
+  @Test
+  void release_leased() {
+    leased();
+    when(messageDao.releaseOwned(message, State.ACTIVATING, State.PENDING, "owner")).thenReturn(0);
+    when(messageDao.releaseOwned(message, State.PROCESSING, State.PENDING, "owner")).thenReturn(0);
+
+    assertThat(messageManager.release(message)).isFalse(); // reaped and claimed by another owner.
+    verify(messageDao, never()).updateInState(anyList(), any(State.class), any(State.class));
+  }
+
+  @Test
+  void release_noLongerClaimed() {
+    when(message.hash()).thenReturn(HASH);
+    when(messageDao.updateInState(List.of(HASH), State.ACTIVATING, State.PENDING)).thenReturn(0);
+    when(messageDao.updateInState(List.of(HASH), State.PROCESSING, State.PENDING)).thenReturn(0);
+
+    assertThat(messageManager.release(message)).isFalse();
   }
 
   @Test
   void setAllToPending() {
     messageManager.setAllToPending();
-    verify(messageDao).updateAllToState(State.PENDING);
+    verify(messageDao).updateAllToState(QUEUE, State.PENDING);
+  }
+
+  @Test
+  void recover() {
+    when(messageDao.hashesInState(QUEUE, 0, State.ACTIVATING, Long.MIN_VALUE, 2)).thenReturn(List.of(1L, 2L));
+    when(messageDao.hashesInState(QUEUE, 0, State.ACTIVATING, 2L, 2)).thenReturn(List.of(3L));
+    when(messageDao.hashesInState(QUEUE, 0, State.PROCESSING, Long.MIN_VALUE, 2)).thenReturn(List.of());
+    when(messageDao.updateInState(List.of(1L, 2L), State.ACTIVATING, State.PENDING)).thenReturn(2);
+    when(messageDao.updateInState(List.of(3L), State.ACTIVATING, State.PENDING)).thenReturn(1);
+
+    assertThat(messageManager.recover(2)).isEqualTo(3);
+
+    verify(messageDao).counts(QUEUE);
+    verify(messageDao, never()).updateAllToState(QUEUE, State.PENDING);
+  }
+
+  @Test
+  void recover_leavesMessagesClaimedDuringRecovery() {
+    when(message.hash()).thenReturn(HASH);
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(1);
+    when(messageDao.hashesInState(QUEUE, 0, State.ACTIVATING, Long.MIN_VALUE, 10)).thenReturn(List.of(HASH, HASH + 1));
+    when(messageDao.hashesInState(QUEUE, 0, State.PROCESSING, Long.MIN_VALUE, 10)).thenReturn(List.of());
+    when(messageDao.updateInState(List.of(HASH + 1), State.ACTIVATING, State.PENDING)).thenReturn(1);
+
+    messageManager.beginRecovery();
+    messageManager.setActivating(message);
+
+    assertThat(messageManager.recover(10)).isEqualTo(1);
+  }
+
+  @Test
+  void recover_nothingToDo() {
+    when(messageDao.hashesInState(eq(QUEUE), eq(0), any(State.class), eq(Long.MIN_VALUE), eq(10))).thenReturn(List.of());
+
+    assertThat(messageManager.recover(10)).isZero();
+
+    verify(messageDao, never()).updateInState(anyList(), any(State.class), any(State.class));
+    verify(messageDao, never()).counts(QUEUE);
+  }
+
+  @Test
+  void rebalanceShards() {
+    messageManager.rebalanceShards();
+    verify(messageDao).rebalanceShards(QUEUE, 1);
   }
 
   @Test
   void getPendingMessages() {
-    when(messageDao.forState(State.PENDING, 1)).thenReturn(List.of(message));
-    assertThat(messageManager.getPendingMessages(1))
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, NOW, 1)).thenReturn(List.of(message));
+    assertThat(messageManager.getPendingMessages(0, 1))
         .containsExactly(message);
   }
 
   @Test
   void getPendingMessages_empty() {
-    when(messageDao.forState(State.PENDING, 1)).thenReturn(List.of());
-    assertThat(messageManager.getPendingMessages(1)).isEmpty();
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, NOW, 1)).thenReturn(List.of());
+    assertThat(messageManager.getPendingMessages(0, 1)).isEmpty();
+  }
+
+  @Test
+  void claimPending() {
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.unitOfWork(any())).thenAnswer(invocation ->
+        invocation.<Function<MessageDao, ?>>getArgument(0).apply(messageDao));
+    when(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, NOW, 2)).thenReturn(List.of(message, otherMessage));
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(1);
+    when(messageDao.claim(otherMessage, State.PENDING, State.ACTIVATING)).thenReturn(0);
+
+    assertThat(messageManager.claimPending(0, 2)).containsExactly(message);
+    assertThat(messageManager.counts()).containsExactly(Map.entry(State.ACTIVATING, 1L));
+  }
+
+  @Test
+  void claimPending_leased() {
+    leased();
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.unitOfWork(any())).thenAnswer(invocation ->
+        invocation.<Function<MessageDao, ?>>getArgument(0).apply(messageDao));
+    when(messageDao.forStateUnexpired(QUEUE, 0, State.PENDING, NOW, 1)).thenReturn(List.of(message));
+    when(messageDao.claimLeased(message, State.PENDING, State.ACTIVATING, "owner", NOW + 30_000)).thenReturn(1);
+
+    assertThat(messageManager.claimPending(0, 1)).containsExactly(message);
+  }
+
+  @Test
+  void claimPending_skippedTypes() {
+    when(clock.millis()).thenReturn(NOW);
+    when(messageFactory.messageTypeId("paused")).thenReturn(7);
+    when(messageDao.unitOfWork(any())).thenAnswer(invocation ->
+        invocation.<Function<MessageDao, ?>>getArgument(0).apply(messageDao));
+    when(messageDao.forStateUnexpiredExcluding(QUEUE, 0, State.PENDING, NOW, List.of(7), 2))
+        .thenReturn(List.of(message));
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(1);
+
+    assertThat(messageManager.claimPending(0, 2, Set.of("paused"))).containsExactly(message);
+    verify(messageDao, never()).forStateUnexpired(QUEUE, 0, State.PENDING, NOW, 2);
+  }
+
+  @Test
+  void expire() {
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
+    when(message.hash()).thenReturn(HASH);
+    messageManager.saveMessage(TYPE, PAYLOAD);
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.expired(QUEUE, State.PENDING, NOW, 10)).thenReturn(Map.of(HASH, TYPE_ID));
+    when(messageDao.deleteEachInState(List.of(HASH), State.PENDING)).thenReturn(new int[]{1});
+    assertThat(messageManager.expire(10)).containsExactly(HASH);
+    assertThat(messageManager.counts()).isEmpty();
+    verify(messageDao, never()).counts(QUEUE);
+  }
+
+  @Test
+  void expire_nothingExpired() {
+    when(clock.millis()).thenReturn(NOW);
+    when(messageDao.expired(QUEUE, State.PENDING, NOW, 10)).thenReturn(Map.of());
+    assertThat(messageManager.expire(10)).isEmpty();
+    verify(messageDao, never()).deleteEachInState(List.of(), State.PENDING);
   }
 
   @Test
   void getState() {
-    when(messageDao.stateOf(message)).thenReturn(Optional.of(State.PENDING));
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.of(State.PENDING));
+    assertThat(messageManager.getState(message)).contains(State.PENDING);
+  }
+
+  @Test
+  void getState_cachedAfterSave() {
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
+    messageManager.saveMessage(TYPE, PAYLOAD);
+    assertThat(messageManager.getState(message)).contains(State.PENDING);
+    when(messageDao.claim(message, State.PENDING, State.ACTIVATING)).thenReturn(1);
+    messageManager.setActivating(message);
+    assertThat(messageManager.getState(message)).contains(State.ACTIVATING);
+    verify(messageDao, never()).stateOf(message, QUEUE);
+  }
+
+  @Test
+  void getState_doneAfterClear() {
+    messageManager.clear(message, State.PROCESSING);
+    assertThat(messageManager.getState(message)).isEmpty();
+    verify(messageDao, never()).stateOf(message, QUEUE);
+  }
+
+  @Test
+  void getState_supersedeNotCached() {
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(messageFactory.createMessage(TYPE, PAYLOAD, options)).thenReturn(message);
+    when(message.supersedeKey()).thenReturn(Optional.of("key"));
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.empty());
+    messageManager.saveMessage(TYPE, PAYLOAD, options);
+    assertThat(messageManager.getState(message)).isEmpty();
+  }
+
+  @Test
+  void getState_supersededInvalidated() {
+    when(otherMessage.hash()).thenReturn(HASH);
+    when(otherMessage.messageType()).thenReturn(TYPE);
+    when(otherMessage.messageTypeId()).thenReturn(TYPE_ID);
+    when(messageDao.updateInState(List.of(HASH), State.ACTIVATING, State.PENDING)).thenReturn(1);
+    messageManager.release(otherMessage); // cached as pending
+    final EnqueueOptions options = ImmutableEnqueueOptions.builder().supersedeKey("key").build();
+    when(messageFactory.createMessage(TYPE, PAYLOAD, options)).thenReturn(message);
+    when(message.supersedeKey()).thenReturn(Optional.of("key"));
+    when(messageDao.supersededHashes(message, QUEUE, State.PENDING)).thenReturn(List.of(HASH));
+    when(messageDao.supersede(message, QUEUE, 0)).thenReturn(1);
+    when(messageDao.stateOf(otherMessage, QUEUE)).thenReturn(Optional.empty());
+
+    messageManager.saveMessage(TYPE, PAYLOAD, options);
+
+    assertThat(messageManager.getState(otherMessage)).isEmpty();
+  }
+
+  @Test
+  void getState_notCachedWhenStoreFails() {
+    when(messageFactory.createMessage(TYPE, PAYLOAD, EnqueueOptions.none())).thenReturn(message);
+    doThrow(unableToExecuteStatementException).when(messageDao).store(message, QUEUE, 0, State.PENDING);
+    when(unableToExecuteStatementException.getCause()).thenReturn(new RuntimeException());
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.empty());
+
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> messageManager.saveMessage(TYPE, PAYLOAD));
+
+    assertThat(messageManager.getState(message)).isEmpty();
+  }
+
+  @Test
+  void getState_invalidatedOnSetAllToPending() {
+    messageManager.clear(message, State.PROCESSING);
+    messageManager.setAllToPending();
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.of(State.PENDING));
+    assertThat(messageManager.getState(message)).contains(State.PENDING);
+  }
+
+  @Test
+  void getState_leasedNotCached() {
+    leased();
+    when(messageDao.deleteOwned(message, "owner")).thenReturn(1);
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.of(State.PENDING)); // claimed again elsewhere
+    messageManager.clearClaimed(message, State.PROCESSING);
     assertThat(messageManager.getState(message)).contains(State.PENDING);
   }
 
   @Test
   void getState_empty() {
-    when(messageDao.stateOf(message)).thenReturn(Optional.empty());
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.empty());
     assertThat(messageManager.getState(message)).isEmpty();
   }
 
   @Test
   void delete() {
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.of(State.PENDING));
     messageManager.clear(message);
-    verify(messageDao).delete(message);
+    verify(messageDao).delete(message, QUEUE);
+  }
+
+  @Test
+  void delete_gone() {
+    when(messageDao.stateOf(message, QUEUE)).thenReturn(Optional.empty());
+    messageManager.clear(message);
+    verify(messageDao, never()).delete(message, QUEUE);
+  }
+
+  @Test
+  void delete_inState() {
+    when(messageDao.counts(QUEUE)).thenReturn(List.of(stateCount(State.PROCESSING, 2)));
+    when(messageDao.delete(message, QUEUE)).thenReturn(1);
+    messageManager.reconcileCounts();
+    messageManager.clear(message, State.PROCESSING);
+    assertThat(messageManager.counts()).containsEntry(State.PROCESSING, 1L);
+  }
+
+  @Test
+  void getStates() {
+    when(message.hash()).thenReturn(HASH);
+    when(otherMessage.hash()).thenReturn(HASH + 1);
+    when(messageDao.statesOf(List.of(HASH, HASH + 1), QUEUE)).thenReturn(Map.of(HASH, State.PENDING));
+    assertThat(messageManager.getStates(List.of(message, otherMessage)))
+        .containsExactly(Map.entry(HASH, State.PENDING));
+  }
+
+  @Test
+  void getStates_cached() {
+    when(message.hash()).thenReturn(HASH);
+    when(otherMessage.hash()).thenReturn(HASH + 1);
+    messageManager.clear(message, State.PROCESSING);
+    when(messageDao.statesOf(List.of(HASH + 1), QUEUE)).thenReturn(Map.of(HASH + 1, State.ACTIVATING));
+    assertThat(messageManager.getStates(List.of(message, otherMessage)))
+        .containsExactly(Map.entry(HASH + 1, State.ACTIVATING));
+  }
+
+  @Test
+  void getStates_chunked() {
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < MessageManager.BULK_CHUNK_SIZE + 1; i++) {
+      final Message m = mock(Message.class);
+      when(m.hash()).thenReturn((long) i);
+      messages.add(m);
+    }
+    when(messageDao.statesOf(anyList(), eq(QUEUE))).thenReturn(Map.of());
+    assertThat(messageManager.getStates(messages)).isEmpty();
+    verify(messageDao, times(2)).statesOf(anyList(), eq(QUEUE));
+  }
+
+  @Test
+  void clear_bulk() {
+    when(message.hash()).thenReturn(HASH);
+    when(otherMessage.hash()).thenReturn(HASH + 1);
+    when(messageDao.counts(QUEUE)).thenReturn(List.of(stateCount(State.PENDING, 2)));
+    when(messageDao.statesOf(List.of(HASH, HASH + 1), QUEUE)).thenReturn(Map.of(HASH, State.PENDING));
+    when(messageDao.delete(List.of(message), QUEUE)).thenReturn(new int[]{1});
+    messageManager.reconcileCounts();
+
+    assertThat(messageManager.clear(List.of(message, otherMessage))).isEqualTo(1);
+
+    assertThat(messageManager.counts()).containsExactly(Map.entry(State.PENDING, 1L));
+    assertThat(messageManager.getStates(List.of(message, otherMessage))).isEmpty();
+  }
+
+  @Test
+  void clear_bulk_nothingFound() {
+    when(message.hash()).thenReturn(HASH);
+    when(messageDao.statesOf(List.of(HASH), QUEUE)).thenReturn(Map.of());
+    assertThat(messageManager.clear(List.of(message))).isZero();
+    verify(messageDao, never()).delete(anyList(), eq(QUEUE));
   }
 
   @Test
   void deleteAll() {
     messageManager.clearAll();
-    verify(messageDao).deleteAll();
+    verify(messageDao).deleteAll(QUEUE);
+  }
+
+  private void leased() {
+    messageManager = new MessageManager(messageDao, messageFactory, new StateCounters(QUEUE, new SimpleMeterRegistry()),
+        new MessageTypeTimers(QUEUE, new SimpleMeterRegistry()),
+        new QueueConfigurationFactory(Optional.of(ImmutableQueueConfiguration.builder()
+            .leaseSeconds(30)
+            .ownerId("owner")
+            .build())),
+        metricsFactory, clock);
+  }
+
+  private ImmutableStateCount stateCount(final State state, final long count) {
+    return ImmutableStateCount.builder()
+        .messageType(TYPE)
+        .messageTypeId(TYPE_ID)
+        .state(state)
+        .count(count)
+        .build();
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.codeheadsystems.queue.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.dao.MessageDao;
+import java.util.Optional;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MessageTypeDictionaryTest {
+
+  private static final String TYPE = "type";
+  private static final int ID = 4;
+
+  @Mock private MessageDao dao;
+  @Mock private UnableToExecuteStatementException unableToExecuteStatementException;
+
+  private MessageTypeDictionary dictionary;
+
+  @BeforeEach
+  void setup() {
+    dictionary = new MessageTypeDictionary(dao);
+  }
+
+  @Test
+  void idOf_existing() {
+    when(dao.messageTypeId(TYPE)).thenReturn(Optional.of(ID));
+
+    assertThat(dictionary.idOf(TYPE)).isEqualTo(ID);
+    assertThat(dictionary.idOf(TYPE)).isEqualTo(ID);
+
+    verify(dao, times(1)).messageTypeId(TYPE);
+    verify(dao, never()).insertMessageType(TYPE);
+  }
+
+  @Test
+  void idOf_new() {
+    when(dao.messageTypeId(TYPE)).thenReturn(Optional.empty());
+    when(dao.insertMessageType(TYPE)).thenReturn(ID);
+
+    assertThat(dictionary.idOf(TYPE)).isEqualTo(ID);
+    assertThat(dictionary.idOf(TYPE)).isEqualTo(ID);
+
+    verify(dao, times(1)).insertMessageType(TYPE);
+  }
+
+  @Test
+  void idOf_registeredByAnother() {
+    when(dao.messageTypeId(TYPE)).thenReturn(Optional.empty(), Optional.of(ID));
+    when(dao.insertMessageType(TYPE)).thenThrow(unableToExecuteStatementException);
+
+    assertThat(dictionary.idOf(TYPE)).isEqualTo(ID);
+  }
+
+  @Test
+  void idOf_failed() {
+    when(dao.messageTypeId(TYPE)).thenReturn(Optional.empty());
+    when(dao.insertMessageType(TYPE)).thenThrow(unableToExecuteStatementException);
+
+    assertThatExceptionOfType(UnableToExecuteStatementException.class)
+        .isThrownBy(() -> dictionary.idOf(TYPE));
+  }
+}
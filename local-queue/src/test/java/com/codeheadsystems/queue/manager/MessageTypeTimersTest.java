@@ -0,0 +1,52 @@
+package com.codeheadsystems.queue.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MessageTypeTimersTest {
+
+  private static final String QUEUE = "queue";
+  private static final String TYPE = "type";
+  private static final String OTHER_TYPE = "otherType";
+
+  private SimpleMeterRegistry meterRegistry;
+  private MessageTypeTimers messageTypeTimers;
+
+  @BeforeEach
+  void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    messageTypeTimers = new MessageTypeTimers(QUEUE, meterRegistry);
+  }
+
+  @Test
+  void timers_resolvedOncePerType() {
+    final Timer enqueue = messageTypeTimers.enqueue(TYPE);
+
+    assertThat(messageTypeTimers.enqueue(TYPE)).isSameAs(enqueue);
+    assertThat(messageTypeTimers.enqueue(OTHER_TYPE)).isNotSameAs(enqueue);
+    assertThat(meterRegistry.get("QueueImpl.enqueue").timers()).hasSize(2);
+  }
+
+  @Test
+  void timers_taggedByQueueAndType() {
+    messageTypeTimers.enqueue(TYPE).record(5, TimeUnit.MILLISECONDS);
+    messageTypeTimers.saveMessage(TYPE).record(4, TimeUnit.MILLISECONDS);
+    messageTypeTimers.dispatch(TYPE).record(6, TimeUnit.MILLISECONDS);
+    messageTypeTimers.execute(TYPE).record(7, TimeUnit.MILLISECONDS);
+
+    assertThat(timer("QueueImpl.enqueue").totalTime(TimeUnit.MILLISECONDS)).isEqualTo(5);
+    assertThat(timer("MessageManager.saveMessage").totalTime(TimeUnit.MILLISECONDS)).isEqualTo(4);
+    assertThat(timer("MessageConsumerExecutor.enqueue").totalTime(TimeUnit.MILLISECONDS)).isEqualTo(6);
+    assertThat(timer("MessageConsumerExecutor.execute").totalTime(TimeUnit.MILLISECONDS)).isEqualTo(7);
+  }
+
+  private Timer timer(final String name) {
+    return meterRegistry.get(name).tags("queue", QUEUE, "messageType", TYPE).timer();
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.codeheadsystems.queue.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.queue.Message;
+import com.codeheadsystems.queue.State;
+import com.codeheadsystems.queue.dao.ImmutableStateCount;
+import com.codeheadsystems.queue.dao.StateCount;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class StateCountersTest {
+
+  private static final String QUEUE = "queue";
+  private static final String TYPE = "type";
+  private static final String OTHER_TYPE = "otherType";
+
+  @Mock private Message message;
+
+  private SimpleMeterRegistry meterRegistry;
+  private StateCounters stateCounters;
+
+  @BeforeEach
+  void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    stateCounters = new StateCounters(QUEUE, meterRegistry);
+  }
+
+  @Test
+  void addAndMove() {
+    when(message.messageTypeId()).thenReturn(1);
+    when(message.messageType()).thenReturn(TYPE);
+
+    stateCounters.add(message, State.PENDING, 3);
+    stateCounters.move(message, State.PENDING, State.ACTIVATING);
+
+    assertThat(stateCounters.count(State.PENDING)).isEqualTo(2);
+    assertThat(stateCounters.counts())
+        .containsExactly(Map.entry(State.PENDING, 2L), Map.entry(State.ACTIVATING, 1L));
+    assertThat(stateCounters.countsByType())
+        .containsExactly(Map.entry(TYPE, Map.of(State.PENDING, 2L, State.ACTIVATING, 1L)));
+  }
+
+  @Test
+  void reconcile() {
+    when(message.messageTypeId()).thenReturn(1);
+    when(message.messageType()).thenReturn(TYPE);
+    stateCounters.add(message, State.PROCESSING, 7);
+
+    stateCounters.reconcile(List.of(stateCount(OTHER_TYPE, 2, State.PENDING, 4)));
+
+    assertThat(stateCounters.counts()).containsExactly(Map.entry(State.PENDING, 4L));
+    assertThat(stateCounters.countsByType()).containsOnlyKeys(OTHER_TYPE);
+  }
+
+  @Test
+  void gauges() {
+    stateCounters.reconcile(List.of(stateCount(TYPE, 1, State.PENDING, 4)));
+
+    assertThat(meterRegistry.get("StateCounters.messages").tag("queue", QUEUE).tag("state", "PENDING")
+        .gauge().value()).isEqualTo(4.0);
+    assertThat(meterRegistry.get("StateCounters.messagesByType").tag("messageType", TYPE).tag("state", "PENDING")
+        .gauge().value()).isEqualTo(4.0);
+  }
+
+  private StateCount stateCount(final String type, final int typeId, final State state, final long count) {
+    return ImmutableStateCount.builder()
+        .messageType(type)
+        .messageTypeId(typeId)
+        .state(state)
+        .count(count)
+        .build();
+  }
+}
@@ -0,0 +1,61 @@
+package com.codeheadsystems.queue.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class IdIndexedCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private IdIndexedCache<String> cache;
+
+  @BeforeEach
+  void setup() {
+    cache = new IdIndexedCache<>();
+  }
+
+  @Test
+  void get_loadsOnce() {
+    assertThat(cache.get(5, this::load)).isEqualTo("value5");
+    assertThat(cache.get(5, this::load)).isEqualTo("value5");
+    assertThat(cache.get(2, this::load)).isEqualTo("value2");
+    assertThat(loads).hasValue(2);
+  }
+
+  @Test
+  void get_nullNotCached() {
+    assertThat(cache.get(1, id -> null)).isNull();
+    assertThat(cache.get(1, this::load)).isEqualTo("value1");
+  }
+
+  @Test
+  void getIfPresent() {
+    assertThat(cache.getIfPresent(3)).isNull();
+    cache.get(3, this::load);
+    assertThat(cache.getIfPresent(3)).isEqualTo("value3");
+    assertThat(cache.getIfPresent(30)).isNull();
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  void get_negative() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> cache.get(-1, this::load));
+  }
+
+  @Test
+  void clear() {
+    cache.get(1, this::load);
+    cache.clear();
+    cache.get(1, this::load);
+    assertThat(loads).hasValue(2);
+  }
+
+  private String load(final int id) {
+    loads.incrementAndGet();
+    return "value" + id;
+  }
+}
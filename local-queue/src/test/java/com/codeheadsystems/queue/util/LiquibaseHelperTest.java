@@ -0,0 +1,102 @@
+package com.codeheadsystems.queue.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LiquibaseHelperTest {
+
+  private static final String CHANGELOG = "liquibase/queue.xml";
+
+  @Mock private DataSource dataSource;
+
+  private String url;
+  private Connection connection;
+  private LiquibaseHelper helper;
+
+  @BeforeEach
+  void setup() throws SQLException {
+    url = "jdbc:hsqldb:mem:" + getClass().getSimpleName() + ":" + UUID.randomUUID();
+    connection = DriverManager.getConnection(url, "SA", "");
+    helper = new LiquibaseHelper();
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("shutdown");
+    }
+  }
+
+  @Test
+  void runLiquibase_writesMarker() throws SQLException {
+    helper.runLiquibase(connection, CHANGELOG);
+
+    assertThat(query("select CHECKSUM from SCHEMA_MARKER where CHANGELOG = '" + CHANGELOG + "'"))
+        .isEqualTo(helper.checksum(CHANGELOG).orElseThrow());
+  }
+
+  @Test
+  void runLiquibase_skipsWhenCurrent() throws SQLException {
+    helper.runLiquibase(connection, CHANGELOG);
+    // Liquibase would now try to create the marker table again, and fail.
+    execute("delete from DATABASECHANGELOG where ID = '2026-10-19-08'");
+
+    helper.runLiquibase(connection, CHANGELOG);
+
+    assertThat(query("select count(*) from DATABASECHANGELOG where ID = '2026-10-19-08'")).isEqualTo("0");
+  }
+
+  @Test
+  void runLiquibase_runsWhenChanged() throws SQLException {
+    helper.runLiquibase(connection, CHANGELOG);
+    execute("update SCHEMA_MARKER set CHECKSUM = 'old'");
+
+    helper.runLiquibase(connection, CHANGELOG);
+
+    assertThat(query("select CHECKSUM from SCHEMA_MARKER")).isEqualTo(helper.checksum(CHANGELOG).orElseThrow());
+  }
+
+  @Test
+  void runLiquibase_closesDataSourceConnection() throws SQLException {
+    final Connection pooled = DriverManager.getConnection(url, "SA", "");
+    when(dataSource.getConnection()).thenReturn(pooled);
+
+    helper.runLiquibase(dataSource, CHANGELOG);
+
+    assertThat(pooled.isClosed()).isTrue();
+  }
+
+  @Test
+  void checksum_missingFile() {
+    assertThat(helper.checksum("liquibase/missing.xml")).isEmpty();
+  }
+
+  private void execute(final String sql) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  private String query(final String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      return resultSet.getString(1);
+    }
+  }
+}
@@ -1,3 +1,5 @@
 
 rootProject.name = "local-queue"
 include("local-queue")
+include("local-queue-benchmarks")
+include("local-queue-jmx")